@@ -0,0 +1,495 @@
+package com.example.mqttcore.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable archive file of the messages of one day and a range of topics, column by column and
+ * ordered like the {@code (topic_id, received_at DESC, id DESC)} index of a partition: the rows of
+ * a topic are a contiguous slice, newest first.
+ *
+ * <p>Layout for {@code n} rows: ids ({@code long}), receive times (epoch microseconds,
+ * {@code long}), flags (qos and retained, {@code byte}), payload sizes ({@code int}), stored
+ * lengths ({@code int}) and offsets ({@code long}) of the payloads, then the payloads in the
+ * stored form of {@code PayloadCodec}; then the id index (the ids in ascending order, {@code long},
+ * and the row of each, {@code int}), the topic directory ({@code int topicId, int firstRow,
+ * int rows} per topic, by topic id) and the footer: the topic bloom filter ({@code long} words)
+ * and {@code long directoryOffset, long idIndexOffset, int rows, int topics, int bloomWords,
+ * long minTime, long maxTime, long minId, long maxId, int magic}. Fixed-width columns let a
+ * lookup binary search a slice or the id index in place.
+ *
+ * <p>The file is memory-mapped; only the footer is held on the heap. Segments are written to a
+ * temporary file and renamed into place, so a segment file is either complete or absent.
+ */
+final class ArchiveSegment {
+
+    static final String SUFFIX = ".seg";
+
+    /** Files are mapped as one buffer. */
+    static final long MAX_BYTES = Integer.MAX_VALUE;
+
+    private static final int MAGIC = 0x4D51_4153;
+    private static final int FOOTER_BYTES = 8 + 8 + 4 + 4 + 4 + 8 + 8 + 8 + 8 + 4;
+    private static final int ROW_BYTES = 8 + 8 + 1 + 4 + 4 + 8;
+    private static final int ID_INDEX_BYTES = 8 + 4;
+    private static final int DIRECTORY_ENTRY_BYTES = 12;
+    private static final int BLOOM_BITS_PER_TOPIC = 10;
+    private static final int BLOOM_HASHES = 3;
+    private static final int RETAINED = 0x80;
+
+    private final Path file;
+    private final ByteBuffer data;
+    private final int rows;
+    private final int topics;
+    private final long directoryOffset;
+    private final long idIndexOffset;
+    private final long[] bloom;
+    private final long minTime;
+    private final long maxTime;
+    private final long minId;
+    private final long maxId;
+
+    private ArchiveSegment(Path file, ByteBuffer data, int rows, int topics, long directoryOffset, long idIndexOffset,
+                           long[] bloom, long minTime, long maxTime, long minId, long maxId) {
+        this.file = file;
+        this.data = data;
+        this.rows = rows;
+        this.topics = topics;
+        this.directoryOffset = directoryOffset;
+        this.idIndexOffset = idIndexOffset;
+        this.bloom = bloom;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
+    /** @throws IOException if the file is unreadable or not a complete segment */
+    static ArchiveSegment open(Path file) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_BYTES || size > MAX_BYTES) {
+                throw new IOException("Not an archive segment: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        try {
+            int footer = data.limit() - FOOTER_BYTES;
+            long directoryOffset = data.getLong(footer);
+            long idIndexOffset = data.getLong(footer + 8);
+            int rows = data.getInt(footer + 16);
+            int topics = data.getInt(footer + 20);
+            int bloomWords = data.getInt(footer + 24);
+            if (data.getInt(footer + 60) != MAGIC || idIndexOffset < (long) rows * ROW_BYTES
+                    || idIndexOffset + (long) rows * ID_INDEX_BYTES != directoryOffset
+                    || directoryOffset + (long) topics * DIRECTORY_ENTRY_BYTES + 8L * bloomWords != footer) {
+                throw new IOException("Corrupt archive segment " + file);
+            }
+            long[] bloom = new long[bloomWords];
+            int bloomOffset = footer - 8 * bloomWords;
+            for (int i = 0; i < bloomWords; i++) {
+                bloom[i] = data.getLong(bloomOffset + 8 * i);
+            }
+            return new ArchiveSegment(file, data, rows, topics, directoryOffset, idIndexOffset, bloom,
+                    data.getLong(footer + 28), data.getLong(footer + 36), data.getLong(footer + 44),
+                    data.getLong(footer + 52));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt archive segment " + file, e);
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    long bytes() {
+        return data.limit();
+    }
+
+    /** Whether some message received in [from, to] may be in this segment, by epoch microseconds. */
+    boolean overlaps(long from, long to) {
+        return maxTime >= from && minTime <= to;
+    }
+
+    long minId() {
+        return minId;
+    }
+
+    long maxId() {
+        return maxId;
+    }
+
+    boolean mayContainId(long id) {
+        return id >= minId && id <= maxId;
+    }
+
+    /** False if the segment certainly has no messages of the topic. */
+    boolean mayContainTopic(int topicId) {
+        long hash = mix(topicId);
+        long bits = 64L * bloom.length;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), bits);
+            if ((bloom[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Index into the topic directory, or -1 if the topic has no rows here. */
+    int findTopic(int topicId) {
+        int low = 0;
+        int high = topics - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = topicAt(mid);
+            if (id < topicId) {
+                low = mid + 1;
+            } else if (id > topicId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    int topics() {
+        return topics;
+    }
+
+    int topicAt(int entry) {
+        return data.getInt(entryOffset(entry));
+    }
+
+    int firstRowAt(int entry) {
+        return data.getInt(entryOffset(entry) + 4);
+    }
+
+    int rowsAt(int entry) {
+        return data.getInt(entryOffset(entry) + 8);
+    }
+
+    /** Directory entry of the slice holding {@code row}. */
+    int entryOfRow(int row) {
+        int low = 0;
+        int high = topics - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstRowAt(mid) <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First row of the slice [first, end) that comes after (time, id) in newest-first order; the
+     * slice is sorted that way, so this is where a page continuing from that position starts.
+     */
+    int after(int first, int end, long time, long id) {
+        int low = first;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long t = time(mid);
+            if (t > time || t == time && id(mid) >= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** First row of the slice [first, end) received before {@code time}. */
+    int before(int first, int end, long time) {
+        int low = first;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (time(mid) >= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Row with the given id, or -1; a binary search of the id index. */
+    int findId(long id) {
+        int low = 0;
+        int high = rows - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long found = data.getLong((int) (idIndexOffset + 8L * mid));
+            if (found < id) {
+                low = mid + 1;
+            } else if (found > id) {
+                high = mid - 1;
+            } else {
+                return data.getInt((int) (idIndexOffset + 8L * rows + 4L * mid));
+            }
+        }
+        return -1;
+    }
+
+    long id(int row) {
+        return data.getLong(8 * row);
+    }
+
+    long time(int row) {
+        return data.getLong(8 * rows + 8 * row);
+    }
+
+    int qos(int row) {
+        return flags(row) & 0x03;
+    }
+
+    boolean retained(int row) {
+        return (flags(row) & RETAINED) != 0;
+    }
+
+    int payloadSize(int row) {
+        return data.getInt(17 * rows + 4 * row);
+    }
+
+    /** The payload of the row in its stored form. */
+    byte[] storedPayload(int row) {
+        int length = data.getInt(21 * rows + 4 * row);
+        long offset = data.getLong(25 * rows + 8 * row);
+        byte[] stored = new byte[length];
+        data.get((int) ((long) ROW_BYTES * rows + offset), stored);
+        return stored;
+    }
+
+    private int flags(int row) {
+        return data.get(16 * rows + row);
+    }
+
+    private int entryOffset(int entry) {
+        return (int) (directoryOffset + (long) entry * DIRECTORY_ENTRY_BYTES);
+    }
+
+    static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static long mix(int topicId) {
+        long h = topicId * 0x9E37_79B9_7F4A_7C15L;
+        h ^= h >>> 31;
+        h *= 0xBF58_476D_1CE4_E5B9L;
+        return h ^ h >>> 29;
+    }
+
+    /**
+     * Writes a segment from rows added in segment order: by topic, newest first within a topic.
+     * The fixed-width columns are collected on the heap and the payloads go to a side file, which
+     * are put together on {@link #finish}.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path tmp;
+        private final Path payloadTmp;
+        private final OutputStream payloads;
+        private long[] ids = new long[1024];
+        private long[] times = new long[1024];
+        private byte[] flags = new byte[1024];
+        private int[] sizes = new int[1024];
+        private int[] lengths = new int[1024];
+        private long[] offsets = new long[1024];
+        private int[] directory = new int[3 * 64];
+        private int rows;
+        private int topics;
+        private long payloadBytes;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private long minId = Long.MAX_VALUE;
+        private long maxId = Long.MIN_VALUE;
+        private boolean finished;
+
+        /** @param tmp where the segment is written before {@link #finish} moves it */
+        Writer(Path tmp) throws IOException {
+            this.tmp = tmp;
+            this.payloadTmp = tmp.resolveSibling(tmp.getFileName() + ".payloads");
+            this.payloads = new BufferedOutputStream(Files.newOutputStream(payloadTmp), 64 * 1024);
+        }
+
+        int rows() {
+            return rows;
+        }
+
+        int firstTopic() {
+            return directory[0];
+        }
+
+        int lastTopic() {
+            return directory[3 * (topics - 1)];
+        }
+
+        /** Whether one more row with a stored payload of {@code storedLength} bytes keeps the file mappable. */
+        boolean fits(int storedLength) {
+            long entries = topics + 1L;
+            return (long) (ROW_BYTES + ID_INDEX_BYTES) * (rows + 1) + payloadBytes + storedLength + DIRECTORY_ENTRY_BYTES * entries
+                    + 8 * (entries * BLOOM_BITS_PER_TOPIC / 64 + 1) + FOOTER_BYTES <= MAX_BYTES;
+        }
+
+        void add(long id, int topicId, LocalDateTime receivedAt, int qos, boolean retained, int size,
+                 byte[] stored) throws IOException {
+            if (rows == ids.length) {
+                int capacity = rows * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                times = Arrays.copyOf(times, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+            }
+            if (topics == 0 || directory[3 * (topics - 1)] != topicId) {
+                if (topics > 0 && directory[3 * (topics - 1)] > topicId) {
+                    throw new IllegalArgumentException("Rows out of topic order");
+                }
+                if (3 * topics == directory.length) {
+                    directory = Arrays.copyOf(directory, directory.length * 2);
+                }
+                directory[3 * topics] = topicId;
+                directory[3 * topics + 1] = rows;
+                topics++;
+            }
+            directory[3 * (topics - 1) + 2]++;
+            long time = toMicros(receivedAt);
+            ids[rows] = id;
+            times[rows] = time;
+            flags[rows] = (byte) (qos & 0x03 | (retained ? RETAINED : 0));
+            sizes[rows] = size;
+            lengths[rows] = stored.length;
+            offsets[rows] = payloadBytes;
+            payloads.write(stored);
+            payloadBytes += stored.length;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+            rows++;
+        }
+
+        ArchiveSegment finish(Path target) throws IOException {
+            payloads.close();
+            int bloomWords = Math.max(1, (topics * BLOOM_BITS_PER_TOPIC + 63) / 64);
+            long[] bloom = new long[bloomWords];
+            long bits = 64L * bloomWords;
+            for (int entry = 0; entry < topics; entry++) {
+                long hash = mix(directory[3 * entry]);
+                for (int i = 0; i < BLOOM_HASHES; i++) {
+                    long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), bits);
+                    bloom[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+            long idIndexOffset = (long) ROW_BYTES * rows + payloadBytes;
+            long directoryOffset = idIndexOffset + (long) ID_INDEX_BYTES * rows;
+            if (directoryOffset + (long) DIRECTORY_ENTRY_BYTES * topics + 8L * bloomWords + FOOTER_BYTES > MAX_BYTES) {
+                throw new IOException("Archive segment " + target + " would exceed " + MAX_BYTES + " bytes");
+            }
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer columns = ByteBuffer.allocate(ROW_BYTES * rows);
+                columns.asLongBuffer().put(ids, 0, rows);
+                columns.position(8 * rows);
+                columns.asLongBuffer().put(times, 0, rows);
+                columns.position(16 * rows);
+                columns.put(flags, 0, rows);
+                columns.asIntBuffer().put(sizes, 0, rows);
+                columns.position(21 * rows);
+                columns.asIntBuffer().put(lengths, 0, rows);
+                columns.position(25 * rows);
+                columns.asLongBuffer().put(offsets, 0, rows);
+                columns.clear();
+                writeFully(out, columns);
+                try (FileChannel source = FileChannel.open(payloadTmp, StandardOpenOption.READ)) {
+                    long copied = 0;
+                    while (copied < payloadBytes) {
+                        copied += out.transferFrom(source, ROW_BYTES * (long) rows + copied, payloadBytes - copied);
+                    }
+                }
+                out.position(idIndexOffset);
+                writeFully(out, idIndex());
+                ByteBuffer tail = ByteBuffer.allocate(DIRECTORY_ENTRY_BYTES * topics + 8 * bloomWords + FOOTER_BYTES);
+                tail.asIntBuffer().put(directory, 0, 3 * topics);
+                tail.position(DIRECTORY_ENTRY_BYTES * topics);
+                for (long word : bloom) {
+                    tail.putLong(word);
+                }
+                tail.putLong(directoryOffset).putLong(idIndexOffset).putInt(rows).putInt(topics).putInt(bloomWords)
+                        .putLong(minTime).putLong(maxTime).putLong(minId).putLong(maxId).putInt(MAGIC)
+                        .flip();
+                out.position(directoryOffset);
+                writeFully(out, tail);
+                out.force(true);
+            }
+            Files.deleteIfExists(payloadTmp);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return open(target);
+        }
+
+        /** The ids in ascending order followed by the row of each. */
+        private ByteBuffer idIndex() {
+            Integer[] order = new Integer[rows];
+            for (int row = 0; row < rows; row++) {
+                order[row] = row;
+            }
+            Arrays.sort(order, Comparator.comparingLong(row -> ids[row]));
+            ByteBuffer index = ByteBuffer.allocate(ID_INDEX_BYTES * rows);
+            for (int row : order) {
+                index.putLong(ids[row]);
+            }
+            for (int row : order) {
+                index.putInt(row);
+            }
+            return index.flip();
+        }
+
+        /** Discards the partial segment unless it was finished. */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                payloads.close();
+                Files.deleteIfExists(payloadTmp);
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+}
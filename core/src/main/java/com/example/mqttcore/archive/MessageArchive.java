@@ -0,0 +1,754 @@
+package com.example.mqttcore.archive;
+
+import com.example.mqttcore.dto.ArchiveStatsDto;
+import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.payload.PayloadCodec;
+import com.example.mqttcore.repository.MessagePartitions;
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import com.example.mqttcore.repository.ReceivedMessageRepository.MessageKey;
+import com.example.mqttcore.repository.ReceivedMessageRepository.PurgedMessage;
+import com.example.mqttcore.service.MessageCursor;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Cold tier of the message history. Every {@code mqtt.archive.interval-ms} the partitions that
+ * ended more than {@code mqtt.archive.after-days} ago (0, the default, archives nothing) are
+ * written out, oldest first, as {@link ArchiveSegment}s of one day and a range of topics, at most
+ * {@code mqtt.archive.segment-rows} messages each, under {@code mqtt.archive.directory}; then the
+ * partition is dropped, so the database and its indexes only hold the recent history.
+ *
+ * <p>An archived partition is a directory of segments with a manifest naming the partition and
+ * its interval. The manifest is written as {@code manifest.pending} after the last segment and
+ * renamed to {@code manifest} under the write lock that drops the partition: a query holding the
+ * partitions' read lock sees the messages either in the database or in the archive. Messages
+ * keep arriving and being purged while the segments are written, so the drop only goes ahead if
+ * the partition has not been modified since the copy started; otherwise the copy is discarded
+ * and the partition archived again on the next run. On startup a directory without a manifest
+ * is deleted, and a pending one is published only if its partition is gone.
+ *
+ * <p>Queries skip segments by the time range and topic bloom filter in their footers and binary
+ * search the topic slices of the memory-mapped files; a message is found by id in the id index of
+ * the segments whose id range holds it. Topic statistics, volume buckets and the payload search
+ * index keep covering archived messages. The field index does not, so field predicates are
+ * refused over archived ranges. Exports read them after the database. Per-subscription retention
+ * policies purge them by writing a segment again without the purged rows, and
+ * {@code mqtt.partitions.retention-days} deletes them like partitions.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageArchive {
+
+    private static final String MANIFEST = "manifest";
+    private static final String PENDING_MANIFEST = "manifest.pending";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter RUN = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    /** Attempts to catch a moment in which no statement uses the partition, 100 ms apart. */
+    private static final int DROP_ATTEMPTS = 50;
+
+    @Value("${mqtt.archive.after-days:0}")
+    private int afterDays;
+
+    @Value("${mqtt.archive.directory:./data/archive}")
+    private String directory;
+
+    @Value("${mqtt.archive.segment-rows:1000000}")
+    private int segmentRows;
+
+    private final MessagePartitions partitions;
+    private final JdbcTemplate jdbcTemplate;
+    private final PayloadCodec payloadCodec;
+
+    private Path dir;
+    /** Newest first; replaced as a whole, so a query works on the list it started with. */
+    private volatile List<ArchivedPartition> archived = List.of();
+
+    /** Interval of an archived partition. */
+    public record ArchivedRange(LocalDateTime start, LocalDateTime end) {
+    }
+
+    private record ArchivedPartition(Path dir, String table, LocalDateTime start, LocalDateTime end,
+                                     List<ArchiveSegment> segments) {
+    }
+
+    /** Rows [first, end) of one topic in one segment, newest first. */
+    private record Slice(ArchiveSegment segment, int topicId, int first, int end) {
+
+        int rows() {
+            return end - first;
+        }
+
+        long newest() {
+            return segment.time(first);
+        }
+
+        long oldest() {
+            return segment.time(end - 1);
+        }
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        List<Path> dirs;
+        try (Stream<Path> list = Files.list(dir)) {
+            dirs = list.filter(Files::isDirectory).toList();
+        }
+        List<String> tables = partitions.all().stream().map(Partition::getTable).toList();
+        List<ArchivedPartition> loaded = new ArrayList<>();
+        for (Path partitionDir : dirs) {
+            Path pending = partitionDir.resolve(PENDING_MANIFEST);
+            if (Files.exists(pending) && !tables.contains(readManifest(pending).table())) {
+                // the partition was dropped, but not published before the application stopped
+                Files.move(pending, partitionDir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (!Files.exists(partitionDir.resolve(MANIFEST))) {
+                deleteDirectory(partitionDir);
+                continue;
+            }
+            ArchivedPartition manifest = readManifest(partitionDir.resolve(MANIFEST));
+            List<ArchiveSegment> segments = new ArrayList<>();
+            try (Stream<Path> files = Files.list(partitionDir)) {
+                for (Path file : files.filter(f -> f.getFileName().toString().endsWith(ArchiveSegment.SUFFIX)).sorted().toList()) {
+                    try {
+                        segments.add(ArchiveSegment.open(file));
+                    } catch (IOException e) {
+                        log.warn("Archive segment {} is unreadable, its messages are left out: {}", file, e.getMessage());
+                    }
+                }
+            }
+            loaded.add(new ArchivedPartition(partitionDir, manifest.table(), manifest.start(), manifest.end(),
+                    List.copyOf(segments)));
+        }
+        loaded.sort(Comparator.comparing(ArchivedPartition::start).reversed());
+        archived = List.copyOf(loaded);
+        log.info("Loaded {} archived message partitions", loaded.size());
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.archive.interval-ms:3600000}")
+    public void run() {
+        if (afterDays > 0) {
+            archiveBefore(LocalDateTime.now().minusDays(afterDays));
+        }
+    }
+
+    /**
+     * Archives the partitions ending at or before {@code cutoff}, oldest first. Stops at a
+     * partition that stays in use, changes while it is copied or cannot be written, which is
+     * tried again on the next run.
+     *
+     * @return the number of partitions archived
+     */
+    public synchronized int archiveBefore(LocalDateTime cutoff) {
+        int count = 0;
+        for (Partition partition : partitions.endingBy(cutoff)) {
+            try {
+                if (!archive(partition)) {
+                    log.info("Message partition {} is in use or changed while it was copied; archiving it on the next run",
+                            partition.getTable());
+                    break;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Archiving message partition {} failed: {}", partition.getTable(), e.toString());
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the archived partitions ending at or before {@code cutoff}, for retention.
+     *
+     * @return their intervals, oldest first
+     */
+    public synchronized List<ArchivedRange> dropBefore(LocalDateTime cutoff) {
+        List<ArchivedPartition> expired = archived.stream().filter(p -> !p.end().isAfter(cutoff)).toList();
+        if (expired.isEmpty()) {
+            return List.of();
+        }
+        archived = archived.stream().filter(p -> p.end().isAfter(cutoff)).toList();
+        List<ArchivedRange> ranges = new ArrayList<>();
+        for (ArchivedPartition partition : expired.reversed()) {
+            try {
+                // without its manifest the directory is deleted on the next start if not now
+                Files.deleteIfExists(partition.dir().resolve(MANIFEST));
+                deleteDirectory(partition.dir());
+            } catch (IOException e) {
+                log.warn("Could not delete archived partition {}: {}", partition.dir(), e.getMessage());
+            }
+            ranges.add(new ArchivedRange(partition.start(), partition.end()));
+        }
+        return ranges;
+    }
+
+    /**
+     * Deletes the archived messages of a topic at or before {@code upTo} in history order from
+     * the oldest segment holding any, by writing the segment again without them. A segment left
+     * without messages is deleted.
+     *
+     * @return what was deleted, empty when nothing is left to delete
+     */
+    public synchronized List<PurgedMessage> purge(int topicId, MessageCursor upTo) throws IOException {
+        long time = ArchiveSegment.toMicros(upTo.receivedAt());
+        for (ArchivedPartition partition : archived.reversed()) {
+            if (partition.start().isAfter(upTo.receivedAt())) {
+                break;
+            }
+            for (ArchiveSegment segment : partition.segments()) {
+                int entry = segment.mayContainTopic(topicId) ? segment.findTopic(topicId) : -1;
+                if (entry < 0) {
+                    continue;
+                }
+                int end = segment.firstRowAt(entry) + segment.rowsAt(entry);
+                int first = segment.after(segment.firstRowAt(entry), end, time, upTo.id());
+                if (first > segment.firstRowAt(entry) && segment.time(first - 1) == time
+                        && segment.id(first - 1) == upTo.id()) {
+                    first--;
+                }
+                if (first == end) {
+                    continue;
+                }
+                List<PurgedMessage> purged = new ArrayList<>(end - first);
+                for (int row = first; row < end; row++) {
+                    purged.add(new PurgedMessage(segment.id(row), ArchiveSegment.fromMicros(segment.time(row)),
+                            segment.payloadSize(row)));
+                }
+                replace(partition, segment, rewrite(segment, first, end));
+                return purged;
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Position of the {@code n}th newest archived message of a topic, 1 being the newest, if
+     * the archive holds that many.
+     */
+    public Optional<MessageKey> findNthNewest(int topicId, long n) {
+        List<Slice> slices = new ArrayList<>(slices(List.of(topicId), MessageCursor.first(null), null));
+        slices.sort(Comparator.comparingLong(Slice::newest).reversed());
+        long seen = 0;
+        for (Slice slice : slices) {
+            if (seen + slice.rows() >= n) {
+                int row = (int) (slice.first() + n - seen - 1);
+                return Optional.of(new MessageKey(slice.segment().id(row), topicId,
+                        ArchiveSegment.fromMicros(slice.segment().time(row))));
+            }
+            seen += slice.rows();
+        }
+        return Optional.empty();
+    }
+
+    public boolean isEmpty() {
+        return archived.isEmpty();
+    }
+
+    /** Intervals of the archived partitions overlapping [from, to], newest first. */
+    public List<ArchivedRange> ranges(LocalDateTime from, LocalDateTime to) {
+        return archived.stream()
+                .filter(p -> (from == null || p.end().isAfter(from)) && (to == null || !p.start().isAfter(to)))
+                .map(p -> new ArchivedRange(p.start(), p.end()))
+                .toList();
+    }
+
+    /** End of the newest archived partition, exclusive; null while the archive is empty. */
+    public LocalDateTime archivedUntil() {
+        List<ArchivedPartition> current = archived;
+        return current.isEmpty() ? null : current.get(0).end();
+    }
+
+    /**
+     * Number of archived messages of the topics received in [from, to].
+     *
+     * @param topicIds null for all topics
+     */
+    public long count(Collection<Integer> topicIds, LocalDateTime from, LocalDateTime to) {
+        return slices(topicIds, MessageCursor.first(to), from).stream().mapToLong(Slice::rows).sum();
+    }
+
+    /**
+     * Archived messages of the topics after {@code position} in newest-first order and received
+     * at or after {@code from}: the first {@code limit} after skipping {@code skip}. Runs of
+     * segments that do not overlap in time are skipped by their counts; within a run the topic
+     * slices are merged.
+     *
+     * @param topicIds null for all topics
+     */
+    public List<ReceivedMessage> newest(Collection<Integer> topicIds, MessageCursor position, LocalDateTime from,
+                                        long skip, int limit) {
+        List<Slice> slices = new ArrayList<>(slices(topicIds, position, from));
+        slices.sort(Comparator.comparingLong(Slice::newest).reversed());
+        List<ReceivedMessage> rows = new ArrayList<>();
+        int i = 0;
+        while (i < slices.size() && rows.size() < limit) {
+            long oldest = slices.get(i).oldest();
+            long total = slices.get(i).rows();
+            int j = i + 1;
+            for (; j < slices.size() && slices.get(j).newest() >= oldest; j++) {
+                oldest = Math.min(oldest, slices.get(j).oldest());
+                total += slices.get(j).rows();
+            }
+            if (skip >= total) {
+                skip -= total;
+            } else {
+                merge(slices.subList(i, j), skip, limit - rows.size(), rows);
+                skip = 0;
+            }
+            i = j;
+        }
+        return rows;
+    }
+
+    /**
+     * Keys of the archived messages of the topics received in [from, to] whose id is
+     * {@code wanted}, in no particular order.
+     *
+     * @param topicIds null for all topics
+     */
+    public List<MessageKey> findKeys(Collection<Integer> topicIds, LocalDateTime from, LocalDateTime to,
+                                     LongPredicate wanted) {
+        List<MessageKey> keys = new ArrayList<>();
+        for (Slice slice : slices(topicIds, MessageCursor.first(to), from)) {
+            for (int row = slice.first(); row < slice.end(); row++) {
+                long id = slice.segment().id(row);
+                if (wanted.test(id)) {
+                    keys.add(new MessageKey(id, slice.topicId(), ArchiveSegment.fromMicros(slice.segment().time(row))));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /** Lowest and highest id of every archived segment. */
+    public List<long[]> idRanges() {
+        List<long[]> ranges = new ArrayList<>();
+        for (ArchivedPartition partition : archived) {
+            for (ArchiveSegment segment : partition.segments()) {
+                ranges.add(new long[]{segment.minId(), segment.maxId()});
+            }
+        }
+        return ranges;
+    }
+
+    /** The archived message with the id, if any. */
+    public Optional<ReceivedMessage> findById(long id) {
+        for (ArchivedPartition partition : archived) {
+            for (ArchiveSegment segment : partition.segments()) {
+                if (!segment.mayContainId(id)) {
+                    continue;
+                }
+                int row = segment.findId(id);
+                if (row >= 0) {
+                    return Optional.of(message(segment, segment.topicAt(segment.entryOfRow(row)), row));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    public ArchiveStatsDto getStats() {
+        List<ArchivedPartition> current = archived;
+        ArchiveStatsDto dto = new ArchiveStatsDto();
+        dto.setAfterDays(afterDays);
+        dto.setPartitions(current.size());
+        for (ArchivedPartition partition : current) {
+            dto.setSegments(dto.getSegments() + partition.segments().size());
+            for (ArchiveSegment segment : partition.segments()) {
+                dto.setMessages(dto.getMessages() + segment.rows());
+                dto.setBytes(dto.getBytes() + segment.bytes());
+            }
+        }
+        dto.setOldest(current.isEmpty() ? null : current.get(current.size() - 1).start());
+        return dto;
+    }
+
+    /**
+     * Writes the partition's segments, then drops it and publishes them in one step.
+     *
+     * @return false if the partition stayed in use or was modified while the segments were written
+     */
+    private boolean archive(Partition partition) throws IOException {
+        long started = System.nanoTime();
+        Path target = dir.resolve(partition.getTable() + "-" + RUN.format(LocalDateTime.now()));
+        Files.createDirectories(target);
+        try {
+            List<ArchiveSegment> segments;
+            long modifications;
+            Lock lock = partitions.readLock();
+            lock.lock();
+            try {
+                if (!partitions.exists(partition)) {
+                    deleteDirectory(target);
+                    return true;
+                }
+                // taken before the first row is read: any write or purge from here on fails the drop
+                modifications = partition.modifications();
+                segments = writeSegments(partition, target);
+            } finally {
+                lock.unlock();
+            }
+            writeManifest(target.resolve(PENDING_MANIFEST), partition);
+            ArchivedPartition result = new ArchivedPartition(target, partition.getTable(), partition.getStart(),
+                    partition.getEnd(), List.copyOf(segments));
+            if (!drop(partition, modifications, result)) {
+                deleteDirectory(target);
+                return false;
+            }
+            log.info("Archived {} messages received {} .. {} into {} segments in {} ms",
+                    segments.stream().mapToLong(ArchiveSegment::rows).sum(), partition.getStart(), partition.getEnd(),
+                    segments.size(), (System.nanoTime() - started) / 1_000_000);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(target);
+            throw e;
+        }
+    }
+
+    private boolean drop(Partition partition, long modifications, ArchivedPartition result) {
+        Runnable publish = () -> {
+            try {
+                Files.move(result.dir().resolve(PENDING_MANIFEST), result.dir().resolve(MANIFEST),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // the partition is gone already; the next start publishes the pending manifest
+                log.warn("Could not publish archived partition {}: {}", result.dir(), e.getMessage());
+            }
+            List<ArchivedPartition> next = new ArrayList<>(archived);
+            next.add(result);
+            next.sort(Comparator.comparing(ArchivedPartition::start).reversed());
+            archived = List.copyOf(next);
+        };
+        for (int attempt = 0; attempt < DROP_ATTEMPTS; attempt++) {
+            if (partitions.drop(partition, modifications, publish)) {
+                return true;
+            }
+            if (!partitions.exists(partition) || partition.modifications() != modifications) {
+                return false;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One day of the partition at a time, topic by topic off the {@code (topic_id, received_at
+     * DESC, id DESC)} index, which is the order of a segment; a segment is cut when it is full.
+     */
+    private List<ArchiveSegment> writeSegments(Partition partition, Path target) throws IOException {
+        List<ArchiveSegment> segments = new ArrayList<>();
+        String select = "SELECT id, payload, qos, retained, received_at, " + partition.payloadSizeColumn()
+                + " FROM " + partition.getTable()
+                + " WHERE topic_id = ? AND received_at >= ? AND received_at < ? ORDER BY received_at DESC, id DESC";
+        boolean text = partition.isTextPayload();
+        for (LocalDateTime day = partition.getStart().toLocalDate().atStartOfDay(); day.isBefore(partition.getEnd());
+             day = day.plusDays(1)) {
+            LocalDateTime from = day;
+            LocalDateTime to = day.plusDays(1);
+            List<Integer> topicIds = jdbcTemplate.queryForList("SELECT DISTINCT topic_id FROM " + partition.getTable()
+                    + " WHERE received_at >= ? AND received_at < ? ORDER BY topic_id", Integer.class, from, to);
+            if (topicIds.isEmpty()) {
+                continue;
+            }
+            Path tmp = target.resolve(DAY.format(day) + ArchiveSegment.SUFFIX + ".tmp");
+            SegmentCutter cutter = new SegmentCutter(target, DAY.format(day), tmp, segments);
+            try (cutter) {
+                for (int topicId : topicIds) {
+                    jdbcTemplate.query(select, rs -> {
+                        byte[] stored;
+                        int size;
+                        if (text) {
+                            String payload = rs.getString(2);
+                            byte[] bytes = payload != null ? payload.getBytes(StandardCharsets.UTF_8) : new byte[0];
+                            stored = payloadCodec.encode(topicId, bytes);
+                            size = bytes.length;
+                        } else {
+                            stored = rs.getBytes(2);
+                            size = rs.getInt(6);
+                        }
+                        try {
+                            cutter.add(rs.getLong(1), topicId, rs.getObject(5, LocalDateTime.class), rs.getInt(3),
+                                    rs.getBoolean(4), size, stored != null ? stored : payloadCodec.encode(topicId, new byte[0]));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, topicId, from, to);
+                }
+                cutter.finish();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Writes the segment again without the rows [skipFrom, skipTo) and moves it over the old file,
+     * whose mapping stays valid for the queries still reading it.
+     *
+     * @return the new segment, or null if no rows are left and the file was deleted
+     */
+    static ArchiveSegment rewrite(ArchiveSegment segment, int skipFrom, int skipTo) throws IOException {
+        Path file = segment.file();
+        if (skipTo - skipFrom == segment.rows()) {
+            Files.delete(file);
+            return null;
+        }
+        try (ArchiveSegment.Writer writer = new ArchiveSegment.Writer(file.resolveSibling(file.getFileName() + ".tmp"))) {
+            for (int entry = 0; entry < segment.topics(); entry++) {
+                int end = segment.firstRowAt(entry) + segment.rowsAt(entry);
+                for (int row = segment.firstRowAt(entry); row < end; row++) {
+                    if (row < skipFrom || row >= skipTo) {
+                        writer.add(segment.id(row), segment.topicAt(entry), ArchiveSegment.fromMicros(segment.time(row)),
+                                segment.qos(row), segment.retained(row), segment.payloadSize(row),
+                                segment.storedPayload(row));
+                    }
+                }
+            }
+            return writer.finish(file);
+        }
+    }
+
+    /** Swaps a rewritten segment into its partition; null removes it. */
+    private void replace(ArchivedPartition partition, ArchiveSegment old, ArchiveSegment rewritten) {
+        List<ArchiveSegment> segments = new ArrayList<>(partition.segments());
+        if (rewritten != null) {
+            segments.set(segments.indexOf(old), rewritten);
+        } else {
+            segments.remove(old);
+        }
+        List<ArchivedPartition> next = new ArrayList<>(archived);
+        next.set(next.indexOf(partition), new ArchivedPartition(partition.dir(), partition.table(), partition.start(),
+                partition.end(), List.copyOf(segments)));
+        archived = List.copyOf(next);
+    }
+
+    /** Writes the segments of one day, starting the next one when a segment is full. */
+    private final class SegmentCutter implements AutoCloseable {
+
+        private final Path target;
+        private final String day;
+        private final Path tmp;
+        private final List<ArchiveSegment> segments;
+        private ArchiveSegment.Writer writer;
+
+        SegmentCutter(Path target, String day, Path tmp, List<ArchiveSegment> segments) {
+            this.target = target;
+            this.day = day;
+            this.tmp = tmp;
+            this.segments = segments;
+        }
+
+        void add(long id, int topicId, LocalDateTime receivedAt, int qos, boolean retained, int size,
+                 byte[] stored) throws IOException {
+            if (writer != null && (writer.rows() >= segmentRows || !writer.fits(stored.length))) {
+                finish();
+            }
+            if (writer == null) {
+                writer = new ArchiveSegment.Writer(tmp);
+            }
+            writer.add(id, topicId, receivedAt, qos, retained, size, stored);
+        }
+
+        /** Finishes the open segment as {@code <day>-<firstTopic>-<lastTopic>.seg}. */
+        void finish() throws IOException {
+            if (writer == null) {
+                return;
+            }
+            String name = day + "-" + writer.firstTopic() + "-" + writer.lastTopic();
+            Path file = target.resolve(name + ArchiveSegment.SUFFIX);
+            // a topic split across segments has the same range in each
+            for (int n = 2; Files.exists(file); n++) {
+                file = target.resolve(name + "-" + n + ArchiveSegment.SUFFIX);
+            }
+            segments.add(writer.finish(file));
+            writer = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /** The non-empty slices of the topics after {@code position} and received at or after {@code from}. */
+    private List<Slice> slices(Collection<Integer> topicIds, MessageCursor position, LocalDateTime from) {
+        long before = ArchiveSegment.toMicros(position.receivedAt());
+        long lower = from != null ? ArchiveSegment.toMicros(from) : Long.MIN_VALUE;
+        List<Slice> slices = new ArrayList<>();
+        for (ArchivedPartition partition : archived) {
+            if (partition.start().isAfter(position.receivedAt()) || from != null && !partition.end().isAfter(from)) {
+                continue;
+            }
+            for (ArchiveSegment segment : partition.segments()) {
+                if (!segment.overlaps(lower, before)) {
+                    continue;
+                }
+                if (topicIds == null) {
+                    for (int entry = 0; entry < segment.topics(); entry++) {
+                        addSlice(slices, segment, entry, position.id(), before, lower);
+                    }
+                    continue;
+                }
+                for (int topicId : topicIds) {
+                    if (segment.mayContainTopic(topicId)) {
+                        int entry = segment.findTopic(topicId);
+                        if (entry >= 0) {
+                            addSlice(slices, segment, entry, position.id(), before, lower);
+                        }
+                    }
+                }
+            }
+        }
+        return slices;
+    }
+
+    private static void addSlice(List<Slice> slices, ArchiveSegment segment, int entry, long beforeId,
+                                 long before, long lower) {
+        int first = segment.firstRowAt(entry);
+        int end = first + segment.rowsAt(entry);
+        int start = segment.after(first, end, before, beforeId);
+        int stop = lower == Long.MIN_VALUE ? end : segment.before(start, end, lower);
+        if (start < stop) {
+            slices.add(new Slice(segment, segment.topicAt(entry), start, stop));
+        }
+    }
+
+    /** Appends up to {@code limit} rows of the slices, newest first, after skipping {@code skip}. */
+    private void merge(List<Slice> slices, long skip, int limit, List<ReceivedMessage> rows) {
+        if (slices.size() == 1) {
+            Slice slice = slices.get(0);
+            for (long row = slice.first() + skip; row < slice.end() && limit > 0; row++, limit--) {
+                rows.add(message(slice.segment(), slice.topicId(), (int) row));
+            }
+            return;
+        }
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        for (Slice slice : slices) {
+            heads.add(new Head(slice));
+        }
+        while (limit > 0 && !heads.isEmpty()) {
+            Head head = heads.poll();
+            if (skip > 0) {
+                skip--;
+            } else {
+                rows.add(message(head.slice.segment(), head.slice.topicId(), head.row));
+                limit--;
+            }
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+    }
+
+    /** The next row of a slice in a merge; the newest head comes first. */
+    private static final class Head implements Comparable<Head> {
+        private final Slice slice;
+        private int row;
+        private long time;
+        private long id;
+
+        Head(Slice slice) {
+            this.slice = slice;
+            this.row = slice.first() - 1;
+            advance();
+        }
+
+        boolean advance() {
+            if (++row >= slice.end()) {
+                return false;
+            }
+            time = slice.segment().time(row);
+            id = slice.segment().id(row);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int cmp = Long.compare(other.time, time);
+            return cmp != 0 ? cmp : Long.compare(other.id, id);
+        }
+    }
+
+    private ReceivedMessage message(ArchiveSegment segment, int topicId, int row) {
+        ReceivedMessage message = new ReceivedMessage();
+        message.setId(segment.id(row));
+        message.setTopicId(topicId);
+        message.setQos(segment.qos(row));
+        message.setRetained(segment.retained(row));
+        message.setReceivedAt(ArchiveSegment.fromMicros(segment.time(row)));
+        int size = segment.payloadSize(row);
+        byte[] stored = segment.storedPayload(row);
+        message.setPayload(size, () -> payloadCodec.decode(stored, size));
+        return message;
+    }
+
+    private static void writeManifest(Path file, Partition partition) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("table", partition.getTable());
+        manifest.setProperty("start", partition.getStart().toString());
+        manifest.setProperty("end", partition.getEnd().toString());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp)) {
+            manifest.store(out, "Archived message partition");
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ArchivedPartition readManifest(Path file) throws IOException {
+        Properties manifest = new Properties();
+        try (Reader in = Files.newBufferedReader(file)) {
+            manifest.load(in);
+        }
+        return new ArchivedPartition(file.getParent(), manifest.getProperty("table"),
+                LocalDateTime.parse(manifest.getProperty("start")), LocalDateTime.parse(manifest.getProperty("end")),
+                List.of());
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
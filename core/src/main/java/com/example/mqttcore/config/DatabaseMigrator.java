@@ -0,0 +1,107 @@
+package com.example.mqttcore.config;
+
+import com.example.mqttcore.entity.ReceivedMessage;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Schema fix-ups that {@code ddl-auto=update} cannot do on its own. Runs after Hibernate has
+ * updated the schema and before the ingest pipeline starts writing. Most of them concern the
+ * single {@code received_messages} table of a database from before time partitions, which stays
+ * in use as the oldest partition.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+@RequiredArgsConstructor
+public class DatabaseMigrator {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void migrate() {
+        // Partition tables are not entities, so Hibernate no longer creates the id sequence
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS received_messages_seq START WITH 1 INCREMENT BY "
+                + ReceivedMessage.ALLOCATION_SIZE);
+        Integer legacyTable = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'RECEIVED_MESSAGES'", Integer.class);
+        if (legacyTable == null || legacyTable == 0) {
+            return;
+        }
+        alignMessageIdSequence();
+        moveTopicsToDictionary();
+        computeTopicStatistics();
+        // Superseded by the descending (topic_id, received_at, id) and (received_at, id) indexes
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_topic_id");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_topic_received_at");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_received_at");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_topic_received_at_id " +
+                "ON received_messages (topic_id, received_at DESC, id DESC)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_received_at_id ON received_messages (received_at DESC, id DESC)");
+    }
+
+    /**
+     * Databases created before message ids moved from IDENTITY to a sequence already hold rows,
+     * while the new sequence starts at 1.
+     */
+    private void alignMessageIdSequence() {
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM received_messages", Long.class);
+        Long nextValue = jdbcTemplate.queryForObject(
+                "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'RECEIVED_MESSAGES_SEQ'",
+                Long.class);
+        if (maxId == null || nextValue == null || nextValue > maxId) {
+            return;
+        }
+        long restartWith = maxId + ReceivedMessage.ALLOCATION_SIZE + 1;
+        jdbcTemplate.execute("ALTER SEQUENCE received_messages_seq RESTART WITH " + restartWith);
+        log.info("Moved received_messages_seq past existing message ids (restart with {})", restartWith);
+    }
+
+    /**
+     * Message rows used to carry the full topic string. Fills the topic dictionary from it, points
+     * every row at its dictionary id and drops the old column with its index. Hibernate cannot add
+     * the NOT NULL {@code topic_id} column to a populated table, so it is added here.
+     */
+    private void moveTopicsToDictionary() {
+        Integer oldColumn = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                "WHERE TABLE_NAME = 'RECEIVED_MESSAGES' AND COLUMN_NAME = 'TOPIC'", Integer.class);
+        if (oldColumn == null || oldColumn == 0) {
+            return;
+        }
+        jdbcTemplate.execute("ALTER TABLE received_messages ADD COLUMN IF NOT EXISTS topic_id INTEGER");
+        int topics = jdbcTemplate.update(
+                "INSERT INTO mqtt_topics (name, created_at) " +
+                "SELECT topic, MIN(received_at) FROM received_messages " +
+                "WHERE topic NOT IN (SELECT name FROM mqtt_topics) GROUP BY topic");
+        int rows = jdbcTemplate.update(
+                "UPDATE received_messages m SET topic_id = (SELECT t.id FROM mqtt_topics t WHERE t.name = m.topic)");
+        jdbcTemplate.execute("ALTER TABLE received_messages ALTER COLUMN topic_id SET NOT NULL");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_topic_received_at_id " +
+                "ON received_messages (topic_id, received_at DESC, id DESC)");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_topic");
+        jdbcTemplate.execute("ALTER TABLE received_messages DROP COLUMN topic");
+        log.info("Moved {} topics of {} messages into the topic dictionary", topics, rows);
+    }
+
+    /**
+     * Topic statistics are kept up to date by the topic catalog; rows that predate them (or came
+     * from the migration above) get their initial values from the message table once.
+     */
+    private void computeTopicStatistics() {
+        int updated = jdbcTemplate.update(
+                "UPDATE mqtt_topics t SET " +
+                "message_count = (SELECT COUNT(*) FROM received_messages m WHERE m.topic_id = t.id), " +
+                "payload_bytes = (SELECT COALESCE(SUM(LENGTH(m.payload)), 0) FROM received_messages m WHERE m.topic_id = t.id), " +
+                "first_seen = (SELECT MIN(m.received_at) FROM received_messages m WHERE m.topic_id = t.id), " +
+                "last_seen = (SELECT MAX(m.received_at) FROM received_messages m WHERE m.topic_id = t.id) " +
+                "WHERE t.message_count IS NULL");
+        if (updated > 0) {
+            log.info("Computed initial statistics for {} topics", updated);
+        }
+    }
+}
@@ -1,15 +1,33 @@
 package com.example.mqttcore.controller;
 
+import com.example.mqttcore.dto.ImportStatusDto;
+import com.example.mqttcore.dto.MessageSliceDto;
 import com.example.mqttcore.dto.ReceivedMessageDto;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.service.ExportFormat;
+import com.example.mqttcore.service.FieldPredicate;
+import com.example.mqttcore.service.LatestValueStore;
+import com.example.mqttcore.service.MessageExporter;
+import com.example.mqttcore.service.MessageImporter;
 import com.example.mqttcore.service.MessageService;
+import com.example.mqttcore.stream.ConflationMode;
+import com.example.mqttcore.stream.LiveStream;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -19,18 +37,112 @@ import java.util.List;
 public class MessageController {
 
     private final MessageService messageService;
+    private final LatestValueStore latestValueStore;
+    private final LiveStream liveStream;
+    private final MessageExporter messageExporter;
+    private final MessageImporter messageImporter;
 
+    /**
+     * Each {@code where} predicate, e.g. {@code status=FAULT} or {@code battery.level<20}, filters
+     * on a field listed in the subscription's {@code indexedFields}; {@code q} is a full-text search
+     * for messages containing all of its words, returned newest (highest id) first.
+     */
     @GetMapping
     public ResponseEntity<Page<ReceivedMessageDto>> getMessages(
             @RequestParam(required = false) String topic,
+            @RequestParam(defaultValue = "FILTER") TopicMatchMode topicMode,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) List<String> where,
+            @RequestParam(required = false) String q,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size) {
 
         size = Math.min(size, 200);
         PageRequest pageable = PageRequest.of(page, size, Sort.by("receivedAt").descending());
-        return ResponseEntity.ok(messageService.getMessages(topic, from, to, pageable));
+        return ResponseEntity.ok(messageService.getMessages(topic, topicMode, from, to, predicates(where), q, pageable));
+    }
+
+    /**
+     * Cursor-paginated variant for scrolling through history: pass the returned
+     * {@code nextCursor} to get the following page.
+     */
+    @GetMapping("/scroll")
+    public ResponseEntity<MessageSliceDto> scrollMessages(
+            @RequestParam(required = false) String topic,
+            @RequestParam(defaultValue = "FILTER") TopicMatchMode topicMode,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) List<String> where,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(defaultValue = "false") boolean total) {
+
+        size = Math.max(1, Math.min(size, 200));
+        return ResponseEntity.ok(messageService.scrollMessages(topic, topicMode, from, to, predicates(where), q, cursor, size, total));
+    }
+
+    /**
+     * Every message matching the topic filter and time range, newest first, streamed as a file
+     * download without paging; with {@code gzip} the file itself is gzip-compressed.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) String topic,
+            @RequestParam(defaultValue = "FILTER") TopicMatchMode topicMode,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "NDJSON") ExportFormat format,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+
+        StreamingResponseBody body = messageExporter.export(topic, topicMode, from, to, format, gzip);
+        String filename = "messages." + format.extension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .contentType(gzip ? MediaType.parseMediaType("application/gzip") : format.mediaType())
+                .body(body);
+    }
+
+    /**
+     * Loads archived messages with their original timestamps from the request body: NDJSON as
+     * written by {@code /export}, optionally gzip-compressed. Answers once everything is written.
+     */
+    @PostMapping("/import")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ImportStatusDto> importMessages(InputStream body) throws IOException {
+        return ResponseEntity.ok(messageImporter.importMessages(body));
+    }
+
+    /** Progress of the running import, or the result of the last one. */
+    @GetMapping("/import")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ImportStatusDto> getImportStatus() {
+        ImportStatusDto status = messageImporter.getStatus();
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.noContent().build();
+    }
+
+    /** Latest message of every topic matching the MQTT {@code filter}, without reading the history. */
+    @GetMapping("/latest")
+    public ResponseEntity<List<ReceivedMessageDto>> getLatest(@RequestParam(defaultValue = "#") String filter) {
+        return ResponseEntity.ok(latestValueStore.getLatest(filter));
+    }
+
+    /**
+     * Server-sent events: {@code messages} (a JSON array of new messages on topics matching any
+     * {@code filter}) and {@code status} (broker connection state). Without a filter only status
+     * events are sent. {@code mode} thins out busy topics: {@code LATEST} sends each topic's newest
+     * message every {@code intervalMs}, {@code SAMPLE} one of every {@code sampleRate} per topic.
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(
+            @RequestParam(required = false) List<String> filter,
+            @RequestParam(defaultValue = "ALL") ConflationMode mode,
+            @RequestParam(defaultValue = "1000") int intervalMs,
+            @RequestParam(defaultValue = "10") int sampleRate) {
+
+        return liveStream.open(filter != null ? filter : List.of(), mode,
+                Math.min(intervalMs, 60_000), Math.max(1, Math.min(sampleRate, 10_000)));
     }
 
     @GetMapping("/{id}")
@@ -42,4 +154,8 @@ public class MessageController {
     public ResponseEntity<List<String>> getDistinctTopics() {
         return ResponseEntity.ok(messageService.getDistinctTopics());
     }
+
+    private static List<FieldPredicate> predicates(List<String> where) {
+        return where == null ? List.of() : where.stream().map(FieldPredicate::parse).toList();
+    }
 }
@@ -1,15 +1,23 @@
 package com.example.mqttcore.controller;
 
+import com.example.mqttcore.archive.MessageArchive;
 import com.example.mqttcore.dto.MqttSubscriptionDto;
 import com.example.mqttcore.dto.PublishRequest;
+import com.example.mqttcore.dto.RetentionRunDto;
+import com.example.mqttcore.ingest.IngestPipeline;
+import com.example.mqttcore.payload.PayloadCodec;
+import com.example.mqttcore.series.SeriesStore;
 import com.example.mqttcore.service.MqttClientService;
 import com.example.mqttcore.service.MqttSubscriptionService;
+import com.example.mqttcore.service.RecentMessageBuffer;
+import com.example.mqttcore.service.RetentionPurger;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -23,11 +31,25 @@ public class MqttController {
 
     private final MqttSubscriptionService subscriptionService;
     private final MqttClientService mqttClientService;
+    private final IngestPipeline ingestPipeline;
+    private final RecentMessageBuffer recentMessageBuffer;
+    private final RetentionPurger retentionPurger;
+    private final PayloadCodec payloadCodec;
+    private final SeriesStore seriesStore;
+    private final MessageArchive messageArchive;
 
     @GetMapping("/status")
     public ResponseEntity<Map<String, Object>> getBrokerStatus() {
         return ResponseEntity.ok(Map.of(
-                "connected", mqttClientService.isConnected()
+                "connected", mqttClientService.isConnected(),
+                "connections", mqttClientService.getConnectedCount(),
+                "unacked", mqttClientService.getUnackedCount(),
+                "ingest", ingestPipeline.getStatus(),
+                "recentBuffer", recentMessageBuffer.getStats(),
+                "retention", retentionPurger.getStatus(),
+                "payloads", payloadCodec.getStats(),
+                "series", seriesStore.getStats(),
+                "archive", messageArchive.getStats()
         ));
     }
 
@@ -39,7 +61,7 @@ public class MqttController {
     @PostMapping("/subscriptions")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<MqttSubscriptionDto> createSubscription(
-            @Valid @RequestBody MqttSubscriptionDto request) {
+            @Validated(MqttSubscriptionDto.Create.class) @RequestBody MqttSubscriptionDto request) {
         return ResponseEntity.status(HttpStatus.CREATED)
                 .body(subscriptionService.createSubscription(request));
     }
@@ -67,6 +89,13 @@ public class MqttController {
         return ResponseEntity.noContent().build();
     }
 
+    /** Enforces the subscriptions' retention policies now instead of on the next scheduled run. */
+    @PostMapping("/retention/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<RetentionRunDto> runRetention() {
+        return ResponseEntity.ok(retentionPurger.run());
+    }
+
     @PostMapping("/publish")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<Void> publish(@Valid @RequestBody PublishRequest request) {
@@ -0,0 +1,116 @@
+package com.example.mqttcore.controller;
+
+import com.example.mqttcore.dto.FieldBucketDto;
+import com.example.mqttcore.dto.SeriesPointsDto;
+import com.example.mqttcore.dto.TopicNodeDto;
+import com.example.mqttcore.dto.TopicStatsDto;
+import com.example.mqttcore.dto.VolumeBucketDto;
+import com.example.mqttcore.entity.VolumeResolution;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.series.SeriesStore;
+import com.example.mqttcore.service.FieldAggregator;
+import com.example.mqttcore.service.TopicCatalog;
+import com.example.mqttcore.service.TopicTimeline;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/topics")
+@RequiredArgsConstructor
+public class TopicController {
+
+    private static final int MAX_POINTS = 1_000_000;
+
+    private final TopicCatalog topicCatalog;
+    private final TopicTimeline topicTimeline;
+    private final FieldAggregator fieldAggregator;
+    private final SeriesStore seriesStore;
+
+    @GetMapping
+    public ResponseEntity<List<TopicStatsDto>> getTopicStats() {
+        return ResponseEntity.ok(topicCatalog.getStats());
+    }
+
+    @GetMapping("/tree")
+    public ResponseEntity<List<TopicNodeDto>> getTopicTree(@RequestParam(required = false) String parent) {
+        return ResponseEntity.ok(topicCatalog.getChildren(parent));
+    }
+
+    /**
+     * Message volume per time bucket, served from the pre-aggregated buckets. Defaults to the
+     * last 24 hours; without a resolution, one is picked that gives at most about 1500 buckets.
+     */
+    @GetMapping("/timeline")
+    public ResponseEntity<List<VolumeBucketDto>> getTimeline(
+            @RequestParam(required = false) String topic,
+            @RequestParam(defaultValue = "FILTER") TopicMatchMode topicMode,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) VolumeResolution resolution) {
+
+        TimeRange range = TimeRange.of(from, to, resolution);
+        return ResponseEntity.ok(topicTimeline.getTimeline(topic, topicMode, range.from(), range.to(), range.resolution()));
+    }
+
+    /**
+     * Aggregates (count, avg, min, max, last) of a numeric JSON field per time bucket, for
+     * fields listed in a subscription's {@code numericFields}. Same range defaults as the timeline.
+     */
+    @GetMapping("/series")
+    public ResponseEntity<List<FieldBucketDto>> getFieldSeries(
+            @RequestParam(required = false) String topic,
+            @RequestParam(defaultValue = "FILTER") TopicMatchMode topicMode,
+            @RequestParam String field,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) VolumeResolution resolution) {
+
+        TimeRange range = TimeRange.of(from, to, resolution);
+        return ResponseEntity.ok(fieldAggregator.getSeries(topic, topicMode, field, range.from(), range.to(), range.resolution()));
+    }
+
+    /**
+     * Raw points of a numeric series per topic, for subscriptions with {@code numericSeries}:
+     * {@code field} names a JSON field, omitted for topics whose payload is the number itself.
+     * Same range defaults as the timeline; at most {@code maxPoints} points, oldest first.
+     */
+    @GetMapping("/points")
+    public ResponseEntity<List<SeriesPointsDto>> getPoints(
+            @RequestParam String topic,
+            @RequestParam(defaultValue = "FILTER") TopicMatchMode topicMode,
+            @RequestParam(required = false) String field,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "100000") int maxPoints) {
+
+        if (maxPoints < 1 || maxPoints > MAX_POINTS) {
+            throw new IllegalArgumentException("'maxPoints' must be between 1 and " + MAX_POINTS);
+        }
+        TimeRange range = TimeRange.of(from, to, null);
+        return ResponseEntity.ok(seriesStore.getPoints(topic, topicMode, field, range.from(), range.to(), maxPoints));
+    }
+
+    private record TimeRange(LocalDateTime from, LocalDateTime to, VolumeResolution resolution) {
+
+        static TimeRange of(LocalDateTime from, LocalDateTime to, VolumeResolution resolution) {
+            if (to == null) {
+                to = LocalDateTime.now();
+            }
+            if (from == null) {
+                from = to.minusHours(24);
+            }
+            if (from.isAfter(to)) {
+                throw new IllegalArgumentException("'from' must not be after 'to'");
+            }
+            return new TimeRange(from, to, resolution != null ? resolution : VolumeResolution.forRange(from, to));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class ArchiveStatsDto {
+    /** Partitions are archived after {@code afterDays}; 0 archives nothing. */
+    private int afterDays;
+    private int partitions;
+    private int segments;
+    private long messages;
+    /** Size of the segment files. */
+    private long bytes;
+    /** Start of the oldest archived partition, null while the archive is empty. */
+    private LocalDateTime oldest;
+}
@@ -0,0 +1,15 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class FieldBucketDto {
+    private LocalDateTime start;
+    private long count;
+    private double avg;
+    private double min;
+    private double max;
+    private double last;
+}
@@ -0,0 +1,23 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+public class ImportStatusDto {
+    private boolean running;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    /** Uncompressed bytes read so far. */
+    private long bytes;
+    private long lines;
+    private long imported;
+    /** Lines that could not be imported, see {@link #errors}. */
+    private long skipped;
+    private long durationMs;
+    private long messagesPerSecond;
+    /** The first few skipped lines, with their line number. */
+    private List<String> errors;
+}
@@ -0,0 +1,43 @@
+package com.example.mqttcore.dto;
+
+import com.example.mqttcore.entity.OverloadPolicy;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class IngestStatusDto {
+    private int queueDepth;
+    private int queueCapacity;
+    private long accepted;
+    private long written;
+    private long failed;
+    /** Committed batches that a statistic, latest value or series store failed to record. */
+    private long hookFailures;
+    private long dropped;
+    private long delayed;
+    private long spilled;
+    private int spoolPending;
+    private long spoolBytes;
+    private List<LaneStats> lanes;
+    private List<SubscriptionStats> subscriptions;
+
+    @Data
+    public static class LaneStats {
+        private int lane;
+        private int queueDepth;
+        private long written;
+        private long batches;
+        private long averageLatencyMs;
+        private long lastLatencyMs;
+    }
+
+    @Data
+    public static class SubscriptionStats {
+        private String topicFilter;
+        private OverloadPolicy overloadPolicy;
+        private long accepted;
+        private long dropped;
+        private long delayed;
+    }
+}
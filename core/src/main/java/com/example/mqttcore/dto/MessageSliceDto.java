@@ -0,0 +1,15 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class MessageSliceDto {
+    private List<ReceivedMessageDto> content;
+    /** Pass back as {@code cursor} for the next page; null on the last page. */
+    private String nextCursor;
+    private boolean hasNext;
+    /** Estimated from the topic catalog, only when requested; null otherwise. */
+    private Long approximateTotal;
+}
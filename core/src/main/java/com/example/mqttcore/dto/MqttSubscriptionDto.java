@@ -1,29 +1,76 @@
 package com.example.mqttcore.dto;
 
+import com.example.mqttcore.entity.OverloadPolicy;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import jakarta.validation.groups.Default;
 import lombok.Data;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
+/**
+ * A subscription as listed, and the body that creates or updates one. On create, settings left
+ * out take their defaults; on update they stay as they are, and the topic filter cannot change.
+ */
 @Data
 public class MqttSubscriptionDto {
+
+    /** Validation group of a create request, which needs the topic filter. */
+    public interface Create extends Default {
+    }
+
     private Long id;
 
-    @NotBlank
+    @NotBlank(groups = Create.class)
     @Size(max = 500)
     private String topicFilter;
 
+    /** Defaults to 1. */
     @Min(0)
     @Max(2)
-    private int qos = 1;
+    private Integer qos;
 
     private boolean active;
 
     @Size(max = 255)
     private String description;
 
+    /** Defaults to {@code BLOCK}. */
+    private OverloadPolicy overloadPolicy;
+
+    /** Defaults to 10. */
+    @Min(1)
+    @Max(10000)
+    private Integer sampleRate;
+
+    private Boolean shared;
+
+    /** Store retained messages as the latest value only, not as history rows. */
+    private Boolean retainedLatestOnly;
+
+    /** JSON paths such as {@code temperature} or {@code battery.level}; empty removes them. */
+    private List<String> numericFields;
+
+    /** Keep every numeric payload and numeric field value as a point of a series. */
+    private Boolean numericSeries;
+
+    /** JSON paths that {@code where} predicates on the message history can filter by; empty removes them. */
+    private List<String> indexedFields;
+
+    /** Purge messages older than this many days; 0 removes the limit. */
+    @Min(0)
+    private Integer retentionDays;
+
+    /** Keep only the newest this many messages per topic; 0 removes the limit. */
+    @Min(0)
+    private Integer retentionMaxMessages;
+
+    /** Payload bytes the subscription's topics may hold together; 0 removes the budget. */
+    @Min(0)
+    private Long retentionMaxBytes;
+
     private LocalDateTime createdAt;
 }
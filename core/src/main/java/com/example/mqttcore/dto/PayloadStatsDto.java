@@ -0,0 +1,14 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+@Data
+public class PayloadStatsDto {
+    private boolean compression;
+    /** Dictionaries trained so far, across all topic families. */
+    private int dictionaries;
+    /** Payload bytes written since startup, before compression. */
+    private long rawBytes;
+    /** What they took in their stored form. */
+    private long storedBytes;
+}
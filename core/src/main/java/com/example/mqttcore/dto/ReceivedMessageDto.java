@@ -8,7 +8,10 @@ import java.time.LocalDateTime;
 public class ReceivedMessageDto {
     private Long id;
     private String topic;
+    /** UTF-8 text, or base64 for binary payloads. */
     private String payload;
+    /** {@code base64} for binary payloads, null for text. */
+    private String payloadEncoding;
     private int qos;
     private boolean retained;
     private LocalDateTime receivedAt;
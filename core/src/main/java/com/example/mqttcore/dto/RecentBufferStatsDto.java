@@ -0,0 +1,15 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+@Data
+public class RecentBufferStatsDto {
+    private boolean enabled;
+    /** History pages answered from memory. */
+    private long hits;
+    /** History pages that had to be read from the database. */
+    private long misses;
+    private int topics;
+    private long messages;
+    private long memoryBytes;
+}
@@ -0,0 +1,21 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+@Data
+public class RetentionRunDto {
+    private LocalDateTime startedAt;
+    private long durationMs;
+    /** Time spent in delete transactions; the rest went into throttling and lookups. */
+    private long deleteMs;
+    private long purged;
+    private long payloadBytes;
+    private int topics;
+    /** Topic filter of the subscription to messages purged. */
+    private Map<String, Long> purgedBySubscription;
+    /** Why the run ended before every policy was enforced: QUIET_HOURS, TIME_LIMIT, INGEST_BACKLOG or INTERRUPTED. */
+    private String stoppedBy;
+}
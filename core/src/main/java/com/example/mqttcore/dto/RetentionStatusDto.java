@@ -0,0 +1,13 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+@Data
+public class RetentionStatusDto {
+    private boolean enabled;
+    private long runs;
+    /** Messages purged since startup. */
+    private long purged;
+    /** Null until the first run. */
+    private RetentionRunDto lastRun;
+}
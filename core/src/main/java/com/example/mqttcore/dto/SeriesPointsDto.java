@@ -0,0 +1,18 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/** Raw points of one series, oldest first; {@code times} and {@code values} run in parallel. */
+@Data
+public class SeriesPointsDto {
+    private String topic;
+    /** JSON field path, or empty for the payload itself. */
+    private String field;
+    private List<LocalDateTime> times;
+    private double[] values;
+    /** The range held more points than were asked for; continue from the last time returned. */
+    private boolean truncated;
+}
@@ -0,0 +1,15 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+@Data
+public class SeriesStatsDto {
+    /** Series appended to since startup. */
+    private int series;
+    /** Points appended since startup. */
+    private long points;
+    /** Blocks sealed since startup. */
+    private long sealedBlocks;
+    /** Average size of a point in the blocks sealed since startup. */
+    private double bytesPerPoint;
+}
@@ -0,0 +1,25 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * One level of the topic tree. Counts, payload bytes and rate are summed over the node itself and
+ * every topic below it.
+ */
+@Data
+public class TopicNodeDto {
+    /** Last level of the path, e.g. {@code temperature}. */
+    private String name;
+    /** Full path from the root, e.g. {@code sensors/kitchen/temperature}. */
+    private String path;
+    /** Whether messages were received on this exact path (not only below it). */
+    private boolean topic;
+    private int childCount;
+    private int topicCount;
+    private long messageCount;
+    private long payloadBytes;
+    private LocalDateTime lastSeen;
+    private double messagesPerSecond;
+}
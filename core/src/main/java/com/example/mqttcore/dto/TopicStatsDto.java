@@ -0,0 +1,15 @@
+package com.example.mqttcore.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class TopicStatsDto {
+    private String topic;
+    private long messageCount;
+    private long payloadBytes;
+    private LocalDateTime firstSeen;
+    private LocalDateTime lastSeen;
+    private double messagesPerSecond;
+}
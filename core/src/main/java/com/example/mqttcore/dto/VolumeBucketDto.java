@@ -0,0 +1,16 @@
+package com.example.mqttcore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VolumeBucketDto {
+    private LocalDateTime start;
+    private long messageCount;
+    private long payloadBytes;
+}
@@ -0,0 +1,71 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Aggregate of one numeric JSON field of one topic over one time bucket. Maintained by the field
+ * aggregator from the subscriptions' {@code numericFields}.
+ */
+@Entity
+@Table(name = "field_aggregates", indexes = {
+        @Index(name = "idx_field_topic_bucket", columnList = "fieldPath, topic_id, bucketStart")
+})
+@IdClass(FieldAggregate.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class FieldAggregate {
+
+    @Id
+    @Column(name = "topic_id")
+    private int topicId;
+
+    @Id
+    @Column(length = 200)
+    private String fieldPath;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private VolumeResolution resolution;
+
+    @Id
+    private LocalDateTime bucketStart;
+
+    @Column(nullable = false)
+    private long sampleCount;
+
+    @Column(nullable = false)
+    private double valueSum;
+
+    @Column(nullable = false)
+    private double valueMin;
+
+    @Column(nullable = false)
+    private double valueMax;
+
+    /** Value of the latest sample in the bucket, received at {@link #lastAt}. */
+    @Column(nullable = false)
+    private double lastValue;
+
+    @Column(nullable = false)
+    private LocalDateTime lastAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private int topicId;
+        private String fieldPath;
+        private VolumeResolution resolution;
+        private LocalDateTime bucketStart;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
+
+/**
+ * The most recent message of each topic, one row per topic. Kept by the latest value store so
+ * current values are read without touching the message history.
+ */
+@Entity
+@Table(name = "latest_values")
+@Getter
+@Setter
+@NoArgsConstructor
+public class LatestValue {
+
+    @Id
+    @Column(name = "topic_id")
+    private int topicId;
+
+    /** UTF-8 text, or base64 when {@link #binaryPayload}. */
+    @Column(columnDefinition = "TEXT")
+    private String payload;
+
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean binaryPayload;
+
+    @Column(nullable = false)
+    private int qos;
+
+    @Column(nullable = false)
+    private boolean retained;
+
+    @Column(nullable = false)
+    private LocalDateTime receivedAt;
+}
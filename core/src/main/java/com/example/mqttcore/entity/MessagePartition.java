@@ -0,0 +1,41 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One time partition of the message history: the table holding the messages received in
+ * [{@link #startsAt}, {@link #endsAt}) and the table holding their indexed fields.
+ */
+@Entity
+@Table(name = "message_partitions")
+@Getter
+@Setter
+@NoArgsConstructor
+public class MessagePartition {
+
+    /** Name of the message table. */
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(nullable = false, length = 64)
+    private String fieldsTable;
+
+    @Column(nullable = false)
+    private LocalDateTime startsAt;
+
+    @Column(nullable = false)
+    private LocalDateTime endsAt;
+
+    public MessagePartition(String name, String fieldsTable, LocalDateTime startsAt, LocalDateTime endsAt) {
+        this.name = name;
+        this.fieldsTable = fieldsTable;
+        this.startsAt = startsAt;
+        this.endsAt = endsAt;
+    }
+}
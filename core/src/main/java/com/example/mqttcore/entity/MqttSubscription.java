@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
@@ -31,6 +32,57 @@ public class MqttSubscription {
     @Column(length = 255)
     private String description;
 
+    @Enumerated(EnumType.STRING)
+    @ColumnDefault("'BLOCK'")
+    @Column(nullable = false, length = 20)
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+
+    /** For {@link OverloadPolicy#SAMPLE}: keep one of every {@code sampleRate} messages. */
+    @ColumnDefault("10")
+    @Column(nullable = false)
+    private int sampleRate = 10;
+
+    /** Consume as {@code $share/<group>/<filter>} so the broker spreads messages across connections. */
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean shared;
+
+    /**
+     * Keep retained messages only as the topic's latest value instead of appending them to the
+     * history; the broker sends them again on every (re)subscribe.
+     */
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean retainedLatestOnly;
+
+    /** Comma-separated JSON paths whose numeric values are aggregated per time bucket at ingest. */
+    @Column(length = 1000)
+    private String numericFields;
+
+    /**
+     * Also keep numeric payloads, and the values of {@link #numericFields}, as compressed series
+     * of raw points.
+     */
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean numericSeries;
+
+    /** Comma-separated JSON paths whose scalar values are copied into the message field index. */
+    @Column(length = 1000)
+    private String indexedFields;
+
+    /** Messages older than this many days are purged; null keeps them. */
+    private Integer retentionDays;
+
+    /** Only the newest this many messages of each matched topic are kept; null keeps all. */
+    private Integer retentionMaxMessages;
+
+    /**
+     * Payload bytes the matched topics may hold together; the oldest messages are purged beyond
+     * it. Null for no budget.
+     */
+    private Long retentionMaxBytes;
+
     @CreationTimestamp
     @Column(updatable = false)
     private LocalDateTime createdAt;
@@ -0,0 +1,18 @@
+package com.example.mqttcore.entity;
+
+/**
+ * What the ingest pipeline does with a subscription's messages when its queue is full.
+ */
+public enum OverloadPolicy {
+    /** Block the MQTT callback until there is room, which slows the broker down. */
+    BLOCK,
+    /**
+     * Evict the subscription's oldest queued message to make room for the new one, or discard the
+     * new one if none of its messages is queued.
+     */
+    DROP_OLDEST,
+    /** Discard the incoming message. */
+    DROP_NEWEST,
+    /** Near capacity, keep only every n-th message; discard when full. */
+    SAMPLE
+}
@@ -0,0 +1,41 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * A preset compression dictionary trained on the payloads of one topic family (the topic filter
+ * of the subscription the topics are routed to). Stored payloads name the dictionary they were
+ * compressed with, so rows are never deleted.
+ */
+@Entity
+@Table(name = "payload_dictionaries")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PayloadDictionary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(nullable = false, length = 500)
+    private String family;
+
+    @Column(nullable = false, columnDefinition = "BINARY LARGE OBJECT")
+    private byte[] content;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    public PayloadDictionary(String family, byte[] content) {
+        this.family = family;
+        this.content = content;
+    }
+}
@@ -1,47 +1,87 @@
 package com.example.mqttcore.entity;
 
-import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.hibernate.annotations.CreationTimestamp;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.function.Supplier;
 
-@Entity
-@Table(name = "received_messages", indexes = {
-        @Index(name = "idx_topic", columnList = "topic"),
-        @Index(name = "idx_received_at", columnList = "receivedAt")
-})
+/**
+ * One message of the history. Rows live in the time partition of their {@link #receivedAt} and
+ * are read and written through {@code ReceivedMessageRepository}.
+ */
 @Getter
 @Setter
 @NoArgsConstructor
 public class ReceivedMessage {
 
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    /** Ids taken from {@code received_messages_seq} per sequence value. */
+    public static final int ALLOCATION_SIZE = 100;
+
     private Long id;
 
-    @Column(nullable = false, length = 500)
-    private String topic;
+    /** Key into {@link Topic}; names are resolved through the in-memory topic dictionary. */
+    private int topicId;
+
+    @Getter(AccessLevel.NONE)
+    private byte[] payload;
 
-    @Column(columnDefinition = "TEXT")
-    private String payload;
+    /** Payload length in bytes, known without loading the payload. */
+    @Setter(AccessLevel.NONE)
+    private int payloadSize;
+
+    /** For a row read back: decompresses the payload when it is first asked for. */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Supplier<byte[]> payloadLoader;
 
-    @Column(nullable = false)
     private int qos;
 
-    @Column(nullable = false)
     private boolean retained;
 
-    @CreationTimestamp
-    @Column(updatable = false, nullable = false)
     private LocalDateTime receivedAt;
 
-    public ReceivedMessage(String topic, String payload, int qos, boolean retained) {
-        this.topic = topic;
-        this.payload = payload;
+    public ReceivedMessage(int topicId, byte[] payload, int qos, boolean retained) {
+        this.topicId = topicId;
+        setPayload(payload);
         this.qos = qos;
         this.retained = retained;
     }
+
+    public ReceivedMessage(int topicId, byte[] payload, int qos, boolean retained, LocalDateTime receivedAt) {
+        this(topicId, payload, qos, retained);
+        // the column keeps microseconds; match it so the message sorts like the row read back
+        this.receivedAt = receivedAt != null ? receivedAt.truncatedTo(ChronoUnit.MICROS) : null;
+    }
+
+    public byte[] getPayload() {
+        Supplier<byte[]> loader = payloadLoader;
+        if (loader != null) {
+            payload = loader.get();
+            payloadLoader = null;
+        }
+        return payload;
+    }
+
+    /** The payload as UTF-8 text, with replacement characters where it is not. */
+    public String getPayloadText() {
+        return new String(getPayload(), StandardCharsets.UTF_8);
+    }
+
+    public void setPayload(byte[] payload) {
+        this.payload = payload != null ? payload : new byte[0];
+        this.payloadSize = this.payload.length;
+        this.payloadLoader = null;
+    }
+
+    /** Sets a payload of {@code size} bytes that {@code loader} produces on first access. */
+    public void setPayload(int size, Supplier<byte[]> loader) {
+        this.payload = null;
+        this.payloadSize = size;
+        this.payloadLoader = loader;
+    }
 }
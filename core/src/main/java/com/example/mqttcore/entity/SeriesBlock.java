@@ -0,0 +1,51 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A compressed block of points of one numeric series: the payload of a topic (empty
+ * {@link #fieldPath}) or one of its numeric JSON fields. Written by the series store; the block
+ * a series is appending to is rewritten until it is full and sealed.
+ */
+@Entity
+@Table(name = "series_blocks", indexes = {
+        @Index(name = "idx_series_block_range", columnList = "topic_id, fieldPath, endAt")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class SeriesBlock {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "topic_id", nullable = false)
+    private int topicId;
+
+    @Column(nullable = false, length = 200)
+    private String fieldPath;
+
+    /** Earliest point of the block. */
+    @Column(nullable = false)
+    private LocalDateTime startAt;
+
+    /** Latest point of the block. */
+    @Column(nullable = false)
+    private LocalDateTime endAt;
+
+    @Column(nullable = false)
+    private int pointCount;
+
+    /** Full; no more points are added. */
+    @Column(nullable = false)
+    private boolean sealed;
+
+    @Column(nullable = false, columnDefinition = "BINARY LARGE OBJECT")
+    private byte[] data;
+}
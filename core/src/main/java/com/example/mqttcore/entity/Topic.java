@@ -0,0 +1,47 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Every topic a message was ever received on. Message rows reference the compact id instead of
+ * repeating the topic string.
+ */
+@Entity
+@Table(name = "mqtt_topics")
+@Getter
+@Setter
+@NoArgsConstructor
+public class Topic {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(nullable = false, unique = true, length = 500)
+    private String name;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private LocalDateTime createdAt;
+
+    // Statistics below are maintained by the topic catalog and written back periodically;
+    // a null count means they have not been computed for this row yet
+
+    private Long messageCount = 0L;
+
+    private Long payloadBytes = 0L;
+
+    private LocalDateTime firstSeen;
+
+    private LocalDateTime lastSeen;
+
+    public Topic(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.mqttcore.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Number of messages of one topic received in one time bucket. Maintained by the topic timeline
+ * so volume questions never have to count message rows.
+ */
+@Entity
+@Table(name = "topic_volume", indexes = {
+        @Index(name = "idx_volume_topic_bucket", columnList = "topic_id, bucketStart"),
+        @Index(name = "idx_volume_resolution_bucket", columnList = "resolution, bucketStart")
+})
+@IdClass(TopicVolume.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class TopicVolume {
+
+    @Id
+    @Column(name = "topic_id")
+    private int topicId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private VolumeResolution resolution;
+
+    @Id
+    private LocalDateTime bucketStart;
+
+    @Column(nullable = false)
+    private long messageCount;
+
+    @Column(nullable = false)
+    private long payloadBytes;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private int topicId;
+        private VolumeResolution resolution;
+        private LocalDateTime bucketStart;
+    }
+}
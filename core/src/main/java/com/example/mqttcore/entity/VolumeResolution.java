@@ -0,0 +1,41 @@
+package com.example.mqttcore.entity;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Bucket width of {@link TopicVolume} and {@link FieldAggregate} rows. New buckets are written per
+ * minute and compacted into hours and days as they age.
+ */
+public enum VolumeResolution {
+    MINUTE(ChronoUnit.MINUTES),
+    HOUR(ChronoUnit.HOURS),
+    DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    VolumeResolution(ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /** Resolution giving at most about 1500 buckets over the range. */
+    public static VolumeResolution forRange(LocalDateTime from, LocalDateTime to) {
+        Duration range = Duration.between(from, to);
+        return range.toHours() <= 24 ? MINUTE : range.toDays() <= 60 ? HOUR : DAY;
+    }
+
+    public LocalDateTime truncate(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    /** End of the bucket starting at {@code start}, exclusive. */
+    public LocalDateTime end(LocalDateTime start) {
+        return start.plus(1, unit);
+    }
+
+    /** Number of buckets of this width between two times. */
+    public long bucketsBetween(LocalDateTime from, LocalDateTime to) {
+        return unit.between(truncate(from), truncate(to)) + 1;
+    }
+}
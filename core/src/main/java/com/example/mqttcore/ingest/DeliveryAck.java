@@ -0,0 +1,13 @@
+package com.example.mqttcore.ingest;
+
+/**
+ * Acknowledges a message to the broker once the pipeline is done with it, either because it has
+ * been committed or because it was deliberately discarded.
+ */
+@FunctionalInterface
+public interface DeliveryAck {
+
+    DeliveryAck NONE = () -> { };
+
+    void release();
+}
@@ -0,0 +1,36 @@
+package com.example.mqttcore.ingest;
+
+import java.time.LocalDateTime;
+
+/**
+ * A message accepted from the broker and waiting in the ingest queue to be written.
+ *
+ * @param sequence position in the write-ahead spool, or {@link #NOT_SPOOLED}
+ * @param ack      releases the broker acknowledgement when manual acks are in use
+ */
+public record InboundMessage(String topic, byte[] payload, int qos, boolean retained, LocalDateTime receivedAt,
+                             long sequence, DeliveryAck ack) {
+
+    public static final long NOT_SPOOLED = -1;
+
+    public InboundMessage(String topic, byte[] payload, int qos, boolean retained, LocalDateTime receivedAt) {
+        this(topic, payload, qos, retained, receivedAt, NOT_SPOOLED, DeliveryAck.NONE);
+    }
+
+    public InboundMessage(String topic, byte[] payload, int qos, boolean retained, LocalDateTime receivedAt,
+                          DeliveryAck ack) {
+        this(topic, payload, qos, retained, receivedAt, NOT_SPOOLED, ack);
+    }
+
+    public InboundMessage withSequence(long sequence) {
+        return new InboundMessage(topic, payload, qos, retained, receivedAt, sequence, ack);
+    }
+
+    public InboundMessage withAck(DeliveryAck ack) {
+        return new InboundMessage(topic, payload, qos, retained, receivedAt, sequence, ack);
+    }
+
+    public boolean isSpooled() {
+        return sequence != NOT_SPOOLED;
+    }
+}
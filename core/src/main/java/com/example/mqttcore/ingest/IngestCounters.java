@@ -0,0 +1,44 @@
+package com.example.mqttcore.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-subscription ingest counters, shared by every topic routed to the subscription.
+ */
+public class IngestCounters {
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final AtomicLong sampleSequence = new AtomicLong();
+
+    void recordAccepted() {
+        accepted.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    void recordDelayed() {
+        delayed.increment();
+    }
+
+    /** True for one message out of every {@code rate}. */
+    boolean sample(int rate) {
+        return sampleSequence.getAndIncrement() % Math.max(rate, 1) == 0;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getDelayed() {
+        return delayed.sum();
+    }
+}
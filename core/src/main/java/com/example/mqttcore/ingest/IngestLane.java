@@ -0,0 +1,138 @@
+package com.example.mqttcore.ingest;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * One worker lane of the ingest pipeline: a bounded queue and the thread that drains it in
+ * batches. Every topic is hashed onto exactly one lane, so messages of a topic stay in order
+ * while different topics are written in parallel.
+ */
+class IngestLane {
+
+    private final int index;
+    private final BlockingQueue<InboundMessage> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Function<List<InboundMessage>, List<InboundMessage>> writer;
+    private Thread thread;
+    private volatile boolean running;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder latencyMsTotal = new LongAdder();
+    private final AtomicLong lastLatencyMs = new AtomicLong();
+
+    /**
+     * @param writer writes a batch and returns the messages of it that were committed
+     */
+    IngestLane(int index, int capacity, int batchSize, long flushIntervalMs,
+               Function<List<InboundMessage>, List<InboundMessage>> writer) {
+        this.index = index;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.writer = writer;
+    }
+
+    void start(Thread.Builder threadBuilder) {
+        running = true;
+        thread = threadBuilder.name("mqtt-ingest-lane-" + index).start(this::run);
+    }
+
+    /** Lets the lane finish once its queue is empty. */
+    void stop() {
+        running = false;
+    }
+
+    boolean awaitTermination(long millis) throws InterruptedException {
+        return thread.join(Duration.ofMillis(millis));
+    }
+
+    BlockingQueue<InboundMessage> queue() {
+        return queue;
+    }
+
+    int index() {
+        return index;
+    }
+
+    long getWritten() {
+        return written.sum();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    /** Mean time from arrival to commit over all written messages. */
+    long getAverageLatencyMs() {
+        long count = written.sum();
+        return count == 0 ? 0 : latencyMsTotal.sum() / count;
+    }
+
+    /** Arrival-to-commit time of the oldest message in the last batch. */
+    long getLastLatencyMs() {
+        return lastLatencyMs.get();
+    }
+
+    private void run() {
+        List<InboundMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                fillBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                List<InboundMessage> committed = writer.apply(batch);
+                if (!committed.isEmpty()) {
+                    recordCommitted(committed);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void fillBatch(List<InboundMessage> batch) throws InterruptedException {
+        InboundMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            InboundMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void recordCommitted(List<InboundMessage> batch) {
+        LocalDateTime now = LocalDateTime.now();
+        long total = 0;
+        for (InboundMessage message : batch) {
+            total += Duration.between(message.receivedAt(), now).toMillis();
+        }
+        latencyMsTotal.add(total);
+        lastLatencyMs.set(Duration.between(batch.get(0).receivedAt(), now).toMillis());
+        written.add(batch.size());
+        batches.increment();
+    }
+}
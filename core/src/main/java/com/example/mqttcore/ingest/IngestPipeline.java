@@ -0,0 +1,483 @@
+package com.example.mqttcore.ingest;
+
+import com.example.mqttcore.dto.IngestStatusDto;
+import com.example.mqttcore.series.SeriesStore;
+import com.example.mqttcore.service.FieldAggregator;
+import com.example.mqttcore.service.LatestValueStore;
+import com.example.mqttcore.service.MessageService;
+import com.example.mqttcore.service.TopicCatalog;
+import com.example.mqttcore.service.TopicTimeline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the Paho callback thread from the database. Incoming messages are hashed by topic
+ * onto a number of lanes, each a bounded queue drained by its own writer thread in multi-row
+ * batches (flushed when a batch is full or the flush interval has elapsed). Messages of one
+ * topic always take the same lane and stay in order; different topics are written in parallel.
+ *
+ * <p>With the write-ahead spool enabled every message is appended to the spool first. When a
+ * lane is full the pipeline switches to spilling: new messages go to the spool only and a
+ * drainer thread feeds them back into their lanes in order as room frees up. Overload policies
+ * then only apply once the spool itself is full. On startup the drainer replays whatever the
+ * spool holds beyond its last checkpoint.
+ *
+ * <p>A message is complete once it has been committed or deliberately discarded; only then is
+ * its spool record released and, with manual acks, its broker acknowledgement sent.
+ */
+@Slf4j
+@Component
+@DependsOn("databaseMigrator")
+@RequiredArgsConstructor
+public class IngestPipeline {
+
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long MAX_RETRY_BACKOFF_MS = 5000;
+
+    @Value("${mqtt.ingest.batch-size:500}")
+    private int batchSize;
+
+    @Value("${mqtt.ingest.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    /** Total capacity, split evenly across the lanes. */
+    @Value("${mqtt.ingest.queue-capacity:50000}")
+    private int queueCapacity;
+
+    @Value("${mqtt.ingest.lanes:4}")
+    private int laneCount;
+
+    @Value("${mqtt.ingest.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    @Value("${mqtt.ingest.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs;
+
+    /** Lane fill ratio above which {@code SAMPLE} subscriptions start discarding. */
+    @Value("${mqtt.ingest.sample-threshold:0.8}")
+    private double sampleThreshold;
+
+    private final MessageService messageService;
+    private final LatestValueStore latestValues;
+    private final TopicCatalog topicCatalog;
+    private final TopicTimeline topicTimeline;
+    private final FieldAggregator fieldAggregator;
+    private final SeriesStore seriesStore;
+    private final SubscriptionRouter subscriptionRouter;
+    private final WriteAheadSpool spool;
+
+    private IngestLane[] lanes;
+    private Thread spillDrainer;
+    private volatile boolean running;
+    private volatile boolean draining;
+
+    private final Object spillLock = new Object();
+    private boolean spilling;
+    private long spillFrom;
+    private final Map<Long, DeliveryAck> spilledAcks = new ConcurrentHashMap<>();
+
+    private int sampleFromDepth;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    /** Committed batches the in-memory views failed to record. */
+    private final AtomicLong hookFailures = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        int laneCapacity = Math.max(1, queueCapacity / laneCount);
+        sampleFromDepth = (int) (laneCapacity * sampleThreshold);
+        Thread.Builder threads = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform();
+        lanes = new IngestLane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new IngestLane(i, laneCapacity, batchSize, flushIntervalMs, this::flush);
+            lanes[i].start(threads);
+        }
+        running = true;
+        if (spool.isEnabled()) {
+            long firstPending = spool.firstPendingSequence();
+            if (firstPending >= 0) {
+                log.info("Replaying {} uncommitted messages from the spool", spool.getPendingCount());
+                spilling = true;
+                spillFrom = firstPending;
+            }
+            draining = true;
+            spillDrainer = new Thread(this::runSpillDrainer, "mqtt-ingest-spill");
+            spillDrainer.start();
+        }
+        log.info("Ingest pipeline started ({} {} lanes, batch size {}, flush interval {} ms, queue capacity {}, spool {})",
+                laneCount, virtualThreads ? "virtual" : "platform", batchSize, flushIntervalMs, queueCapacity,
+                spool.isEnabled() ? "on" : "off");
+    }
+
+    /**
+     * Queues a message for writing, applying the overload policy of the subscription the topic
+     * belongs to when there is no room for it.
+     */
+    public void submit(InboundMessage message) {
+        if (!running) {
+            rejectAfterShutdown(message);
+            return;
+        }
+        SubscriptionRoute route = subscriptionRouter.resolve(message.topic());
+        if (spool.isEnabled() && submitSpooled(message)) {
+            route.counters().recordAccepted();
+            accepted.incrementAndGet();
+            return;
+        }
+        BlockingQueue<InboundMessage> queue = laneFor(message.topic()).queue();
+        boolean queued = switch (route.overloadPolicy()) {
+            case BLOCK -> offerOrBlock(queue, message, route);
+            case DROP_NEWEST -> queue.offer(message);
+            case DROP_OLDEST -> offerEvictingOldest(queue, message, route);
+            case SAMPLE -> offerSampled(queue, message, route);
+        };
+        if (queued) {
+            route.counters().recordAccepted();
+            accepted.incrementAndGet();
+        } else {
+            route.counters().recordDropped();
+            dropped.incrementAndGet();
+            message.ack().release();
+        }
+    }
+
+    /**
+     * Stops the spill drainer, then lets every lane flush what is left in its queue. Messages
+     * still only in the spool are replayed on the next start. Safe to call more than once.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (spillDrainer != null) {
+            draining = false;
+            spillDrainer.interrupt();
+            joinQuietly(spillDrainer);
+        }
+        for (IngestLane lane : lanes) {
+            lane.stop();
+        }
+        int unfinished = 0;
+        for (IngestLane lane : lanes) {
+            try {
+                if (!lane.awaitTermination(shutdownTimeoutMs)) {
+                    unfinished += lane.queue().size();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (unfinished > 0) {
+            log.warn("Ingest lanes did not finish within {} ms, {} messages not written", shutdownTimeoutMs, unfinished);
+        } else {
+            log.info("Ingest pipeline drained ({} messages written, {} failed)", getWritten(), failed.get());
+        }
+    }
+
+    public long getWritten() {
+        return Arrays.stream(lanes).mapToLong(IngestLane::getWritten).sum();
+    }
+
+    /** Messages waiting in the lane queues. */
+    public int getQueueDepth() {
+        return Arrays.stream(lanes).mapToInt(lane -> lane.queue().size()).sum();
+    }
+
+    public IngestStatusDto getStatus() {
+        IngestStatusDto dto = new IngestStatusDto();
+        dto.setQueueDepth(getQueueDepth());
+        dto.setQueueCapacity(queueCapacity);
+        dto.setAccepted(accepted.get());
+        dto.setWritten(getWritten());
+        dto.setFailed(failed.get());
+        dto.setHookFailures(hookFailures.get());
+        dto.setDropped(dropped.get());
+        dto.setDelayed(delayed.get());
+        dto.setSpilled(spilled.get());
+        dto.setSpoolPending(spool.getPendingCount());
+        dto.setSpoolBytes(spool.getSizeBytes());
+        dto.setLanes(Arrays.stream(lanes).map(lane -> {
+            IngestStatusDto.LaneStats stats = new IngestStatusDto.LaneStats();
+            stats.setLane(lane.index());
+            stats.setQueueDepth(lane.queue().size());
+            stats.setWritten(lane.getWritten());
+            stats.setBatches(lane.getBatches());
+            stats.setAverageLatencyMs(lane.getAverageLatencyMs());
+            stats.setLastLatencyMs(lane.getLastLatencyMs());
+            return stats;
+        }).toList());
+        dto.setSubscriptions(subscriptionRouter.getRoutes().stream().map(route -> {
+            IngestStatusDto.SubscriptionStats stats = new IngestStatusDto.SubscriptionStats();
+            stats.setTopicFilter(route.topicFilter());
+            stats.setOverloadPolicy(route.overloadPolicy());
+            stats.setAccepted(route.counters().getAccepted());
+            stats.setDropped(route.counters().getDropped());
+            stats.setDelayed(route.counters().getDelayed());
+            return stats;
+        }).toList());
+        return dto;
+    }
+
+    /**
+     * Messages arriving while the client disconnects are kept in the spool for the next start.
+     * Their acks are never released, so with manual acks the broker redelivers them as well.
+     */
+    private void rejectAfterShutdown(InboundMessage message) {
+        if (!spool.isEnabled() || spool.append(message) < 0) {
+            dropped.incrementAndGet();
+            log.debug("Ingest pipeline stopped, discarding message on topic [{}]", message.topic());
+        }
+    }
+
+    private IngestLane laneFor(String topic) {
+        return lanes[Math.floorMod(topic.hashCode(), lanes.length)];
+    }
+
+    // --- Spool ---
+
+    /**
+     * Appends to the spool and queues the message, or leaves it in the spool for the drainer if
+     * its lane is full or earlier messages are still spilled. Returns false if the spool is full.
+     */
+    private boolean submitSpooled(InboundMessage message) {
+        synchronized (spillLock) {
+            long sequence = spool.append(message);
+            if (sequence < 0) {
+                return false;
+            }
+            if (!spilling && laneFor(message.topic()).queue().offer(message.withSequence(sequence))) {
+                return true;
+            }
+            spilled.incrementAndGet();
+            if (message.ack() != DeliveryAck.NONE) {
+                spilledAcks.put(sequence, message.ack());
+            }
+            if (!spilling) {
+                spilling = true;
+                spillFrom = sequence;
+                spillLock.notifyAll();
+            }
+            return true;
+        }
+    }
+
+    private void runSpillDrainer() {
+        while (draining) {
+            long from;
+            synchronized (spillLock) {
+                while (!spilling && draining) {
+                    try {
+                        spillLock.wait(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                from = spillFrom;
+            }
+            try {
+                drainSpill(spool.cursor(from));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void drainSpill(WriteAheadSpool.Cursor cursor) throws InterruptedException {
+        while (draining) {
+            long limit;
+            synchronized (spillLock) {
+                limit = spool.getLastSequence();
+                if (cursor.nextSequence() > limit) {
+                    spilling = false;
+                    log.debug("Spill drained up to sequence {}", limit);
+                    return;
+                }
+            }
+            InboundMessage message;
+            while ((message = cursor.next(limit)) != null) {
+                DeliveryAck ack = spilledAcks.remove(message.sequence());
+                laneFor(message.topic()).queue().put(ack != null ? message.withAck(ack) : message);
+            }
+            if (cursor.nextSequence() <= limit) {
+                // Records below the limit that cannot be read were lost to a damaged segment
+                log.warn("Spool records {}..{} could not be read and are skipped", cursor.nextSequence(), limit);
+                synchronized (spillLock) {
+                    spilling = false;
+                }
+                return;
+            }
+        }
+    }
+
+    // --- Overload policies ---
+
+    private boolean offerOrBlock(BlockingQueue<InboundMessage> queue, InboundMessage message, SubscriptionRoute route) {
+        if (queue.offer(message)) {
+            return true;
+        }
+        route.counters().recordDelayed();
+        delayed.incrementAndGet();
+        try {
+            queue.put(message);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while queueing message on topic [{}]", message.topic());
+            return false;
+        }
+    }
+
+    /**
+     * Makes room by evicting the oldest queued message of the same subscription; lanes are shared,
+     * and other subscriptions' messages must not pay for this one's overflow. With none of its
+     * messages queued, the incoming one is dropped instead.
+     */
+    private boolean offerEvictingOldest(BlockingQueue<InboundMessage> queue, InboundMessage message,
+                                        SubscriptionRoute route) {
+        while (!queue.offer(message)) {
+            InboundMessage evicted = oldestOf(queue, route);
+            if (evicted == null) {
+                return false;
+            }
+            if (queue.remove(evicted)) {
+                route.counters().recordDropped();
+                dropped.incrementAndGet();
+                complete(evicted);
+            }
+        }
+        return true;
+    }
+
+    private InboundMessage oldestOf(BlockingQueue<InboundMessage> queue, SubscriptionRoute route) {
+        for (InboundMessage queued : queue) {
+            if (Objects.equals(subscriptionRouter.resolve(queued.topic()).topicFilter(), route.topicFilter())) {
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    private boolean offerSampled(BlockingQueue<InboundMessage> queue, InboundMessage message, SubscriptionRoute route) {
+        if (queue.size() >= sampleFromDepth && !route.counters().sample(route.sampleRate())) {
+            return false;
+        }
+        return queue.offer(message);
+    }
+
+    // --- Writing ---
+
+    /**
+     * Writes one lane's batch and returns the messages that were committed: all of them, none, or
+     * after a constraint violation all but the offending ones. Only committed messages are
+     * completed: their spool records released and their broker acks sent.
+     *
+     * <p>Failures such as the database being down for maintenance are retried with backoff until
+     * the write succeeds or the pipeline shuts down, which leaves the batch unacknowledged for
+     * the spool to replay or the broker to redeliver. A constraint violation does not go away on
+     * retry, so the batch is split to commit everything but the offending messages.
+     */
+    private List<InboundMessage> flush(List<InboundMessage> batch) {
+        List<InboundMessage> history;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                history = messageService.saveBatch(batch);
+                break;
+            } catch (DataIntegrityViolationException e) {
+                return isolate(batch, e);
+            } catch (RuntimeException e) {
+                log.warn("Failed to write batch of {} messages (attempt {}): {}", batch.size(), attempt, e.getMessage());
+                if (attempt >= MAX_WRITE_ATTEMPTS && !running) {
+                    failed.addAndGet(batch.size());
+                    log.error("Leaving batch of {} messages unacknowledged{}", batch.size(),
+                            spool.isEnabled() ? " in the spool for replay" : "");
+                    return List.of();
+                }
+                sleepQuietly(Math.min(flushIntervalMs << Math.min(attempt, 10), MAX_RETRY_BACKOFF_MS));
+            }
+        }
+        recordCommitted(batch, history);
+        batch.forEach(this::complete);
+        return batch;
+    }
+
+    /**
+     * Writes the halves of a batch that violated a constraint separately, down to the single
+     * messages that cannot be stored. Those are never acknowledged: with manual acks the broker
+     * redelivers them on the next session, and the spool keeps them for the next start.
+     */
+    private List<InboundMessage> isolate(List<InboundMessage> batch, DataIntegrityViolationException e) {
+        if (batch.size() == 1) {
+            failed.incrementAndGet();
+            log.error("Message on topic [{}] cannot be stored and is left unacknowledged: {}",
+                    batch.get(0).topic(), e.getMessage());
+            return List.of();
+        }
+        int half = batch.size() / 2;
+        List<InboundMessage> committed = new ArrayList<>(flush(batch.subList(0, half)));
+        committed.addAll(flush(batch.subList(half, batch.size())));
+        return committed;
+    }
+
+    /**
+     * Passes a committed batch to the in-memory views of the history, each exactly once: the
+     * batch is not written again whatever they throw, so a failure is logged and counted only.
+     */
+    private void recordCommitted(List<InboundMessage> batch, List<InboundMessage> history) {
+        recordQuietly("latest values", () -> latestValues.record(batch));
+        recordQuietly("topic catalog", () -> topicCatalog.record(history));
+        recordQuietly("topic timeline", () -> topicTimeline.record(history));
+        recordQuietly("field aggregates", () -> fieldAggregator.record(history));
+        recordQuietly("series store", () -> seriesStore.record(history));
+    }
+
+    private void recordQuietly(String view, Runnable record) {
+        try {
+            record.run();
+        } catch (RuntimeException e) {
+            hookFailures.incrementAndGet();
+            log.error("Failed to record a committed batch in the {}", view, e);
+        }
+    }
+
+    private void complete(InboundMessage message) {
+        spool.complete(message);
+        message.ack().release();
+    }
+
+    private void joinQuietly(Thread thread) {
+        try {
+            thread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.mqttcore.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Pulls fields out of JSON payloads with a streaming parser. Only objects on a configured
+ * path are descended into; everything else is skipped token by token, no tree is built, and
+ * parsing stops as soon as every path has been found. Paths are dot-separated object keys, e.g.
+ * {@code battery.level}.
+ */
+public final class JsonFieldExtractor {
+
+    public static final JsonFieldExtractor NONE = new JsonFieldExtractor(List.of());
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final List<String> paths;
+    private final Node root = new Node();
+
+    private JsonFieldExtractor(List<String> paths) {
+        this.paths = paths;
+        for (int i = 0; i < paths.size(); i++) {
+            Node node = root;
+            for (String key : paths.get(i).split("\\.")) {
+                node = node.children.computeIfAbsent(key, k -> new Node());
+            }
+            node.path = paths.get(i);
+            node.index = i;
+        }
+    }
+
+    /** Compiles a comma-separated list of paths, as stored on the subscription. */
+    public static JsonFieldExtractor of(String spec) {
+        List<String> paths = parsePaths(spec);
+        return paths.isEmpty() ? NONE : new JsonFieldExtractor(paths);
+    }
+
+    /**
+     * Splits and validates a comma-separated list of paths.
+     *
+     * @throws IllegalArgumentException if a path has an empty key
+     */
+    public static List<String> parsePaths(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return List.of();
+        }
+        Set<String> paths = new LinkedHashSet<>();
+        for (String part : spec.split(",")) {
+            String path = part.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new IllegalArgumentException("Invalid JSON field path: " + path);
+            }
+            paths.add(path);
+        }
+        return new ArrayList<>(paths);
+    }
+
+    public List<String> paths() {
+        return paths;
+    }
+
+    public boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    /**
+     * Passes every configured path that holds a number to {@code consumer}. Payloads that are
+     * not JSON objects yield nothing; for malformed JSON, values before the error are kept.
+     */
+    public void extract(byte[] payload, ObjDoubleConsumer<String> consumer) {
+        extractValues(payload, (path, value) -> {
+            if (value instanceof Number number) {
+                consumer.accept(path, number.doubleValue());
+            }
+        });
+    }
+
+    /**
+     * Passes every configured path that holds a scalar to {@code consumer}, as a {@link Long}
+     * (integral numbers), {@link Double}, {@link String} or {@link Boolean}. Each path is reported
+     * at most once, even if the payload repeats a key.
+     */
+    public void extractValues(byte[] payload, BiConsumer<String, Object> consumer) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                walk(parser, root, new Walk(paths.size()), consumer);
+            }
+        } catch (IOException e) {
+            // Not JSON, or truncated; nothing more to extract
+        }
+    }
+
+    /** Returns false once every path has been found, which ends the parse. */
+    private static boolean walk(JsonParser parser, Node node, Walk walk,
+                                BiConsumer<String, Object> consumer) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Node child = node.children.get(parser.currentName());
+            JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+            } else if (token.isScalarValue() && child.path != null) {
+                Object value = scalar(parser, token);
+                if (value != null && !walk.found[child.index]) {
+                    walk.found[child.index] = true;
+                    consumer.accept(child.path, value);
+                    if (--walk.remaining == 0) {
+                        return false;
+                    }
+                }
+            } else if (token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+                if (!walk(parser, child, walk, consumer)) {
+                    return false;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private static Object scalar(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_NUMBER_INT -> parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                    ? (Object) parser.getDoubleValue() : (Object) parser.getLongValue();
+            case VALUE_NUMBER_FLOAT -> parser.getDoubleValue();
+            case VALUE_STRING -> parser.getText();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            default -> null;
+        };
+    }
+
+    private static final class Walk {
+        private final boolean[] found;
+        private int remaining;
+
+        Walk(int paths) {
+            found = new boolean[paths];
+            remaining = paths;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private String path;
+        private int index;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.mqttcore.ingest;
+
+import com.example.mqttcore.entity.MqttSubscription;
+
+/**
+ * Retention limits of a subscription; a null limit does not apply.
+ *
+ * @param maxAgeDays  purge messages older than this many days
+ * @param maxMessages keep only the newest this many messages per topic
+ * @param maxBytes    payload bytes all topics of the subscription may hold together
+ */
+public record RetentionPolicy(Integer maxAgeDays, Integer maxMessages, Long maxBytes) {
+
+    public static final RetentionPolicy NONE = new RetentionPolicy(null, null, null);
+
+    public static RetentionPolicy of(MqttSubscription sub) {
+        return new RetentionPolicy(sub.getRetentionDays(), sub.getRetentionMaxMessages(), sub.getRetentionMaxBytes());
+    }
+
+    public boolean isEmpty() {
+        return maxAgeDays == null && maxMessages == null && maxBytes == null;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.mqttcore.ingest;
+
+import com.example.mqttcore.entity.OverloadPolicy;
+
+/**
+ * Snapshot of the subscription settings that apply to an incoming message.
+ */
+public record SubscriptionRoute(String topicFilter,
+                                OverloadPolicy overloadPolicy,
+                                int sampleRate,
+                                boolean retainedLatestOnly,
+                                JsonFieldExtractor numericFields,
+                                boolean numericSeries,
+                                JsonFieldExtractor indexedFields,
+                                RetentionPolicy retention,
+                                IngestCounters counters) {
+}
@@ -0,0 +1,98 @@
+package com.example.mqttcore.ingest;
+
+import com.example.mqttcore.entity.MqttSubscription;
+import com.example.mqttcore.entity.OverloadPolicy;
+import com.example.mqttcore.mqtt.TopicFilters;
+import com.example.mqttcore.repository.MqttSubscriptionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Resolves which active subscription an incoming topic belongs to. When several filters match,
+ * the most specific one wins. Results are cached per topic until the subscriptions change.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SubscriptionRouter {
+
+    public static final String UNMATCHED = "(unmatched)";
+
+    private static final int MAX_CACHED_TOPICS = 100_000;
+
+    @Value("${mqtt.ingest.default-overload-policy:BLOCK}")
+    private OverloadPolicy defaultPolicy;
+
+    private final MqttSubscriptionRepository subscriptionRepository;
+
+    private final Map<String, IngestCounters> countersByFilter = new ConcurrentHashMap<>();
+    private volatile List<SubscriptionRoute> routes = List.of();
+    private volatile Map<String, SubscriptionRoute> routeByTopic = new ConcurrentHashMap<>();
+    private SubscriptionRoute defaultRoute;
+
+    @PostConstruct
+    public void init() {
+        defaultRoute = new SubscriptionRoute(UNMATCHED, defaultPolicy, 1, false,
+                JsonFieldExtractor.NONE, false, JsonFieldExtractor.NONE, RetentionPolicy.NONE, counters(UNMATCHED));
+        refresh();
+    }
+
+    /**
+     * Reloads the active subscriptions. Call after any subscription change.
+     */
+    public void refresh() {
+        routes = subscriptionRepository.findByActiveTrue().stream()
+                .sorted(Comparator.comparingInt((MqttSubscription sub) ->
+                        TopicFilters.specificity(sub.getTopicFilter())).reversed())
+                .map(this::toRoute)
+                .toList();
+        routeByTopic = new ConcurrentHashMap<>();
+        log.debug("Loaded {} subscription routes", routes.size());
+    }
+
+    public SubscriptionRoute resolve(String topic) {
+        Map<String, SubscriptionRoute> cache = routeByTopic;
+        SubscriptionRoute route = cache.get(topic);
+        if (route != null) {
+            return route;
+        }
+        route = defaultRoute;
+        for (SubscriptionRoute candidate : routes) {
+            if (TopicFilters.matches(candidate.topicFilter(), topic)) {
+                route = candidate;
+                break;
+            }
+        }
+        if (cache.size() < MAX_CACHED_TOPICS) {
+            cache.put(topic, route);
+        }
+        return route;
+    }
+
+    /** Active routes plus the fallback for topics no subscription matches. */
+    public List<SubscriptionRoute> getRoutes() {
+        List<SubscriptionRoute> current = routes;
+        return Stream.concat(current.stream(), Stream.of(defaultRoute)).toList();
+    }
+
+    private SubscriptionRoute toRoute(MqttSubscription sub) {
+        return new SubscriptionRoute(sub.getTopicFilter(), sub.getOverloadPolicy(), sub.getSampleRate(),
+                sub.isRetainedLatestOnly(),
+                JsonFieldExtractor.of(sub.getNumericFields()), sub.isNumericSeries(),
+                JsonFieldExtractor.of(sub.getIndexedFields()),
+                RetentionPolicy.of(sub), counters(sub.getTopicFilter()));
+    }
+
+    private IngestCounters counters(String topicFilter) {
+        return countersByFilter.computeIfAbsent(topicFilter, f -> new IngestCounters());
+    }
+}
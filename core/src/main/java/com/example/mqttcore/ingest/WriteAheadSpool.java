@@ -0,0 +1,430 @@
+package com.example.mqttcore.ingest;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of incoming messages in memory-mapped segment files. Every message is
+ * appended here before it is queued, so messages that were accepted but not yet committed to the
+ * database survive a crash and are replayed on the next start.
+ *
+ * <p>Record layout: {@code int bodyLength, int crc32c(body), body}, where the body is
+ * {@code long sequence, long epochSecond, int nano, byte flags, short topicLength, topic,
+ * int payloadLength, payload}. A zero length marks the end of the written part of a segment.
+ * The length is written last, so a torn record fails the CRC check and ends the log.
+ *
+ * <p>Sequences are marked complete once their batch has been committed. A checkpoint file holds
+ * the highest sequence below which everything is complete; segments entirely below it are deleted.
+ */
+@Slf4j
+@Component
+public class WriteAheadSpool {
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = 8;
+    private static final int FIXED_BODY_BYTES = 8 + 8 + 4 + 1 + 2 + 4;
+    private static final long MB = 1024L * 1024L;
+
+    @Value("${mqtt.spool.enabled:false}")
+    private boolean enabled;
+
+    @Value("${mqtt.spool.directory:./data/spool}")
+    private String directory;
+
+    @Value("${mqtt.spool.segment-size-mb:64}")
+    private long segmentSizeMb;
+
+    @Value("${mqtt.spool.max-size-mb:2048}")
+    private long maxSizeMb;
+
+    @Value("${mqtt.spool.checkpoint-interval-ms:1000}")
+    private long checkpointIntervalMs;
+
+    /** Force mapped pages to disk at every checkpoint; without it a process crash is covered but an OS crash is not. */
+    @Value("${mqtt.spool.fsync:false}")
+    private boolean fsync;
+
+    private Path dir;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+    private final CRC32C crc = new CRC32C();
+    private Segment active;
+    private long lastSequence;
+    private volatile long checkpoint;
+    private ScheduledExecutorService checkpointer;
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        checkpoint = readCheckpoint();
+        lastSequence = checkpoint;
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.recover(file, pending, checkpoint);
+            if (segment.lastSequence <= checkpoint) {
+                segment.close();
+                Files.deleteIfExists(file);
+                continue;
+            }
+            segments.add(segment);
+            lastSequence = Math.max(lastSequence, segment.lastSequence);
+        }
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "mqtt-spool-checkpoint"));
+        checkpointer.scheduleWithFixedDelay(this::checkpointQuietly,
+                checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Write-ahead spool opened at {} ({} segments, {} uncommitted messages)",
+                dir.toAbsolutePath(), segments.size(), pending.size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends a message and returns its sequence, or -1 when the spool has reached its size limit.
+     */
+    public synchronized long append(InboundMessage message) {
+        byte[] topic = message.topic().getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_BYTES + topic.length + message.payload().length;
+        int recordLength = HEADER_BYTES + bodyLength;
+        if ((active == null || active.remaining() < recordLength) && !roll(recordLength)) {
+            return -1;
+        }
+        long sequence = lastSequence + 1;
+        active.write(sequence, message, topic, bodyLength, crc);
+        lastSequence = sequence;
+        pending.add(sequence);
+        return sequence;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /** Marks spooled messages as committed (or deliberately discarded). */
+    public void complete(Collection<InboundMessage> messages) {
+        for (InboundMessage message : messages) {
+            complete(message);
+        }
+    }
+
+    public void complete(InboundMessage message) {
+        if (message.isSpooled()) {
+            pending.remove(message.sequence());
+        }
+    }
+
+    /** Sequence of the oldest message not yet committed, or -1 if there is none. */
+    public long firstPendingSequence() {
+        return pending.isEmpty() ? -1 : pending.first();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getSizeBytes() {
+        return segments.stream().mapToLong(Segment::capacity).sum();
+    }
+
+    /** Reads spooled messages in sequence order starting at {@code fromSequence}. */
+    public Cursor cursor(long fromSequence) {
+        return new Cursor(fromSequence);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        checkpointer.shutdown();
+        checkpointQuietly();
+        for (Segment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+        log.info("Write-ahead spool closed ({} uncommitted messages kept for replay)", pending.size());
+    }
+
+    // --- Segments and checkpoints ---
+
+    private boolean roll(int recordLength) {
+        long size = Math.max(segmentSizeMb * MB, recordLength);
+        if (getSizeBytes() + size > maxSizeMb * MB) {
+            return false;
+        }
+        if (active != null && fsync) {
+            active.force();
+        }
+        Path file = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, lastSequence + 1, SEGMENT_SUFFIX));
+        try {
+            active = Segment.create(file, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create spool segment " + file, e);
+        }
+        segments.add(active);
+        return true;
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            log.error("Spool checkpoint failed: {}", e.getMessage());
+        }
+    }
+
+    private void checkpoint() throws IOException {
+        long watermark;
+        Segment current;
+        synchronized (this) {
+            watermark = pending.isEmpty() ? lastSequence : pending.first() - 1;
+            current = active;
+        }
+        if (fsync && current != null) {
+            current.force();
+        }
+        if (watermark > checkpoint) {
+            Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+            Files.writeString(tmp, Long.toString(watermark));
+            Files.move(tmp, dir.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpoint = watermark;
+        }
+        for (Segment segment : segments) {
+            if (segment != current && segment.lastSequence <= checkpoint) {
+                segments.remove(segment);
+                segment.close();
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (IOException e) {
+                    // Some platforms refuse to delete a file that is still mapped; startup retries it
+                    log.debug("Could not delete spool segment {}: {}", segment.file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(file).trim());
+    }
+
+    /**
+     * Forward-only reader. Each call to {@link #next(long)} returns the next message up to the
+     * given sequence, or {@code null} if the reader has caught up with it.
+     */
+    public class Cursor {
+
+        private long nextSequence;
+        private Segment segment;
+        private int position;
+
+        private Cursor(long fromSequence) {
+            this.nextSequence = fromSequence;
+        }
+
+        public long nextSequence() {
+            return nextSequence;
+        }
+
+        public InboundMessage next(long limit) {
+            while (nextSequence <= limit) {
+                if (segment == null && !locate()) {
+                    return null;
+                }
+                InboundMessage message = segment.read(position);
+                if (message == null) {
+                    if (!advanceSegment()) {
+                        return null;
+                    }
+                    continue;
+                }
+                position += segment.recordLength(position);
+                if (message.sequence() >= nextSequence) {
+                    nextSequence = message.sequence() + 1;
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        private boolean locate() {
+            for (Segment candidate : segments) {
+                if (candidate.lastSequence >= nextSequence) {
+                    segment = candidate;
+                    position = 0;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean advanceSegment() {
+            int index = segments.indexOf(segment);
+            if (index < 0) {
+                // The segment was deleted after being checkpointed; find our place again
+                segment = null;
+                return locate();
+            }
+            if (index + 1 < segments.size()) {
+                segment = segments.get(index + 1);
+                position = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private volatile long lastSequence;
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path file, long size) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        /** Maps an existing segment and collects the sequences above the checkpoint. */
+        static Segment recover(Path file, Collection<Long> pending, long checkpoint) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            int position = 0;
+            InboundMessage message;
+            while ((message = segment.read(position)) != null) {
+                if (message.sequence() > checkpoint) {
+                    pending.add(message.sequence());
+                }
+                segment.lastSequence = message.sequence();
+                position += segment.recordLength(position);
+            }
+            if (position + HEADER_BYTES <= segment.buffer.capacity() && segment.buffer.getInt(position) != 0) {
+                log.warn("Spool segment {} has a damaged record at offset {}; later records are ignored", file, position);
+            }
+            // Never append after recovered data; a fresh segment is started instead
+            segment.writePosition = segment.buffer.capacity();
+            return segment;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        void write(long sequence, InboundMessage message, byte[] topic, int bodyLength, CRC32C crc) {
+            int start = writePosition;
+            int p = start + HEADER_BYTES;
+            LocalDateTime receivedAt = message.receivedAt();
+            buffer.putLong(p, sequence);
+            buffer.putLong(p + 8, receivedAt.toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(p + 16, receivedAt.getNano());
+            buffer.put(p + 20, (byte) (message.qos() | (message.retained() ? 4 : 0)));
+            buffer.putShort(p + 21, (short) topic.length);
+            buffer.put(p + 23, topic);
+            buffer.putInt(p + 23 + topic.length, message.payload().length);
+            buffer.put(p + 27 + topic.length, message.payload());
+
+            crc.reset();
+            crc.update(buffer.slice(p, bodyLength));
+            buffer.putInt(start + 4, (int) crc.getValue());
+            buffer.putInt(start, bodyLength);
+            writePosition = start + HEADER_BYTES + bodyLength;
+            lastSequence = sequence;
+        }
+
+        int recordLength(int position) {
+            return HEADER_BYTES + buffer.getInt(position);
+        }
+
+        /** Decodes the record at {@code position}, or returns null at the end of valid data. */
+        InboundMessage read(int position) {
+            if (position + HEADER_BYTES > buffer.capacity()) {
+                return null;
+            }
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength < FIXED_BODY_BYTES || position + HEADER_BYTES + bodyLength > buffer.capacity()) {
+                return null;
+            }
+            int p = position + HEADER_BYTES;
+            CRC32C check = new CRC32C();
+            check.update(buffer.slice(p, bodyLength));
+            if ((int) check.getValue() != buffer.getInt(position + 4)) {
+                return null;
+            }
+            long sequence = buffer.getLong(p);
+            LocalDateTime receivedAt = LocalDateTime.ofEpochSecond(buffer.getLong(p + 8), buffer.getInt(p + 16), ZoneOffset.UTC);
+            byte flags = buffer.get(p + 20);
+            byte[] topic = new byte[buffer.getShort(p + 21) & 0xFFFF];
+            buffer.get(p + 23, topic);
+            byte[] payload = new byte[buffer.getInt(p + 23 + topic.length)];
+            buffer.get(p + 27 + topic.length, payload);
+            return new InboundMessage(new String(topic, StandardCharsets.UTF_8), payload,
+                    flags & 3, (flags & 4) != 0, receivedAt, sequence, DeliveryAck.NONE);
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error closing spool segment {}: {}", file, e.getMessage());
+            }
+        }
+    }
+}
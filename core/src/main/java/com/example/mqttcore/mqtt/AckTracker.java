@@ -0,0 +1,86 @@
+package com.example.mqttcore.mqtt;
+
+import com.example.mqttcore.ingest.DeliveryAck;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Manual acknowledgements for one client connection. Messages may finish out of order, but
+ * MQTT requires acks in the order the messages arrived, so an ack is only sent once every
+ * earlier message has been released too. A semaphore caps the number of unacknowledged
+ * messages; when it is exhausted the callback thread blocks and the broker stops sending.
+ */
+@Slf4j
+public class AckTracker {
+
+    private final MqttClient client;
+    private final Semaphore inflight;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    public AckTracker(MqttClient client, int maxInflight) {
+        this.client = client;
+        this.inflight = new Semaphore(maxInflight);
+    }
+
+    /**
+     * Registers a received message, waiting for a free in-flight slot if necessary.
+     */
+    public DeliveryAck register(int messageId, int qos) throws InterruptedException {
+        inflight.acquire();
+        Entry entry = new Entry(messageId, qos);
+        synchronized (this) {
+            entries.addLast(entry);
+        }
+        return () -> release(entry);
+    }
+
+    /**
+     * Forgets every outstanding message after the connection dropped. Their ids are no longer
+     * valid and the broker redelivers them on the persistent session.
+     */
+    public synchronized void reset() {
+        for (Entry entry : entries) {
+            entry.cancelled = true;
+            inflight.release();
+        }
+        entries.clear();
+    }
+
+    public synchronized int getInflight() {
+        return entries.size();
+    }
+
+    private synchronized void release(Entry entry) {
+        if (entry.cancelled || entry.done) {
+            return;
+        }
+        entry.done = true;
+        while (!entries.isEmpty() && entries.peekFirst().done) {
+            Entry head = entries.pollFirst();
+            try {
+                client.messageArrivedComplete(head.messageId, head.qos);
+            } catch (MqttException e) {
+                log.warn("Failed to acknowledge message {}: {}", head.messageId, e.getMessage());
+            } finally {
+                inflight.release();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final int messageId;
+        private final int qos;
+        private boolean done;
+        private boolean cancelled;
+
+        private Entry(int messageId, int qos) {
+            this.messageId = messageId;
+            this.qos = qos;
+        }
+    }
+}
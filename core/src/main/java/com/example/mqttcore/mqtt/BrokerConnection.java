@@ -0,0 +1,156 @@
+package com.example.mqttcore.mqtt;
+
+import com.example.mqttcore.ingest.DeliveryAck;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * One client connection of the broker connection pool. Each connection has its own Paho
+ * callback thread and, with manual acks, its own {@link AckTracker}, since message ids are only
+ * unique per connection.
+ */
+@Slf4j
+public class BrokerConnection implements MqttCallbackExtended {
+
+    /** Receives the events of every connection in the pool. */
+    public interface Listener {
+
+        /** Called after the initial connect and every automatic reconnect. */
+        void connected(BrokerConnection connection, boolean reconnect);
+
+        void connectionLost(BrokerConnection connection);
+
+        void messageArrived(String topic, MqttMessage message, DeliveryAck ack);
+    }
+
+    private final int index;
+    private final MqttClient client;
+    private final MqttConnectOptions options;
+    private final AckTracker ackTracker;
+    private final Listener listener;
+    private volatile boolean connected;
+    private volatile boolean delivering = true;
+
+    /**
+     * @param maxInflight cap on unacknowledged messages, or 0 to let Paho acknowledge on arrival
+     */
+    public BrokerConnection(int index, String brokerUrl, String clientId, MqttConnectOptions options,
+                            int maxInflight, Listener listener) throws MqttException {
+        this.index = index;
+        this.client = new MqttClient(brokerUrl, clientId, new MemoryPersistence());
+        this.options = options;
+        this.listener = listener;
+        client.setCallback(this);
+        if (maxInflight > 0) {
+            client.setManualAcks(true);
+            ackTracker = new AckTracker(client, maxInflight);
+        } else {
+            ackTracker = null;
+        }
+    }
+
+    public void connect() throws MqttException {
+        log.info("Connecting to MQTT broker: {} (client {})", client.getServerURI(), client.getClientId());
+        client.connect(options);
+        // connected flag and resubscribing are handled in connectComplete()
+    }
+
+    public void disconnect() {
+        if (!client.isConnected()) {
+            return;
+        }
+        try {
+            client.disconnect();
+            log.info("Disconnected client {} from MQTT broker", client.getClientId());
+        } catch (MqttException e) {
+            log.error("Error disconnecting client {} from MQTT broker: {}", client.getClientId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Stops handing messages to the listener ahead of shutdown. With manual acks the connection
+     * stays up so acks of messages already handed over can still be sent, and whatever arrives
+     * meanwhile is left unacknowledged for the broker to redeliver. Without them Paho acknowledges
+     * every message on arrival, so the client disconnects instead.
+     */
+    public void stopDelivery() {
+        delivering = false;
+        if (ackTracker == null) {
+            disconnect();
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isConnected() {
+        return connected && client.isConnected();
+    }
+
+    /** Messages received but not yet acknowledged to the broker (manual acks only). */
+    public int getUnackedCount() {
+        return ackTracker != null ? ackTracker.getInflight() : 0;
+    }
+
+    public void subscribe(String topicFilter, int qos) throws MqttException {
+        client.subscribe(topicFilter, qos);
+    }
+
+    public void unsubscribe(String topicFilter) throws MqttException {
+        client.unsubscribe(topicFilter);
+    }
+
+    public void publish(String topic, MqttMessage message) throws MqttException {
+        client.publish(topic, message);
+    }
+
+    // --- MqttCallbackExtended ---
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        connected = true;
+        log.info("{} client {} to MQTT broker: {}", reconnect ? "Reconnected" : "Connected",
+                client.getClientId(), serverURI);
+        listener.connected(this, reconnect);
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        connected = false;
+        if (ackTracker != null) {
+            ackTracker.reset();
+        }
+        log.warn("MQTT connection lost for client {}: {}", client.getClientId(), cause.getMessage());
+        listener.connectionLost(this);
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        log.debug("MQTT message received on topic [{}] ({} bytes)", topic, message.getPayload().length);
+        if (!delivering) {
+            return;
+        }
+        DeliveryAck ack = DeliveryAck.NONE;
+        if (ackTracker != null && message.getQos() > 0) {
+            try {
+                ack = ackTracker.register(message.getId(), message.getQos());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        listener.messageArrived(topic, message, ack);
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        log.debug("MQTT delivery complete for message id: {}", token.getMessageId());
+    }
+}
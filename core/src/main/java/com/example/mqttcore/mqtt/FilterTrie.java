@@ -0,0 +1,73 @@
+package com.example.mqttcore.mqtt;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * MQTT filters split into their levels, each filter holding the subscribers that asked for it;
+ * the counterpart of {@link TopicTrie} for fanning out messages. A topic is resolved by following
+ * its literal level, {@code +} and {@code #} at every step, so the cost depends on the depth of
+ * the topic rather than on the number of filters. Safe for concurrent changes and lookups.
+ */
+public final class FilterTrie<T> {
+
+    private final Node<T> root = new Node<>();
+
+    public void add(String filter, T subscriber) {
+        TopicFilters.validate(filter);
+        Node<T> node = root;
+        for (String level : filter.split("/", -1)) {
+            node = node.children.computeIfAbsent(level, l -> new Node<>());
+        }
+        node.subscribers.add(subscriber);
+    }
+
+    /** Removes the subscriber from the filter; emptied branches are left for the next add. */
+    public void remove(String filter, T subscriber) {
+        Node<T> node = root;
+        for (String level : filter.split("/", -1)) {
+            node = node.children.get(level);
+            if (node == null) {
+                return;
+            }
+        }
+        node.subscribers.remove(subscriber);
+    }
+
+    /**
+     * Calls {@code action} for the subscribers of every filter matching {@code topic}; a
+     * subscriber with several matching filters is passed once per filter.
+     */
+    public void match(String topic, Consumer<T> action) {
+        match(root, topic.split("/", -1), 0, topic.startsWith("$"), action);
+    }
+
+    private static <T> void match(Node<T> node, String[] levels, int depth, boolean system, Consumer<T> action) {
+        // wildcards at the first level do not match topics starting with $
+        boolean wildcards = depth > 0 || !system;
+        Node<T> rest = wildcards ? node.children.get("#") : null;
+        if (rest != null) {
+            // "a/#" also matches the parent level "a"
+            rest.subscribers.forEach(action);
+        }
+        if (depth == levels.length) {
+            node.subscribers.forEach(action);
+            return;
+        }
+        Node<T> literal = node.children.get(levels[depth]);
+        if (literal != null) {
+            match(literal, levels, depth + 1, system, action);
+        }
+        Node<T> single = wildcards ? node.children.get("+") : null;
+        if (single != null) {
+            match(single, levels, depth + 1, system, action);
+        }
+    }
+
+    private static final class Node<T> {
+        private final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        private final Set<T> subscribers = ConcurrentHashMap.newKeySet();
+    }
+}
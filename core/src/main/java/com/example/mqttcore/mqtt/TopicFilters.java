@@ -0,0 +1,106 @@
+package com.example.mqttcore.mqtt;
+
+/**
+ * MQTT topic filter helpers ({@code +} matches one level, {@code #} matches the rest).
+ */
+public final class TopicFilters {
+
+    private TopicFilters() {
+    }
+
+    public static boolean isWildcard(String filter) {
+        return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+    }
+
+    /**
+     * Rejects filters that break the MQTT wildcard rules: {@code +} and {@code #} must fill a
+     * whole level and {@code #} must be the last one.
+     */
+    public static void validate(String filter) {
+        String[] levels = filter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            boolean wildcard = level.equals("+") || level.equals("#");
+            if (!wildcard && (level.indexOf('+') >= 0 || level.indexOf('#') >= 0)) {
+                throw new IllegalArgumentException("Wildcards must occupy a whole topic level: " + filter);
+            }
+            if (level.equals("#") && i != levels.length - 1) {
+                throw new IllegalArgumentException("'#' must be the last topic level: " + filter);
+            }
+        }
+    }
+
+    /**
+     * The literal levels in front of the first wildcard, without a trailing separator. Every
+     * topic the filter matches starts with this string, so it bounds a range scan over sorted
+     * topic names.
+     */
+    public static String literalPrefix(String filter) {
+        int end = filter.length();
+        int plus = filter.indexOf('+');
+        int hash = filter.indexOf('#');
+        if (plus >= 0) {
+            end = plus;
+        }
+        if (hash >= 0 && hash < end) {
+            end = hash;
+        }
+        if (end < filter.length() && end > 0) {
+            end--; // drop the '/' before the wildcard level
+        }
+        return filter.substring(0, end);
+    }
+
+    /**
+     * Matches a concrete topic against a filter following the MQTT 3.1.1 rules, including that
+     * wildcards at the first level do not match topics starting with {@code $}.
+     */
+    public static boolean matches(String filter, String topic) {
+        if (!filter.isEmpty() && (filter.charAt(0) == '+' || filter.charAt(0) == '#')
+                && topic.startsWith("$")) {
+            return false;
+        }
+        int f = 0;
+        int t = 0;
+        int fLen = filter.length();
+        int tLen = topic.length();
+        while (f < fLen) {
+            char c = filter.charAt(f);
+            if (c == '#') {
+                return true;
+            }
+            if (c == '+') {
+                while (t < tLen && topic.charAt(t) != '/') {
+                    t++;
+                }
+                f++;
+            } else {
+                if (t >= tLen || topic.charAt(t) != c) {
+                    // "a/#" also matches the parent level "a"
+                    return t == tLen && filter.startsWith("/#", f);
+                }
+                f++;
+                t++;
+            }
+        }
+        return t == tLen;
+    }
+
+    /**
+     * Ranks filters so that the most specific one wins when several match the same topic:
+     * more literal characters first, then fewer wildcards.
+     */
+    public static int specificity(String filter) {
+        int literal = 0;
+        int wildcards = 0;
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (c == '+' || c == '#') {
+                wildcards++;
+            } else {
+                literal++;
+            }
+        }
+        return literal * 16 - wildcards;
+    }
+}
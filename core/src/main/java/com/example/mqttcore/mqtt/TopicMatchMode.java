@@ -0,0 +1,14 @@
+package com.example.mqttcore.mqtt;
+
+/**
+ * How a topic parameter in a message query is matched against stored topics.
+ */
+public enum TopicMatchMode {
+    /** MQTT topic filter with {@code +} and {@code #}; without wildcards the same as {@link #EXACT}. */
+    FILTER,
+    EXACT,
+    /** Topics starting with the given string. */
+    PREFIX,
+    /** Topics containing the given string anywhere; checks every known topic. */
+    CONTAINS
+}
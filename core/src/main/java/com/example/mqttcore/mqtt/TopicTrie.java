@@ -0,0 +1,77 @@
+package com.example.mqttcore.mqtt;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Topic names split into their levels, each topic holding an id. An MQTT filter is resolved by
+ * walking only the branches it can match, so a narrow filter costs the same however many other
+ * topics there are. Safe for concurrent adds and lookups.
+ */
+public final class TopicTrie {
+
+    private static final int NONE = -1;
+
+    private final Node root = new Node();
+
+    public void add(String topic, int id) {
+        Node node = root;
+        for (String level : topic.split("/", -1)) {
+            node = node.children.computeIfAbsent(level, l -> new Node());
+        }
+        node.id = id;
+    }
+
+    /** Calls {@code action} with the id of every topic matching {@code filter}, in no particular order. */
+    public void match(String filter, IntConsumer action) {
+        TopicFilters.validate(filter);
+        match(root, filter.split("/", -1), 0, action);
+    }
+
+    private static void match(Node node, String[] levels, int depth, IntConsumer action) {
+        if (depth == levels.length) {
+            if (node.id != NONE) {
+                action.accept(node.id);
+            }
+            return;
+        }
+        String level = levels[depth];
+        if (level.equals("#")) {
+            // "a/#" also matches the parent level "a"
+            if (depth > 0 && node.id != NONE) {
+                action.accept(node.id);
+            }
+            forEachBelow(node, depth == 0, action);
+        } else if (level.equals("+")) {
+            node.children.forEach((name, child) -> {
+                if (depth > 0 || !name.startsWith("$")) {
+                    match(child, levels, depth + 1, action);
+                }
+            });
+        } else {
+            Node child = node.children.get(level);
+            if (child != null) {
+                match(child, levels, depth + 1, action);
+            }
+        }
+    }
+
+    /** Wildcards at the first level do not match topics starting with {@code $}. */
+    private static void forEachBelow(Node node, boolean skipSystem, IntConsumer action) {
+        node.children.forEach((name, child) -> {
+            if (skipSystem && name.startsWith("$")) {
+                return;
+            }
+            if (child.id != NONE) {
+                action.accept(child.id);
+            }
+            forEachBelow(child, false, action);
+        });
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile int id = NONE;
+    }
+}
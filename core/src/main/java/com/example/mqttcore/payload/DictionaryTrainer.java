@@ -0,0 +1,100 @@
+package com.example.mqttcore.payload;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset deflate dictionary from sample payloads. Every 8-byte sequence is scored by the
+ * number of samples it occurs in; samples are then taken greedily by how much of that repeated
+ * content they add that the dictionary does not cover yet, per byte, until it is full. JSON
+ * telemetry of one family mostly repeats its keys and structure, which a few such samples cover.
+ * The most useful sample goes last, since deflate codes nearer matches in fewer bits.
+ */
+final class DictionaryTrainer {
+
+    private static final int GRAM = 8;
+
+    private DictionaryTrainer() {
+    }
+
+    /** The dictionary, or an empty array when the samples share nothing worth keeping. */
+    static byte[] train(List<byte[]> samples, int maxSize) {
+        List<byte[]> distinct = new ArrayList<>();
+        Set<ByteBuffer> seen = new HashSet<>();
+        for (byte[] sample : samples) {
+            if (sample.length >= GRAM && sample.length <= maxSize && seen.add(ByteBuffer.wrap(sample))) {
+                distinct.add(sample);
+            }
+        }
+        List<long[]> grams = new ArrayList<>(distinct.size());
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] sample : distinct) {
+            long[] sampleGrams = grams(sample);
+            grams.add(sampleGrams);
+            for (long gram : sampleGrams) {
+                frequency.merge(gram, 1, Integer::sum);
+            }
+        }
+
+        Set<Long> covered = new HashSet<>();
+        Set<Integer> chosen = new LinkedHashSet<>();
+        int size = 0;
+        while (true) {
+            int best = -1;
+            double bestGain = 0;
+            for (int i = 0; i < distinct.size(); i++) {
+                if (chosen.contains(i) || size + distinct.get(i).length > maxSize) {
+                    continue;
+                }
+                long gain = 0;
+                for (long gram : grams.get(i)) {
+                    int count = frequency.get(gram);
+                    // content only this sample has does not help with any other
+                    if (count > 1 && !covered.contains(gram)) {
+                        gain += count;
+                    }
+                }
+                double perByte = (double) gain / distinct.get(i).length;
+                if (perByte > bestGain) {
+                    best = i;
+                    bestGain = perByte;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            chosen.add(best);
+            size += distinct.get(best).length;
+            for (long gram : grams.get(best)) {
+                covered.add(gram);
+            }
+        }
+
+        List<Integer> order = new ArrayList<>(chosen);
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = order.size() - 1; i >= 0; i--) {
+            dictionary.writeBytes(distinct.get(order.get(i)));
+        }
+        return dictionary.toByteArray();
+    }
+
+    /** The distinct 8-byte sequences of a sample, each packed into a long. */
+    private static long[] grams(byte[] sample) {
+        Set<Long> grams = new HashSet<>();
+        long gram = 0;
+        for (int i = 0; i < sample.length; i++) {
+            gram = gram << 8 | sample[i] & 0xFF;
+            if (i >= GRAM - 1) {
+                grams.add(gram);
+            }
+        }
+        return grams.stream().mapToLong(Long::longValue).toArray();
+    }
+}
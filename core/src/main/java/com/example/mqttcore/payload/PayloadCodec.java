@@ -0,0 +1,313 @@
+package com.example.mqttcore.payload;
+
+import com.example.mqttcore.dto.PayloadStatsDto;
+import com.example.mqttcore.entity.PayloadDictionary;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.repository.PayloadDictionaryRepository;
+import com.example.mqttcore.service.TopicDictionary;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stored form of message payloads: the raw bytes, deflated on their own, or deflated with the
+ * preset dictionary of the payload's topic family (the topic filter of the subscription the topic
+ * is routed to). Each stored payload starts with a byte naming its form, followed by the id of
+ * the dictionary if there is one, and is kept raw whenever compressing would not make it smaller.
+ * The payload length is stored next to it, so it is known without inflating and inflating needs
+ * no guesswork about the buffer.
+ *
+ * <p>Per row rather than per block of rows, so a message stays one row that can be read and
+ * deleted alone; for the short, repetitive JSON of telemetry a dictionary recovers most of what
+ * compressing many rows together would. While a family has no dictionary, the first
+ * {@code mqtt.payload.dictionary-samples} payloads are kept as samples; every
+ * {@code mqtt.payload.dictionary-train-interval-ms} a dictionary is trained from full sample sets
+ * and kept if it compresses the samples clearly better than plain deflate.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PayloadCodec {
+
+    static final byte RAW = 0;
+    static final byte DEFLATE = 1;
+    static final byte DEFLATE_DICTIONARY = 2;
+
+    /** Payloads shorter than this are stored raw: too short for deflate to win anything. */
+    private static final int MIN_COMPRESS_BYTES = 24;
+    /** Samples larger than this are left out; a dictionary is a small fraction of that anyway. */
+    private static final int MAX_SAMPLE_BYTES = 4096;
+    /** A dictionary must shrink the samples' compressed size at least this much to be kept. */
+    private static final double MIN_DICTIONARY_GAIN = 0.9;
+
+    @Value("${mqtt.payload.compression:true}")
+    private boolean compression;
+
+    @Value("${mqtt.payload.compression-level:6}")
+    private int level;
+
+    @Value("${mqtt.payload.dictionaries:true}")
+    private boolean dictionaries;
+
+    @Value("${mqtt.payload.dictionary-size:16384}")
+    private int dictionarySize;
+
+    @Value("${mqtt.payload.dictionary-samples:500}")
+    private int dictionarySamples;
+
+    private final PayloadDictionaryRepository dictionaryRepository;
+    private final SubscriptionRouter subscriptionRouter;
+    private final TopicDictionary topicDictionary;
+
+    private final Map<Integer, byte[]> dictionariesById = new ConcurrentHashMap<>();
+    /** The dictionary new payloads of a family are compressed with. */
+    private final Map<String, Dictionary> activeByFamily = new ConcurrentHashMap<>();
+    private final Map<String, List<byte[]>> samplesByFamily = new ConcurrentHashMap<>();
+    /** Families whose samples did not give a useful dictionary; not sampled again until restart. */
+    private final Set<String> untrainable = ConcurrentHashMap.newKeySet();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @PostConstruct
+    public void load() {
+        for (PayloadDictionary row : dictionaryRepository.findAll()) {
+            dictionariesById.put(row.getId(), row.getContent());
+            Dictionary current = activeByFamily.get(row.getFamily());
+            if (current == null || current.id() < row.getId()) {
+                activeByFamily.put(row.getFamily(), new Dictionary(row.getId(), row.getContent()));
+            }
+        }
+        log.info("Payload compression {}, {} dictionaries", compression ? "on" : "off", dictionariesById.size());
+    }
+
+    /** The stored form of a payload of the given topic. */
+    public byte[] encode(int topicId, byte[] payload) {
+        byte[] stored = compression && payload.length >= MIN_COMPRESS_BYTES ? compress(topicId, payload) : null;
+        if (stored == null) {
+            stored = new byte[payload.length + 1];
+            stored[0] = RAW;
+            System.arraycopy(payload, 0, stored, 1, payload.length);
+        }
+        rawBytes.add(payload.length);
+        storedBytes.add(stored.length);
+        return stored;
+    }
+
+    /**
+     * The payload of a stored form written by {@link #encode}.
+     *
+     * @param size the payload length stored with it
+     */
+    public byte[] decode(byte[] stored, int size) {
+        if (stored == null || stored.length == 0) {
+            return new byte[0];
+        }
+        return switch (stored[0]) {
+            case RAW -> Arrays.copyOfRange(stored, 1, stored.length);
+            case DEFLATE -> inflate(stored, 1, null, size);
+            case DEFLATE_DICTIONARY -> {
+                int id = readInt(stored, 1);
+                byte[] dictionary = dictionariesById.get(id);
+                if (dictionary == null) {
+                    throw new IllegalStateException("Payload dictionary " + id + " is missing");
+                }
+                yield inflate(stored, 5, dictionary, size);
+            }
+            default -> throw new IllegalStateException("Unknown stored payload format " + stored[0]);
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.payload.dictionary-train-interval-ms:60000}")
+    public void trainDictionaries() {
+        for (Map.Entry<String, List<byte[]>> entry : samplesByFamily.entrySet()) {
+            List<byte[]> samples = entry.getValue();
+            List<byte[]> copy;
+            synchronized (samples) {
+                if (samples.size() < dictionarySamples) {
+                    continue;
+                }
+                copy = new ArrayList<>(samples);
+            }
+            samplesByFamily.remove(entry.getKey());
+            train(entry.getKey(), copy);
+        }
+    }
+
+    public PayloadStatsDto getStats() {
+        PayloadStatsDto dto = new PayloadStatsDto();
+        dto.setCompression(compression);
+        dto.setDictionaries(dictionariesById.size());
+        dto.setRawBytes(rawBytes.sum());
+        dto.setStoredBytes(storedBytes.sum());
+        return dto;
+    }
+
+    private void train(String family, List<byte[]> samples) {
+        long started = System.nanoTime();
+        // trained on every other sample and judged on the rest, which it has not seen
+        List<byte[]> training = new ArrayList<>();
+        List<byte[]> held = new ArrayList<>();
+        for (int i = 0; i < samples.size(); i++) {
+            (i % 2 == 0 ? training : held).add(samples.get(i));
+        }
+        byte[] content = DictionaryTrainer.train(training, dictionarySize);
+        long plain = 0;
+        long withDictionary = 0;
+        Dictionary candidate = new Dictionary(0, content);
+        for (byte[] sample : held) {
+            plain += compressedLength(sample, null);
+            withDictionary += compressedLength(sample, candidate);
+        }
+        long raw = held.stream().mapToLong(sample -> sample.length).sum();
+        if (content.length == 0 || withDictionary > plain * MIN_DICTIONARY_GAIN) {
+            untrainable.add(family);
+            samplesByFamily.remove(family);
+            log.info("No payload dictionary for {}: samples compress {}x with one, {}x without", family,
+                    ratio(raw, withDictionary), ratio(raw, plain));
+            return;
+        }
+        PayloadDictionary saved = dictionaryRepository.save(new PayloadDictionary(family, content));
+        dictionariesById.put(saved.getId(), content);
+        activeByFamily.put(family, new Dictionary(saved.getId(), content));
+        // samples taken while training are no use now
+        samplesByFamily.remove(family);
+        log.info("Trained payload dictionary {} for {} ({} bytes) in {} ms: samples compress {}x instead of {}x",
+                saved.getId(), family, content.length, (System.nanoTime() - started) / 1_000_000,
+                ratio(raw, withDictionary), ratio(raw, plain));
+    }
+
+    /** The compressed stored form, or null when it would not be smaller than the raw one. */
+    private byte[] compress(int topicId, byte[] payload) {
+        Dictionary dictionary = null;
+        if (dictionaries) {
+            String family = familyOf(topicId);
+            dictionary = activeByFamily.get(family);
+            if (dictionary == null) {
+                sample(family, payload);
+            }
+        }
+        int header = dictionary != null ? 5 : 1;
+        // room for exactly as much as the raw form takes; deflate output that does not fit loses anyway
+        byte[] out = new byte[payload.length];
+        Deflater deflater = deflater(dictionary);
+        deflater.setInput(payload);
+        deflater.finish();
+        int length = header;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        out[0] = dictionary != null ? DEFLATE_DICTIONARY : DEFLATE;
+        if (dictionary != null) {
+            writeInt(out, 1, dictionary.id());
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private int compressedLength(byte[] payload, Dictionary dictionary) {
+        Deflater deflater = deflater(dictionary);
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, payload.length)];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(buffer);
+        }
+        return length;
+    }
+
+    private Deflater deflater(Dictionary dictionary) {
+        Deflater deflater = deflaters.get();
+        if (deflater == null) {
+            // raw deflate: the zlib header and checksum would cost six bytes per message
+            deflater = new Deflater(level, true);
+            deflaters.set(deflater);
+        }
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary.content());
+        }
+        return deflater;
+    }
+
+    private byte[] inflate(byte[] stored, int offset, byte[] dictionary, int size) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(stored, offset, stored.length - offset);
+        byte[] payload = new byte[size];
+        try {
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int read = inflater.inflate(payload, length, size - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != size) {
+                throw new IllegalStateException("Stored payload inflates to " + length + " bytes instead of " + size);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt stored payload", e);
+        }
+        return payload;
+    }
+
+    private void sample(String family, byte[] payload) {
+        if (payload.length > MAX_SAMPLE_BYTES || untrainable.contains(family)) {
+            return;
+        }
+        List<byte[]> samples = samplesByFamily.computeIfAbsent(family, f -> new ArrayList<>());
+        synchronized (samples) {
+            if (samples.size() < dictionarySamples) {
+                samples.add(payload.clone());
+            }
+        }
+    }
+
+    private String familyOf(int topicId) {
+        String topic = topicDictionary.nameOf(topicId);
+        return topic != null ? subscriptionRouter.resolve(topic).topicFilter() : "";
+    }
+
+    private static String ratio(long raw, long compressed) {
+        return String.format("%.1f", compressed > 0 ? (double) raw / compressed : 0);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private record Dictionary(int id, byte[] content) {
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.mqttcore.payload;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * How payload bytes are shown where only text fits (JSON responses, exports, the latest value
+ * table): as the text itself when they are valid UTF-8, otherwise base64 with the encoding
+ * {@link #BASE64} next to it.
+ */
+public final class Payloads {
+
+    public static final String BASE64 = "base64";
+
+    private Payloads() {
+    }
+
+    /** The payload as text, and null as its encoding, or base64 and {@link #BASE64}. */
+    public static Text toText(byte[] payload) {
+        if (payload == null) {
+            return new Text("", null);
+        }
+        return isUtf8(payload)
+                ? new Text(new String(payload, StandardCharsets.UTF_8), null)
+                : new Text(Base64.getEncoder().encodeToString(payload), BASE64);
+    }
+
+    /** The inverse of {@link #toText}; throws {@link IllegalArgumentException} for an unknown encoding or bad base64. */
+    public static byte[] fromText(String value, String encoding) {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (encoding == null) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+        if (!BASE64.equals(encoding)) {
+            throw new IllegalArgumentException("unknown payload encoding: " + encoding);
+        }
+        return Base64.getDecoder().decode(value);
+    }
+
+    /** The payload as text for indexing, or null when it is binary. */
+    public static String textOrNull(byte[] payload) {
+        return payload != null && isUtf8(payload) ? new String(payload, StandardCharsets.UTF_8) : null;
+    }
+
+    /** Whether the bytes are well-formed UTF-8; without copying them into a string first. */
+    public static boolean isUtf8(byte[] bytes) {
+        int i = 0;
+        while (i < bytes.length) {
+            int b = bytes[i];
+            if (b >= 0) {
+                i++;
+                continue;
+            }
+            int continuation;
+            int min;
+            if ((b & 0xE0) == 0xC0) {
+                continuation = 1;
+                min = 0x80;
+            } else if ((b & 0xF0) == 0xE0) {
+                continuation = 2;
+                min = 0x800;
+            } else if ((b & 0xF8) == 0xF0) {
+                continuation = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (i + continuation >= bytes.length) {
+                return false;
+            }
+            int code = b & (0x3F >> continuation);
+            for (int k = 1; k <= continuation; k++) {
+                int next = bytes[i + k];
+                if ((next & 0xC0) != 0x80) {
+                    return false;
+                }
+                code = code << 6 | next & 0x3F;
+            }
+            // overlong forms, UTF-16 surrogates and code points past Unicode are not UTF-8
+            if (code < min || code > 0x10FFFF || code >= 0xD800 && code <= 0xDFFF) {
+                return false;
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+
+    /** A payload in text form; {@code encoding} is null for plain UTF-8 text. */
+    public record Text(String value, String encoding) {
+    }
+}
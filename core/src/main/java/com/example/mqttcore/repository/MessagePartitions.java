@@ -0,0 +1,430 @@
+package com.example.mqttcore.repository;
+
+import com.example.mqttcore.entity.MessagePartition;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The time partitions of the message history. A partition is a pair of tables, one with the
+ * messages received in its interval ({@code mqtt.partitions.interval}) and one with their indexed
+ * fields, each with the indexes the single tables used to have. A query only touches the
+ * partitions its time range overlaps, and retention drops a whole partition instead of deleting
+ * rows. Partitions are created on the first write into their interval and registered in
+ * {@code message_partitions}.
+ *
+ * <p>The {@code received_messages} and {@code message_fields} tables of a database from before
+ * partitioning stay where they are, as one partition up to the end of the interval of their
+ * newest message.
+ *
+ * <p>Payloads are stored in the form {@code PayloadCodec} writes, with their length in
+ * {@code payload_size}. Partitions created before that keep their text {@code payload} column;
+ * {@link Partition#isTextPayload()} tells them apart.
+ *
+ * <p>Readers and writers of partition tables run under the read lock; partitions are only dropped
+ * under the write lock, so no statement ever meets a table that has just disappeared.
+ */
+@Slf4j
+@Component
+@DependsOn("databaseMigrator")
+public class MessagePartitions {
+
+    private static final String LEGACY_TABLE = "received_messages";
+    private static final String LEGACY_FIELDS_TABLE = "message_fields";
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS %s (" +
+            "id BIGINT NOT NULL PRIMARY KEY, topic_id INTEGER NOT NULL, payload BINARY LARGE OBJECT, " +
+            "payload_size INTEGER NOT NULL, qos INTEGER NOT NULL, retained BOOLEAN NOT NULL, received_at TIMESTAMP(6) NOT NULL)";
+    private static final String CREATE_FIELDS_TABLE = "CREATE TABLE IF NOT EXISTS %s (" +
+            "message_id BIGINT NOT NULL, field_path VARCHAR(200) NOT NULL, str_value VARCHAR(255), " +
+            "long_value BIGINT, double_value DOUBLE PRECISION, bool_value BOOLEAN, " +
+            "PRIMARY KEY (message_id, field_path))";
+    /** Value columns of the fields table, each indexed behind the field path. */
+    private static final String[][] FIELD_INDEXES = {
+            {"str", "str_value"}, {"long", "long_value"}, {"double", "double_value"}, {"bool", "bool_value"}};
+
+    @Value("${mqtt.partitions.interval:DAY}")
+    private PartitionInterval interval;
+
+    /** Threads scanning partitions in parallel for one query. */
+    @Value("${mqtt.partitions.scan-threads:4}")
+    private int scanThreads;
+
+    private final MessagePartitionRepository partitionRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate newTransaction;
+
+    /** By start; partitions never overlap. */
+    private final NavigableMap<LocalDateTime, Partition> partitions = new ConcurrentSkipListMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ExecutorService scanner;
+
+    public MessagePartitions(MessagePartitionRepository partitionRepository, JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager) {
+        this.partitionRepository = partitionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    public void load() {
+        registerLegacyTables();
+        for (MessagePartition row : partitionRepository.findAll()) {
+            if (!tableExists(row.getName())) {
+                // left behind by a drop that did not finish
+                partitionRepository.delete(row);
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + row.getFieldsTable());
+                continue;
+            }
+            Partition partition = new Partition(row.getName(), row.getFieldsTable(), row.getStartsAt(), row.getEndsAt(),
+                    hasTextPayload(row.getName()));
+            jdbcTemplate.query("SELECT MIN(id), MAX(id) FROM " + partition.table, rs -> {
+                if (rs.getObject(1) != null) {
+                    partition.track(rs.getLong(1));
+                    partition.track(rs.getLong(2));
+                }
+            });
+            partitions.put(partition.start, partition);
+        }
+        AtomicInteger threads = new AtomicInteger();
+        scanner = Executors.newFixedThreadPool(Math.max(1, scanThreads), r -> {
+            Thread thread = new Thread(r, "mqtt-partition-scan-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Loaded {} message partitions ({} each)", partitions.size(), interval);
+    }
+
+    @PreDestroy
+    public void close() {
+        scanner.shutdownNow();
+    }
+
+    public PartitionInterval interval() {
+        return interval;
+    }
+
+    /** Runs {@code work} under the read lock, so none of the partitions it uses is dropped meanwhile. */
+    public <T> T read(Supplier<T> work) {
+        lock.readLock().lock();
+        try {
+            return work.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The read lock, for callers holding it across work that throws checked exceptions. */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    /** The partition for a message received at {@code time}, created if there is none yet. */
+    public Partition forTime(LocalDateTime time) {
+        Map.Entry<LocalDateTime, Partition> floor = partitions.floorEntry(time);
+        if (floor != null && time.isBefore(floor.getValue().end)) {
+            return floor.getValue();
+        }
+        return create(time);
+    }
+
+    /** Partitions with messages that may lie in [from, to], newest first; null bounds are open. */
+    public List<Partition> overlapping(LocalDateTime from, LocalDateTime to) {
+        NavigableMap<LocalDateTime, Partition> candidates = to == null ? partitions : partitions.headMap(to, true);
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : candidates.descendingMap().values()) {
+            if (from != null && !partition.end.isAfter(from)) {
+                break;
+            }
+            result.add(partition);
+        }
+        return result;
+    }
+
+    /** Partitions whose id range includes {@code id}, newest first. */
+    public List<Partition> mayContain(long id) {
+        return partitions.descendingMap().values().stream().filter(p -> p.mayContain(id)).toList();
+    }
+
+    /** All partitions, newest first. */
+    public List<Partition> all() {
+        return List.copyOf(partitions.descendingMap().values());
+    }
+
+    /** Whether the partition has not been dropped. */
+    public boolean exists(Partition partition) {
+        return partitions.get(partition.start) == partition;
+    }
+
+    /** Partitions ending at or before {@code time}, oldest first. */
+    public List<Partition> endingBy(LocalDateTime time) {
+        return partitions.values().stream().filter(p -> !p.end.isAfter(time)).toList();
+    }
+
+    /**
+     * Runs {@code work} for each partition on the scan threads and returns the results in the order
+     * of {@code targets}. The caller holds the read lock for all of them. Work must not scan itself.
+     */
+    public <T> List<T> scan(List<Partition> targets, Function<Partition, T> work) {
+        if (targets.size() <= 1) {
+            return targets.stream().map(work).toList();
+        }
+        List<Future<T>> futures = targets.stream().map(p -> scanner.submit(() -> work.apply(p))).toList();
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new IllegalStateException("Interrupted while scanning partitions", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Drops both tables of a partition. Returns false without waiting if the partition is in use;
+     * the caller tries again later.
+     */
+    public boolean drop(Partition partition) {
+        return drop(partition, partition.modifications(), () -> {
+        });
+    }
+
+    /**
+     * Like {@link #drop(Partition)}, and runs {@code replace} under the write lock once the tables
+     * are gone, so readers see the messages either in the partition or wherever it put them.
+     * Returns false if the partition is in use, no longer exists, or has been written to or
+     * deleted from since {@link Partition#modifications()} returned {@code modifications}: the
+     * copy {@code replace} publishes would then miss those changes.
+     */
+    public boolean drop(Partition partition, long modifications, Runnable replace) {
+        if (!lock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (!exists(partition) || partition.modifications() != modifications) {
+                return false;
+            }
+            // the registry row goes last, so a drop cut short is finished on the next start
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.fieldsTable);
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.table);
+            newTransaction.executeWithoutResult(status -> partitionRepository.deleteById(partition.table));
+            partitions.remove(partition.start);
+            log.info("Dropped message partition {} ({} .. {})", partition.table, partition.start, partition.end);
+            replace.run();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Creates the partition of the interval containing {@code time}, cut short where it would
+     * overlap a neighbour (which only the legacy partition's bounds or a change of interval can
+     * cause). Runs in its own transaction: H2 commits the current one on DDL.
+     */
+    private synchronized Partition create(LocalDateTime time) {
+        Map.Entry<LocalDateTime, Partition> floor = partitions.floorEntry(time);
+        if (floor != null && time.isBefore(floor.getValue().end)) {
+            return floor.getValue();
+        }
+        LocalDateTime start = interval.start(time);
+        LocalDateTime end = interval.next(start);
+        if (floor != null && floor.getValue().end.isAfter(start)) {
+            start = floor.getValue().end;
+        }
+        Map.Entry<LocalDateTime, Partition> above = partitions.higherEntry(time);
+        if (above != null && above.getKey().isBefore(end)) {
+            end = above.getKey();
+        }
+        String suffix = SUFFIX.format(start);
+        Partition partition = new Partition(LEGACY_TABLE + "_" + suffix, LEGACY_FIELDS_TABLE + "_" + suffix, start, end,
+                false);
+        newTransaction.executeWithoutResult(status -> {
+            createTables(partition.table, partition.fieldsTable);
+            partitionRepository.saveAndFlush(
+                    new MessagePartition(partition.table, partition.fieldsTable, partition.start, partition.end));
+        });
+        partitions.put(partition.start, partition);
+        log.info("Created message partition {} ({} .. {})", partition.table, partition.start, partition.end);
+        return partition;
+    }
+
+    private void createTables(String table, String fieldsTable) {
+        jdbcTemplate.execute(CREATE_TABLE.formatted(table));
+        // descending with the id as tie-breaker, so newest-first keyset pages are read straight off the index
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_topic ON " + table
+                + " (topic_id, received_at DESC, id DESC)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + timeIndexOf(table) + " ON " + table
+                + " (received_at DESC, id DESC)");
+        createFieldsTable(fieldsTable);
+    }
+
+    private void createFieldsTable(String fieldsTable) {
+        jdbcTemplate.execute(CREATE_FIELDS_TABLE.formatted(fieldsTable));
+        for (String[] index : FIELD_INDEXES) {
+            String name = fieldsTable.equals(LEGACY_FIELDS_TABLE) ? "idx_field_" + index[0] : fieldsTable + "_" + index[0];
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + fieldsTable
+                    + " (field_path, " + index[1] + ")");
+        }
+    }
+
+    /**
+     * Registers the tables of a database from before partitioning as one partition over the
+     * intervals of their first and newest messages, or drops them if they are empty.
+     */
+    private void registerLegacyTables() {
+        if (!tableExists(LEGACY_TABLE) || partitionRepository.existsById(LEGACY_TABLE)) {
+            return;
+        }
+        Map<String, Object> range = jdbcTemplate.queryForMap(
+                "SELECT MIN(received_at) AS first_at, MAX(received_at) AS last_at FROM " + LEGACY_TABLE);
+        if (range.get("first_at") == null) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + LEGACY_FIELDS_TABLE);
+            jdbcTemplate.execute("DROP TABLE " + LEGACY_TABLE);
+            log.info("Dropped the empty message table from before partitioning");
+            return;
+        }
+        createFieldsTable(LEGACY_FIELDS_TABLE);
+        LocalDateTime start = interval.start(toLocalDateTime(range.get("first_at")));
+        LocalDateTime end = interval.next(interval.start(toLocalDateTime(range.get("last_at"))));
+        newTransaction.executeWithoutResult(status -> partitionRepository.saveAndFlush(
+                new MessagePartition(LEGACY_TABLE, LEGACY_FIELDS_TABLE, start, end)));
+        log.info("Registered the message table from before partitioning as partition {} .. {}", start, end);
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp timestamp ? timestamp.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    private boolean tableExists(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = ?", Integer.class, table.toUpperCase());
+        return count != null && count > 0;
+    }
+
+    /** Whether the table stores payloads as text, as tables from before binary payloads do. */
+    private boolean hasTextPayload(String table) {
+        String type = jdbcTemplate.queryForObject("SELECT DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS " +
+                "WHERE TABLE_NAME = ? AND COLUMN_NAME = 'PAYLOAD'", String.class, table.toUpperCase());
+        return type != null && type.startsWith("CHARACTER");
+    }
+
+    private static String timeIndexOf(String table) {
+        // the legacy table keeps the index name it was created with
+        return table.equals(LEGACY_TABLE) ? "idx_received_at_id" : table + "_time";
+    }
+
+    /** The tables of one partition and the ids written to it so far. */
+    @Getter
+    public static final class Partition {
+        private final String table;
+        private final String fieldsTable;
+        /** The (receivedAt DESC, id DESC) index of {@link #table}. */
+        private final String timeIndex;
+        private final LocalDateTime start;
+        /** Exclusive. */
+        private final LocalDateTime end;
+        /**
+         * Payloads stored as UTF-8 text rather than in the stored form of {@code PayloadCodec},
+         * in partitions created before binary payloads.
+         */
+        private final boolean textPayload;
+        @Getter(AccessLevel.NONE)
+        private final AtomicLong minId = new AtomicLong(Long.MAX_VALUE);
+        @Getter(AccessLevel.NONE)
+        private final AtomicLong maxId = new AtomicLong(Long.MIN_VALUE);
+        @Getter(AccessLevel.NONE)
+        private final AtomicLong modifications = new AtomicLong();
+
+        Partition(String table, String fieldsTable, LocalDateTime start, LocalDateTime end, boolean textPayload) {
+            this.table = table;
+            this.fieldsTable = fieldsTable;
+            this.timeIndex = timeIndexOf(table);
+            this.start = start;
+            this.end = end;
+            this.textPayload = textPayload;
+        }
+
+        /** SQL expression for the payload length in bytes. */
+        public String payloadSizeColumn() {
+            return textPayload ? "OCTET_LENGTH(payload)" : "payload_size";
+        }
+
+        /** Widens the id range by an id about to be written. */
+        void track(long id) {
+            minId.accumulateAndGet(id, Math::min);
+            maxId.accumulateAndGet(id, Math::max);
+            modifications.incrementAndGet();
+        }
+
+        /** Counts rows about to be deleted. */
+        void deleting(int rows) {
+            modifications.addAndGet(rows);
+        }
+
+        /** Rows written or deleted since the partition was loaded; only compared, never reset. */
+        public long modifications() {
+            return modifications.get();
+        }
+
+        public boolean mayContain(long id) {
+            return id >= minId.get() && id <= maxId.get();
+        }
+
+        /** Whether some id in (after, upTo] may be in this partition. */
+        public boolean mayContainBetween(long after, long upTo) {
+            return minId.get() <= upTo && maxId.get() > after;
+        }
+
+        /** Lowest and highest id written so far, or null if the partition is empty. */
+        public long[] idRange() {
+            long min = minId.get();
+            long max = maxId.get();
+            return min <= max ? new long[]{min, max} : null;
+        }
+
+        /** Highest id written so far, or 0 if the partition is empty. */
+        public long maxId() {
+            return Math.max(0, maxId.get());
+        }
+    }
+}
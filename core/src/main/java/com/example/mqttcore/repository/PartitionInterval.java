@@ -0,0 +1,25 @@
+package com.example.mqttcore.repository;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Time span of one message partition ({@code mqtt.partitions.interval}). Weeks start on Monday.
+ */
+public enum PartitionInterval {
+    DAY,
+    WEEK;
+
+    /** Start of the interval containing {@code time}. */
+    public LocalDateTime start(LocalDateTime time) {
+        LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+        return this == DAY ? day : day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    /** Start of the interval after the one starting at {@code start}. */
+    public LocalDateTime next(LocalDateTime start) {
+        return this == DAY ? start.plusDays(1) : start.plusWeeks(1);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.mqttcore.repository;
+
+import com.example.mqttcore.entity.PayloadDictionary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PayloadDictionaryRepository extends JpaRepository<PayloadDictionary, Integer> {
+}
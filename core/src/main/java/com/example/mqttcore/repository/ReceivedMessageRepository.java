@@ -1,36 +1,420 @@
 package com.example.mqttcore.repository;
 
 import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.payload.PayloadCodec;
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import com.example.mqttcore.service.FieldPredicate;
+import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
 
+/**
+ * Message history over the time partitions of {@link MessagePartitions}. Queries with a time
+ * range only run against the partitions it overlaps. Pages and keyset slices are newest first,
+ * in (receivedAt DESC, id DESC) order, and walk the partitions newest first until they are full;
+ * counts and id sets are collected from all partitions in parallel. Lookups by id only visit the
+ * partitions whose id range covers the id.
+ */
 @Repository
-public interface ReceivedMessageRepository extends JpaRepository<ReceivedMessage, Long> {
+@RequiredArgsConstructor
+public class ReceivedMessageRepository {
 
-    Page<ReceivedMessage> findByTopicOrderByReceivedAtDesc(String topic, Pageable pageable);
+    private static final String KEY_COLUMNS = "SELECT id, topic_id, received_at FROM ";
+    private static final String NEWEST_FIRST = " ORDER BY received_at DESC, id DESC";
+    private static final String INSERT = "INSERT INTO %s "
+            + "(id, topic_id, payload, payload_size, qos, retained, received_at) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final int[] INSERT_TYPES =
+            {Types.BIGINT, Types.INTEGER, Types.VARBINARY, Types.INTEGER, Types.INTEGER, Types.BOOLEAN, Types.TIMESTAMP};
+    /** Into a partition from before binary payloads. */
+    private static final String INSERT_TEXT = "INSERT INTO %s "
+            + "(id, topic_id, payload, qos, retained, received_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final int[] INSERT_TEXT_TYPES =
+            {Types.BIGINT, Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.BOOLEAN, Types.TIMESTAMP};
+    /** Each value hands out the block of ids below it, like Hibernate's pooled optimizer. */
+    private static final String NEXT_ID_BLOCKS = "SELECT NEXT VALUE FOR received_messages_seq FROM SYSTEM_RANGE(1, ?)";
+    /** Stands for the fields table of the partition a condition runs against. */
+    private static final String FIELDS_TABLE = "{fields}";
 
-    Page<ReceivedMessage> findByTopicContainingIgnoreCaseOrderByReceivedAtDesc(String topicFilter, Pageable pageable);
+    private static final RowMapper<MessageKey> KEY = (rs, rowNum) ->
+            new MessageKey(rs.getLong(1), rs.getInt(2), rs.getObject(3, LocalDateTime.class));
 
-    Page<ReceivedMessage> findAllByOrderByReceivedAtDesc(Pageable pageable);
+    private final MessagePartitions partitions;
+    private final JdbcTemplate jdbcTemplate;
+    private final PayloadCodec payloadCodec;
 
-    @Query("SELECT DISTINCT m.topic FROM ReceivedMessage m ORDER BY m.topic")
-    List<String> findDistinctTopics();
+    /**
+     * Assigns ids to the messages (and the current time to those without one) and inserts them
+     * into their partitions with JDBC batches, in the caller's transaction.
+     */
+    public void saveAll(List<ReceivedMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        long[] ids = nextIds(messages.size());
+        partitions.read(() -> {
+            Map<Partition, List<Object[]>> rows = new LinkedHashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                ReceivedMessage message = messages.get(i);
+                message.setId(ids[i]);
+                if (message.getReceivedAt() == null) {
+                    message.setReceivedAt(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+                }
+                Partition partition = partitions.forTime(message.getReceivedAt());
+                partition.track(ids[i]);
+                Timestamp receivedAt = Timestamp.valueOf(message.getReceivedAt());
+                rows.computeIfAbsent(partition, p -> new ArrayList<>()).add(partition.isTextPayload()
+                        ? new Object[]{ids[i], message.getTopicId(), message.getPayloadText(), message.getQos(),
+                                message.isRetained(), receivedAt}
+                        : new Object[]{ids[i], message.getTopicId(),
+                                payloadCodec.encode(message.getTopicId(), message.getPayload()), message.getPayloadSize(),
+                                message.getQos(), message.isRetained(), receivedAt});
+            }
+            rows.forEach((partition, args) -> {
+                if (partition.isTextPayload()) {
+                    jdbcTemplate.batchUpdate(INSERT_TEXT.formatted(partition.getTable()), args, INSERT_TEXT_TYPES);
+                } else {
+                    jdbcTemplate.batchUpdate(INSERT.formatted(partition.getTable()), args, INSERT_TYPES);
+                }
+            });
+            return null;
+        });
+    }
 
-    @Query("SELECT m FROM ReceivedMessage m WHERE " +
-           "(:topic IS NULL OR m.topic LIKE %:topic%) AND " +
-           "(:from IS NULL OR m.receivedAt >= :from) AND " +
-           "(:to IS NULL OR m.receivedAt <= :to) " +
-           "ORDER BY m.receivedAt DESC")
-    Page<ReceivedMessage> search(
-            @Param("topic") String topic,
-            @Param("from") LocalDateTime from,
-            @Param("to") LocalDateTime to,
-            Pageable pageable);
+    /**
+     * Reserves {@code count} message ids. A sequence value {@code v} stands for the ids
+     * {@code v - ALLOCATION_SIZE + 1 .. v}, which is how Hibernate's pooled generator read it
+     * when it assigned the ids, so new blocks never overlap with ids handed out before.
+     */
+    private long[] nextIds(int count) {
+        long[] ids = new long[count];
+        int filled = 0;
+        while (filled < count) {
+            int blocks = (count - filled + ReceivedMessage.ALLOCATION_SIZE - 1) / ReceivedMessage.ALLOCATION_SIZE;
+            for (long last : jdbcTemplate.queryForList(NEXT_ID_BLOCKS, Long.class, blocks)) {
+                // the first value of a fresh sequence was read differently by Hibernate; skip it
+                if (last < ReceivedMessage.ALLOCATION_SIZE) {
+                    continue;
+                }
+                for (long id = last - ReceivedMessage.ALLOCATION_SIZE + 1; id <= last && filled < count; id++) {
+                    ids[filled++] = id;
+                }
+            }
+        }
+        return ids;
+    }
+
+    public Optional<ReceivedMessage> findById(long id) {
+        return findAllById(List.of(id)).stream().findFirst();
+    }
+
+    /** The messages with the given ids, in no particular order; ids without a row are skipped. */
+    public List<ReceivedMessage> findAllById(Collection<Long> ids) {
+        return findByIds(ReceivedMessageRepository::selectMessages, ids, this::messageMapper);
+    }
+
+    /** Like {@link #findAllById} without the payloads. */
+    public List<MessageKey> findKeysByIdIn(Collection<Long> ids) {
+        return findByIds(partition -> KEY_COLUMNS + partition.getTable(), ids, partition -> KEY);
+    }
+
+    private <T> List<T> findByIds(Function<Partition, String> select, Collection<Long> ids,
+                                  Function<Partition, RowMapper<T>> mapper) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return partitions.read(() -> {
+            List<T> rows = new ArrayList<>();
+            for (Partition partition : partitions.all()) {
+                String inRange = ids.stream().filter(partition::mayContain).map(String::valueOf)
+                        .collect(Collectors.joining(","));
+                if (!inRange.isEmpty()) {
+                    rows.addAll(jdbcTemplate.query(select.apply(partition) + " WHERE id IN (" + inRange + ")",
+                            mapper.apply(partition)));
+                }
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * One newest-first page of the messages matching the conditions, with their total. The
+     * partitions in the time range are counted in parallel; rows are then only read from the
+     * partitions the page falls into, skipping whole partitions in front of the offset.
+     *
+     * @param topicIds null for all topics
+     */
+    public Page<ReceivedMessage> search(Collection<Integer> topicIds, List<FieldPredicate> where,
+                                        LocalDateTime from, LocalDateTime to, Pageable pageable) {
+        Conditions conditions = conditions(topicIds, where, from, to);
+        return partitions.read(() -> {
+            List<Partition> targets = partitions.overlapping(from, to);
+            List<Long> counts = partitions.scan(targets, partition -> jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM " + partition.getTable() + conditions.where(partition), Long.class,
+                    conditions.args()));
+            long total = counts.stream().mapToLong(Long::longValue).sum();
+            List<ReceivedMessage> rows = new ArrayList<>();
+            long skip = pageable.getOffset();
+            for (int i = 0; i < targets.size() && rows.size() < pageable.getPageSize(); i++) {
+                if (skip >= counts.get(i)) {
+                    skip -= counts.get(i);
+                    continue;
+                }
+                Partition partition = targets.get(i);
+                rows.addAll(jdbcTemplate.query(selectMessages(partition) + conditions.where(partition)
+                                + NEWEST_FIRST + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY", messageMapper(partition),
+                        conditions.args(skip, pageable.getPageSize() - rows.size())));
+                skip = 0;
+            }
+            return new PageImpl<>(rows, pageable, total);
+        });
+    }
+
+    /**
+     * Keyset page: the messages strictly after (before, beforeId) in newest-first order and
+     * received at or after {@code from}, read off the descending indexes partition by partition
+     * until the slice and the row that tells whether there is more are found. No count query runs.
+     *
+     * @param topicIds null for all topics
+     */
+    public Slice<ReceivedMessage> scroll(Collection<Integer> topicIds, List<FieldPredicate> where,
+                                         LocalDateTime before, long beforeId, LocalDateTime from, Pageable limit) {
+        Conditions conditions = conditions(topicIds, where, from, null)
+                .add("received_at <= ? AND (received_at < ? OR id < ?)",
+                        Timestamp.valueOf(before), Timestamp.valueOf(before), beforeId);
+        int wanted = limit.getPageSize() + 1;
+        List<ReceivedMessage> rows = partitions.read(() -> {
+            List<ReceivedMessage> found = new ArrayList<>();
+            for (Partition partition : partitions.overlapping(from, before)) {
+                found.addAll(jdbcTemplate.query(selectMessages(partition) + conditions.where(partition)
+                        + NEWEST_FIRST + " FETCH FIRST ? ROWS ONLY", messageMapper(partition), conditions.args(wanted - found.size())));
+                if (found.size() >= wanted) {
+                    break;
+                }
+            }
+            return found;
+        });
+        if (rows.size() > limit.getPageSize()) {
+            return new SliceImpl<>(rows.subList(0, limit.getPageSize()), limit, true);
+        }
+        return new SliceImpl<>(rows, limit, false);
+    }
+
+    /**
+     * Keys of the messages of the topics received in [from, to] whose id is {@code wanted}, from
+     * the partitions in range in parallel. Only the key columns are selected, so H2 answers from the
+     * index without reading the rows, and only the wanted keys are kept.
+     *
+     * @param topicIds null for all topics
+     */
+    public List<MessageKey> findKeys(Collection<Integer> topicIds, LocalDateTime from, LocalDateTime to,
+                                     LongPredicate wanted) {
+        Conditions conditions = conditions(topicIds, List.of(), from, to);
+        return partitions.read(() -> partitions.scan(partitions.overlapping(from, to), partition -> {
+                    List<MessageKey> keys = new ArrayList<>();
+                    jdbcTemplate.query(KEY_COLUMNS + partition.getTable() + conditions.where(partition), rs -> {
+                        if (wanted.test(rs.getLong(1))) {
+                            keys.add(KEY.mapRow(rs, keys.size()));
+                        }
+                    }, conditions.args());
+                    return keys;
+                })
+                .stream().flatMap(List::stream).toList());
+    }
+
+    /** The newest message of a topic, if it has any. */
+    public Optional<ReceivedMessage> findNewest(int topicId) {
+        return partitions.read(() -> {
+            for (Partition partition : partitions.all()) {
+                List<ReceivedMessage> rows = jdbcTemplate.query(selectMessages(partition)
+                        + " WHERE topic_id = ?" + NEWEST_FIRST + " FETCH FIRST 1 ROWS ONLY", messageMapper(partition), topicId);
+                if (!rows.isEmpty()) {
+                    return Optional.of(rows.get(0));
+                }
+            }
+            return Optional.empty();
+        });
+    }
+
+    /** Highest message id written so far, 0 if there is none. */
+    public long maxId() {
+        return partitions.all().stream().mapToLong(Partition::maxId).max().orElse(0);
+    }
+
+    /** Up to {@code limit} messages with ids in (afterId, upToId], ascending by id. */
+    public List<ReceivedMessage> findByIdRange(long afterId, long upToId, int limit) {
+        return partitions.read(() -> {
+            List<ReceivedMessage> rows = new ArrayList<>();
+            for (Partition partition : partitions.all()) {
+                if (partition.mayContainBetween(afterId, upToId)) {
+                    rows.addAll(jdbcTemplate.query(selectMessages(partition)
+                            + " WHERE id > ? AND id <= ? ORDER BY id FETCH FIRST ? ROWS ONLY", messageMapper(partition), afterId, upToId, limit));
+                }
+            }
+            rows.sort(Comparator.comparing(ReceivedMessage::getId));
+            return rows.size() > limit ? rows.subList(0, limit) : rows;
+        });
+    }
+
+    /** Number of messages of a topic, counted per partition. */
+    public long countByTopic(int topicId) {
+        return partitions.read(() -> {
+            long total = 0;
+            for (Partition partition : partitions.all()) {
+                Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition.getTable()
+                        + " WHERE topic_id = ?", Long.class, topicId);
+                total += count != null ? count : 0;
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Position of the {@code n}th newest message of a topic, 1 being the newest, if it has that
+     * many. Counts the topic per partition newest first and reads one row of the partition the
+     * position falls into.
+     */
+    public Optional<MessageKey> findNthNewest(int topicId, long n) {
+        return partitions.read(() -> {
+            long seen = 0;
+            for (Partition partition : partitions.all()) {
+                Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition.getTable()
+                        + " WHERE topic_id = ?", Long.class, topicId);
+                if (count != null && seen + count >= n) {
+                    return jdbcTemplate.query(KEY_COLUMNS + partition.getTable() + " WHERE topic_id = ?" + NEWEST_FIRST
+                            + " OFFSET ? ROWS FETCH NEXT 1 ROWS ONLY", KEY, topicId, n - seen - 1).stream().findFirst();
+                }
+                seen += count != null ? count : 0;
+            }
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Deletes up to {@code limit} messages of a topic in one partition that are at or before
+     * (upToTime, upToId) in history order, together with their indexed fields, in the caller's
+     * transaction. The rows are found on the topic index. The caller holds the read lock and has
+     * checked that the partition still exists.
+     *
+     * @return what was deleted, empty when nothing is left to delete
+     */
+    public List<PurgedMessage> deleteUpTo(Partition partition, int topicId, LocalDateTime upToTime, long upToId,
+                                          int limit) {
+        Timestamp upTo = Timestamp.valueOf(upToTime);
+        List<PurgedMessage> rows = jdbcTemplate.query("SELECT id, received_at, " + partition.payloadSizeColumn()
+                        + " FROM " + partition.getTable() + " WHERE topic_id = ? AND received_at <= ? AND (received_at < ? OR id <= ?)"
+                        + " FETCH FIRST ? ROWS ONLY",
+                (rs, rowNum) -> new PurgedMessage(rs.getLong(1), rs.getObject(2, LocalDateTime.class), rs.getLong(3)),
+                topicId, upTo, upTo, upToId, limit);
+        if (!rows.isEmpty()) {
+            String ids = rows.stream().map(row -> String.valueOf(row.id())).collect(Collectors.joining(","));
+            partition.deleting(rows.size());
+            jdbcTemplate.update("DELETE FROM " + partition.getFieldsTable() + " WHERE message_id IN (" + ids + ")");
+            jdbcTemplate.update("DELETE FROM " + partition.getTable() + " WHERE id IN (" + ids + ")");
+        }
+        return rows;
+    }
+
+    /** Selects the columns {@link #messageMapper} reads. */
+    private static String selectMessages(Partition partition) {
+        return "SELECT id, topic_id, payload, qos, retained, received_at, " + partition.payloadSizeColumn()
+                + " FROM " + partition.getTable();
+    }
+
+    /** Maps the columns of {@link #selectMessages}; the payload is only decoded when it is asked for. */
+    private RowMapper<ReceivedMessage> messageMapper(Partition partition) {
+        boolean text = partition.isTextPayload();
+        return (rs, rowNum) -> {
+            ReceivedMessage message = new ReceivedMessage();
+            message.setId(rs.getLong(1));
+            message.setTopicId(rs.getInt(2));
+            message.setQos(rs.getInt(4));
+            message.setRetained(rs.getBoolean(5));
+            message.setReceivedAt(rs.getObject(6, LocalDateTime.class));
+            int size = rs.getInt(7);
+            if (text) {
+                String payload = rs.getString(3);
+                message.setPayload(size, () -> payload != null ? payload.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+            } else {
+                byte[] stored = rs.getBytes(3);
+                message.setPayload(size, () -> payloadCodec.decode(stored, size));
+            }
+            return message;
+        };
+    }
+
+    private static Conditions conditions(Collection<Integer> topicIds, List<FieldPredicate> where,
+                                         LocalDateTime from, LocalDateTime to) {
+        Conditions conditions = new Conditions();
+        if (topicIds != null) {
+            conditions.add(topicIds.isEmpty() ? "FALSE" : topicIds.size() == 1
+                    ? "topic_id = " + topicIds.iterator().next()
+                    : "topic_id IN (" + topicIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")");
+        }
+        if (from != null) {
+            conditions.add("received_at >= ?", Timestamp.valueOf(from));
+        }
+        if (to != null) {
+            conditions.add("received_at <= ?", Timestamp.valueOf(to));
+        }
+        // a subquery on one of the value indexes of the partition's own fields table
+        for (FieldPredicate predicate : where) {
+            conditions.add("id IN (SELECT message_id FROM " + FIELDS_TABLE + " WHERE " + predicate.sqlCondition() + ")",
+                    predicate.path(), predicate.sqlValue());
+        }
+        return conditions;
+    }
+
+    /** The columns a search candidate is filtered on, without the payload. */
+    public record MessageKey(long id, int topicId, LocalDateTime receivedAt) {
+    }
+
+    /** A message removed by {@link #deleteUpTo}. */
+    public record PurgedMessage(long id, LocalDateTime receivedAt, long payloadBytes) {
+    }
+
+    /** A WHERE clause and its parameters, the same for every partition but for the fields table. */
+    private static final class Conditions {
+        private final List<String> sql = new ArrayList<>();
+        private final List<Object> args = new ArrayList<>();
+
+        Conditions add(String condition, Object... params) {
+            sql.add(condition);
+            args.addAll(Arrays.asList(params));
+            return this;
+        }
+
+        String where(Partition partition) {
+            return sql.isEmpty() ? "" : " WHERE " + String.join(" AND ", sql).replace(FIELDS_TABLE, partition.getFieldsTable());
+        }
+
+        /** The parameters, followed by those of the clauses after the WHERE. */
+        Object[] args(Object... more) {
+            List<Object> all = new ArrayList<>(args);
+            all.addAll(Arrays.asList(more));
+            return all.toArray();
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package com.example.mqttcore.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted, disjoint ranges of message ids: those of the partitions and archived segments that
+ * still exist. A posting outside them belongs to a message that was deleted with its partition.
+ */
+final class IdRanges {
+
+    private final long[] starts;
+    private final long[] ends;
+
+    private IdRanges(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /** The union of the inclusive {@code [start, end]} ranges, in any order and overlapping. */
+    static IdRanges of(List<long[]> ranges) {
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(range -> range[0]));
+        long[] starts = new long[sorted.size()];
+        long[] ends = new long[sorted.size()];
+        int n = 0;
+        for (long[] range : sorted) {
+            if (n > 0 && range[0] <= ends[n - 1] + 1) {
+                ends[n - 1] = Math.max(ends[n - 1], range[1]);
+            } else {
+                starts[n] = range[0];
+                ends[n++] = range[1];
+            }
+        }
+        return new IdRanges(Arrays.copyOf(starts, n), Arrays.copyOf(ends, n));
+    }
+
+    /** The ids of an ascending list that fall into a range; the list itself if all do. */
+    long[] retain(long[] ids) {
+        long[] out = null;
+        int n = 0;
+        int range = 0;
+        for (int i = 0; i < ids.length; i++) {
+            while (range < ends.length && ends[range] < ids[i]) {
+                range++;
+            }
+            boolean inRange = range < ends.length && starts[range] <= ids[i];
+            if (!inRange && out == null) {
+                out = ids.clone();
+                n = i;
+            } else if (inRange && out != null) {
+                out[n++] = ids[i];
+            }
+        }
+        return out == null ? ids : Arrays.copyOf(out, n);
+    }
+
+    /** How many of the ids in {@code [from, to]} fall into a range. */
+    long covered(long from, long to) {
+        long count = 0;
+        for (int i = 0; i < starts.length && starts[i] <= to; i++) {
+            long start = Math.max(from, starts[i]);
+            long end = Math.min(to, ends[i]);
+            if (start <= end) {
+                count += end - start + 1;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.mqttcore.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Immutable on-disk part of the payload index: the posting lists of the terms of a range of
+ * messages, sorted by term.
+ *
+ * <p>Layout: the delta-encoded posting lists back to back; then the dictionary, one entry per term
+ * ({@code short termLength, term, int count, long postingsOffset, int postingsLength}); then a
+ * sparse index of every {@link #BLOCK}-th dictionary entry ({@code short termLength, term,
+ * long entryOffset}); then a fixed footer ({@code long dictOffset, long sparseOffset,
+ * int termCount, int sparseCount, long minId, long maxId, int magic}). Only the sparse index is
+ * held in memory; a lookup reads one dictionary block and one posting list.
+ *
+ * <p>Segments are written to a temporary file and renamed into place, so a segment file is
+ * either complete or absent.
+ */
+final class IndexSegment implements Closeable {
+
+    static final String PREFIX = "index-";
+    static final String SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x4D51_4959;
+    private static final int FOOTER_BYTES = 8 + 8 + 4 + 4 + 8 + 8 + 4;
+    private static final int BLOCK = 32;
+
+    private final Path file;
+    private final long generation;
+    private final FileChannel channel;
+    private final long dictOffset;
+    private final long sparseOffset;
+    private final int termCount;
+    private final long minId;
+    private final long maxId;
+    private final String[] blockTerms;
+    private final long[] blockOffsets;
+
+    private IndexSegment(Path file, FileChannel channel, long dictOffset, long sparseOffset, int termCount,
+                         long minId, long maxId, String[] blockTerms, long[] blockOffsets) {
+        this.file = file;
+        this.generation = generationOf(file);
+        this.channel = channel;
+        this.dictOffset = dictOffset;
+        this.sparseOffset = sparseOffset;
+        this.termCount = termCount;
+        this.minId = minId;
+        this.maxId = maxId;
+        this.blockTerms = blockTerms;
+        this.blockOffsets = blockOffsets;
+    }
+
+    static Path fileFor(Path dir, long generation) {
+        return dir.resolve(String.format("%s%010d%s", PREFIX, generation, SUFFIX));
+    }
+
+    static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /** @throws IOException if the file is unreadable or not a complete segment */
+    static IndexSegment open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < FOOTER_BYTES) {
+                throw new IOException("Truncated index segment " + file);
+            }
+            ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+            long dictOffset = footer.getLong();
+            long sparseOffset = footer.getLong();
+            int termCount = footer.getInt();
+            int sparseCount = footer.getInt();
+            long minId = footer.getLong();
+            long maxId = footer.getLong();
+            if (footer.getInt() != MAGIC || dictOffset > sparseOffset || sparseOffset > size - FOOTER_BYTES) {
+                throw new IOException("Corrupt index segment " + file);
+            }
+            ByteBuffer sparse = read(channel, sparseOffset, (int) (size - FOOTER_BYTES - sparseOffset));
+            String[] blockTerms = new String[sparseCount];
+            long[] blockOffsets = new long[sparseCount];
+            for (int i = 0; i < sparseCount; i++) {
+                blockTerms[i] = readTerm(sparse);
+                blockOffsets[i] = dictOffset + sparse.getLong();
+            }
+            return new IndexSegment(file, channel, dictOffset, sparseOffset, termCount, minId, maxId, blockTerms, blockOffsets);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException io ? io : new IOException("Corrupt index segment " + file, e);
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /** Lowest message id in this segment; above {@link #maxId} if it has no terms. */
+    long minId() {
+        return minId;
+    }
+
+    /** Highest message id in this segment. */
+    long maxId() {
+        return maxId;
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    /** Posting list of {@code term}, or an empty one if the segment does not contain it. */
+    long[] postings(String term) throws IOException {
+        int block = Arrays.binarySearch(blockTerms, term);
+        if (block < 0) {
+            // the block whose first term precedes the term
+            block = -block - 2;
+            if (block < 0) {
+                return Postings.EMPTY;
+            }
+        }
+        for (Entry entry : readBlock(block)) {
+            int cmp = entry.term.compareTo(term);
+            if (cmp == 0) {
+                return readPostings(entry);
+            }
+            if (cmp > 0) {
+                break;
+            }
+        }
+        return Postings.EMPTY;
+    }
+
+    long[] readPostings(Entry entry) throws IOException {
+        return Postings.decode(read(channel, entry.postingsOffset, entry.postingsLength), entry.count);
+    }
+
+    /** All dictionary entries in term order, one block at a time; for merging. */
+    Iterable<List<Entry>> blocks() {
+        return () -> new Iterator<>() {
+            private int block;
+
+            @Override
+            public boolean hasNext() {
+                return block < blockOffsets.length;
+            }
+
+            @Override
+            public List<Entry> next() {
+                try {
+                    return readBlock(block++);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private List<Entry> readBlock(int block) throws IOException {
+        long start = blockOffsets[block];
+        long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : sparseOffset;
+        ByteBuffer buffer = read(channel, start, (int) (end - start));
+        List<Entry> entries = new ArrayList<>(BLOCK);
+        while (buffer.hasRemaining()) {
+            entries.add(new Entry(readTerm(buffer), buffer.getInt(), buffer.getLong(), buffer.getInt()));
+        }
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static String readTerm(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of index segment");
+            }
+        }
+        return buffer.flip();
+    }
+
+    record Entry(String term, int count, long postingsOffset, int postingsLength) {
+    }
+
+    /**
+     * Writes a segment from terms added in ascending order. The dictionary goes to a side file
+     * while the posting lists are written, and is appended on {@link #finish}.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path tmp;
+        private final Path dictTmp;
+        private final FileChannel out;
+        private final DataOutputStream dict;
+        private final ByteArrayOutputStream sparseBytes = new ByteArrayOutputStream();
+        private final DataOutputStream sparse = new DataOutputStream(sparseBytes);
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long position;
+        private long dictPosition;
+        private int termCount;
+        private int sparseCount;
+        private long minId = Long.MAX_VALUE;
+        private long maxId;
+        private boolean finished;
+
+        Writer(Path target) throws IOException {
+            this.target = target;
+            this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.dictTmp = target.resolveSibling(target.getFileName() + ".dict.tmp");
+            this.out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.dict = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dictTmp)));
+        }
+
+        void add(String term, long[] ids) throws IOException {
+            if (ids.length == 0) {
+                return;
+            }
+            buffer.clear();
+            buffer = Postings.encode(ids, buffer);
+            buffer.flip();
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            if (termCount % BLOCK == 0) {
+                sparse.writeShort(bytes.length);
+                sparse.write(bytes);
+                sparse.writeLong(dictPosition);
+                sparseCount++;
+            }
+            dict.writeShort(bytes.length);
+            dict.write(bytes);
+            dict.writeInt(ids.length);
+            dict.writeLong(position);
+            dict.writeInt(length);
+            dictPosition += 2 + bytes.length + 4 + 8 + 4;
+            position += length;
+            termCount++;
+            minId = Math.min(minId, ids[0]);
+            maxId = Math.max(maxId, ids[ids.length - 1]);
+        }
+
+        IndexSegment finish() throws IOException {
+            dict.close();
+            long dictOffset = position;
+            try (FileChannel source = FileChannel.open(dictTmp, StandardOpenOption.READ)) {
+                long copied = 0;
+                while (copied < dictPosition) {
+                    copied += out.transferFrom(source, dictOffset + copied, dictPosition - copied);
+                }
+            }
+            long sparseOffset = dictOffset + dictPosition;
+            ByteBuffer tail = ByteBuffer.allocate(sparseBytes.size() + FOOTER_BYTES);
+            tail.put(sparseBytes.toByteArray())
+                    .putLong(dictOffset).putLong(sparseOffset).putInt(termCount).putInt(sparseCount)
+                    .putLong(minId).putLong(maxId).putInt(MAGIC)
+                    .flip();
+            out.position(sparseOffset);
+            while (tail.hasRemaining()) {
+                out.write(tail);
+            }
+            out.force(true);
+            out.close();
+            Files.deleteIfExists(dictTmp);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return open(target);
+        }
+
+        /** Discards the partial segment unless it was finished. */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                dict.close();
+                out.close();
+                Files.deleteIfExists(dictTmp);
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
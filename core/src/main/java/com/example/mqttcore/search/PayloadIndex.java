@@ -0,0 +1,589 @@
+package com.example.mqttcore.search;
+
+import com.example.mqttcore.archive.MessageArchive;
+import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.payload.Payloads;
+import com.example.mqttcore.repository.MessagePartitions;
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import com.example.mqttcore.repository.ReceivedMessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Inverted index over message payloads: term to ascending message ids. Written messages are
+ * tokenized into an in-memory buffer, which a background thread writes out as an immutable
+ * {@link IndexSegment} every {@code mqtt.search.flush-interval-ms} or once it holds
+ * {@code mqtt.search.max-buffered-postings}. When there are more than {@code mqtt.search.merge-factor}
+ * segments, the smallest are merged into one, so a query reads a bounded number of files.
+ *
+ * <p>Postings are not removed when messages are deleted. A posting outside the id ranges of the
+ * partitions and archived segments belongs to a dropped partition: queries leave it out, merges
+ * drop it, and a segment whose id span is mostly dropped is rewritten without them, since merges
+ * would rarely get to the large old segments.
+ *
+ * <p>A checkpoint file records the id through which every message is in a segment. On startup
+ * the messages after it are indexed again from the table; without segments (first start, deleted
+ * or corrupt directory) that rebuilds the whole index. Queries during the catch-up see what has
+ * been indexed so far. Ids may still point to messages purged from a partition that exists or
+ * never committed, so callers look the ids up rather than trusting them.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PayloadIndex {
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CATCH_UP_CHUNK = 5_000;
+
+    /**
+     * Ids are assigned before commit, so batches of different lanes can commit out of id order;
+     * catching up re-reads this many ids below the checkpoint to cover those a crash interrupted.
+     */
+    private static final long CATCH_UP_OVERLAP = 10_000;
+
+    @Value("${mqtt.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mqtt.search.directory:./data/search}")
+    private String directory;
+
+    @Value("${mqtt.search.flush-interval-ms:10000}")
+    private long flushIntervalMs;
+
+    @Value("${mqtt.search.max-buffered-postings:1000000}")
+    private long maxBufferedPostings;
+
+    @Value("${mqtt.search.merge-factor:8}")
+    private int mergeFactor;
+
+    private final ReceivedMessageRepository messageRepository;
+    private final MessagePartitions partitions;
+    private final MessageArchive messageArchive;
+
+    private Path dir;
+    private ScheduledExecutorService worker;
+    private long nextGeneration;
+    private long checkpoint;
+
+    /** Guards the segment files against being closed by a merge while a query reads them. */
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    private volatile List<IndexSegment> segments = List.of();
+    /** Ids of each segment outside the live ranges when it was written; only touched by the worker. */
+    private final Map<IndexSegment, Long> droppedWhenWritten = new HashMap<>();
+
+    // Guarded by this
+    private Map<String, IdList> buffer = new HashMap<>();
+    private final List<Map<String, IdList>> flushing = new ArrayList<>();
+    private long bufferedPostings;
+    private boolean flushRequested;
+
+    /** Id through which the running catch-up has added messages to the buffer, or -1. */
+    private volatile long catchUpPosition = -1;
+    /** Until the catch-up has completed, flushes must not move the checkpoint past it. */
+    private volatile boolean caughtUp;
+    private volatile boolean closing;
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.sorted().toList();
+        }
+        List<IndexSegment> loaded = new ArrayList<>();
+        boolean intact = true;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".tmp")) {
+                Files.delete(file);
+            } else if (name.startsWith(IndexSegment.PREFIX) && name.endsWith(IndexSegment.SUFFIX)) {
+                try {
+                    loaded.add(IndexSegment.open(file));
+                } catch (IOException e) {
+                    log.warn("Payload index segment {} is unreadable, rebuilding the index: {}", file, e.getMessage());
+                    intact = false;
+                }
+            }
+        }
+        if (!intact || loaded.isEmpty()) {
+            for (IndexSegment segment : loaded) {
+                segment.close();
+            }
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            loaded.clear();
+        }
+        segments = List.copyOf(loaded);
+        nextGeneration = loaded.stream().mapToLong(IndexSegment::generation).max().orElse(0) + 1;
+        checkpoint = loaded.isEmpty() ? 0 : readCheckpoint();
+
+        worker = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "mqtt-search-index"));
+        worker.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Payload index opened at {} ({} segments, complete through message id {})",
+                dir.toAbsolutePath(), loaded.size(), checkpoint);
+    }
+
+    /** Indexes what was written while the index was not running; the tables exist by now. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startCatchUp() {
+        if (enabled) {
+            worker.execute(this::catchUpQuietly);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isCatchingUp() {
+        return catchUpPosition >= 0;
+    }
+
+    /** Adds freshly persisted messages; their ids must be assigned. */
+    public void index(List<ReceivedMessage> messages) {
+        if (!enabled) {
+            return;
+        }
+        long[] ids = new long[messages.size()];
+        List<Set<String>> terms = new ArrayList<>(messages.size());
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = messages.get(i).getId();
+            terms.add(PayloadTokenizer.terms(Payloads.textOrNull(messages.get(i).getPayload())));
+        }
+        if (add(ids, terms) && requestFlush()) {
+            worker.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Ids of the messages whose payload contains every term of {@code query}, ascending, leaving
+     * out those of dropped partitions.
+     *
+     * @throws IllegalArgumentException if the query has no term the tokenizer would index, or
+     *                                  the index is disabled
+     */
+    public long[] search(String query) {
+        if (!enabled) {
+            throw new IllegalArgumentException("Payload search is disabled (mqtt.search.enabled)");
+        }
+        Set<String> terms = PayloadTokenizer.terms(query);
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("Search query has no searchable terms: " + query);
+        }
+        long[] result = null;
+        for (String term : terms) {
+            long[] ids = postings(term);
+            result = result == null ? ids : Postings.intersect(result, ids);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return liveRanges().retain(result);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        closing = true;
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(30, TimeUnit.SECONDS)) {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        for (IndexSegment segment : segments) {
+            closeQuietly(segment);
+        }
+        log.info("Payload index closed ({} segments)", segments.size());
+    }
+
+    // --- Buffer and queries ---
+
+    /** Returns true if the buffer has grown past its limit. */
+    private synchronized boolean add(long[] ids, List<Set<String>> terms) {
+        for (int i = 0; i < ids.length; i++) {
+            for (String term : terms.get(i)) {
+                buffer.computeIfAbsent(term, t -> new IdList()).add(ids[i]);
+            }
+            bufferedPostings += terms.get(i).size();
+        }
+        return bufferedPostings >= maxBufferedPostings;
+    }
+
+    /** Returns true for the first request since the last flush, and never once closing. */
+    private synchronized boolean requestFlush() {
+        if (flushRequested || closing) {
+            return false;
+        }
+        flushRequested = true;
+        return true;
+    }
+
+    private long[] postings(String term) {
+        List<long[]> parts = new ArrayList<>();
+        // Memory before segments: a flush installs its segment before releasing the buffer,
+        // so in this order a posting is seen at least once
+        synchronized (this) {
+            addBuffered(parts, buffer, term);
+            for (Map<String, IdList> frozen : flushing) {
+                addBuffered(parts, frozen, term);
+            }
+        }
+        segmentLock.readLock().lock();
+        try {
+            for (IndexSegment segment : segments) {
+                long[] ids = segment.postings(term);
+                if (ids.length > 0) {
+                    parts.add(ids);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read payload index", e);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return Postings.union(parts);
+    }
+
+    private static void addBuffered(List<long[]> parts, Map<String, IdList> buffer, String term) {
+        IdList ids = buffer.get(term);
+        if (ids != null) {
+            parts.add(ids.toSortedArray());
+        }
+    }
+
+    // --- Worker thread: flushes, merges and catch-up ---
+
+    private void flushQuietly() {
+        try {
+            flush();
+            expungeIfNeeded();
+        } catch (Exception e) {
+            log.error("Payload index flush failed: {}", e.getMessage());
+        }
+    }
+
+    private void flush() throws IOException {
+        Map<String, IdList> frozen;
+        synchronized (this) {
+            flushRequested = false;
+            if (buffer.isEmpty()) {
+                return;
+            }
+            frozen = buffer;
+            buffer = new HashMap<>();
+            bufferedPostings = 0;
+            flushing.add(frozen);
+        }
+        long covered = catchUpPosition;
+        try {
+            IndexSegment segment = write(frozen);
+            install(List.of(), segment);
+            if (caughtUp) {
+                writeCheckpoint(segment.maxId());
+            } else if (covered >= 0) {
+                writeCheckpoint(covered);
+            }
+        } catch (IOException e) {
+            // Keep the postings for the next attempt
+            synchronized (this) {
+                frozen.forEach((term, ids) -> buffer.computeIfAbsent(term, t -> new IdList()).addAll(ids));
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                flushing.removeIf(m -> m == frozen);
+            }
+        }
+        mergeIfNeeded();
+    }
+
+    private IndexSegment write(Map<String, IdList> postings) throws IOException {
+        try (IndexSegment.Writer writer = new IndexSegment.Writer(IndexSegment.fileFor(dir, nextGeneration++))) {
+            for (Map.Entry<String, IdList> entry : new TreeMap<>(postings).entrySet()) {
+                writer.add(entry.getKey(), entry.getValue().toSortedArray());
+            }
+            return writer.finish();
+        }
+    }
+
+    private void mergeIfNeeded() throws IOException {
+        while (segments.size() > mergeFactor && !closing) {
+            List<IndexSegment> smallest = new ArrayList<>(segments);
+            smallest.sort(Comparator.comparingLong(IndexSegment::termCount));
+            smallest = smallest.subList(0, mergeFactor);
+            long start = System.currentTimeMillis();
+            IndexSegment merged = merge(smallest, liveRanges());
+            install(smallest, merged);
+            log.debug("Merged {} payload index segments into one with {} terms in {} ms",
+                    smallest.size(), merged.termCount(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Rewrites each segment of which more than half the id span has been dropped since it was
+     * written. Spans stand in for postings: ids are dense, and a segment covers a run of them.
+     */
+    private void expungeIfNeeded() throws IOException {
+        IdRanges live = liveRanges();
+        for (IndexSegment segment : segments) {
+            if (closing || segment.minId() > segment.maxId()) {
+                continue;
+            }
+            long span = segment.maxId() - segment.minId() + 1;
+            long dropped = span - live.covered(segment.minId(), segment.maxId());
+            if (dropped - droppedWhenWritten.getOrDefault(segment, 0L) > span / 2) {
+                long start = System.currentTimeMillis();
+                IndexSegment rewritten = merge(List.of(segment), live);
+                install(List.of(segment), rewritten);
+                log.debug("Dropped the postings of deleted partitions from a payload index segment in {} ms",
+                        System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * K-way merge over the sorted dictionaries, keeping the postings in {@code live}; only one
+     * term's postings are in memory at a time.
+     */
+    private IndexSegment merge(List<IndexSegment> parts, IdRanges live) throws IOException {
+        PriorityQueue<TermCursor> queue = new PriorityQueue<>(Comparator.comparing(TermCursor::term));
+        for (IndexSegment part : parts) {
+            TermCursor cursor = new TermCursor(part);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        try (IndexSegment.Writer writer = new IndexSegment.Writer(IndexSegment.fileFor(dir, nextGeneration++))) {
+            List<long[]> lists = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                String term = queue.peek().term();
+                lists.clear();
+                while (!queue.isEmpty() && queue.peek().term().equals(term)) {
+                    TermCursor cursor = queue.poll();
+                    lists.add(cursor.postings());
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+                writer.add(term, live.retain(Postings.union(lists)));
+            }
+            IndexSegment merged = writer.finish();
+            if (merged.minId() <= merged.maxId()) {
+                droppedWhenWritten.put(merged, merged.maxId() - merged.minId() + 1
+                        - live.covered(merged.minId(), merged.maxId()));
+            }
+            return merged;
+        }
+    }
+
+    private void install(List<IndexSegment> replaced, IndexSegment added) {
+        segmentLock.writeLock().lock();
+        try {
+            List<IndexSegment> next = new ArrayList<>(segments);
+            next.removeAll(replaced);
+            next.add(added);
+            segments = List.copyOf(next);
+            replaced.forEach(PayloadIndex::closeQuietly);
+            replaced.forEach(droppedWhenWritten::remove);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        for (IndexSegment segment : replaced) {
+            try {
+                Files.deleteIfExists(segment.file());
+            } catch (IOException e) {
+                // Harmless: its postings are also in the merged segment; startup retries
+                log.debug("Could not delete payload index segment {}: {}", segment.file(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Id ranges of the partitions and archived segments, read under the partitions' lock so that
+     * a partition moving to the archive is in one or the other.
+     */
+    private IdRanges liveRanges() {
+        return IdRanges.of(partitions.read(() -> {
+            List<long[]> ranges = new ArrayList<>(messageArchive.idRanges());
+            for (Partition partition : partitions.all()) {
+                long[] range = partition.idRange();
+                if (range != null) {
+                    ranges.add(range);
+                }
+            }
+            return ranges;
+        }));
+    }
+
+    private void catchUpQuietly() {
+        try {
+            caughtUp = catchUp();
+        } catch (Exception e) {
+            log.error("Payload index catch-up stopped: {}", e.getMessage());
+        } finally {
+            catchUpPosition = -1;
+        }
+    }
+
+    /** Returns false if interrupted by shutdown, which leaves the checkpoint where the catch-up got to. */
+    private boolean catchUp() throws IOException {
+        long lastId = messageRepository.maxId();
+        long from = Math.max(0, checkpoint - CATCH_UP_OVERLAP);
+        if (lastId <= from) {
+            return true;
+        }
+        log.info("Indexing payloads of messages {}..{}", from + 1, lastId);
+        long start = System.currentTimeMillis();
+        catchUpPosition = from;
+        long indexed = 0;
+        while (catchUpPosition < lastId && !closing) {
+            List<Long> ids = new ArrayList<>(CATCH_UP_CHUNK);
+            List<Set<String>> terms = new ArrayList<>(CATCH_UP_CHUNK);
+            for (ReceivedMessage message : messageRepository.findByIdRange(catchUpPosition, lastId, CATCH_UP_CHUNK)) {
+                ids.add(message.getId());
+                terms.add(PayloadTokenizer.terms(Payloads.textOrNull(message.getPayload())));
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            boolean full = add(ids.stream().mapToLong(Long::longValue).toArray(), terms);
+            catchUpPosition = ids.get(ids.size() - 1);
+            indexed += ids.size();
+            if (full) {
+                flush();
+            }
+        }
+        if (closing) {
+            flush();
+            return false;
+        }
+        catchUpPosition = lastId;
+        flush();
+        log.info("Indexed payloads of {} messages in {} ms", indexed, System.currentTimeMillis() - start);
+        return true;
+    }
+
+    // --- Checkpoint ---
+
+    private long readCheckpoint() throws IOException {
+        Path file = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(file).trim());
+    }
+
+    private void writeCheckpoint(long id) throws IOException {
+        if (id <= checkpoint) {
+            return;
+        }
+        Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, Long.toString(id));
+        Files.move(tmp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = id;
+    }
+
+    private static void closeQuietly(IndexSegment segment) {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            log.debug("Could not close payload index segment {}: {}", segment.file(), e.getMessage());
+        }
+    }
+
+    /** Growable list of the ids of one term in the buffer, in arrival order. */
+    private static final class IdList {
+        private long[] ids = new long[4];
+        private int size;
+
+        void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void addAll(IdList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.ids[i]);
+            }
+        }
+
+        long[] toSortedArray() {
+            return Postings.sortedDistinct(Arrays.copyOf(ids, size), size);
+        }
+    }
+
+    /** Position in the dictionary of a segment being merged. */
+    private static final class TermCursor {
+        private final IndexSegment segment;
+        private final Iterator<List<IndexSegment.Entry>> blocks;
+        private Iterator<IndexSegment.Entry> entries = Collections.emptyIterator();
+        private IndexSegment.Entry current;
+
+        TermCursor(IndexSegment segment) {
+            this.segment = segment;
+            this.blocks = segment.blocks().iterator();
+        }
+
+        boolean advance() {
+            while (!entries.hasNext()) {
+                if (!blocks.hasNext()) {
+                    return false;
+                }
+                entries = blocks.next().iterator();
+            }
+            current = entries.next();
+            return true;
+        }
+
+        String term() {
+            return current.term();
+        }
+
+        long[] postings() throws IOException {
+            return segment.readPostings(current);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.mqttcore.search;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits payload text into search terms: maximal runs of letters and digits, lower-cased. Terms
+ * shorter than {@link #MIN_LENGTH} carry too little to be worth a posting list, and longer than
+ * {@link #MAX_LENGTH} are nearly always hashes or encoded blobs that nobody searches for.
+ */
+public final class PayloadTokenizer {
+
+    static final int MIN_LENGTH = 2;
+    static final int MAX_LENGTH = 32;
+
+    /** Bounds the work and the postings one large payload can add. */
+    private static final int MAX_TERMS = 256;
+    private static final int MAX_CHARS = 64 * 1024;
+
+    private PayloadTokenizer() {
+    }
+
+    /** Distinct terms of {@code text}, at most {@code MAX_TERMS} from its first {@code MAX_CHARS} characters. */
+    public static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int length = Math.min(text.length(), MAX_CHARS);
+        int start = -1;
+        for (int i = 0; i <= length && terms.size() < MAX_TERMS; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_LENGTH && i - start <= MAX_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
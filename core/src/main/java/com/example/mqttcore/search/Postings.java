@@ -0,0 +1,118 @@
+package com.example.mqttcore.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Operations on posting lists: ascending arrays of distinct message ids. On disk they are stored
+ * as variable-length deltas, which takes one or two bytes per id for dense terms. Callers narrowing
+ * search results by other id sets use the same operations.
+ */
+public final class Postings {
+
+    public static final long[] EMPTY = new long[0];
+
+    private Postings() {
+    }
+
+    /** Sorts in place and drops duplicates; returns the distinct prefix. */
+    public static long[] sortedDistinct(long[] ids, int size) {
+        Arrays.sort(ids, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return distinct == ids.length ? ids : Arrays.copyOf(ids, distinct);
+    }
+
+    static long[] union(List<long[]> lists) {
+        if (lists.isEmpty()) {
+            return EMPTY;
+        }
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        long[] result = lists.get(0);
+        for (int i = 1; i < lists.size(); i++) {
+            result = union(result, lists.get(i));
+        }
+        return result;
+    }
+
+    static long[] union(long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                out[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                out[n++] = b[j++];
+            } else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            out[n++] = a[i++];
+        }
+        while (j < b.length) {
+            out[n++] = b[j++];
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    public static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /** Appends the delta encoding of {@code ids} to {@code out}, growing it as needed. */
+    static ByteBuffer encode(long[] ids, ByteBuffer out) {
+        long previous = 0;
+        for (long id : ids) {
+            if (out.remaining() < 10) {
+                out = ByteBuffer.allocate(out.capacity() * 2).put(out.flip());
+            }
+            long delta = id - previous;
+            while ((delta & ~0x7FL) != 0) {
+                out.put((byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            out.put((byte) delta);
+            previous = id;
+        }
+        return out;
+    }
+
+    static long[] decode(ByteBuffer in, int count) {
+        long[] ids = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.get();
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            ids[i] = previous;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.mqttcore.series;
+
+/** Reads back the bit fields of a {@link BitWriter}. */
+final class BitReader {
+
+    private final byte[] data;
+    private long position;
+
+    BitReader(byte[] data) {
+        this.data = data;
+    }
+
+    boolean readBit() {
+        int b = data[(int) (position >>> 3)] >>> (7 - (int) (position & 7));
+        position++;
+        return (b & 1) != 0;
+    }
+
+    /** The next {@code bits} bits, 1 to 64 of them, as an unsigned value. */
+    long read(int bits) {
+        long result = 0;
+        while (bits > 0) {
+            int offset = (int) (position & 7);
+            int take = Math.min(8 - offset, bits);
+            int b = (data[(int) (position >>> 3)] & 0xFF) >>> (8 - offset - take);
+            result = result << take | b & ((1 << take) - 1);
+            position += take;
+            bits -= take;
+        }
+        return result;
+    }
+
+    /** The next {@code bits} bits as a two's complement value. */
+    long readSigned(int bits) {
+        return read(bits) << (64 - bits) >> (64 - bits);
+    }
+}
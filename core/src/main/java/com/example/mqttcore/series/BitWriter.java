@@ -0,0 +1,42 @@
+package com.example.mqttcore.series;
+
+import java.util.Arrays;
+
+/** Appends bit fields, most significant bit first, to a growing buffer. */
+final class BitWriter {
+
+    private long[] words = new long[16];
+    private long bitCount;
+
+    /** Appends the low {@code bits} bits of {@code value}, 1 to 64 of them. */
+    void write(long value, int bits) {
+        if (bits < 64) {
+            value &= (1L << bits) - 1;
+        }
+        int index = (int) (bitCount >>> 6);
+        if (index + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int free = 64 - (int) (bitCount & 63);
+        if (bits <= free) {
+            words[index] |= value << (free - bits);
+        } else {
+            words[index] |= value >>> (bits - free);
+            words[index + 1] |= value << (64 - (bits - free));
+        }
+        bitCount += bits;
+    }
+
+    long bitCount() {
+        return bitCount;
+    }
+
+    /** The bits written so far, padded with zeros to a whole byte. */
+    byte[] toByteArray() {
+        byte[] bytes = new byte[(int) ((bitCount + 7) >>> 3)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        }
+        return bytes;
+    }
+}
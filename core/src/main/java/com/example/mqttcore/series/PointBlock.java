@@ -0,0 +1,162 @@
+package com.example.mqttcore.series;
+
+/**
+ * A run of (time, value) points compressed as in Facebook's Gorilla: the first point in full,
+ * then each time as the change of its distance to the previous one (delta of delta) and each
+ * value as its XOR with the previous value. Regular sampling makes most time entries a single
+ * zero bit, and slowly changing readings XOR to a few meaningful bits in the middle of the
+ * double, so a point typically takes 1 to 3 bytes instead of the 16 it has in full.
+ *
+ * <p>Times are milliseconds. Points are kept in the order they are appended; a time before the
+ * previous one is a negative delta and costs more bits, but is stored like any other.
+ */
+public final class PointBlock {
+
+    private final BitWriter bits = new BitWriter();
+    private int count;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private long lastTime;
+    private long lastDelta;
+    private long lastValue;
+    /** Leading and trailing zeros of the last XOR written with its own window, -1 before the first. */
+    private int leading = -1;
+    private int trailing;
+
+    /** Receives points as they are decoded. */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long time, double value);
+    }
+
+    public void append(long time, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            bits.write(time, 64);
+            bits.write(valueBits, 64);
+        } else {
+            long delta = time - lastTime;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeXor(valueBits ^ lastValue);
+        }
+        lastTime = time;
+        lastValue = valueBits;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long minTime() {
+        return minTime;
+    }
+
+    public long maxTime() {
+        return maxTime;
+    }
+
+    public byte[] toByteArray() {
+        return bits.toByteArray();
+    }
+
+    /** A block continuing one written earlier, e.g. the open block of a series after a restart. */
+    public static PointBlock resume(byte[] data, int count) {
+        PointBlock block = new PointBlock();
+        decode(data, count, block::append);
+        return block;
+    }
+
+    /** Passes the {@code count} points stored in {@code data} to {@code consumer}, in append order. */
+    public static void decode(byte[] data, int count, PointConsumer consumer) {
+        if (count == 0) {
+            return;
+        }
+        BitReader in = new BitReader(data);
+        long time = in.read(64);
+        long value = in.read(64);
+        consumer.accept(time, Double.longBitsToDouble(value));
+        long delta = 0;
+        int lead = 0;
+        int trail = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            time += delta;
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    lead = (int) in.read(5);
+                    int meaningful = (int) in.read(6);
+                    trail = 64 - lead - (meaningful == 0 ? 64 : meaningful);
+                }
+                value ^= in.read(64 - lead - trail) << trail;
+            }
+            consumer.accept(time, Double.longBitsToDouble(value));
+        }
+    }
+
+    /** '0', or a prefix naming the width of the two's complement that follows: 7, 9, 12, 32 or 64 bits. */
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            bits.write(0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            bits.write(0b10, 2);
+            bits.write(dod, 7);
+        } else if (dod >= -256 && dod < 256) {
+            bits.write(0b110, 3);
+            bits.write(dod, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            bits.write(0b1110, 4);
+            bits.write(dod, 12);
+        } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            bits.write(0b11110, 5);
+            bits.write(dod, 32);
+        } else {
+            bits.write(0b11111, 5);
+            bits.write(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return in.readSigned(7);
+        }
+        if (!in.readBit()) {
+            return in.readSigned(9);
+        }
+        if (!in.readBit()) {
+            return in.readSigned(12);
+        }
+        return in.readBit() ? in.read(64) : in.readSigned(32);
+    }
+
+    /**
+     * '0' for an unchanged value; '10' and the bits inside the previous window when the XOR fits
+     * in it; otherwise '11', 5 bits of leading zeros, 6 bits of length (0 for 64) and the bits.
+     */
+    private void writeXor(long xor) {
+        if (xor == 0) {
+            bits.write(0, 1);
+            return;
+        }
+        int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trail = Long.numberOfTrailingZeros(xor);
+        if (leading >= 0 && lead >= leading && trail >= trailing) {
+            bits.write(0b10, 2);
+            bits.write(xor >>> trailing, 64 - leading - trailing);
+            return;
+        }
+        int meaningful = 64 - lead - trail;
+        bits.write(0b11, 2);
+        bits.write(lead, 5);
+        bits.write(meaningful, 6);
+        bits.write(xor >>> trail, meaningful);
+        leading = lead;
+        trailing = trail;
+    }
+}
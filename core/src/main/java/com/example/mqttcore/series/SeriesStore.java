@@ -0,0 +1,416 @@
+package com.example.mqttcore.series;
+
+import com.example.mqttcore.dto.SeriesPointsDto;
+import com.example.mqttcore.dto.SeriesStatsDto;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.SubscriptionRoute;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.service.TopicDictionary;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Raw points of numeric series, for subscriptions with {@code numericSeries}: a payload that is
+ * a plain number is a point of the topic's series, each number found at one of the
+ * subscription's {@code numericFields} a point of that field's series. Points are appended to an
+ * open {@link PointBlock} per series in memory; a block holding {@code mqtt.series.block-points}
+ * points is sealed and a new one started. Blocks are written to {@code series_blocks} every
+ * {@code mqtt.series.flush-interval-ms}, open ones included, so after a crash a series lacks at
+ * most one flush interval. A range scan reads only the blocks overlapping the range, found on the
+ * (topic, field, end) index.
+ *
+ * <p>Times are kept to the millisecond, as received in server local time like the rest of the
+ * history.
+ */
+@Slf4j
+@Service
+@DependsOn("databaseMigrator")
+@RequiredArgsConstructor
+public class SeriesStore {
+
+    private static final String INSERT = "INSERT INTO series_blocks "
+            + "(topic_id, field_path, start_at, end_at, point_count, sealed, data) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE series_blocks "
+            + "SET start_at = ?, end_at = ?, point_count = ?, sealed = ?, data = ? WHERE id = ?";
+    /** Longest text taken for a number; anything longer is not a reading. */
+    private static final int MAX_NUMBER_LENGTH = 64;
+
+    @Value("${mqtt.series.block-points:3600}")
+    private int blockPoints;
+
+    @Value("${mqtt.series.retention-days:0}")
+    private int retentionDays;
+
+    private final SubscriptionRouter subscriptionRouter;
+    private final TopicDictionary topicDictionary;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    private final LongAdder points = new LongAdder();
+    private final LongAdder sealedBlocks = new LongAdder();
+    private final LongAdder sealedPoints = new LongAdder();
+    private final LongAdder sealedBytes = new LongAdder();
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query("SELECT id, topic_id, field_path, point_count, data FROM series_blocks WHERE NOT sealed ORDER BY id", rs -> {
+            Block block = new Block(PointBlock.resume(rs.getBytes("data"), rs.getInt("point_count")));
+            block.rowId = rs.getLong("id");
+            Series s = series.computeIfAbsent(new SeriesKey(rs.getInt("topic_id"), rs.getString("field_path")),
+                    key -> new Series());
+            if (s.open.points.count() > 0) {
+                // left open by a flush that did not finish sealing it
+                s.sealed.add(s.open);
+            }
+            s.open = block;
+        });
+        log.info("Loaded {} open numeric series blocks", series.size());
+    }
+
+    /** Appends the numbers of the committed messages of subscriptions with {@code numericSeries}. */
+    public void record(List<InboundMessage> batch) {
+        for (InboundMessage message : batch) {
+            SubscriptionRoute route = subscriptionRouter.resolve(message.topic());
+            if (!route.numericSeries()) {
+                continue;
+            }
+            int topicId = topicDictionary.idOf(message.topic());
+            long time = toMillis(message.receivedAt());
+            Double number = parseNumber(message.payload());
+            if (number != null) {
+                append(new SeriesKey(topicId, ""), time, number);
+            }
+            route.numericFields().extract(message.payload(),
+                    (path, value) -> append(new SeriesKey(topicId, path), time, value));
+        }
+    }
+
+    /**
+     * Points of {@code field} (empty for the payload itself) of the topics matching
+     * {@code topicFilter} between {@code from} and {@code to} inclusive, one entry per series
+     * with points, ordered by topic. At most {@code maxPoints} are returned across all of them;
+     * the series where they run out is marked truncated and later ones are left out.
+     */
+    public List<SeriesPointsDto> getPoints(String topicFilter, TopicMatchMode topicMode, String field,
+                                           LocalDateTime from, LocalDateTime to, int maxPoints) {
+        String path = field != null ? field : "";
+        List<Integer> topicIds = new ArrayList<>(topicDictionary.idsMatching(topicFilter, topicMode));
+        topicIds.sort(Comparator.comparing(topicDictionary::nameOf));
+        List<SeriesPointsDto> result = new ArrayList<>();
+        int remaining = maxPoints;
+        for (int topicId : topicIds) {
+            if (remaining <= 0) {
+                break;
+            }
+            Points found = scan(topicId, path, toMillis(from), toMillis(to), remaining);
+            if (found.size == 0) {
+                continue;
+            }
+            SeriesPointsDto dto = new SeriesPointsDto();
+            dto.setTopic(topicDictionary.nameOf(topicId));
+            dto.setField(path);
+            int size = Math.min(found.size, remaining);
+            List<LocalDateTime> times = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                times.add(toLocal(found.times[i]));
+            }
+            dto.setTimes(times);
+            dto.setValues(Arrays.copyOf(found.values, size));
+            dto.setTruncated(found.size > remaining);
+            result.add(dto);
+            remaining -= found.size;
+        }
+        return result;
+    }
+
+    /**
+     * Points of one series in [from, to], sorted by time. Reads the blocks overlapping the range in
+     * order of their first point and stops once more than {@code limit} points are known and no
+     * later block can hold anything earlier than them.
+     */
+    Points scan(int topicId, String field, long from, long to, int limit) {
+        List<Stored> blocks = new ArrayList<>();
+        Set<Long> inMemory = new HashSet<>();
+        Series s = series.get(new SeriesKey(topicId, field));
+        if (s != null) {
+            synchronized (s) {
+                List<Block> current = new ArrayList<>(s.sealed);
+                current.add(s.open);
+                for (Block block : current) {
+                    if (block.rowId != null) {
+                        inMemory.add(block.rowId);
+                    }
+                    PointBlock p = block.points;
+                    if (p.count() > 0 && p.maxTime() >= from && p.minTime() <= to) {
+                        blocks.add(new Stored(p.minTime(), p.count(), p.toByteArray()));
+                    }
+                }
+            }
+        }
+        jdbcTemplate.query("SELECT id, start_at, point_count, data FROM series_blocks "
+                        + "WHERE topic_id = ? AND field_path = ? AND end_at >= ? AND start_at <= ?",
+                rs -> {
+                    if (!inMemory.contains(rs.getLong("id"))) {
+                        blocks.add(new Stored(toMillis(rs.getTimestamp("start_at").toLocalDateTime()),
+                                rs.getInt("point_count"), rs.getBytes("data")));
+                    }
+                },
+                topicId, field, Timestamp.valueOf(toLocal(from)), Timestamp.valueOf(toLocal(to)));
+        blocks.sort(Comparator.comparingLong(Stored::start));
+
+        Points found = new Points();
+        for (Stored block : blocks) {
+            if (found.size > limit && block.start() > found.latest) {
+                break;
+            }
+            PointBlock.decode(block.data(), block.count(), (time, value) -> {
+                if (time >= from && time <= to) {
+                    found.add(time, value);
+                }
+            });
+        }
+        found.sort();
+        return found;
+    }
+
+    public SeriesStatsDto getStats() {
+        SeriesStatsDto dto = new SeriesStatsDto();
+        dto.setSeries(series.size());
+        dto.setPoints(points.sum());
+        dto.setSealedBlocks(sealedBlocks.sum());
+        long sealed = sealedPoints.sum();
+        dto.setBytesPerPoint(sealed > 0 ? (double) sealedBytes.sum() / sealed : 0);
+        return dto;
+    }
+
+    /** Writes sealed blocks and the open blocks that changed since the last flush. */
+    @Scheduled(fixedDelayString = "${mqtt.series.flush-interval-ms:30000}")
+    public synchronized void flush() {
+        List<Write> writes = new ArrayList<>();
+        series.forEach((key, s) -> {
+            synchronized (s) {
+                for (Block block : s.sealed) {
+                    writes.add(Write.of(key, s, block, true));
+                }
+                if (s.open.dirty) {
+                    s.open.dirty = false;
+                    writes.add(Write.of(key, s, s.open, false));
+                }
+            }
+        });
+        int failed = 0;
+        for (Write write : writes) {
+            try {
+                Long rowId = write(write);
+                synchronized (write.series()) {
+                    write.block().rowId = rowId;
+                    if (write.sealed()) {
+                        write.series().sealed.remove(write.block());
+                    }
+                }
+            } catch (RuntimeException e) {
+                failed++;
+                synchronized (write.series()) {
+                    // written again on the next flush
+                    write.block().dirty = true;
+                }
+                if (failed == 1) {
+                    log.warn("Failed to write numeric series block: {}", e.getMessage());
+                }
+            }
+        }
+        if (!writes.isEmpty()) {
+            log.debug("Flushed {} numeric series blocks ({} failed)", writes.size(), failed);
+        }
+    }
+
+    /** Drops sealed blocks whose last point is older than {@code mqtt.series.retention-days}. */
+    @Scheduled(fixedDelayString = "${mqtt.partitions.maintenance-interval-ms:3600000}")
+    public void dropExpired() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        int dropped = jdbcTemplate.update("DELETE FROM series_blocks WHERE sealed AND end_at < ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(retentionDays)));
+        if (dropped > 0) {
+            log.info("Dropped {} numeric series blocks older than {} days", dropped, retentionDays);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void append(SeriesKey key, long time, double value) {
+        Series s = series.computeIfAbsent(key, k -> new Series());
+        synchronized (s) {
+            s.open.points.append(time, value);
+            s.open.dirty = true;
+            if (s.open.points.count() >= blockPoints) {
+                s.sealed.add(s.open);
+                sealedBlocks.increment();
+                sealedPoints.add(s.open.points.count());
+                sealedBytes.add(s.open.points.toByteArray().length);
+                s.open = new Block(new PointBlock());
+            }
+        }
+        points.increment();
+    }
+
+    private Long write(Write write) {
+        Timestamp start = Timestamp.valueOf(toLocal(write.start()));
+        Timestamp end = Timestamp.valueOf(toLocal(write.end()));
+        if (write.block().rowId != null) {
+            jdbcTemplate.update(UPDATE, start, end, write.count(), write.sealed(), write.data(), write.block().rowId);
+            return write.block().rowId;
+        }
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS);
+            statement.setInt(1, write.key().topicId());
+            statement.setString(2, write.key().field());
+            statement.setTimestamp(3, start);
+            statement.setTimestamp(4, end);
+            statement.setInt(5, write.count());
+            statement.setBoolean(6, write.sealed());
+            statement.setBytes(7, write.data());
+            return statement;
+        }, keys);
+        return keys.getKey().longValue();
+    }
+
+    /** The payload as a number if it is nothing but one, e.g. {@code 21.5} or {@code -3e2}. */
+    static Double parseNumber(byte[] payload) {
+        if (payload.length == 0 || payload.length > MAX_NUMBER_LENGTH) {
+            return null;
+        }
+        boolean digit = false;
+        for (byte b : payload) {
+            if (b >= '0' && b <= '9') {
+                digit = true;
+            } else if (b != '.' && b != '-' && b != '+' && b != 'e' && b != 'E' && b != ' '
+                    && b != '\t' && b != '\r' && b != '\n') {
+                // leaves out NaN, Infinity and Java's hex and type suffixes
+                return null;
+            }
+        }
+        if (!digit) {
+            return null;
+        }
+        try {
+            double value = Double.parseDouble(new String(payload, StandardCharsets.US_ASCII).trim());
+            return Double.isFinite(value) ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private record SeriesKey(int topicId, String field) {}
+
+    /** A block written from memory; {@link #rowId} is set once it has a row. Guarded by its series. */
+    private static final class Block {
+        private final PointBlock points;
+        private Long rowId;
+        private boolean dirty;
+
+        Block(PointBlock points) {
+            this.points = points;
+        }
+    }
+
+    private static final class Series {
+        private Block open = new Block(new PointBlock());
+        /** Full blocks not written as sealed yet. */
+        private final List<Block> sealed = new ArrayList<>();
+    }
+
+    /** A block as it was when the flush took it, while points may be appended to it meanwhile. */
+    private record Write(SeriesKey key, Series series, Block block, byte[] data, int count, long start, long end,
+                         boolean sealed) {
+
+        /** Called holding the series' lock. */
+        static Write of(SeriesKey key, Series series, Block block, boolean sealed) {
+            PointBlock points = block.points;
+            return new Write(key, series, block, points.toByteArray(), points.count(), points.minTime(),
+                    points.maxTime(), sealed);
+        }
+    }
+
+    private record Stored(long start, int count, byte[] data) {}
+
+    /** Points collected by a scan, in parallel arrays. */
+    static final class Points {
+        long[] times = new long[256];
+        double[] values = new double[256];
+        int size;
+        long latest = Long.MIN_VALUE;
+        private boolean ordered = true;
+
+        void add(long time, double value) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            ordered &= time >= latest;
+            times[size] = time;
+            values[size] = value;
+            size++;
+            latest = Math.max(latest, time);
+        }
+
+        void sort() {
+            if (ordered) {
+                return;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+            long[] sortedTimes = new long[size];
+            double[] sortedValues = new double[size];
+            for (int i = 0; i < size; i++) {
+                sortedTimes[i] = times[order[i]];
+                sortedValues[i] = values[order[i]];
+            }
+            times = sortedTimes;
+            values = sortedValues;
+        }
+    }
+}
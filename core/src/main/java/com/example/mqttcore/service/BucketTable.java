@@ -0,0 +1,115 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.entity.VolumeResolution;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A table of time buckets: rows keyed by some columns plus {@code resolution} and
+ * {@code bucket_start}, whose value columns combine when buckets are merged. Builds the MERGE that
+ * adds a bucket to its row and the one that rolls old rows up into the next coarser resolution,
+ * for the topic volume and the field aggregates alike.
+ */
+final class BucketTable {
+
+    /**
+     * A column and its SQL type. A value column also says how it combines: {@code merge} from the
+     * row {@code t} and the bucket {@code s}, {@code rollUp} as an aggregate over the rows of a bucket.
+     */
+    record Column(String name, String type, String merge, String rollUp) {
+
+        static Column key(String name, String type) {
+            return new Column(name, type, null, null);
+        }
+
+        static Column sum(String name, String type) {
+            return new Column(name, type, "t." + name + " + s." + name, "SUM(" + name + ")");
+        }
+    }
+
+    private final String table;
+    private final List<Column> keys;
+    private final List<Column> values;
+    private final String mergeRow;
+    private final String mergeRollUp;
+
+    BucketTable(String table, List<Column> keys, List<Column> values) {
+        this.table = table;
+        this.keys = keys;
+        this.values = values;
+        this.mergeRow = "MERGE INTO " + table + " t USING (VALUES (" +
+                columns().stream().map(c -> "CAST(? AS " + c.type() + ")").collect(Collectors.joining(", ")) +
+                ")) AS s (" + names(columns()) + ") " + mergeTail();
+        this.mergeRollUp = "MERGE INTO " + table + " t USING (SELECT " + names(keys) +
+                ", CAST(? AS VARCHAR(10)) AS resolution, DATE_TRUNC(%1$s, bucket_start) AS bucket_start, " +
+                values.stream().map(c -> c.rollUp() + " AS " + c.name()).collect(Collectors.joining(", ")) +
+                " FROM " + table + " WHERE resolution = ? AND bucket_start < ? GROUP BY " + names(keys) +
+                ", DATE_TRUNC(%1$s, bucket_start)) s " + mergeTail();
+    }
+
+    /**
+     * Adds a bucket to its row, creating the row if needed. Parameters: the keys, the resolution,
+     * the bucket start and the values, in the order of the columns.
+     */
+    String mergeRow() {
+        return mergeRow;
+    }
+
+    /**
+     * Rolls minute rows older than {@code minuteRetentionHours} up into hours, and hour rows older
+     * than {@code hourRetentionDays} into days. Cutoffs fall on bucket boundaries so a coarser
+     * bucket is never built from a partial range.
+     *
+     * @return the minute rows and the hour rows rolled up
+     */
+    int[] compact(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, int minuteRetentionHours,
+                  int hourRetentionDays) {
+        LocalDateTime now = LocalDateTime.now();
+        int hours = rollUp(jdbcTemplate, transactionTemplate, VolumeResolution.MINUTE, VolumeResolution.HOUR,
+                now.minusHours(minuteRetentionHours).truncatedTo(ChronoUnit.HOURS));
+        int days = rollUp(jdbcTemplate, transactionTemplate, VolumeResolution.HOUR, VolumeResolution.DAY,
+                now.minusDays(hourRetentionDays).truncatedTo(ChronoUnit.DAYS));
+        return new int[]{hours, days};
+    }
+
+    private int rollUp(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, VolumeResolution fine,
+                       VolumeResolution coarse, LocalDateTime cutoff) {
+        Integer moved = transactionTemplate.execute(status -> {
+            Timestamp before = Timestamp.valueOf(cutoff);
+            jdbcTemplate.update(mergeRollUp.formatted("'" + coarse.name() + "'"), coarse.name(), fine.name(), before);
+            return jdbcTemplate.update("DELETE FROM " + table + " WHERE resolution = ? AND bucket_start < ?",
+                    fine.name(), before);
+        });
+        return moved != null ? moved : 0;
+    }
+
+    private String mergeTail() {
+        List<Column> matched = new ArrayList<>(columns());
+        matched.removeAll(values);
+        return "ON " + matched.stream().map(c -> "t." + c.name() + " = s." + c.name()).collect(Collectors.joining(" AND ")) +
+                " WHEN MATCHED THEN UPDATE SET " +
+                values.stream().map(c -> c.name() + " = " + c.merge()).collect(Collectors.joining(", ")) +
+                " WHEN NOT MATCHED THEN INSERT (" + names(columns()) + ") VALUES (" +
+                columns().stream().map(c -> "s." + c.name()).collect(Collectors.joining(", ")) + ")";
+    }
+
+    /** The keys, the resolution, the bucket start and the values. */
+    private List<Column> columns() {
+        List<Column> columns = new ArrayList<>(keys);
+        columns.add(Column.key("resolution", "VARCHAR(10)"));
+        columns.add(Column.key("bucket_start", "TIMESTAMP"));
+        columns.addAll(values);
+        return columns;
+    }
+
+    private static String names(List<Column> columns) {
+        return columns.stream().map(Column::name).collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.mqttcore.service;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Output formats of a history export; one message per line either way.
+ */
+public enum ExportFormat {
+    /** One JSON object per line, with the fields of {@code ReceivedMessageDto}. */
+    NDJSON("ndjson", MediaType.parseMediaType("application/x-ndjson")),
+    /** RFC 4180 with a header line. */
+    CSV("csv", MediaType.parseMediaType("text/csv"));
+
+    private final String extension;
+    private final MediaType mediaType;
+
+    ExportFormat(String extension, MediaType mediaType) {
+        this.extension = extension;
+        this.mediaType = mediaType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public MediaType mediaType() {
+        return mediaType;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.FieldBucketDto;
+import com.example.mqttcore.entity.VolumeResolution;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.JsonFieldExtractor;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time-bucketed aggregates (count, sum, min, max, last) of the numeric JSON fields configured on
+ * subscriptions. Values are extracted from committed batches with a streaming parser and folded
+ * into in-memory per-minute buckets, which are merged into {@code field_aggregates} every
+ * {@code mqtt.fields.flush-interval-ms}; a failed flush leaves them pending for the next one. Minute
+ * rows are compacted into hour rows after {@code mqtt.fields.minute-retention-hours}, and hour rows
+ * into day rows after {@code mqtt.fields.hour-retention-days}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FieldAggregator {
+
+    private static final BucketTable AGGREGATES = new BucketTable("field_aggregates",
+            List.of(BucketTable.Column.key("topic_id", "INTEGER"), BucketTable.Column.key("field_path", "VARCHAR(200)")),
+            List.of(BucketTable.Column.sum("sample_count", "BIGINT"),
+                    BucketTable.Column.sum("value_sum", "DOUBLE PRECISION"),
+                    new BucketTable.Column("value_min", "DOUBLE PRECISION", "LEAST(t.value_min, s.value_min)", "MIN(value_min)"),
+                    new BucketTable.Column("value_max", "DOUBLE PRECISION", "GREATEST(t.value_max, s.value_max)", "MAX(value_max)"),
+                    new BucketTable.Column("last_value", "DOUBLE PRECISION",
+                            "CASE WHEN s.last_at >= t.last_at THEN s.last_value ELSE t.last_value END",
+                            "ARRAY_AGG(last_value ORDER BY last_at DESC)[1]"),
+                    new BucketTable.Column("last_at", "TIMESTAMP", "GREATEST(t.last_at, s.last_at)", "MAX(last_at)")));
+
+    private static final long MAX_BUCKETS = 10_000;
+
+    @Value("${mqtt.fields.minute-retention-hours:48}")
+    private int minuteRetentionHours;
+
+    @Value("${mqtt.fields.hour-retention-days:30}")
+    private int hourRetentionDays;
+
+    private final SubscriptionRouter subscriptionRouter;
+    private final TopicDictionary topicDictionary;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<BucketKey, Bucket> pending = new ConcurrentHashMap<>();
+
+    /** Extracts and aggregates the configured fields of a committed batch. */
+    public void record(List<InboundMessage> batch) {
+        for (InboundMessage message : batch) {
+            JsonFieldExtractor fields = subscriptionRouter.resolve(message.topic()).numericFields();
+            if (fields.isEmpty()) {
+                continue;
+            }
+            int topicId = topicDictionary.idOf(message.topic());
+            LocalDateTime minute = message.receivedAt().truncatedTo(ChronoUnit.MINUTES);
+            fields.extract(message.payload(), (path, value) -> {
+                BucketKey key = new BucketKey(topicId, path, minute);
+                // A bucket closed by a concurrent flush refuses the value; retry with a fresh one
+                while (!pending.computeIfAbsent(key, k -> new Bucket()).add(value, message.receivedAt())) {
+                    Thread.onSpinWait();
+                }
+            });
+        }
+    }
+
+    /**
+     * Aggregates of {@code field} per bucket over the topics matching {@code topicFilter} (all
+     * topics when empty). Buckets already compacted to a coarser resolution than requested are
+     * reported at their own start.
+     */
+    public List<FieldBucketDto> getSeries(String topicFilter, TopicMatchMode topicMode, String field,
+                                          LocalDateTime from, LocalDateTime to, VolumeResolution resolution) {
+        from = resolution.truncate(from);
+        if (resolution.bucketsBetween(from, to) > MAX_BUCKETS) {
+            throw new IllegalArgumentException("Time range too long for " + resolution + " buckets");
+        }
+        Set<Integer> topicIds = null;
+        if (topicFilter != null && !topicFilter.isEmpty()) {
+            topicIds = new HashSet<>(topicDictionary.idsMatching(topicFilter, topicMode));
+            if (topicIds.isEmpty()) {
+                return List.of();
+            }
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("field", field)
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String sql = "SELECT DATE_TRUNC('" + resolution.name() + "', bucket_start) AS b, " +
+                "SUM(sample_count) AS c, SUM(value_sum) AS s, MIN(value_min) AS mn, MAX(value_max) AS mx, " +
+                "ARRAY_AGG(last_value ORDER BY last_at DESC)[1] AS lv, MAX(last_at) AS la " +
+                "FROM field_aggregates WHERE field_path = :field AND bucket_start >= :from AND bucket_start <= :to";
+        if (topicIds != null) {
+            sql += " AND topic_id IN (:topicIds)";
+            params.addValue("topicIds", topicIds);
+        }
+        sql += " GROUP BY b";
+
+        TreeMap<LocalDateTime, Bucket> buckets = new TreeMap<>();
+        synchronized (this) {
+            namedJdbcTemplate.query(sql, params, rs -> {
+                Bucket bucket = new Bucket();
+                bucket.count = rs.getLong("c");
+                bucket.sum = rs.getDouble("s");
+                bucket.min = rs.getDouble("mn");
+                bucket.max = rs.getDouble("mx");
+                bucket.last = rs.getDouble("lv");
+                bucket.lastAt = rs.getTimestamp("la").toLocalDateTime();
+                buckets.put(rs.getTimestamp("b").toLocalDateTime(), bucket);
+            });
+            // Include what has not been flushed yet, so series reach up to the current minute
+            for (Map.Entry<BucketKey, Bucket> entry : pending.entrySet()) {
+                BucketKey key = entry.getKey();
+                if (key.fieldPath().equals(field) && (topicIds == null || topicIds.contains(key.topicId()))
+                        && !key.minute().isBefore(from) && !key.minute().isAfter(to)) {
+                    buckets.computeIfAbsent(resolution.truncate(key.minute()), start -> new Bucket())
+                            .merge(entry.getValue());
+                }
+            }
+        }
+        List<FieldBucketDto> series = new ArrayList<>(buckets.size());
+        buckets.forEach((start, bucket) -> {
+            if (bucket.count > 0) {
+                series.add(bucket.toDto(start));
+            }
+        });
+        return series;
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.fields.flush-interval-ms:10000}")
+    public synchronized void flush() {
+        Map<BucketKey, Bucket> taken = new HashMap<>();
+        List<Object[]> rows = new ArrayList<>();
+        pending.forEach((key, bucket) -> {
+            synchronized (bucket) {
+                bucket.closed = true;
+                pending.remove(key, bucket);
+                if (bucket.count > 0) {
+                    taken.put(key, bucket);
+                    rows.add(new Object[]{key.topicId(), key.fieldPath(), VolumeResolution.MINUTE.name(),
+                            Timestamp.valueOf(key.minute()), bucket.count, bucket.sum, bucket.min, bucket.max,
+                            bucket.last, Timestamp.valueOf(bucket.lastAt)});
+                }
+            }
+        });
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(AGGREGATES.mergeRow(), rows));
+        } catch (RuntimeException e) {
+            // merged with whatever arrived meanwhile, so the next flush writes them
+            taken.forEach((key, bucket) -> pending.computeIfAbsent(key, k -> new Bucket()).merge(bucket));
+            throw e;
+        }
+        log.debug("Flushed {} field aggregate buckets", rows.size());
+    }
+
+    @Scheduled(initialDelayString = "${mqtt.fields.compact-interval-ms:600000}",
+            fixedDelayString = "${mqtt.fields.compact-interval-ms:600000}")
+    public synchronized void compact() {
+        int[] moved = AGGREGATES.compact(jdbcTemplate, transactionTemplate, minuteRetentionHours, hourRetentionDays);
+        if (moved[0] > 0 || moved[1] > 0) {
+            log.info("Compacted field aggregates: {} minute rows into hours, {} hour rows into days", moved[0], moved[1]);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private record BucketKey(int topicId, String fieldPath, LocalDateTime minute) {}
+
+    private static final class Bucket {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double last;
+        private LocalDateTime lastAt;
+        /** Set once the bucket has been taken by a flush; later values go into a new bucket. */
+        private boolean closed;
+
+        synchronized boolean add(double value, LocalDateTime at) {
+            if (closed) {
+                return false;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (lastAt == null || !at.isBefore(lastAt)) {
+                last = value;
+                lastAt = at;
+            }
+            return true;
+        }
+
+        synchronized void merge(Bucket other) {
+            synchronized (other) {
+                if (other.count == 0) {
+                    return;
+                }
+                count += other.count;
+                sum += other.sum;
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+                if (lastAt == null || !other.lastAt.isBefore(lastAt)) {
+                    last = other.last;
+                    lastAt = other.lastAt;
+                }
+            }
+        }
+
+        FieldBucketDto toDto(LocalDateTime start) {
+            FieldBucketDto dto = new FieldBucketDto();
+            dto.setStart(start);
+            dto.setCount(count);
+            dto.setAvg(sum / count);
+            dto.setMin(min);
+            dto.setMax(max);
+            dto.setLast(last);
+            return dto;
+        }
+    }
+}
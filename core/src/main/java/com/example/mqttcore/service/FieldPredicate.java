@@ -0,0 +1,131 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.ingest.JsonFieldExtractor;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Condition on an indexed JSON field, written as {@code path<op>value}, e.g. {@code status=FAULT}
+ * or {@code battery.level<20}. The value is typed the way the JSON extractor types payload values:
+ * {@code true}/{@code false} are booleans, numbers are numbers, anything else is a string; quote it
+ * ({@code code="42"}) to compare as a string anyway.
+ */
+public record FieldPredicate(String path, Operator operator, Object value) {
+
+    /** JSON number syntax; Java would also accept e.g. {@code 1f} or {@code NaN}. */
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+    /** Doubles represent integers exactly up to 2^53; beyond that compare the long column. */
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    public enum Operator {
+        EQ("="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /** The comparison as written, which is also its SQL form. */
+        String symbol() {
+            return symbol;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression has no path or value, or an operator
+     *                                  other than {@code = < <= > >=}
+     */
+    public static FieldPredicate parse(String expression) {
+        int at = indexOfOperator(expression);
+        if (at <= 0) {
+            throw new IllegalArgumentException("Invalid field predicate: " + expression);
+        }
+        List<String> paths = JsonFieldExtractor.parsePaths(expression.substring(0, at));
+        if (paths.size() != 1) {
+            throw new IllegalArgumentException("Invalid field predicate: " + expression);
+        }
+        boolean orEqual = at + 1 < expression.length() && expression.charAt(at + 1) == '='
+                && expression.charAt(at) != '=';
+        Operator operator = switch (expression.charAt(at)) {
+            case '<' -> orEqual ? Operator.LE : Operator.LT;
+            case '>' -> orEqual ? Operator.GE : Operator.GT;
+            default -> Operator.EQ;
+        };
+        String literal = expression.substring(at + (orEqual ? 2 : 1)).trim();
+        if (literal.isEmpty()) {
+            throw new IllegalArgumentException("Missing value in field predicate: " + expression);
+        }
+        // e.g. != or ==, which would otherwise end up in the path or the value
+        if (expression.charAt(at - 1) == '!' || isOperator(literal.charAt(0))) {
+            throw new IllegalArgumentException("Unsupported operator in field predicate: " + expression);
+        }
+        Object value = typed(literal);
+        if (value instanceof Boolean && operator != Operator.EQ) {
+            throw new IllegalArgumentException("Booleans only support '=': " + expression);
+        }
+        return new FieldPredicate(paths.get(0), operator, value);
+    }
+
+    private static int indexOfOperator(String expression) {
+        for (int i = 0; i < expression.length(); i++) {
+            if (isOperator(expression.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isOperator(char c) {
+        return c == '=' || c == '<' || c == '>';
+    }
+
+    private static Object typed(String literal) {
+        if (literal.length() >= 2 && literal.startsWith("\"") && literal.endsWith("\"")) {
+            return literal.substring(1, literal.length() - 1);
+        }
+        if (literal.equals("true") || literal.equals("false")) {
+            return Boolean.valueOf(literal);
+        }
+        if (!NUMBER.matcher(literal).matches()) {
+            return literal;
+        }
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException e) {
+            // fraction, exponent or beyond the long range
+            return Double.parseDouble(literal);
+        }
+    }
+
+    /**
+     * The condition on a row of a message fields table, {@code field_path = ? AND <column> <op> ?};
+     * the parameters are the path and {@link #sqlValue()}. Numbers are compared as doubles, so
+     * {@code 20} matches {@code 20.0}, except integers too large for a double to hold exactly.
+     */
+    public String sqlCondition() {
+        String column = switch (value) {
+            case Boolean b -> "bool_value";
+            case String s -> "str_value";
+            case Long l when exactLong() -> "long_value";
+            case Number n -> "double_value";
+            default -> throw new IllegalArgumentException("Unsupported value: " + this);
+        };
+        return "field_path = ? AND " + column + " " + operator.symbol + " ?";
+    }
+
+    /** The value to bind to the second parameter of {@link #sqlCondition()}. */
+    public Object sqlValue() {
+        return value instanceof Number n && !exactLong() ? n.doubleValue() : value;
+    }
+
+    private boolean exactLong() {
+        return value instanceof Long l && operator == Operator.EQ && Math.abs(l) > MAX_EXACT_DOUBLE;
+    }
+
+    @Override
+    public String toString() {
+        return path + operator.symbol + value;
+    }
+}
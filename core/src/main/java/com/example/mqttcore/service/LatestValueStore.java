@@ -0,0 +1,174 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.ReceivedMessageDto;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.mqtt.TopicFilters;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.mqtt.TopicTrie;
+import com.example.mqttcore.payload.Payloads;
+import com.example.mqttcore.repository.ReceivedMessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest message of every topic, held in memory so current values are a map lookup (or, for
+ * a wildcard filter, a walk of the matching branches of a topic trie) instead of an index scan
+ * per topic. Updated as batches are committed and written back to {@code latest_values} every
+ * {@code mqtt.latest.flush-interval-ms}, from where it is loaded on startup; after a crash a
+ * topic's value can lag by at most one flush interval.
+ */
+@Slf4j
+@Service
+@DependsOn("databaseMigrator")
+@RequiredArgsConstructor
+public class LatestValueStore {
+
+    /** Replaces a topic's row unless the stored message is newer. */
+    private static final String MERGE_ROW =
+            "MERGE INTO latest_values t USING (VALUES (CAST(? AS INTEGER), CAST(? AS CHARACTER LARGE OBJECT), " +
+            "CAST(? AS BOOLEAN), CAST(? AS INTEGER), CAST(? AS BOOLEAN), CAST(? AS TIMESTAMP))) " +
+            "AS s (topic_id, payload, binary_payload, qos, retained, received_at) ON t.topic_id = s.topic_id " +
+            "WHEN MATCHED AND s.received_at >= t.received_at THEN UPDATE SET payload = s.payload, " +
+            "binary_payload = s.binary_payload, qos = s.qos, retained = s.retained, received_at = s.received_at " +
+            "WHEN NOT MATCHED THEN INSERT (topic_id, payload, binary_payload, qos, retained, received_at) " +
+            "VALUES (s.topic_id, s.payload, s.binary_payload, s.qos, s.retained, s.received_at)";
+    private static final int[] MERGE_TYPES =
+            {Types.INTEGER, Types.CLOB, Types.BOOLEAN, Types.INTEGER, Types.BOOLEAN, Types.TIMESTAMP};
+
+    private final TopicDictionary topicDictionary;
+    private final ReceivedMessageRepository messageRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Integer, Latest> latest = new ConcurrentHashMap<>();
+    private final TopicTrie topics = new TopicTrie();
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query("SELECT topic_id, payload, binary_payload, qos, retained, received_at FROM latest_values", rs -> {
+            byte[] payload = Payloads.fromText(rs.getString("payload"),
+                    rs.getBoolean("binary_payload") ? Payloads.BASE64 : null);
+            put(rs.getInt("topic_id"), new Latest(payload, rs.getInt("qos"),
+                    rs.getBoolean("retained"), rs.getTimestamp("received_at").toLocalDateTime()));
+        });
+        if (latest.isEmpty()) {
+            seedFromHistory();
+        }
+        log.info("Loaded latest values of {} topics", latest.size());
+    }
+
+    /** Takes over the newest message of every topic of a database from before the table existed. */
+    private void seedFromHistory() {
+        for (String name : topicDictionary.getNames()) {
+            int topicId = topicDictionary.idOf(name);
+            messageRepository.findNewest(topicId).ifPresent(message -> {
+                put(topicId, new Latest(message.getPayload(), message.getQos(), message.isRetained(),
+                        message.getReceivedAt()));
+                dirty.add(topicId);
+            });
+        }
+    }
+
+    /** Takes the newest message of each topic of a committed batch. */
+    public void record(List<InboundMessage> batch) {
+        for (InboundMessage message : batch) {
+            int topicId = topicDictionary.idOf(message.topic());
+            Latest value = new Latest(message.payload(), message.qos(), message.retained(), message.receivedAt());
+            Latest current = latest.merge(topicId, value,
+                    (old, candidate) -> candidate.receivedAt.isBefore(old.receivedAt) ? old : candidate);
+            if (current == value) {
+                topics.add(message.topic(), topicId);
+                dirty.add(topicId);
+            }
+        }
+    }
+
+    /** Latest message of every topic matching the MQTT {@code filter}, sorted by topic. */
+    public List<ReceivedMessageDto> getLatest(String filter) {
+        List<ReceivedMessageDto> result = new ArrayList<>();
+        if (!TopicFilters.isWildcard(filter)) {
+            // a plain topic never needs the trie
+            addIfPresent(result, topicDictionary.idsMatching(filter, TopicMatchMode.EXACT));
+            return result;
+        }
+        topics.match(filter, topicId -> addIfPresent(result, List.of(topicId)));
+        result.sort(Comparator.comparing(ReceivedMessageDto::getTopic));
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.latest.flush-interval-ms:10000}")
+    public void flush() {
+        List<Integer> topicIds = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        for (Integer topicId : dirty) {
+            // remove before reading, so a value recorded meanwhile is flushed again next time
+            dirty.remove(topicId);
+            topicIds.add(topicId);
+            Latest value = latest.get(topicId);
+            Payloads.Text payload = Payloads.toText(value.payload);
+            rows.add(new Object[]{topicId, payload.value(), payload.encoding() != null, value.qos, value.retained,
+                    Timestamp.valueOf(value.receivedAt)});
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(MERGE_ROW, rows, MERGE_TYPES);
+        } catch (RuntimeException e) {
+            dirty.addAll(topicIds);
+            log.warn("Failed to flush latest values of {} topics, retrying on the next flush: {}", rows.size(), e.getMessage());
+            return;
+        }
+        log.debug("Flushed latest values of {} topics", rows.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void put(int topicId, Latest value) {
+        String name = topicDictionary.nameOf(topicId);
+        if (name != null) {
+            latest.put(topicId, value);
+            topics.add(name, topicId);
+        }
+    }
+
+    private void addIfPresent(List<ReceivedMessageDto> result, List<Integer> topicIds) {
+        for (int topicId : topicIds) {
+            Latest value = latest.get(topicId);
+            if (value == null) {
+                continue;
+            }
+            ReceivedMessageDto dto = new ReceivedMessageDto();
+            dto.setTopic(topicDictionary.nameOf(topicId));
+            Payloads.Text payload = Payloads.toText(value.payload);
+            dto.setPayload(payload.value());
+            dto.setPayloadEncoding(payload.encoding());
+            dto.setQos(value.qos);
+            dto.setRetained(value.retained);
+            dto.setReceivedAt(value.receivedAt);
+            result.add(dto);
+        }
+    }
+
+    private record Latest(byte[] payload, int qos, boolean retained, LocalDateTime receivedAt) {
+    }
+}
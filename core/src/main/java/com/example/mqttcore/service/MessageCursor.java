@@ -0,0 +1,38 @@
+package com.example.mqttcore.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in the newest-first message history: the (receivedAt, id) of the last row of a page.
+ * The next page starts strictly after it, so rows arriving in between never shift the pages the
+ * way offsets do. Clients see it as an opaque string.
+ */
+public record MessageCursor(LocalDateTime receivedAt, long id) {
+
+    /** Latest timestamp accepted as upper bound when the query has none. */
+    static final LocalDateTime END_OF_TIME = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    /** Cursor in front of the first row at or before {@code to}. */
+    public static MessageCursor first(LocalDateTime to) {
+        return new MessageCursor(to != null ? to : END_OF_TIME, Long.MAX_VALUE);
+    }
+
+    public static MessageCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('_');
+            return new MessageCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.parseLong(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((receivedAt + "_" + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,407 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.archive.MessageArchive;
+import com.example.mqttcore.archive.MessageArchive.ArchivedRange;
+import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.payload.PayloadCodec;
+import com.example.mqttcore.payload.Payloads;
+import com.example.mqttcore.repository.MessagePartitions;
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams message history straight from forward-only JDBC cursors into the response, newest
+ * first like {@code /api/messages/scroll}: no entities, no pages and no count, so heap use stays
+ * flat however many rows are exported. H2 materializes a whole result before returning the first
+ * row unless the session runs queries lazily, which it does for the duration of an export, in one
+ * read-only transaction.
+ *
+ * <p>Time partitions in the range are read one after the other, newest first, each under the
+ * partitions' read lock and in a transaction of its own, so archiving and retention wait for one
+ * partition at most. A partition dropped since the export started is skipped and one archived
+ * since is read from the archive. Within a partition a single topic is read off the (topic,
+ * receivedAt, id) index; a few topics are merged from one such cursor each; more topics, or none,
+ * are filtered while walking the (receivedAt, id) index. None of the plans sorts. The archived
+ * partitions in the range follow, {@code mqtt.export.fetch-size} messages at a time.
+ *
+ * <p>Payloads are decoded from their stored form one row at a time; those that are not UTF-8 text
+ * are written as base64 with {@code payloadEncoding} set, so exports can be imported again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageExporter {
+
+    /** Above this many topics one time-ordered scan is cheaper than a cursor per topic. */
+    private static final int MERGE_TOPIC_LIMIT = 32;
+    private static final String NEWEST_FIRST = " ORDER BY received_at DESC, id DESC";
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    @Value("${mqtt.export.fetch-size:1000}")
+    private int fetchSize;
+
+    private final DataSource dataSource;
+    private final MessagePartitions partitions;
+    private final TopicDictionary topicDictionary;
+    private final ObjectMapper objectMapper;
+    private final PayloadCodec payloadCodec;
+    private final MessageArchive messageArchive;
+
+    /**
+     * Resolves the topics right away, so a bad filter fails the request before anything is
+     * written, and returns the body that streams the matching messages.
+     */
+    public StreamingResponseBody export(String topicFilter, TopicMatchMode topicMode, LocalDateTime from,
+                                        LocalDateTime to, ExportFormat format, boolean gzip) {
+        List<Integer> topicIds = topicFilter == null || topicFilter.isEmpty() ? null
+                : topicDictionary.idsMatching(topicFilter, topicMode);
+        if (topicIds != null && topicIds.size() == topicDictionary.size()) {
+            topicIds = null;
+        }
+        List<Integer> topics = topicIds;
+        return out -> {
+            long started = System.nanoTime();
+            OutputStream target = gzip ? new GZIPOutputStream(out, BUFFER_BYTES) : out;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BUFFER_BYTES);
+            RowWriter rows = format == ExportFormat.CSV ? new CsvWriter(writer) : new NdjsonWriter(writer);
+            long count;
+            try {
+                count = write(topics, from, to, rows);
+            } catch (SQLException e) {
+                throw new IOException("Export failed", e);
+            }
+            writer.flush();
+            if (target instanceof GZIPOutputStream compressed) {
+                compressed.finish();
+            }
+            long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+            log.info("Exported {} messages as {} in {} ms ({} rows/s)", count, format, millis, count * 1000 / millis);
+        };
+    }
+
+    private long write(List<Integer> topicIds, LocalDateTime from, LocalDateTime to, RowWriter rows)
+            throws SQLException, IOException {
+        rows.header();
+        if (topicIds != null && topicIds.isEmpty()) {
+            return 0;
+        }
+        List<Partition> targets = partitions.read(() -> partitions.overlapping(from, to));
+        List<ArchivedRange> archived = messageArchive.ranges(from, to);
+        long count = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            setLazy(connection, true);
+            // a lazy cursor reads its snapshot as it goes; only an open transaction keeps the
+            // store from reclaiming the pages it still needs
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try {
+                for (Partition partition : targets) {
+                    count += write(connection, partition, topicIds, from, to, rows);
+                }
+            } finally {
+                // the connection goes back to the pool
+                connection.setReadOnly(false);
+                connection.setAutoCommit(true);
+                setLazy(connection, false);
+            }
+        }
+        for (ArchivedRange range : archived) {
+            count += writeArchived(range, topicIds, from, to, rows);
+        }
+        return count;
+    }
+
+    private long write(Connection connection, Partition partition, List<Integer> topicIds, LocalDateTime from,
+                       LocalDateTime to, RowWriter rows) throws SQLException, IOException {
+        Lock readLock = partitions.readLock();
+        readLock.lock();
+        try {
+            if (partitions.exists(partition)) {
+                return topicIds != null && topicIds.size() <= MERGE_TOPIC_LIMIT
+                        ? mergeTopics(connection, partition, topicIds, from, to, rows)
+                        : scan(connection, partition, topicIds, from, to, rows);
+            }
+        } finally {
+            connection.rollback();
+            readLock.unlock();
+        }
+        // archived since the export started, or dropped by retention
+        for (ArchivedRange range : messageArchive.ranges(partition.getStart(), partition.getStart())) {
+            if (range.start().equals(partition.getStart())) {
+                return writeArchived(range, topicIds, from, to, rows);
+            }
+        }
+        return 0;
+    }
+
+    /** The messages of an archived partition in [from, to], newest first, a page at a time. */
+    private long writeArchived(ArchivedRange range, List<Integer> topicIds, LocalDateTime from, LocalDateTime to,
+                               RowWriter rows) throws IOException {
+        LocalDateTime lower = from != null && from.isAfter(range.start()) ? from : range.start();
+        // the end is exclusive: start strictly after every message received at it
+        MessageCursor position = to != null && to.isBefore(range.end())
+                ? MessageCursor.first(to) : new MessageCursor(range.end(), Long.MIN_VALUE);
+        int pageSize = fetchSize > 0 ? fetchSize : 1000;
+        long count = 0;
+        List<ReceivedMessage> page;
+        do {
+            page = messageArchive.newest(topicIds, position, lower, 0, pageSize);
+            for (ReceivedMessage message : page) {
+                rows.row(message.getId(), topicDictionary.nameOf(message.getTopicId()),
+                        Payloads.toText(message.getPayload()), message.getQos(), message.isRetained(),
+                        message.getReceivedAt());
+            }
+            count += page.size();
+            if (!page.isEmpty()) {
+                ReceivedMessage last = page.get(page.size() - 1);
+                position = new MessageCursor(last.getReceivedAt(), last.getId());
+            }
+        } while (page.size() == pageSize);
+        return count;
+    }
+
+    /** One walk of the partition's (receivedAt, id) index. */
+    private long scan(Connection connection, Partition partition, List<Integer> topicIds, LocalDateTime from,
+                      LocalDateTime to, RowWriter rows) throws SQLException, IOException {
+        String topicCondition = topicIds == null ? null : "topic_id IN (" +
+                topicIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")";
+        // without the hint H2 prefers the topic index and sorts the whole result
+        try (PreparedStatement statement = prepare(connection,
+                columns(partition) + " USE INDEX (" + partition.getTimeIndex() + ")", topicCondition, from, to);
+             ResultSet rs = statement.executeQuery()) {
+            long count = 0;
+            while (rs.next()) {
+                row(rows, rs, topicDictionary.nameOf(rs.getInt(2)), partition);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /** K-way merge of one newest-first cursor per topic. */
+    private long mergeTopics(Connection connection, Partition partition, List<Integer> topicIds, LocalDateTime from,
+                             LocalDateTime to, RowWriter rows) throws SQLException, IOException {
+        List<TopicCursor> cursors = new ArrayList<>();
+        PriorityQueue<TopicCursor> heads = new PriorityQueue<>(Comparator
+                .comparing((TopicCursor c) -> c.receivedAt).thenComparingLong(c -> c.id).reversed());
+        try {
+            for (int topicId : topicIds) {
+                PreparedStatement statement = prepare(connection, columns(partition),
+                        "topic_id = " + topicId, from, to);
+                TopicCursor cursor = new TopicCursor(statement, statement.executeQuery(), topicDictionary.nameOf(topicId));
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            long count = 0;
+            TopicCursor head;
+            while ((head = heads.poll()) != null) {
+                row(rows, head.rs, head.topic, partition);
+                count++;
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+            return count;
+        } finally {
+            for (TopicCursor cursor : cursors) {
+                cursor.statement.close();
+            }
+        }
+    }
+
+    private static String columns(Partition partition) {
+        return "SELECT id, topic_id, payload, qos, retained, received_at, " + partition.payloadSizeColumn()
+                + " FROM " + partition.getTable();
+    }
+
+    /** Writes the current row of a result set with the columns of {@link #columns}. */
+    private void row(RowWriter rows, ResultSet rs, String topic, Partition partition) throws SQLException, IOException {
+        rows.row(rs.getLong(1), topic, payload(rs, partition), rs.getInt(4), rs.getBoolean(5),
+                rs.getObject(6, LocalDateTime.class));
+    }
+
+    private Payloads.Text payload(ResultSet rs, Partition partition) throws SQLException {
+        if (partition.isTextPayload()) {
+            return new Payloads.Text(rs.getString(3), null);
+        }
+        return Payloads.toText(payloadCodec.decode(rs.getBytes(3), rs.getInt(7)));
+    }
+
+    private PreparedStatement prepare(Connection connection, String select, String topicCondition,
+                                      LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<String> conditions = new ArrayList<>();
+        if (topicCondition != null) {
+            conditions.add(topicCondition);
+        }
+        if (from != null) {
+            conditions.add("received_at >= ?");
+        }
+        if (to != null) {
+            conditions.add("received_at <= ?");
+        }
+        String sql = select + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) + NEWEST_FIRST;
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(fetchSize);
+        int index = 1;
+        if (from != null) {
+            statement.setTimestamp(index++, Timestamp.valueOf(from));
+        }
+        if (to != null) {
+            statement.setTimestamp(index, Timestamp.valueOf(to));
+        }
+        return statement;
+    }
+
+    private static void setLazy(Connection connection, boolean lazy) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LAZY_QUERY_EXECUTION " + lazy);
+        }
+    }
+
+    private static final class TopicCursor {
+        private final PreparedStatement statement;
+        private final ResultSet rs;
+        private final String topic;
+        private LocalDateTime receivedAt;
+        private long id;
+
+        TopicCursor(PreparedStatement statement, ResultSet rs, String topic) {
+            this.statement = statement;
+            this.rs = rs;
+            this.topic = topic;
+        }
+
+        boolean advance() throws SQLException {
+            if (!rs.next()) {
+                return false;
+            }
+            id = rs.getLong(1);
+            receivedAt = rs.getObject(6, LocalDateTime.class);
+            return true;
+        }
+    }
+
+    private interface RowWriter {
+        void header() throws IOException;
+
+        void row(long id, String topic, Payloads.Text payload, int qos, boolean retained, LocalDateTime receivedAt)
+                throws IOException;
+    }
+
+    private final class NdjsonWriter implements RowWriter {
+        private final Writer writer;
+        private final JsonGenerator json;
+
+        NdjsonWriter(Writer writer) throws IOException {
+            this.writer = writer;
+            this.json = objectMapper.getFactory().createGenerator(writer);
+            // the writer is flushed and closed by the caller, one line per message
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+
+        @Override
+        public void header() {
+        }
+
+        @Override
+        public void row(long id, String topic, Payloads.Text payload, int qos, boolean retained,
+                        LocalDateTime receivedAt) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("id", id);
+            json.writeStringField("topic", topic);
+            json.writeStringField("payload", payload.value());
+            if (payload.encoding() != null) {
+                json.writeStringField("payloadEncoding", payload.encoding());
+            }
+            json.writeNumberField("qos", qos);
+            json.writeBooleanField("retained", retained);
+            json.writeStringField("receivedAt", DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(receivedAt));
+            json.writeEndObject();
+            json.flush();
+            writer.write('\n');
+        }
+    }
+
+    private static final class CsvWriter implements RowWriter {
+        private final Writer writer;
+
+        CsvWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void header() throws IOException {
+            writer.write("id,topic,payload,qos,retained,receivedAt,payloadEncoding\r\n");
+        }
+
+        @Override
+        public void row(long id, String topic, Payloads.Text payload, int qos, boolean retained,
+                        LocalDateTime receivedAt) throws IOException {
+            writer.write(Long.toString(id));
+            writer.write(',');
+            field(topic);
+            writer.write(',');
+            field(payload.value());
+            writer.write(',');
+            writer.write(Integer.toString(qos));
+            writer.write(',');
+            writer.write(Boolean.toString(retained));
+            writer.write(',');
+            writer.write(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(receivedAt));
+            writer.write(',');
+            field(payload.encoding());
+            writer.write("\r\n");
+        }
+
+        private void field(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.JsonFieldExtractor;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.repository.MessagePartitions;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one row per JSON field named in the subscriptions' {@code indexedFields}, copied out of
+ * the payload at ingest, so messages can be filtered by payload values without parsing payloads
+ * at query time. Rows go into the fields table of their message's time partition. Exactly one of
+ * the value columns is set, except that integral numbers fill both {@code long_value} and
+ * {@code double_value}; each is indexed behind the field path, so a predicate is a range lookup
+ * rather than a payload scan.
+ */
+@Service
+@RequiredArgsConstructor
+public class MessageFieldIndex {
+
+    /** Longer strings are not indexed. */
+    public static final int MAX_STRING_LENGTH = 255;
+
+    private static final String INSERT = "INSERT INTO %s "
+            + "(message_id, field_path, str_value, long_value, double_value, bool_value) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final int[] INSERT_TYPES =
+            {Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.DOUBLE, Types.BOOLEAN};
+
+    private final SubscriptionRouter subscriptionRouter;
+    private final MessagePartitions partitions;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Indexes the fields of freshly persisted messages; {@code messages} must line up with
+     * {@code batch} and already have their ids. Runs in the caller's transaction, so the fields
+     * commit or roll back together with the messages.
+     */
+    public void index(List<InboundMessage> batch, List<ReceivedMessage> messages) {
+        Map<String, List<Object[]>> rows = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            InboundMessage message = batch.get(i);
+            JsonFieldExtractor fields = subscriptionRouter.resolve(message.topic()).indexedFields();
+            if (fields.isEmpty()) {
+                continue;
+            }
+            ReceivedMessage stored = messages.get(i);
+            long messageId = stored.getId();
+            String table = partitions.forTime(stored.getReceivedAt()).getFieldsTable();
+            fields.extractValues(message.payload(), (path, value) -> {
+                Object[] row = toRow(messageId, path, value);
+                if (row != null) {
+                    rows.computeIfAbsent(table, t -> new ArrayList<>()).add(row);
+                }
+            });
+        }
+        if (!rows.isEmpty()) {
+            partitions.read(() -> {
+                rows.forEach((table, args) -> jdbcTemplate.batchUpdate(INSERT.formatted(table), args, INSERT_TYPES));
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Ids of the messages with a field matching {@code predicate}, in no particular order, from
+     * the fields tables of all partitions in parallel.
+     */
+    public List<Long> messageIds(FieldPredicate predicate) {
+        String condition = predicate.sqlCondition();
+        return partitions.read(() -> partitions.scan(partitions.all(), partition ->
+                        jdbcTemplate.queryForList("SELECT message_id FROM " + partition.getFieldsTable() + " WHERE "
+                                + condition, Long.class, predicate.path(), predicate.sqlValue()))
+                .stream().flatMap(List::stream).toList());
+    }
+
+    private static Object[] toRow(long messageId, String path, Object value) {
+        return switch (value) {
+            case String s when s.length() > MAX_STRING_LENGTH -> null;
+            case String s -> new Object[]{messageId, path, s, null, null, null};
+            case Long l -> new Object[]{messageId, path, null, l, l.doubleValue(), null};
+            case Double d -> new Object[]{messageId, path, null, null, d, null};
+            case Boolean b -> new Object[]{messageId, path, null, null, null, b};
+            default -> null;
+        };
+    }
+}
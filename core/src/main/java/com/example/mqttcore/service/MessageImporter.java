@@ -0,0 +1,655 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.ImportStatusDto;
+import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.exception.ConflictException;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.mqtt.TopicFilters;
+import com.example.mqttcore.payload.Payloads;
+import com.example.mqttcore.repository.ReceivedMessageRepository;
+import com.example.mqttcore.search.PayloadIndex;
+import com.example.mqttcore.series.SeriesStore;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads archived messages from NDJSON (plain or gzip-compressed) into the history, keeping their
+ * original timestamps, e.g. a file written by {@code /api/messages/export}. Each line is an object
+ * with {@code topic}, {@code payload}, {@code qos}, {@code retained} and {@code receivedAt}, and
+ * {@code payloadEncoding} {@code base64} for binary payloads; any {@code id} is ignored and new ids
+ * are assigned.
+ *
+ * <p>The input is cut into chunks at line boundaries; a fork/join pool parses each chunk in
+ * parallel while the previous one is written. Rows go into their time partitions in JDBC batches
+ * of {@code mqtt.import.batch-size}, one transaction each, on {@code mqtt.import.writer-threads}
+ * threads, with their indexed fields. Retained messages of subscriptions that keep only the latest
+ * retained one are left out, as they are from the history of live batches.
+ *
+ * <p>Everything else derived from the rows waits for one pass at the end: the imported id ranges
+ * are read back in parallel and passed to the search index, recent buffer, latest values, topic
+ * catalog, volume timeline, field aggregates and series like live batches, so the write path does
+ * nothing but insert. Imported messages are not pushed to live streams.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageImporter {
+
+    /** Chunks parsed ahead of the writer. */
+    private static final int CHUNKS_AHEAD = 2;
+    /** Parse tasks below this size are not split further. */
+    private static final int LEAF_BYTES = 64 * 1024;
+    private static final int MAX_TOPIC_LENGTH = 500;
+    private static final int MAX_ERRORS = 20;
+    private static final long PROGRESS_LOG_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Value("${mqtt.import.batch-size:5000}")
+    private int batchSize;
+
+    @Value("${mqtt.import.chunk-size-kb:4096}")
+    private int chunkSizeKb;
+
+    /** Parser threads; 0 for one per processor. */
+    @Value("${mqtt.import.parallelism:0}")
+    private int parallelism;
+
+    @Value("${mqtt.import.writer-threads:4}")
+    private int writerThreads;
+
+    private final ReceivedMessageRepository messageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final TopicDictionary topicDictionary;
+    private final MessageService messageService;
+    private final MessageFieldIndex messageFieldIndex;
+    private final PayloadIndex payloadIndex;
+    private final RecentMessageBuffer recentMessages;
+    private final LatestValueStore latestValues;
+    private final TopicCatalog topicCatalog;
+    private final TopicTimeline topicTimeline;
+    private final FieldAggregator fieldAggregator;
+    private final SeriesStore seriesStore;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Progress progress;
+
+    /**
+     * Imports every line of {@code in}; returns once all of it is written and recorded. Lines that
+     * cannot be imported are skipped and reported. Batches are committed as they are written, so a
+     * failure part way leaves the batches before it in place, and those are recorded too.
+     *
+     * @throws ConflictException if another import is running
+     */
+    public ImportStatusDto importMessages(InputStream in) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new ConflictException("An import is already running");
+        }
+        Progress current = new Progress();
+        progress = current;
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("mqtt-import-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        Writers writers = new Writers(current);
+        boolean written = false;
+        try {
+            ChunkReader reader = new ChunkReader(decompressed(in), chunkSizeKb * 1024);
+            Deque<ForkJoinTask<ParsedLines>> parsing = new ArrayDeque<>();
+            Chunk chunk;
+            while ((chunk = reader.next()) != null) {
+                current.bytes += chunk.length();
+                parsing.add(pool.submit(new ParseTask(chunk.data(), 0, chunk.length())));
+                if (parsing.size() > CHUNKS_AHEAD) {
+                    write(parsing.poll().join(), current, writers);
+                }
+            }
+            while (!parsing.isEmpty()) {
+                write(parsing.poll().join(), current, writers);
+            }
+            writers.awaitAll();
+            written = true;
+            record(writers.ranges(), writers.pool);
+            current.finish();
+            log.info("Imported {} messages from {} lines in {} ms ({} messages/s), skipped {}",
+                    current.imported, current.lines, current.millis(), current.rate(), current.skipped);
+            return current.toDto();
+        } catch (IOException | RuntimeException e) {
+            if (!written) {
+                writers.drain();
+                try {
+                    record(writers.ranges(), writers.pool);
+                } catch (RuntimeException recordFailure) {
+                    e.addSuppressed(recordFailure);
+                }
+            }
+            current.fail(e);
+            log.warn("Import failed after {} messages: {}", current.imported, e.getMessage());
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            writers.pool.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    /** The running import, or the last one; null if there has been none since startup. */
+    public ImportStatusDto getStatus() {
+        Progress current = progress;
+        return current != null ? current.toDto() : null;
+    }
+
+    private void write(ParsedLines parsed, Progress current, Writers writers) {
+        for (LineError error : parsed.errors) {
+            current.error(current.lines + error.line(), error.reason());
+        }
+        current.skipped += parsed.skipped;
+        current.lines += parsed.lines;
+        for (int from = 0; from < parsed.messages.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, parsed.messages.size());
+            writers.submit(parsed.messages.subList(from, to), parsed.entities.subList(from, to));
+        }
+    }
+
+    /**
+     * Writes the rows of one batch that belong in the history, with their indexed fields, in its
+     * own transaction.
+     *
+     * @return the ids the rows were given, as ascending {@code [first, last]} runs
+     */
+    private List<long[]> writeBatch(List<InboundMessage> batch, List<ReceivedMessage> entities) {
+        List<InboundMessage> history = new ArrayList<>(batch.size());
+        List<ReceivedMessage> rows = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            InboundMessage message = batch.get(i);
+            if (messageService.belongsInHistory(message)) {
+                ReceivedMessage entity = entities.get(i);
+                entity.setTopicId(topicDictionary.idOf(message.topic()));
+                history.add(message);
+                rows.add(entity);
+            }
+        }
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            messageRepository.saveAll(rows);
+            messageFieldIndex.index(history, rows);
+        });
+        List<long[]> runs = new ArrayList<>();
+        for (ReceivedMessage row : rows) {
+            long id = row.getId();
+            long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && id == last[1] + 1) {
+                last[1] = id;
+            } else {
+                runs.add(new long[]{id, id});
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * The pass over the imported rows: reads them back by id, a batch of ids per task on the
+     * writer threads, and records them like committed live batches.
+     */
+    private void record(List<long[]> ranges, ExecutorService threads) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        List<Future<Integer>> tasks = new ArrayList<>();
+        for (long[] range : ranges) {
+            for (long after = range[0] - 1; after < range[1]; after += batchSize) {
+                long from = after;
+                long upTo = Math.min(range[1], after + batchSize);
+                tasks.add(threads.submit(() -> recordImported(from, upTo)));
+            }
+        }
+        long recorded = 0;
+        try {
+            for (Future<Integer> task : tasks) {
+                recorded += task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            tasks.forEach(task -> task.cancel(true));
+            throw new IllegalStateException("Interrupted while recording imported messages", e);
+        } catch (ExecutionException e) {
+            tasks.forEach(task -> task.cancel(true));
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+        log.info("Recorded {} imported messages in the search index and statistics in {} ms", recorded,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /** Records the imported messages with ids in (afterId, upToId], at most a batch of them. */
+    private int recordImported(long afterId, long upToId) {
+        List<ReceivedMessage> rows = messageRepository.findByIdRange(afterId, upToId, batchSize);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        List<InboundMessage> history = new ArrayList<>(rows.size());
+        for (ReceivedMessage row : rows) {
+            history.add(new InboundMessage(topicDictionary.nameOf(row.getTopicId()), row.getPayload(), row.getQos(),
+                    row.isRetained(), row.getReceivedAt()));
+        }
+        payloadIndex.index(rows);
+        recentMessages.record(rows);
+        latestValues.record(history);
+        topicCatalog.record(history);
+        topicTimeline.record(history);
+        fieldAggregator.record(history);
+        seriesStore.record(history);
+        return rows.size();
+    }
+
+    private static InputStream decompressed(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        buffered.mark(2);
+        boolean gzip = buffered.read() == 0x1f && buffered.read() == 0x8b;
+        buffered.reset();
+        return gzip ? new GZIPInputStream(buffered, 64 * 1024) : buffered;
+    }
+
+    /** Parses one line into {@code parsed}; throws {@link IllegalArgumentException} with the reason it is invalid. */
+    private void parseLine(byte[] data, int offset, int length, ParsedLines parsed) throws IOException {
+        String topic = null;
+        String payload = "";
+        String encoding = null;
+        int qos = 0;
+        boolean retained = false;
+        LocalDateTime receivedAt = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(data, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "topic" -> topic = parser.getValueAsString();
+                    case "payload" -> payload = switch (value) {
+                        case VALUE_NULL -> "";
+                        // archives may carry JSON payloads as objects rather than strings
+                        case START_OBJECT, START_ARRAY -> objectMapper.readTree(parser).toString();
+                        default -> parser.getText();
+                    };
+                    case "payloadEncoding" -> encoding = parser.getValueAsString();
+                    case "qos" -> qos = parser.getValueAsInt(-1);
+                    case "retained" -> retained = parser.getValueAsBoolean();
+                    case "receivedAt" -> receivedAt = timestamp(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("invalid JSON: " + e.getOriginalMessage());
+        }
+        if (topic == null || topic.isEmpty()) {
+            throw new IllegalArgumentException("missing topic");
+        }
+        if (topic.length() > MAX_TOPIC_LENGTH || TopicFilters.isWildcard(topic)) {
+            throw new IllegalArgumentException("invalid topic");
+        }
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("qos must be 0, 1 or 2");
+        }
+        if (receivedAt == null) {
+            throw new IllegalArgumentException("missing receivedAt");
+        }
+        byte[] bytes = Payloads.fromText(payload, encoding);
+        parsed.messages.add(new InboundMessage(topic, bytes, qos, retained, receivedAt));
+        // the topic id is resolved by the writer, which skips lines the batch leaves out of the history
+        parsed.entities.add(new ReceivedMessage(0, bytes, qos, retained, receivedAt));
+    }
+
+    /**
+     * ISO 8601 local time as exported, ISO 8601 with an offset, or epoch milliseconds; times with
+     * a zone are converted to the server's zone like live arrivals.
+     */
+    private static LocalDateTime timestamp(JsonParser parser, JsonToken value) throws IOException {
+        LocalDateTime time;
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            time = LocalDateTime.ofInstant(Instant.ofEpochMilli(parser.getLongValue()), ZoneId.systemDefault());
+        } else if (value == JsonToken.VALUE_STRING) {
+            try {
+                // one parse for both forms; parseBest would throw and catch for every local time
+                TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parse(parser.getText());
+                time = parsed.query(TemporalQueries.zone()) != null
+                        ? ZonedDateTime.from(parsed).withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime()
+                        : LocalDateTime.from(parsed);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("invalid receivedAt: " + parser.getText());
+            }
+        } else {
+            return null;
+        }
+        // the column keeps microseconds
+        return time.truncatedTo(ChronoUnit.MICROS);
+    }
+
+    private record Chunk(byte[] data, int length) {
+    }
+
+    /**
+     * Writes batches on the writer threads, at most two per thread in flight so parsed chunks do
+     * not pile up, and collects the ids of the written rows. Used by the importing thread only.
+     */
+    private final class Writers {
+        private final ExecutorService pool;
+        private final Progress progress;
+        private final Deque<Future<List<long[]>>> inFlight = new ArrayDeque<>();
+        private final List<long[]> runs = new ArrayList<>();
+
+        Writers(Progress progress) {
+            AtomicInteger threads = new AtomicInteger();
+            this.pool = Executors.newFixedThreadPool(Math.max(1, writerThreads), r -> {
+                Thread thread = new Thread(r, "mqtt-import-writer-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.progress = progress;
+        }
+
+        void submit(List<InboundMessage> batch, List<ReceivedMessage> entities) {
+            inFlight.add(pool.submit(() -> writeBatch(batch, entities)));
+            if (inFlight.size() > 2 * Math.max(1, writerThreads)) {
+                awaitOldest();
+            }
+        }
+
+        /** Waits for every batch and throws the first failure. */
+        void awaitAll() {
+            while (!inFlight.isEmpty()) {
+                awaitOldest();
+            }
+        }
+
+        /** Waits for the batches still running after a failure, keeping the ids of those that commit. */
+        void drain() {
+            while (!inFlight.isEmpty()) {
+                try {
+                    awaitOldest();
+                } catch (RuntimeException e) {
+                    // the first failure is the one reported
+                }
+            }
+        }
+
+        /** The ids of the written rows as ascending, disjoint {@code [first, last]} ranges. */
+        List<long[]> ranges() {
+            List<long[]> sorted = new ArrayList<>(runs);
+            sorted.sort(Comparator.comparingLong(run -> run[0]));
+            List<long[]> ranges = new ArrayList<>();
+            for (long[] run : sorted) {
+                long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && run[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], run[1]);
+                } else {
+                    ranges.add(run.clone());
+                }
+            }
+            return ranges;
+        }
+
+        private void awaitOldest() {
+            Future<List<long[]>> oldest = inFlight.poll();
+            try {
+                List<long[]> written = oldest.get();
+                runs.addAll(written);
+                progress.imported += written.stream().mapToLong(run -> run[1] - run[0] + 1).sum();
+                progress.logIfDue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                inFlight.forEach(batch -> batch.cancel(true));
+                inFlight.clear();
+                throw new IllegalStateException("Interrupted while writing imported messages", e);
+            } catch (ExecutionException e) {
+                // batches already running are left to finish, so drain() knows which committed
+                throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /** Cuts a stream into chunks of whole lines. */
+    private static final class ChunkReader {
+        private final InputStream in;
+        private final int chunkBytes;
+        private byte[] buffer;
+        private int filled;
+        private boolean eof;
+
+        ChunkReader(InputStream in, int chunkBytes) {
+            this.in = in;
+            this.chunkBytes = Math.max(chunkBytes, 1024);
+            this.buffer = new byte[this.chunkBytes];
+        }
+
+        /** The next chunk, ending after a newline unless it is the last; null at the end. */
+        Chunk next() throws IOException {
+            while (true) {
+                while (!eof && filled < buffer.length) {
+                    int read = in.read(buffer, filled, buffer.length - filled);
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        filled += read;
+                    }
+                }
+                if (filled == 0) {
+                    return null;
+                }
+                int end = eof ? filled : lastNewline() + 1;
+                if (end > 0) {
+                    byte[] data = buffer;
+                    int rest = filled - end;
+                    buffer = new byte[Math.max(chunkBytes, rest * 2)];
+                    System.arraycopy(data, end, buffer, 0, rest);
+                    filled = rest;
+                    return new Chunk(data, end);
+                }
+                // a single line longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        private int lastNewline() {
+            for (int i = filled - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** Line numbers are 1-based and relative to the start of the parsed range. */
+    private record LineError(long line, String reason) {
+    }
+
+    /** Messages parsed from a range of lines, with their unsaved entities lined up. */
+    private static final class ParsedLines {
+        private final List<InboundMessage> messages = new ArrayList<>();
+        private final List<ReceivedMessage> entities = new ArrayList<>();
+        private final List<LineError> errors = new ArrayList<>();
+        private long lines;
+        private long skipped;
+
+        /** Appends the lines following this range. */
+        ParsedLines append(ParsedLines next) {
+            messages.addAll(next.messages);
+            entities.addAll(next.entities);
+            for (LineError error : next.errors) {
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(new LineError(lines + error.line(), error.reason()));
+                }
+            }
+            lines += next.lines;
+            skipped += next.skipped;
+            return this;
+        }
+    }
+
+    /** Splits its range at line boundaries until it is small enough to parse directly. */
+    private final class ParseTask extends RecursiveTask<ParsedLines> {
+        private final byte[] data;
+        private final int from;
+        private final int to;
+
+        ParseTask(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ParsedLines compute() {
+            if (to - from > LEAF_BYTES) {
+                int split = from + (to - from) / 2;
+                while (split < to && data[split - 1] != '\n') {
+                    split++;
+                }
+                if (split < to) {
+                    ParseTask first = new ParseTask(data, from, split);
+                    first.fork();
+                    ParsedLines second = new ParseTask(data, split, to).compute();
+                    return first.join().append(second);
+                }
+            }
+            return parse();
+        }
+
+        private ParsedLines parse() {
+            ParsedLines parsed = new ParsedLines();
+            int start = from;
+            while (start < to) {
+                int end = start;
+                while (end < to && data[end] != '\n') {
+                    end++;
+                }
+                parsed.lines++;
+                int last = end;
+                while (last > start && Character.isWhitespace(data[last - 1])) {
+                    last--;
+                }
+                if (last > start) {
+                    try {
+                        parseLine(data, start, last - start, parsed);
+                    } catch (IllegalArgumentException | IOException e) {
+                        parsed.skipped++;
+                        if (parsed.errors.size() < MAX_ERRORS) {
+                            parsed.errors.add(new LineError(parsed.lines, e.getMessage()));
+                        }
+                    }
+                }
+                start = end + 1;
+            }
+            return parsed;
+        }
+    }
+
+    /** Counters of one import; written by the importing thread only. */
+    private static final class Progress {
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private final long started = System.nanoTime();
+        private final List<String> errors = new ArrayList<>();
+        private volatile LocalDateTime finishedAt;
+        private volatile long finished;
+        private volatile long bytes;
+        private volatile long lines;
+        private volatile long imported;
+        private volatile long skipped;
+        private long nextLog = started + PROGRESS_LOG_NANOS;
+
+        void error(long line, String reason) {
+            synchronized (errors) {
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add("line " + line + ": " + reason);
+                }
+            }
+        }
+
+        void fail(Exception e) {
+            error(lines + 1, "import aborted: " + e.getMessage());
+            finish();
+        }
+
+        void finish() {
+            finished = System.nanoTime();
+            finishedAt = LocalDateTime.now();
+        }
+
+        void logIfDue() {
+            long now = System.nanoTime();
+            if (now - nextLog >= 0) {
+                nextLog = now + PROGRESS_LOG_NANOS;
+                log.info("Importing: {} messages so far ({} messages/s), {} MB read", imported, rate(), bytes >> 20);
+            }
+        }
+
+        long millis() {
+            long end = finishedAt != null ? finished : System.nanoTime();
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - started));
+        }
+
+        long rate() {
+            return imported * 1000 / millis();
+        }
+
+        ImportStatusDto toDto() {
+            ImportStatusDto dto = new ImportStatusDto();
+            dto.setRunning(finishedAt == null);
+            dto.setStartedAt(startedAt);
+            dto.setFinishedAt(finishedAt);
+            dto.setBytes(bytes);
+            dto.setLines(lines);
+            dto.setImported(imported);
+            dto.setSkipped(skipped);
+            dto.setDurationMs(millis());
+            dto.setMessagesPerSecond(rate());
+            synchronized (errors) {
+                dto.setErrors(List.copyOf(errors));
+            }
+            return dto;
+        }
+    }
+}
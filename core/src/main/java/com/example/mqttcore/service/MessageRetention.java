@@ -0,0 +1,84 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.archive.MessageArchive;
+import com.example.mqttcore.archive.MessageArchive.ArchivedRange;
+import com.example.mqttcore.repository.MessagePartitions;
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import com.example.mqttcore.repository.PartitionInterval;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Housekeeping of the message partitions every {@code mqtt.partitions.maintenance-interval-ms}:
+ * creates the partition of the next interval ahead of time, so the first batch after midnight
+ * does not wait for DDL, and drops the partitions that ended more than
+ * {@code mqtt.partitions.retention-days} ago (0 keeps everything). A partition goes as a whole,
+ * two {@code DROP TABLE}s however many rows it holds, instead of a long {@code DELETE} that locks
+ * the table and leaves dead pages in the store. Archived partitions are deleted the same way.
+ *
+ * <p>The topic statistics, volume buckets and recent buffer forget the dropped messages as well;
+ * latest values and field aggregates are kept.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MessageRetention {
+
+    @Value("${mqtt.partitions.retention-days:0}")
+    private int retentionDays;
+
+    private final MessagePartitions partitions;
+    private final TopicTimeline topicTimeline;
+    private final TopicCatalog topicCatalog;
+    private final RecentMessageBuffer recentMessages;
+    private final MessageArchive messageArchive;
+
+    @Scheduled(fixedDelayString = "${mqtt.partitions.maintenance-interval-ms:3600000}")
+    public synchronized void maintain() {
+        LocalDateTime now = LocalDateTime.now();
+        PartitionInterval interval = partitions.interval();
+        partitions.forTime(interval.next(interval.start(now)));
+        if (retentionDays > 0) {
+            dropBefore(now.minusDays(retentionDays));
+        }
+    }
+
+    /**
+     * Drops the archived partitions and then the partitions ending at or before {@code cutoff},
+     * oldest first. Stops at a partition that is in use, which is tried again on the next run.
+     *
+     * @return the number of partitions dropped
+     */
+    public synchronized int dropBefore(LocalDateTime cutoff) {
+        int dropped = 0;
+        for (ArchivedRange range : messageArchive.dropBefore(cutoff)) {
+            forget(range.start(), range.end(), System.nanoTime());
+            dropped++;
+        }
+        for (Partition partition : partitions.endingBy(cutoff)) {
+            long started = System.nanoTime();
+            if (!partitions.drop(partition)) {
+                log.info("Message partition {} is in use; dropping it on the next run", partition.getTable());
+                break;
+            }
+            forget(partition.getStart(), partition.getEnd(), started);
+            dropped++;
+        }
+        return dropped;
+    }
+
+    private void forget(LocalDateTime start, LocalDateTime end, long started) {
+        Map<Integer, long[]> removed = topicTimeline.forget(start, end);
+        topicCatalog.forget(removed);
+        recentMessages.forgetBefore(end);
+        long messages = removed.values().stream().mapToLong(counts -> counts[0]).sum();
+        log.info("Retention dropped {} messages received {} .. {} in {} ms", messages, start, end,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+}
@@ -1,55 +1,462 @@
 package com.example.mqttcore.service;
 
+import com.example.mqttcore.archive.MessageArchive;
+import com.example.mqttcore.dto.MessageSliceDto;
 import com.example.mqttcore.dto.ReceivedMessageDto;
 import com.example.mqttcore.entity.ReceivedMessage;
 import com.example.mqttcore.exception.ResourceNotFoundException;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.payload.Payloads;
+import com.example.mqttcore.repository.MessagePartitions;
 import com.example.mqttcore.repository.ReceivedMessageRepository;
+import com.example.mqttcore.repository.ReceivedMessageRepository.MessageKey;
+import com.example.mqttcore.search.PayloadIndex;
+import com.example.mqttcore.search.Postings;
+import com.example.mqttcore.stream.LiveStream;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.LongPredicate;
 
 @Service
 @RequiredArgsConstructor
 public class MessageService {
 
+    /** Up to this many matching topics, a keyset page is merged from one index range per topic. */
+    private static final int MERGE_TOPIC_LIMIT = 32;
+    private static final LocalDateTime BEGINNING_OF_TIME = LocalDateTime.of(1970, 1, 1, 0, 0);
+    /** Checking a search result on its row costs about as much as reading this many ids off an index. */
+    private static final int ROW_CHECK_COST = 50;
+    /** Ids per lookup when checking rows; H2 tests each row against the IN list one by one. */
+    private static final int LOOKUP_CHUNK = 500;
+    /** The order of {@code GET /api/messages} pages, the only one the recent message buffer serves. */
+    private static final Sort NEWEST_FIRST_PAGE = Sort.by(Sort.Direction.DESC, "receivedAt");
+    private static final Comparator<ReceivedMessage> NEWEST_FIRST = Comparator
+            .comparing(ReceivedMessage::getReceivedAt).thenComparing(ReceivedMessage::getId).reversed();
+    private static final Comparator<MessageKey> NEWEST_KEY_FIRST = Comparator
+            .comparing(MessageKey::receivedAt).thenComparingLong(MessageKey::id).reversed();
+
     private final ReceivedMessageRepository messageRepository;
+    private final TopicDictionary topicDictionary;
+    private final TopicCatalog topicCatalog;
+    private final TopicTimeline topicTimeline;
+    private final MessageFieldIndex messageFieldIndex;
+    private final PayloadIndex payloadIndex;
+    private final SubscriptionRouter subscriptionRouter;
+    private final RecentMessageBuffer recentMessages;
+    private final LiveStream liveStream;
+    private final MessagePartitions partitions;
+    private final MessageArchive messageArchive;
 
+    /**
+     * Writes a batch of queued messages in one transaction, with one JDBC batch per time
+     * partition the messages fall into. Retained messages of subscriptions
+     * with {@code retainedLatestOnly} are left out of the history.
+     *
+     * @return the messages written to the history
+     */
     @Transactional
-    public ReceivedMessage save(String topic, String payload, int qos, boolean retained) {
-        return messageRepository.save(new ReceivedMessage(topic, payload, qos, retained));
+    public List<InboundMessage> saveBatch(List<InboundMessage> batch) {
+        List<InboundMessage> history = batch;
+        if (batch.stream().anyMatch(InboundMessage::retained)) {
+            history = batch.stream().filter(this::belongsInHistory).toList();
+        }
+        List<ReceivedMessage> entities = history.stream()
+                .map(m -> new ReceivedMessage(topicDictionary.idOf(m.topic()), m.payload(), m.qos(), m.retained(), m.receivedAt()))
+                .toList();
+        messageRepository.saveAll(entities);
+        messageFieldIndex.index(history, entities);
+        payloadIndex.index(entities);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // only committed rows may be served from memory
+                recentMessages.record(entities);
+                if (liveStream.isListening()) {
+                    liveStream.publish(entities.stream().map(MessageService.this::toDto).toList());
+                }
+            }
+        });
+        return history;
+    }
+
+    /** False for retained messages of subscriptions with {@code retainedLatestOnly}. */
+    public boolean belongsInHistory(InboundMessage message) {
+        return !(message.retained() && subscriptionRouter.resolve(message.topic()).retainedLatestOnly());
     }
 
     @Transactional(readOnly = true)
     public Page<ReceivedMessageDto> getMessages(String topicFilter,
+                                                 TopicMatchMode topicMode,
                                                  LocalDateTime from,
                                                  LocalDateTime to,
+                                                 List<FieldPredicate> where,
+                                                 String query,
                                                  Pageable pageable) {
-        Page<ReceivedMessage> page = messageRepository.search(topicFilter, from, to, pageable);
-        return page.map(this::toDto);
+        checkFieldRange(where, from);
+        List<Integer> topicIds = matchingTopicIds(topicFilter, topicMode);
+        if (query != null && !query.isBlank()) {
+            if (topicIds != null && topicIds.isEmpty()) {
+                return Page.empty(pageable);
+            }
+            List<MessageKey> keys = searchKeys(query, topicIds, from, to, where);
+            int start = (int) Math.min(keys.size(), pageable.getOffset());
+            List<MessageKey> page = keys.subList(start, (int) Math.min(keys.size(), (long) start + pageable.getPageSize()));
+            return new PageImpl<>(load(page).stream().map(this::toDto).toList(), pageable, keys.size());
+        }
+        if (!where.isEmpty()) {
+            if (topicIds != null && topicIds.isEmpty()) {
+                return Page.empty(pageable);
+            }
+            return messageRepository.search(topicIds, where, from, to, pageable).map(this::toDto);
+        }
+        if (topicIds != null && topicIds.isEmpty()) {
+            return Page.empty(pageable);
+        }
+        Page<ReceivedMessageDto> recent = recentPage(topicIds, from, to, pageable);
+        if (recent != null) {
+            return recent;
+        }
+        if (messageArchive.isEmpty() || !NEWEST_FIRST_PAGE.equals(pageable.getSort())) {
+            return messageRepository.search(topicIds, List.of(), from, to, pageable).map(this::toDto);
+        }
+        return partitions.read(() -> withArchive(topicIds, from, to, pageable)).map(this::toDto);
+    }
+
+    /**
+     * A page of the database continued into the archive, whose messages are all older. The caller
+     * holds the partitions' read lock, so no partition moves to the archive in between.
+     */
+    private Page<ReceivedMessage> withArchive(List<Integer> topicIds, LocalDateTime from, LocalDateTime to,
+                                              Pageable pageable) {
+        Page<ReceivedMessage> hot = messageRepository.search(topicIds, List.of(), from, to, pageable);
+        long archived = messageArchive.count(topicIds, from, to);
+        if (archived == 0) {
+            return hot;
+        }
+        List<ReceivedMessage> rows = new ArrayList<>(hot.getContent());
+        if (rows.size() < pageable.getPageSize()) {
+            long skip = Math.max(0, pageable.getOffset() - hot.getTotalElements());
+            rows.addAll(messageArchive.newest(topicIds, MessageCursor.first(to), from, skip,
+                    pageable.getPageSize() - rows.size()));
+        }
+        return new PageImpl<>(rows, pageable, hot.getTotalElements() + archived);
+    }
+
+    /**
+     * The page from the recent message buffer, or null if the buffer does not hold all of it. The
+     * total is counted in the buffer when it holds the whole range, and otherwise comes from the
+     * topic catalog or the volume buckets, like {@code approximateTotal} of a scroll.
+     */
+    private Page<ReceivedMessageDto> recentPage(List<Integer> topicIds, LocalDateTime from, LocalDateTime to,
+                                                Pageable pageable) {
+        if (!NEWEST_FIRST_PAGE.equals(pageable.getSort()) || pageable.getOffset() > Integer.MAX_VALUE - pageable.getPageSize()) {
+            return null;
+        }
+        int offset = (int) pageable.getOffset();
+        List<ReceivedMessage> rows = recentMessages.newest(topicIds, MessageCursor.first(to), from,
+                offset + pageable.getPageSize(), MERGE_TOPIC_LIMIT);
+        if (rows == null) {
+            return null;
+        }
+        long total = recentMessages.count(topicIds, from, to);
+        if (total < 0) {
+            total = from == null && to == null ? topicCatalog.countMessages(topicIds) : topicTimeline.count(topicIds, from, to);
+        }
+        List<ReceivedMessageDto> content = rows.subList(Math.min(offset, rows.size()), rows.size()).stream()
+                .map(this::toDto).toList();
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * One newest-first page after {@code cursor} (or from the newest message at or before
+     * {@code to} when null). Pages the recent message buffer holds are served from memory; any
+     * other page costs the same index range scan however deep it is, and no count query runs;
+     * {@code withTotal} adds an estimate from the topic catalog or, for a time range, the volume
+     * buckets instead. With field predicates the page comes from the field index instead and no
+     * estimate is available. With a search {@code query} the matches are found on the payload
+     * index and looked up, and the total is their number.
+     * Without field predicates, pages continue into the message archive past the oldest row in
+     * the database; with them, the range must not reach archived messages.
+     */
+    @Transactional(readOnly = true)
+    public MessageSliceDto scrollMessages(String topicFilter,
+                                          TopicMatchMode topicMode,
+                                          LocalDateTime from,
+                                          LocalDateTime to,
+                                          List<FieldPredicate> where,
+                                          String query,
+                                          String cursor,
+                                          int size,
+                                          boolean withTotal) {
+        MessageCursor position = cursor == null || cursor.isEmpty() ? MessageCursor.first(to) : MessageCursor.decode(cursor);
+        LocalDateTime lowerBound = from != null ? from : BEGINNING_OF_TIME;
+        Pageable limit = PageRequest.of(0, size);
+        checkFieldRange(where, from);
+
+        List<Integer> topicIds = matchingTopicIds(topicFilter, topicMode);
+
+        Slice<ReceivedMessage> slice;
+        List<MessageKey> searchKeys = null;
+        if (query != null && !query.isBlank()) {
+            searchKeys = topicIds != null && topicIds.isEmpty() ? List.of() : searchKeys(query, topicIds, from, to, where);
+            slice = scrollSearch(searchKeys, position, limit);
+        } else if (!where.isEmpty()) {
+            slice = topicIds != null && topicIds.isEmpty()
+                    ? new SliceImpl<>(List.of(), limit, false)
+                    : scrollFields(topicIds, where, position, lowerBound, limit);
+        } else if (topicIds != null && topicIds.isEmpty()) {
+            slice = new SliceImpl<>(List.of(), limit, false);
+        } else {
+            List<ReceivedMessage> recent = recentMessages.newest(topicIds, position, from, size + 1, MERGE_TOPIC_LIMIT);
+            slice = recent != null ? sliceOf(recent, limit) : scrollHistory(topicIds, position, lowerBound, limit);
+        }
+
+        MessageSliceDto dto = new MessageSliceDto();
+        dto.setContent(slice.getContent().stream().map(this::toDto).toList());
+        dto.setHasNext(slice.hasNext());
+        if (slice.hasNext()) {
+            ReceivedMessage last = slice.getContent().get(slice.getNumberOfElements() - 1);
+            dto.setNextCursor(new MessageCursor(last.getReceivedAt(), last.getId()).encode());
+        }
+        if (withTotal && searchKeys != null) {
+            dto.setApproximateTotal((long) searchKeys.size());
+        } else if (withTotal && where.isEmpty()) {
+            dto.setApproximateTotal(from == null && to == null
+                    ? topicCatalog.countMessages(topicIds)
+                    : topicTimeline.count(topicIds, from, to));
+        }
+        return dto;
+    }
+
+    private Slice<ReceivedMessage> scrollHistory(List<Integer> topicIds, MessageCursor position,
+                                                 LocalDateTime lowerBound, Pageable limit) {
+        if (messageArchive.isEmpty()) {
+            return scrollDatabase(topicIds, position, lowerBound, limit);
+        }
+        // the archive continues where the database ends, read under the same lock as in getMessages
+        return partitions.read(() -> {
+            Slice<ReceivedMessage> hot = scrollDatabase(topicIds, position, lowerBound, limit);
+            if (hot.hasNext()) {
+                return hot;
+            }
+            List<ReceivedMessage> rows = new ArrayList<>(hot.getContent());
+            ReceivedMessage last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+            MessageCursor after = last == null ? position : new MessageCursor(last.getReceivedAt(), last.getId());
+            rows.addAll(messageArchive.newest(topicIds, after, lowerBound, 0, limit.getPageSize() + 1 - rows.size()));
+            return sliceOf(rows, limit);
+        });
+    }
+
+    private Slice<ReceivedMessage> scrollDatabase(List<Integer> topicIds, MessageCursor position,
+                                                  LocalDateTime lowerBound, Pageable limit) {
+        if (topicIds != null && topicIds.size() > 1 && topicIds.size() <= MERGE_TOPIC_LIMIT) {
+            return mergeTopics(topicIds, position, lowerBound, limit);
+        }
+        return messageRepository.scroll(topicIds, List.of(), position.receivedAt(), position.id(), lowerBound, limit);
+    }
+
+    /** A slice of the first {@code limit.getPageSize()} rows, with more if there is one beyond. */
+    private static Slice<ReceivedMessage> sliceOf(List<ReceivedMessage> rows, Pageable limit) {
+        if (rows.size() > limit.getPageSize()) {
+            return new SliceImpl<>(rows.subList(0, limit.getPageSize()), limit, true);
+        }
+        return new SliceImpl<>(rows, limit, false);
+    }
+
+    /**
+     * Field predicates are matched on the field index, which goes with a partition when it is
+     * archived; rather than leave archived messages out of the result without a word, a range
+     * that reaches them is refused.
+     *
+     * @throws IllegalArgumentException if there are predicates and {@code from} is before the end of the archive
+     */
+    private void checkFieldRange(List<FieldPredicate> where, LocalDateTime from) {
+        LocalDateTime archivedUntil = messageArchive.archivedUntil();
+        if (!where.isEmpty() && archivedUntil != null && (from == null || from.isBefore(archivedUntil))) {
+            throw new IllegalArgumentException("Messages received before " + archivedUntil
+                    + " are archived and cannot be filtered by field; set 'from' to " + archivedUntil + " or later");
+        }
+    }
+
+    /** Ids of the topics matching the filter, or null for no topic restriction. */
+    private List<Integer> matchingTopicIds(String topicFilter, TopicMatchMode topicMode) {
+        if (topicFilter == null || topicFilter.isEmpty()) {
+            return null;
+        }
+        List<Integer> topicIds = topicDictionary.idsMatching(topicFilter, topicMode);
+        // e.g. "#": filtering by every topic id only makes the query slower
+        return topicIds.size() == topicDictionary.size() ? null : topicIds;
+    }
+
+    private Slice<ReceivedMessage> scrollFields(List<Integer> topicIds, List<FieldPredicate> where,
+                                                MessageCursor position, LocalDateTime lowerBound, Pageable limit) {
+        return messageRepository.scroll(topicIds, where, position.receivedAt(), position.id(), lowerBound, limit);
+    }
+
+    /**
+     * Keys of the messages matching the search {@code query} and the other conditions, newest
+     * first. The payload index and the field index yield ids, which are intersected here and then
+     * looked up, dropping those of deleted messages: few compared to the messages in the topics and
+     * time range by primary key, others by reading the keys in range off the topic and time index
+     * and keeping the matching ones. Archived messages are still in the payload index and are
+     * looked up in the archive.
+     */
+    private List<MessageKey> searchKeys(String query, List<Integer> topicIds, LocalDateTime from, LocalDateTime to,
+                                        List<FieldPredicate> where) {
+        long[] ids = payloadIndex.search(query);
+        for (FieldPredicate predicate : where) {
+            ids = Postings.intersect(ids, sorted(messageFieldIndex.messageIds(predicate)));
+        }
+        long scanned = from == null && to == null
+                ? topicCatalog.countMessages(topicIds)
+                : topicTimeline.count(topicIds, from, to);
+        List<MessageKey> keys;
+        if ((long) ids.length * ROW_CHECK_COST <= scanned) {
+            keys = checkRows(ids, topicIds, from, to);
+        } else {
+            long[] matching = ids;
+            LongPredicate wanted = id -> Arrays.binarySearch(matching, id) >= 0;
+            // under one lock, so a partition moving to the archive in between is not missed
+            keys = partitions.read(() -> {
+                List<MessageKey> found = new ArrayList<>(messageRepository.findKeys(topicIds, from, to, wanted));
+                found.addAll(messageArchive.findKeys(topicIds, from, to, wanted));
+                return found;
+            });
+        }
+        keys.sort(NEWEST_KEY_FIRST);
+        return keys;
+    }
+
+    private List<MessageKey> checkRows(long[] ids, List<Integer> topicIds, LocalDateTime from, LocalDateTime to) {
+        Set<Integer> topics = topicIds != null ? new HashSet<>(topicIds) : null;
+        List<MessageKey> matching = new ArrayList<>();
+        for (int start = 0; start < ids.length; start += LOOKUP_CHUNK) {
+            List<Long> chunk = Arrays.stream(ids, start, Math.min(ids.length, start + LOOKUP_CHUNK)).boxed().toList();
+            Set<Long> missing = messageArchive.isEmpty() ? Set.of() : new HashSet<>(chunk);
+            for (MessageKey key : messageRepository.findKeysByIdIn(chunk)) {
+                missing.remove(key.id());
+                if (inRange(key.topicId(), key.receivedAt(), topics, from, to)) {
+                    matching.add(key);
+                }
+            }
+            for (long id : missing) {
+                ReceivedMessage archived = messageArchive.findById(id).orElse(null);
+                if (archived != null && inRange(archived.getTopicId(), archived.getReceivedAt(), topics, from, to)) {
+                    matching.add(new MessageKey(id, archived.getTopicId(), archived.getReceivedAt()));
+                }
+            }
+        }
+        return matching;
+    }
+
+    private static boolean inRange(int topicId, LocalDateTime receivedAt, Set<Integer> topics, LocalDateTime from,
+                                   LocalDateTime to) {
+        return (topics == null || topics.contains(topicId))
+                && (from == null || !receivedAt.isBefore(from))
+                && (to == null || !receivedAt.isAfter(to));
+    }
+
+    private static long[] sorted(List<Long> ids) {
+        long[] array = ids.stream().mapToLong(Long::longValue).toArray();
+        return Postings.sortedDistinct(array, array.length);
+    }
+
+    /** The search matches after {@code position}, which are sorted newest first like the cursor. */
+    private Slice<ReceivedMessage> scrollSearch(List<MessageKey> keys, MessageCursor position, Pageable limit) {
+        MessageKey after = new MessageKey(position.id(), 0, position.receivedAt());
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (NEWEST_KEY_FIRST.compare(keys.get(mid), after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return sliceOf(load(keys.subList(low, Math.min(keys.size(), low + limit.getPageSize() + 1))), limit);
+    }
+
+    /**
+     * The messages of the keys, newest first, from the database or else the archive; a message
+     * deleted since its key was read is skipped.
+     */
+    private List<ReceivedMessage> load(List<MessageKey> keys) {
+        List<ReceivedMessage> rows = new ArrayList<>(
+                messageRepository.findAllById(keys.stream().map(MessageKey::id).toList()));
+        if (rows.size() < keys.size() && !messageArchive.isEmpty()) {
+            Set<Long> inDatabase = new HashSet<>();
+            rows.forEach(message -> inDatabase.add(message.getId()));
+            for (MessageKey key : keys) {
+                if (!inDatabase.contains(key.id())) {
+                    messageArchive.findById(key.id()).ifPresent(rows::add);
+                }
+            }
+        }
+        rows.sort(NEWEST_FIRST);
+        return rows;
+    }
+
+    /**
+     * The combined (receivedAt, id) order across several topics is not an index order, so take
+     * the next page of every topic from its own index range and keep the newest rows.
+     */
+    private Slice<ReceivedMessage> mergeTopics(List<Integer> topicIds, MessageCursor position,
+                                               LocalDateTime lowerBound, Pageable limit) {
+        List<ReceivedMessage> rows = new ArrayList<>();
+        boolean more = false;
+        for (int topicId : topicIds) {
+            Slice<ReceivedMessage> topicSlice = messageRepository.scroll(
+                    List.of(topicId), List.of(), position.receivedAt(), position.id(), lowerBound, limit);
+            rows.addAll(topicSlice.getContent());
+            more |= topicSlice.hasNext();
+        }
+        rows.sort(NEWEST_FIRST);
+        if (rows.size() > limit.getPageSize()) {
+            return new SliceImpl<>(rows.subList(0, limit.getPageSize()), limit, true);
+        }
+        return new SliceImpl<>(rows, limit, more);
     }
 
     @Transactional(readOnly = true)
     public ReceivedMessageDto getMessageById(Long id) {
         ReceivedMessage msg = messageRepository.findById(id)
+                .or(() -> messageArchive.findById(id))
                 .orElseThrow(() -> new ResourceNotFoundException("Message not found: " + id));
         return toDto(msg);
     }
 
-    @Transactional(readOnly = true)
     public List<String> getDistinctTopics() {
-        return messageRepository.findDistinctTopics();
+        return topicDictionary.getNames();
     }
 
     private ReceivedMessageDto toDto(ReceivedMessage msg) {
         ReceivedMessageDto dto = new ReceivedMessageDto();
         dto.setId(msg.getId());
-        dto.setTopic(msg.getTopic());
-        dto.setPayload(msg.getPayload());
+        dto.setTopic(topicDictionary.nameOf(msg.getTopicId()));
+        Payloads.Text payload = Payloads.toText(msg.getPayload());
+        dto.setPayload(payload.value());
+        dto.setPayloadEncoding(payload.encoding());
         dto.setQos(msg.getQos());
         dto.setRetained(msg.isRetained());
         dto.setReceivedAt(msg.getReceivedAt());
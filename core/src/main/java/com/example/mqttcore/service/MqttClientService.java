@@ -1,19 +1,29 @@
 package com.example.mqttcore.service;
 
+import com.example.mqttcore.ingest.DeliveryAck;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.IngestPipeline;
+import com.example.mqttcore.mqtt.BrokerConnection;
 import com.example.mqttcore.repository.MqttSubscriptionRepository;
+import com.example.mqttcore.stream.LiveStream;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.paho.client.mqttv3.*;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class MqttClientService implements MqttCallbackExtended {
+public class MqttClientService implements BrokerConnection.Listener {
 
     @Value("${mqtt.broker.url}")
     private String brokerUrl;
@@ -42,11 +52,29 @@ public class MqttClientService implements MqttCallbackExtended {
     @Value("${mqtt.broker.auto-reconnect:true}")
     private boolean autoReconnect;
 
-    private final MessageService messageService;
+    /** Client connections in the pool. Shared subscriptions are consumed on all of them. */
+    @Value("${mqtt.broker.connections:1}")
+    private int connectionCount;
+
+    /** Group name in {@code $share/<group>/<filter>}; instances using the same group split the load. */
+    @Value("${mqtt.broker.share-group:mqtt-core}")
+    private String shareGroup;
+
+    /**
+     * Acknowledge QoS 1/2 messages only after their batch is committed (at-least-once). Needs a
+     * persistent session, so clean-session is forced off and client-id should be fixed.
+     */
+    @Value("${mqtt.ingest.ack-after-commit:false}")
+    private boolean ackAfterCommit;
+
+    @Value("${mqtt.ingest.max-inflight:1000}")
+    private int maxInflight;
+
+    private final IngestPipeline ingestPipeline;
     private final MqttSubscriptionRepository subscriptionRepository;
+    private final LiveStream liveStream;
 
-    private MqttClient mqttClient;
-    private volatile boolean connected = false;
+    private final List<BrokerConnection> connections = new ArrayList<>();
 
     @PostConstruct
     public void init() {
@@ -54,119 +82,148 @@ public class MqttClientService implements MqttCallbackExtended {
     }
 
     public void connect() {
-        try {
-            mqttClient = new MqttClient(brokerUrl, clientId, new MemoryPersistence());
-            mqttClient.setCallback(this);
-
-            MqttConnectOptions options = new MqttConnectOptions();
-            options.setCleanSession(cleanSession);
-            options.setConnectionTimeout(connectionTimeout);
-            options.setKeepAliveInterval(keepAliveInterval);
-            options.setAutomaticReconnect(autoReconnect);
-
-            if (username != null && !username.isBlank()) {
-                options.setUserName(username);
-                options.setPassword(password.toCharArray());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(cleanSession);
+        if (ackAfterCommit) {
+            if (cleanSession) {
+                log.warn("mqtt.ingest.ack-after-commit needs a persistent session; ignoring clean-session=true");
             }
+            options.setCleanSession(false);
+        }
+        options.setConnectionTimeout(connectionTimeout);
+        options.setKeepAliveInterval(keepAliveInterval);
+        options.setAutomaticReconnect(autoReconnect);
 
-            log.info("Connecting to MQTT broker: {}", brokerUrl);
-            mqttClient.connect(options);
-            // connected flag and resubscribeAll() are handled in connectComplete()
+        if (username != null && !username.isBlank()) {
+            options.setUserName(username);
+            options.setPassword(password.toCharArray());
+        }
 
-        } catch (MqttException e) {
-            connected = false;
-            log.error("Failed to connect to MQTT broker: {}", e.getMessage());
+        for (int i = 0; i < connectionCount; i++) {
+            // Client ids must differ per connection; keep the configured id for a single connection
+            String id = connectionCount == 1 ? clientId : clientId + "-" + i;
+            try {
+                BrokerConnection connection = new BrokerConnection(i, brokerUrl, id, options,
+                        ackAfterCommit ? maxInflight : 0, this);
+                connections.add(connection);
+                connection.connect();
+            } catch (MqttException e) {
+                log.error("Failed to connect to MQTT broker: {}", e.getMessage());
+            }
         }
+        liveStream.brokerStatus(isConnected(), getConnectedCount());
     }
 
-    private void resubscribeAll() {
+    /**
+     * Subscribes a connection to every active subscription it is responsible for: shared
+     * subscriptions on every connection, plain ones only on the first so each message arrives once.
+     */
+    private void resubscribeAll(BrokerConnection connection) {
         subscriptionRepository.findByActiveTrue().forEach(sub -> {
+            if (!sub.isShared() && connection.getIndex() != 0) {
+                return;
+            }
+            String filter = brokerFilter(sub.getTopicFilter(), sub.isShared());
             try {
-                mqttClient.subscribe(sub.getTopicFilter(), sub.getQos());
-                log.info("Resubscribed to topic: {} (QoS {})", sub.getTopicFilter(), sub.getQos());
+                connection.subscribe(filter, sub.getQos());
+                log.info("Resubscribed to topic: {} (QoS {})", filter, sub.getQos());
             } catch (MqttException e) {
-                log.error("Failed to resubscribe to topic {}: {}", sub.getTopicFilter(), e.getMessage());
+                log.error("Failed to resubscribe to topic {}: {}", filter, e.getMessage());
             }
         });
     }
 
-    public void subscribe(String topicFilter, int qos) {
-        if (!connected || !mqttClient.isConnected()) {
-            log.warn("Not connected to broker, subscription will be applied on reconnect: {}", topicFilter);
+    public void subscribe(String topicFilter, int qos, boolean shared) {
+        String filter = brokerFilter(topicFilter, shared);
+        if (!isConnected()) {
+            log.warn("Not connected to broker, subscription will be applied on reconnect: {}", filter);
             return;
         }
-        try {
-            mqttClient.subscribe(topicFilter, qos);
-            log.info("Subscribed to topic: {} (QoS {})", topicFilter, qos);
-        } catch (MqttException e) {
-            log.error("Failed to subscribe to topic {}: {}", topicFilter, e.getMessage());
+        for (BrokerConnection connection : connectionsFor(shared)) {
+            try {
+                connection.subscribe(filter, qos);
+                log.info("Subscribed to topic: {} (QoS {})", filter, qos);
+            } catch (MqttException e) {
+                log.error("Failed to subscribe to topic {}: {}", filter, e.getMessage());
+            }
         }
     }
 
-    public void unsubscribe(String topicFilter) {
-        if (!connected || !mqttClient.isConnected()) {
-            return;
-        }
-        try {
-            mqttClient.unsubscribe(topicFilter);
-            log.info("Unsubscribed from topic: {}", topicFilter);
-        } catch (MqttException e) {
-            log.error("Failed to unsubscribe from topic {}: {}", topicFilter, e.getMessage());
+    public void unsubscribe(String topicFilter, boolean shared) {
+        String filter = brokerFilter(topicFilter, shared);
+        for (BrokerConnection connection : connectionsFor(shared)) {
+            try {
+                connection.unsubscribe(filter);
+                log.info("Unsubscribed from topic: {}", filter);
+            } catch (MqttException e) {
+                log.error("Failed to unsubscribe from topic {}: {}", filter, e.getMessage());
+            }
         }
     }
 
     public void publish(String topic, String payload, int qos, boolean retained) throws MqttException {
-        if (!connected || !mqttClient.isConnected()) {
-            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
-        }
+        BrokerConnection connection = connections.stream()
+                .filter(BrokerConnection::isConnected)
+                .findFirst()
+                .orElseThrow(() -> new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
         MqttMessage message = new MqttMessage(payload.getBytes());
         message.setQos(qos);
         message.setRetained(retained);
-        mqttClient.publish(topic, message);
+        connection.publish(topic, message);
         log.debug("Published to topic {}: {}", topic, payload);
     }
 
+    /** True while at least one connection of the pool is up. */
     public boolean isConnected() {
-        return connected && mqttClient != null && mqttClient.isConnected();
+        return getConnectedCount() > 0;
     }
 
-    // --- MqttCallbackExtended ---
+    public int getConnectedCount() {
+        return (int) connections.stream().filter(BrokerConnection::isConnected).count();
+    }
 
-    @Override
-    public void connectComplete(boolean reconnect, String serverURI) {
-        connected = true;
-        log.info("{} to MQTT broker: {} — resubscribing all active topics",
-                reconnect ? "Reconnected" : "Connected", serverURI);
-        resubscribeAll();
+    /** Messages received but not yet acknowledged to the broker (manual acks only). */
+    public int getUnackedCount() {
+        return connections.stream().mapToInt(BrokerConnection::getUnackedCount).sum();
+    }
+
+    private String brokerFilter(String topicFilter, boolean shared) {
+        return shared ? "$share/" + shareGroup + "/" + topicFilter : topicFilter;
     }
 
+    private List<BrokerConnection> connectionsFor(boolean shared) {
+        List<BrokerConnection> connected = connections.stream().filter(BrokerConnection::isConnected).toList();
+        if (shared) {
+            return connected;
+        }
+        return connected.stream().filter(connection -> connection.getIndex() == 0).toList();
+    }
+
+    // --- BrokerConnection.Listener ---
+
     @Override
-    public void connectionLost(Throwable cause) {
-        connected = false;
-        log.warn("MQTT connection lost: {}", cause.getMessage());
+    public void connected(BrokerConnection connection, boolean reconnect) {
+        resubscribeAll(connection);
+        liveStream.brokerStatus(isConnected(), getConnectedCount());
     }
 
     @Override
-    public void messageArrived(String topic, MqttMessage message) {
-        String payload = new String(message.getPayload());
-        log.debug("MQTT message received on topic [{}]: {}", topic, payload);
-        messageService.save(topic, payload, message.getQos(), message.isRetained());
+    public void connectionLost(BrokerConnection connection) {
+        liveStream.brokerStatus(isConnected(), getConnectedCount());
     }
 
     @Override
-    public void deliveryComplete(IMqttDeliveryToken token) {
-        log.debug("MQTT delivery complete for message id: {}", token.getMessageId());
+    public void messageArrived(String topic, MqttMessage message, DeliveryAck ack) {
+        ingestPipeline.submit(new InboundMessage(topic, message.getPayload(), message.getQos(),
+                message.isRetained(), LocalDateTime.now(), ack));
     }
 
     @PreDestroy
     public void disconnect() {
-        if (mqttClient != null && mqttClient.isConnected()) {
-            try {
-                mqttClient.disconnect();
-                log.info("Disconnected from MQTT broker");
-            } catch (MqttException e) {
-                log.error("Error disconnecting from MQTT broker: {}", e.getMessage());
-            }
-        }
+        // Stop inbound delivery first: once the lanes are drained the pipeline drops what arrives
+        connections.forEach(BrokerConnection::stopDelivery);
+        // Drain every ingest lane while still connected so deferred acks can reach the broker
+        ingestPipeline.shutdown();
+        connections.forEach(BrokerConnection::disconnect);
     }
 }
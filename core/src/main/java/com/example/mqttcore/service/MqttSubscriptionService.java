@@ -4,6 +4,8 @@ import com.example.mqttcore.dto.MqttSubscriptionDto;
 import com.example.mqttcore.entity.MqttSubscription;
 import com.example.mqttcore.exception.ConflictException;
 import com.example.mqttcore.exception.ResourceNotFoundException;
+import com.example.mqttcore.ingest.JsonFieldExtractor;
+import com.example.mqttcore.ingest.SubscriptionRouter;
 import com.example.mqttcore.repository.MqttSubscriptionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -17,8 +19,11 @@ import java.util.List;
 @RequiredArgsConstructor
 public class MqttSubscriptionService {
 
+    private static final int DEFAULT_QOS = 1;
+
     private final MqttSubscriptionRepository subscriptionRepository;
     private final MqttClientService mqttClientService;
+    private final SubscriptionRouter subscriptionRouter;
 
     @Transactional(readOnly = true)
     public List<MqttSubscriptionDto> getAllSubscriptions() {
@@ -35,28 +40,38 @@ public class MqttSubscriptionService {
 
         MqttSubscription sub = new MqttSubscription(
                 request.getTopicFilter(),
-                request.getQos(),
+                request.getQos() != null ? request.getQos() : DEFAULT_QOS,
                 request.getDescription()
         );
         sub.setActive(true);
+        applyIngestSettings(sub, request);
         MqttSubscription saved = subscriptionRepository.save(sub);
+        subscriptionRouter.refresh();
 
-        mqttClientService.subscribe(saved.getTopicFilter(), saved.getQos());
+        mqttClientService.subscribe(saved.getTopicFilter(), saved.getQos(), saved.isShared());
 
         return toDto(saved);
     }
 
+    /** Changes the settings present in the request and keeps the others. */
     @Transactional
     public MqttSubscriptionDto updateSubscription(Long id, MqttSubscriptionDto request) {
         MqttSubscription sub = findById(id);
-        boolean qosChanged = sub.getQos() != request.getQos();
-        sub.setQos(request.getQos());
-        sub.setDescription(request.getDescription());
+        boolean qosChanged = request.getQos() != null && sub.getQos() != request.getQos();
+        boolean wasShared = sub.isShared();
+        if (request.getQos() != null) {
+            sub.setQos(request.getQos());
+        }
+        if (request.getDescription() != null) {
+            sub.setDescription(request.getDescription());
+        }
+        applyIngestSettings(sub, request);
         MqttSubscription saved = subscriptionRepository.save(sub);
-        // Re-subscribe with new QoS if active
-        if (saved.isActive() && qosChanged) {
-            mqttClientService.unsubscribe(saved.getTopicFilter());
-            mqttClientService.subscribe(saved.getTopicFilter(), saved.getQos());
+        subscriptionRouter.refresh();
+        // Re-subscribe with new QoS or sharing if active
+        if (saved.isActive() && (qosChanged || wasShared != saved.isShared())) {
+            mqttClientService.unsubscribe(saved.getTopicFilter(), wasShared);
+            mqttClientService.subscribe(saved.getTopicFilter(), saved.getQos(), saved.isShared());
         }
         return toDto(saved);
     }
@@ -66,11 +81,12 @@ public class MqttSubscriptionService {
         MqttSubscription sub = findById(id);
         sub.setActive(active);
         MqttSubscription saved = subscriptionRepository.save(sub);
+        subscriptionRouter.refresh();
 
         if (active) {
-            mqttClientService.subscribe(saved.getTopicFilter(), saved.getQos());
+            mqttClientService.subscribe(saved.getTopicFilter(), saved.getQos(), saved.isShared());
         } else {
-            mqttClientService.unsubscribe(saved.getTopicFilter());
+            mqttClientService.unsubscribe(saved.getTopicFilter(), saved.isShared());
         }
 
         return toDto(saved);
@@ -79,8 +95,48 @@ public class MqttSubscriptionService {
     @Transactional
     public void deleteSubscription(Long id) {
         MqttSubscription sub = findById(id);
-        mqttClientService.unsubscribe(sub.getTopicFilter());
+        mqttClientService.unsubscribe(sub.getTopicFilter(), sub.isShared());
         subscriptionRepository.delete(sub);
+        subscriptionRouter.refresh();
+    }
+
+    /** Applies the settings present in the request; a new subscription has the defaults for the others. */
+    private void applyIngestSettings(MqttSubscription sub, MqttSubscriptionDto request) {
+        if (request.getOverloadPolicy() != null) {
+            sub.setOverloadPolicy(request.getOverloadPolicy());
+        }
+        if (request.getSampleRate() != null) {
+            sub.setSampleRate(request.getSampleRate());
+        }
+        if (request.getShared() != null) {
+            sub.setShared(request.getShared());
+        }
+        if (request.getRetainedLatestOnly() != null) {
+            sub.setRetainedLatestOnly(request.getRetainedLatestOnly());
+        }
+        if (request.getNumericFields() != null) {
+            sub.setNumericFields(joinPaths(request.getNumericFields()));
+        }
+        if (request.getNumericSeries() != null) {
+            sub.setNumericSeries(request.getNumericSeries());
+        }
+        if (request.getIndexedFields() != null) {
+            sub.setIndexedFields(joinPaths(request.getIndexedFields()));
+        }
+        if (request.getRetentionDays() != null) {
+            sub.setRetentionDays(request.getRetentionDays() > 0 ? request.getRetentionDays() : null);
+        }
+        if (request.getRetentionMaxMessages() != null) {
+            sub.setRetentionMaxMessages(request.getRetentionMaxMessages() > 0 ? request.getRetentionMaxMessages() : null);
+        }
+        if (request.getRetentionMaxBytes() != null) {
+            sub.setRetentionMaxBytes(request.getRetentionMaxBytes() > 0 ? request.getRetentionMaxBytes() : null);
+        }
+    }
+
+    private static String joinPaths(List<String> paths) {
+        List<String> valid = paths != null ? JsonFieldExtractor.parsePaths(String.join(",", paths)) : List.of();
+        return valid.isEmpty() ? null : String.join(",", valid);
     }
 
     private MqttSubscription findById(Long id) {
@@ -95,6 +151,16 @@ public class MqttSubscriptionService {
         dto.setQos(sub.getQos());
         dto.setActive(sub.isActive());
         dto.setDescription(sub.getDescription());
+        dto.setOverloadPolicy(sub.getOverloadPolicy());
+        dto.setSampleRate(sub.getSampleRate());
+        dto.setShared(sub.isShared());
+        dto.setRetainedLatestOnly(sub.isRetainedLatestOnly());
+        dto.setNumericFields(JsonFieldExtractor.parsePaths(sub.getNumericFields()));
+        dto.setNumericSeries(sub.isNumericSeries());
+        dto.setIndexedFields(JsonFieldExtractor.parsePaths(sub.getIndexedFields()));
+        dto.setRetentionDays(sub.getRetentionDays());
+        dto.setRetentionMaxMessages(sub.getRetentionMaxMessages());
+        dto.setRetentionMaxBytes(sub.getRetentionMaxBytes());
         dto.setCreatedAt(sub.getCreatedAt());
         return dto;
     }
@@ -0,0 +1,340 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.RecentBufferStatsDto;
+import com.example.mqttcore.entity.ReceivedMessage;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The most recently committed messages, per topic and across all topics, so the newest page of
+ * the history (what the GUI asks for nearly every time) is answered without a query.
+ *
+ * <p>Every ring knows from where on it is complete: it holds every committed message newer than
+ * its oldest eviction, or than the start of the application if it has not evicted yet. A page
+ * is only served from memory when that covers it; otherwise the caller falls back to the
+ * database. Rings are bounded by {@code mqtt.recent.per-topic} and {@code mqtt.recent.global}
+ * messages, and together by {@code mqtt.recent.max-memory-mb}: over budget, a ring that is
+ * written to drops its oldest messages.
+ */
+@Service
+public class RecentMessageBuffer {
+
+    /** Rough heap cost of a buffered message besides its payload bytes. */
+    private static final int MESSAGE_OVERHEAD_BYTES = 120;
+    private static final Comparator<ReceivedMessage> OLDEST_FIRST = Comparator
+            .comparing(ReceivedMessage::getReceivedAt).thenComparing(ReceivedMessage::getId);
+
+    @Value("${mqtt.recent.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mqtt.recent.per-topic:100}")
+    private int perTopic;
+
+    @Value("${mqtt.recent.global:5000}")
+    private int global;
+
+    @Value("${mqtt.recent.max-memory-mb:64}")
+    private long maxMemoryMb;
+
+    /** Messages committed before this may be missing from every ring. */
+    private final MessageCursor startedAt = new MessageCursor(LocalDateTime.now(), Long.MIN_VALUE);
+
+    private final Map<Integer, Ring> topics = new ConcurrentHashMap<>();
+    private Ring all;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        all = new Ring(global, startedAt);
+    }
+
+    /** Adds the messages of a committed batch. */
+    public void record(List<ReceivedMessage> messages) {
+        if (!enabled) {
+            return;
+        }
+        for (ReceivedMessage message : messages) {
+            add(topics.computeIfAbsent(message.getTopicId(), id -> new Ring(perTopic, startedAt)), message);
+            add(all, message);
+        }
+    }
+
+    /**
+     * The newest {@code limit} messages strictly before {@code before} and received at or after
+     * {@code from} (when set), on the given topics (all when null), newest first; null if the
+     * buffer cannot tell for sure.
+     */
+    public List<ReceivedMessage> newest(Collection<Integer> topicIds, MessageCursor before, LocalDateTime from,
+                                        int limit, int maxTopics) {
+        if (!enabled) {
+            return null;
+        }
+        List<ReceivedMessage> rows = collect(topicIds, before, from, limit, maxTopics);
+        (rows != null ? hits : misses).incrementAndGet();
+        return rows;
+    }
+
+    /**
+     * Number of messages on the given topics at or before {@code to} and at or after {@code from},
+     * if every one of them is in the buffer; otherwise -1.
+     */
+    public long count(Collection<Integer> topicIds, LocalDateTime from, LocalDateTime to) {
+        if (!enabled || from == null) {
+            return -1;
+        }
+        MessageCursor before = MessageCursor.first(to);
+        if (topicIds == null) {
+            return all.count(null, before, from);
+        }
+        long total = 0;
+        for (int topicId : topicIds) {
+            Ring ring = topics.get(topicId);
+            long count = ring != null ? ring.count(null, before, from) : startedAt.receivedAt().isBefore(from) ? 0 : -1;
+            if (count < 0) {
+                return -1;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /** Drops the messages received before {@code time}, after their rows were dropped. */
+    public void forgetBefore(LocalDateTime time) {
+        bytes.addAndGet(-all.removeBefore(time));
+        for (Ring ring : topics.values()) {
+            bytes.addAndGet(-ring.removeBefore(time));
+        }
+    }
+
+    /**
+     * Drops the messages of one topic at or before {@code upTo}, after their rows were purged.
+     * The rings stay complete as far as they were: the messages are gone from the database too.
+     */
+    public void forget(int topicId, MessageCursor upTo) {
+        bytes.addAndGet(-all.remove(topicId, upTo));
+        Ring ring = topics.get(topicId);
+        if (ring != null) {
+            bytes.addAndGet(-ring.remove(topicId, upTo));
+        }
+    }
+
+    public RecentBufferStatsDto getStats() {
+        RecentBufferStatsDto dto = new RecentBufferStatsDto();
+        dto.setEnabled(enabled);
+        dto.setHits(hits.get());
+        dto.setMisses(misses.get());
+        dto.setTopics(topics.size());
+        dto.setMessages(all.size() + topics.values().stream().mapToLong(Ring::size).sum());
+        dto.setMemoryBytes(bytes.get());
+        return dto;
+    }
+
+    private List<ReceivedMessage> collect(Collection<Integer> topicIds, MessageCursor before, LocalDateTime from,
+                                          int limit, int maxTopics) {
+        if (topicIds == null) {
+            return all.newest(null, before, from, limit);
+        }
+        if (topicIds.size() > maxTopics) {
+            // many topics: their messages in the global ring are complete as far as it reaches
+            return all.newest(Set.copyOf(topicIds), before, from, limit);
+        }
+        List<ReceivedMessage> rows = new ArrayList<>();
+        for (int topicId : topicIds) {
+            Ring ring = topics.get(topicId);
+            if (ring == null) {
+                // nothing since startup; fine if the range starts after that
+                if (from == null || !startedAt.receivedAt().isBefore(from)) {
+                    return null;
+                }
+                continue;
+            }
+            List<ReceivedMessage> topicRows = ring.newest(null, before, from, limit);
+            if (topicRows == null) {
+                return null;
+            }
+            rows.addAll(topicRows);
+        }
+        // each topic's newest rows are complete, so the newest of their union are too
+        rows.sort(OLDEST_FIRST.reversed());
+        return rows.size() > limit ? rows.subList(0, limit) : rows;
+    }
+
+    private void add(Ring ring, ReceivedMessage message) {
+        bytes.addAndGet(ring.add(message));
+        long budget = maxMemoryMb * 1024 * 1024;
+        while (bytes.get() > budget) {
+            long freed = ring.shrink();
+            if (freed == 0) {
+                break;
+            }
+            bytes.addAndGet(-freed);
+        }
+    }
+
+    private static long sizeOf(ReceivedMessage message) {
+        return MESSAGE_OVERHEAD_BYTES + (long) message.getPayloadSize();
+    }
+
+    private static boolean olderThan(ReceivedMessage message, MessageCursor position) {
+        int cmp = message.getReceivedAt().compareTo(position.receivedAt());
+        return cmp < 0 || cmp == 0 && message.getId() < position.id();
+    }
+
+    private static boolean newerThan(ReceivedMessage message, MessageCursor position) {
+        int cmp = message.getReceivedAt().compareTo(position.receivedAt());
+        return cmp > 0 || cmp == 0 && message.getId() > position.id();
+    }
+
+    private static MessageCursor positionOf(ReceivedMessage message) {
+        return new MessageCursor(message.getReceivedAt(), message.getId());
+    }
+
+    /**
+     * Messages ordered by (receivedAt, id) in a circular array; new messages nearly always go to
+     * the end, late ones are moved into place.
+     */
+    private static final class Ring {
+
+        private final ReceivedMessage[] slots;
+        private int head;
+        private int size;
+        /** Every committed message after this is in the ring. */
+        private MessageCursor complete;
+
+        Ring(int capacity, MessageCursor complete) {
+            this.slots = new ReceivedMessage[Math.max(1, capacity)];
+            this.complete = complete;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /** Returns the bytes added, net of what a full ring had to drop. */
+        synchronized long add(ReceivedMessage message) {
+            if (!newerThan(message, complete)) {
+                // older than what the ring vouches for, so it would not be looked for anyway
+                return 0;
+            }
+            if (size == slots.length && OLDEST_FIRST.compare(message, get(0)) < 0) {
+                // a late arrival that would be evicted right away
+                complete = positionOf(message);
+                return 0;
+            }
+            long freed = size == slots.length ? removeOldest() : 0;
+            int position = size;
+            while (position > 0 && OLDEST_FIRST.compare(get(position - 1), message) > 0) {
+                set(position, get(position - 1));
+                position--;
+            }
+            set(position, message);
+            size++;
+            return sizeOf(message) - freed;
+        }
+
+        /** Drops the oldest message unless it is the only one; returns the bytes freed. */
+        synchronized long shrink() {
+            return size > 1 ? removeOldest() : 0;
+        }
+
+        /** Returns the bytes freed. */
+        synchronized long removeBefore(LocalDateTime time) {
+            long freed = 0;
+            while (size > 0 && get(0).getReceivedAt().isBefore(time)) {
+                freed += removeOldest();
+            }
+            return freed;
+        }
+
+        /** Removes the messages of a topic not newer than {@code upTo}; returns the bytes freed. */
+        synchronized long remove(int topicId, MessageCursor upTo) {
+            long freed = 0;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                ReceivedMessage message = get(i);
+                if (message.getTopicId() == topicId && !newerThan(message, upTo)) {
+                    freed += sizeOf(message);
+                } else {
+                    set(kept++, message);
+                }
+            }
+            for (int i = kept; i < size; i++) {
+                set(i, null);
+            }
+            size = kept;
+            return freed;
+        }
+
+        private long removeOldest() {
+            ReceivedMessage oldest = slots[head];
+            slots[head] = null;
+            head = (head + 1) % slots.length;
+            size--;
+            complete = positionOf(oldest);
+            return sizeOf(oldest);
+        }
+
+        /** See {@link RecentMessageBuffer#newest}; {@code topicIds} null for all. */
+        synchronized List<ReceivedMessage> newest(Set<Integer> topicIds, MessageCursor before, LocalDateTime from,
+                                                  int limit) {
+            List<ReceivedMessage> rows = new ArrayList<>(Math.min(limit, size));
+            for (int i = size - 1; i >= 0 && rows.size() < limit; i--) {
+                ReceivedMessage message = get(i);
+                if (!olderThan(message, before)) {
+                    continue;
+                }
+                if (from != null && message.getReceivedAt().isBefore(from)) {
+                    return rows;
+                }
+                if (topicIds == null || topicIds.contains(message.getTopicId())) {
+                    rows.add(message);
+                }
+            }
+            return rows.size() == limit || covers(from) ? rows : null;
+        }
+
+        /** Matching messages, or -1 if older ones may be missing. */
+        synchronized long count(Set<Integer> topicIds, MessageCursor before, LocalDateTime from) {
+            if (!covers(from)) {
+                return -1;
+            }
+            long count = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                ReceivedMessage message = get(i);
+                if (message.getReceivedAt().isBefore(from)) {
+                    break;
+                }
+                if (olderThan(message, before) && (topicIds == null || topicIds.contains(message.getTopicId()))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /** Whether every message received at or after {@code from} is in the ring. */
+        private boolean covers(LocalDateTime from) {
+            return from != null && from.isAfter(complete.receivedAt());
+        }
+
+        private ReceivedMessage get(int i) {
+            return slots[(head + i) % slots.length];
+        }
+
+        private void set(int i, ReceivedMessage message) {
+            slots[(head + i) % slots.length] = message;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.archive.MessageArchive;
+import com.example.mqttcore.dto.RetentionRunDto;
+import com.example.mqttcore.dto.RetentionStatusDto;
+import com.example.mqttcore.ingest.IngestPipeline;
+import com.example.mqttcore.ingest.RetentionPolicy;
+import com.example.mqttcore.ingest.SubscriptionRoute;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.repository.MessagePartitions;
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import com.example.mqttcore.repository.ReceivedMessageRepository;
+import com.example.mqttcore.repository.ReceivedMessageRepository.MessageKey;
+import com.example.mqttcore.repository.ReceivedMessageRepository.PurgedMessage;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces the retention policies of the subscriptions every {@code mqtt.retention.interval-ms}:
+ * messages older than the maximum age, beyond the newest N per topic, or beyond the payload
+ * budget of the subscription's topics are deleted, oldest partitions first.
+ *
+ * <p>Deletes go in chunks of {@code mqtt.retention.chunk-size} rows of one topic, each found on
+ * the topic index and deleted in its own short transaction, and are throttled to
+ * {@code mqtt.retention.max-rows-per-second}. A run stops before the next chunk during the
+ * {@code mqtt.retention.quiet-hours}, after {@code mqtt.retention.max-run-ms}, or while the ingest
+ * queues hold more than {@code mqtt.retention.max-ingest-backlog} messages; the next run picks up
+ * where it left off. Topic statistics, volume buckets and the recent buffer forget what was
+ * purged.
+ *
+ * <p>Archived messages go first, as they are the oldest: one archive segment at a time is written
+ * again without the purged rows. That costs file I/O rather than database time, so it is not
+ * throttled, but the run limits apply between segments.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RetentionPurger {
+
+    @Value("${mqtt.retention.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mqtt.retention.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${mqtt.retention.max-rows-per-second:2000}")
+    private int maxRowsPerSecond;
+
+    @Value("${mqtt.retention.max-run-ms:60000}")
+    private long maxRunMs;
+
+    /** Comma-separated {@code HH:mm-HH:mm} windows, which may wrap midnight. */
+    @Value("${mqtt.retention.quiet-hours:}")
+    private String quietHours;
+
+    @Value("${mqtt.retention.max-ingest-backlog:1000}")
+    private int maxIngestBacklog;
+
+    private final SubscriptionRouter subscriptionRouter;
+    private final TopicDictionary topicDictionary;
+    private final TopicCatalog topicCatalog;
+    private final TopicTimeline topicTimeline;
+    private final RecentMessageBuffer recentMessages;
+    private final MessagePartitions partitions;
+    private final ReceivedMessageRepository messageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final IngestPipeline ingestPipeline;
+    private final MessageArchive messageArchive;
+
+    private List<LocalTime[]> quietWindows;
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong purged = new AtomicLong();
+    private volatile RetentionRunDto lastRun;
+
+    @PostConstruct
+    public void init() {
+        quietWindows = parseQuietHours(quietHours);
+    }
+
+    @Scheduled(initialDelayString = "${mqtt.retention.interval-ms:300000}",
+            fixedDelayString = "${mqtt.retention.interval-ms:300000}")
+    public void scheduledRun() {
+        if (enabled) {
+            run();
+        }
+    }
+
+    /** Runs the purge now, within the usual limits, and returns its report. */
+    public synchronized RetentionRunDto run() {
+        Run run = new Run();
+        try {
+            Map<String, List<Integer>> topicsByFilter = new LinkedHashMap<>();
+            Map<String, RetentionPolicy> policies = new HashMap<>();
+            if (subscriptionRouter.getRoutes().stream().anyMatch(route -> !route.retention().isEmpty())) {
+                for (String name : topicDictionary.getNames()) {
+                    SubscriptionRoute route = subscriptionRouter.resolve(name);
+                    if (!route.retention().isEmpty()) {
+                        topicsByFilter.computeIfAbsent(route.topicFilter(), f -> new ArrayList<>())
+                                .add(topicDictionary.idOf(name));
+                        policies.put(route.topicFilter(), route.retention());
+                    }
+                }
+            }
+            for (Map.Entry<String, List<Integer>> entry : topicsByFilter.entrySet()) {
+                if (!run.mayContinue()) {
+                    break;
+                }
+                enforce(entry.getKey(), policies.get(entry.getKey()), entry.getValue(), run);
+            }
+        } finally {
+            lastRun = run.report();
+            runs.incrementAndGet();
+            purged.addAndGet(run.purged);
+        }
+        RetentionRunDto report = lastRun;
+        if (report.getPurged() > 0 || report.getStoppedBy() != null) {
+            log.info("Retention purged {} messages ({} bytes) of {} topics in {} ms, {} ms deleting{}",
+                    report.getPurged(), report.getPayloadBytes(), report.getTopics(), report.getDurationMs(),
+                    report.getDeleteMs(), report.getStoppedBy() != null ? "; stopped by " + report.getStoppedBy() : "");
+        }
+        return report;
+    }
+
+    public RetentionStatusDto getStatus() {
+        RetentionStatusDto dto = new RetentionStatusDto();
+        dto.setEnabled(enabled);
+        dto.setRuns(runs.get());
+        dto.setPurged(purged.get());
+        dto.setLastRun(lastRun);
+        return dto;
+    }
+
+    private void enforce(String topicFilter, RetentionPolicy policy, List<Integer> topicIds, Run run) {
+        if (policy.maxAgeDays() != null) {
+            MessageCursor cutoff = new MessageCursor(LocalDateTime.now().minusDays(policy.maxAgeDays()), Long.MIN_VALUE);
+            for (int topicId : topicIds) {
+                purge(topicFilter, topicId, cutoff, run);
+            }
+        }
+        if (policy.maxMessages() != null) {
+            for (int topicId : topicIds) {
+                // the statistics may lag a little, the count per partition that follows does not
+                if (run.mayContinue() && topicCatalog.countMessages(List.of(topicId)) > policy.maxMessages()) {
+                    nthNewest(topicId, policy.maxMessages() + 1L).ifPresent(key ->
+                            purge(topicFilter, topicId, new MessageCursor(key.receivedAt(), key.id()), run));
+                }
+            }
+        }
+        if (policy.maxBytes() != null && run.mayContinue()
+                && topicCatalog.payloadBytes(topicIds) > policy.maxBytes()) {
+            LocalDateTime cutoff = topicTimeline.bytesCutoff(topicIds, policy.maxBytes());
+            if (cutoff != null) {
+                for (int topicId : topicIds) {
+                    purge(topicFilter, topicId, new MessageCursor(cutoff, Long.MIN_VALUE), run);
+                }
+            }
+        }
+    }
+
+    /** The {@code n}th newest message of a topic in the database, or else in the archive. */
+    private Optional<MessageKey> nthNewest(int topicId, long n) {
+        Optional<MessageKey> key = messageRepository.findNthNewest(topicId, n);
+        if (key.isPresent() || messageArchive.isEmpty()) {
+            return key;
+        }
+        return messageArchive.findNthNewest(topicId, n - messageRepository.countByTopic(topicId));
+    }
+
+    /**
+     * Deletes the messages of a topic at or before {@code upTo}: archive segment by archive
+     * segment, then chunk by chunk, oldest partition first.
+     */
+    private void purge(String topicFilter, int topicId, MessageCursor upTo, Run run) {
+        if (!messageArchive.isEmpty() && !purgeArchive(topicFilter, topicId, upTo, run)) {
+            return;
+        }
+        List<Partition> targets = new ArrayList<>(partitions.overlapping(null, upTo.receivedAt()));
+        Collections.reverse(targets);
+        for (Partition partition : targets) {
+            List<PurgedMessage> chunk;
+            do {
+                if (!run.mayContinue()) {
+                    return;
+                }
+                long started = System.nanoTime();
+                chunk = transactionTemplate.execute(status -> partitions.read(() -> partitions.exists(partition)
+                        ? messageRepository.deleteUpTo(partition, topicId, upTo.receivedAt(), upTo.id(), chunkSize)
+                        : List.of()));
+                if (chunk == null || chunk.isEmpty()) {
+                    break;
+                }
+                long bytes = forget(topicId, upTo, chunk);
+                run.record(topicFilter, topicId, chunk.size(), bytes, System.nanoTime() - started);
+                throttle(chunk.size(), started, run);
+            } while (chunk.size() == chunkSize);
+        }
+    }
+
+    /** Returns false if the run stopped before the archive was done. */
+    private boolean purgeArchive(String topicFilter, int topicId, MessageCursor upTo, Run run) {
+        while (run.mayContinue()) {
+            long started = System.nanoTime();
+            List<PurgedMessage> purged;
+            try {
+                purged = messageArchive.purge(topicId, upTo);
+            } catch (IOException e) {
+                log.warn("Purging archived messages of topic {} failed: {}", topicDictionary.nameOf(topicId), e.toString());
+                return true;
+            }
+            if (purged.isEmpty()) {
+                return true;
+            }
+            long bytes = forget(topicId, upTo, purged);
+            run.record(topicFilter, topicId, purged.size(), bytes, System.nanoTime() - started);
+        }
+        return false;
+    }
+
+    /** Takes a purged chunk out of the statistics; returns its payload bytes. */
+    private long forget(int topicId, MessageCursor upTo, List<PurgedMessage> chunk) {
+        Map<LocalDateTime, long[]> perMinute = new HashMap<>();
+        long bytes = 0;
+        for (PurgedMessage message : chunk) {
+            long[] counts = perMinute.computeIfAbsent(message.receivedAt().truncatedTo(ChronoUnit.MINUTES),
+                    minute -> new long[2]);
+            counts[0]++;
+            counts[1] += message.payloadBytes();
+            bytes += message.payloadBytes();
+        }
+        topicCatalog.forget(Map.of(topicId, new long[]{chunk.size(), bytes}));
+        topicTimeline.forget(topicId, perMinute);
+        recentMessages.forget(topicId, upTo);
+        return bytes;
+    }
+
+    /** Sleeps off what the chunk took less than the row budget allows for it. */
+    private void throttle(int rows, long startedNanos, Run run) {
+        if (maxRowsPerSecond <= 0) {
+            return;
+        }
+        long remaining = TimeUnit.SECONDS.toNanos(rows) / maxRowsPerSecond - (System.nanoTime() - startedNanos);
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.stoppedBy = "INTERRUPTED";
+            }
+        }
+    }
+
+    private boolean isQuiet(LocalTime now) {
+        for (LocalTime[] window : quietWindows) {
+            boolean inside = window[0].isBefore(window[1])
+                    ? !now.isBefore(window[0]) && now.isBefore(window[1])
+                    : !now.isBefore(window[0]) || now.isBefore(window[1]);
+            if (inside) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<LocalTime[]> parseQuietHours(String spec) {
+        List<LocalTime[]> windows = new ArrayList<>();
+        for (String window : spec.split(",")) {
+            if (window.isBlank()) {
+                continue;
+            }
+            String[] bounds = window.trim().split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("Invalid mqtt.retention.quiet-hours window: " + window);
+            }
+            windows.add(new LocalTime[]{LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim())});
+        }
+        return windows;
+    }
+
+    /** Bookkeeping of one run, which also decides whether the next chunk may go. */
+    private final class Run {
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private final long startedNanos = System.nanoTime();
+        private final Set<Integer> topics = new HashSet<>();
+        private final Map<String, Long> purgedByFilter = new LinkedHashMap<>();
+        private long purged;
+        private long bytes;
+        private long deleteNanos;
+        private String stoppedBy;
+
+        boolean mayContinue() {
+            if (stoppedBy == null) {
+                if (isQuiet(LocalTime.now())) {
+                    stoppedBy = "QUIET_HOURS";
+                } else if (System.nanoTime() - startedNanos >= TimeUnit.MILLISECONDS.toNanos(maxRunMs)) {
+                    stoppedBy = "TIME_LIMIT";
+                } else if (ingestPipeline.getQueueDepth() > maxIngestBacklog) {
+                    stoppedBy = "INGEST_BACKLOG";
+                }
+            }
+            return stoppedBy == null;
+        }
+
+        void record(String topicFilter, int topicId, int rows, long payloadBytes, long nanos) {
+            topics.add(topicId);
+            purgedByFilter.merge(topicFilter, (long) rows, Long::sum);
+            purged += rows;
+            bytes += payloadBytes;
+            deleteNanos += nanos;
+        }
+
+        RetentionRunDto report() {
+            RetentionRunDto dto = new RetentionRunDto();
+            dto.setStartedAt(startedAt);
+            dto.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+            dto.setDeleteMs(TimeUnit.NANOSECONDS.toMillis(deleteNanos));
+            dto.setPurged(purged);
+            dto.setPayloadBytes(bytes);
+            dto.setTopics(topics.size());
+            dto.setPurgedBySubscription(purgedByFilter);
+            dto.setStoppedBy(stoppedBy);
+            return dto;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.TopicNodeDto;
+import com.example.mqttcore.dto.TopicStatsDto;
+import com.example.mqttcore.entity.Topic;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.repository.TopicRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-topic message statistics kept in memory and updated as batches are committed, so topic
+ * listings never have to scan the message table. Loaded from {@code mqtt_topics} on startup and
+ * written back every {@code mqtt.catalog.flush-interval-ms}, topics of a failed flush again on the
+ * next one; after a crash the counts can lag by at most one flush interval.
+ */
+@Slf4j
+@Service
+@DependsOn("databaseMigrator")
+@RequiredArgsConstructor
+public class TopicCatalog {
+
+    private static final long RATE_TICK_MS = 5000;
+    /** Smoothing factor giving a one-minute exponential moving average at the tick interval. */
+    private static final double RATE_ALPHA = 1 - Math.exp(-RATE_TICK_MS / 60_000.0);
+
+    private final TopicRepository topicRepository;
+    private final TopicDictionary topicDictionary;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Integer, Stats> stats = new ConcurrentHashMap<>();
+    private volatile long lastTickNanos = System.nanoTime();
+
+    @PostConstruct
+    public void load() {
+        for (Topic topic : topicRepository.findAll()) {
+            Stats s = new Stats();
+            s.messageCount = topic.getMessageCount() != null ? topic.getMessageCount() : 0;
+            s.payloadBytes = topic.getPayloadBytes() != null ? topic.getPayloadBytes() : 0;
+            s.firstSeen = topic.getFirstSeen();
+            s.lastSeen = topic.getLastSeen();
+            s.countAtTick = s.messageCount;
+            stats.put(topic.getId(), s);
+        }
+        log.info("Loaded statistics for {} topics", stats.size());
+    }
+
+    /** Counts a committed batch. */
+    public void record(List<InboundMessage> batch) {
+        for (InboundMessage message : batch) {
+            int id = topicDictionary.idOf(message.topic());
+            stats.computeIfAbsent(id, k -> new Stats()).record(message.payload().length, message.receivedAt());
+        }
+    }
+
+    public List<TopicStatsDto> getStats() {
+        List<TopicStatsDto> result = new ArrayList<>(stats.size());
+        stats.forEach((id, s) -> {
+            TopicStatsDto dto = new TopicStatsDto();
+            dto.setTopic(topicDictionary.nameOf(id));
+            synchronized (s) {
+                dto.setMessageCount(s.messageCount);
+                dto.setPayloadBytes(s.payloadBytes);
+                dto.setFirstSeen(s.firstSeen);
+                dto.setLastSeen(s.lastSeen);
+                dto.setMessagesPerSecond(s.rate);
+            }
+            result.add(dto);
+        });
+        result.sort(Comparator.comparing(TopicStatsDto::getTopic));
+        return result;
+    }
+
+    /**
+     * Takes dropped messages out of the counts, given as topic id to {messages, payload bytes}.
+     * First and last seen stay as they are.
+     */
+    public void forget(Map<Integer, long[]> removed) {
+        removed.forEach((id, counts) -> {
+            Stats s = stats.get(id);
+            if (s != null) {
+                s.forget(counts[0], counts[1]);
+            }
+        });
+    }
+
+    /** Messages received on the given topics, or on all topics when null. */
+    public long countMessages(Collection<Integer> topicIds) {
+        Collection<Stats> selected = topicIds == null ? stats.values()
+                : topicIds.stream().map(stats::get).filter(Objects::nonNull).toList();
+        long total = 0;
+        for (Stats s : selected) {
+            synchronized (s) {
+                total += s.messageCount;
+            }
+        }
+        return total;
+    }
+
+    /** Payload bytes stored for the given topics. */
+    public long payloadBytes(Collection<Integer> topicIds) {
+        long total = 0;
+        for (Integer id : topicIds) {
+            Stats s = stats.get(id);
+            if (s != null) {
+                synchronized (s) {
+                    total += s.payloadBytes;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Direct children of {@code parent} in the {@code /}-separated topic hierarchy, or the top
+     * level when {@code parent} is empty. One pass over all topics; no message rows are read.
+     */
+    public List<TopicNodeDto> getChildren(String parent) {
+        String prefix = parent == null || parent.isEmpty() ? "" : parent + "/";
+        Map<String, TopicNodeDto> nodes = new TreeMap<>();
+        Map<String, Set<String>> grandchildren = new HashMap<>();
+        stats.forEach((id, s) -> {
+            String name = topicDictionary.nameOf(id);
+            if (name == null || !name.startsWith(prefix)) {
+                return;
+            }
+            String rest = name.substring(prefix.length());
+            int slash = rest.indexOf('/');
+            String segment = slash < 0 ? rest : rest.substring(0, slash);
+            TopicNodeDto node = nodes.computeIfAbsent(segment, seg -> {
+                TopicNodeDto n = new TopicNodeDto();
+                n.setName(seg);
+                n.setPath(prefix + seg);
+                return n;
+            });
+            if (slash < 0) {
+                node.setTopic(true);
+            } else {
+                String below = rest.substring(slash + 1);
+                int next = below.indexOf('/');
+                grandchildren.computeIfAbsent(segment, seg -> new HashSet<>())
+                        .add(next < 0 ? below : below.substring(0, next));
+            }
+            synchronized (s) {
+                node.setTopicCount(node.getTopicCount() + 1);
+                node.setMessageCount(node.getMessageCount() + s.messageCount);
+                node.setPayloadBytes(node.getPayloadBytes() + s.payloadBytes);
+                node.setMessagesPerSecond(node.getMessagesPerSecond() + s.rate);
+                if (s.lastSeen != null && (node.getLastSeen() == null || s.lastSeen.isAfter(node.getLastSeen()))) {
+                    node.setLastSeen(s.lastSeen);
+                }
+            }
+        });
+        grandchildren.forEach((segment, children) -> nodes.get(segment).setChildCount(children.size()));
+        return new ArrayList<>(nodes.values());
+    }
+
+    @Scheduled(fixedRate = RATE_TICK_MS)
+    public void updateRates() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTickNanos) / 1e9;
+        lastTickNanos = now;
+        if (seconds > 0) {
+            stats.values().forEach(s -> s.tick(seconds));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.catalog.flush-interval-ms:10000}")
+    public void flush() {
+        List<Integer> topicIds = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        stats.forEach((id, s) -> {
+            synchronized (s) {
+                if (s.dirty) {
+                    // cleared before writing, so counts recorded meanwhile are flushed again next time
+                    s.dirty = false;
+                    topicIds.add(id);
+                    updates.add(new Object[]{s.messageCount, s.payloadBytes, timestamp(s.firstSeen),
+                            timestamp(s.lastSeen), id});
+                }
+            }
+        });
+        if (updates.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate("UPDATE mqtt_topics SET message_count = ?, payload_bytes = ?, " +
+                    "first_seen = ?, last_seen = ? WHERE id = ?", updates);
+        } catch (RuntimeException e) {
+            for (Integer id : topicIds) {
+                Stats s = stats.get(id);
+                if (s != null) {
+                    synchronized (s) {
+                        s.dirty = true;
+                    }
+                }
+            }
+            log.warn("Failed to flush statistics of {} topics, retrying on the next flush: {}", updates.size(), e.getMessage());
+            return;
+        }
+        log.debug("Flushed statistics of {} topics", updates.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static Timestamp timestamp(LocalDateTime time) {
+        return time != null ? Timestamp.valueOf(time) : null;
+    }
+
+    private static final class Stats {
+        private long messageCount;
+        private long payloadBytes;
+        private LocalDateTime firstSeen;
+        private LocalDateTime lastSeen;
+        private long countAtTick;
+        private double rate;
+        private boolean dirty;
+
+        synchronized void record(int bytes, LocalDateTime receivedAt) {
+            messageCount++;
+            payloadBytes += bytes;
+            if (firstSeen == null || receivedAt.isBefore(firstSeen)) {
+                firstSeen = receivedAt;
+            }
+            if (lastSeen == null || receivedAt.isAfter(lastSeen)) {
+                lastSeen = receivedAt;
+            }
+            dirty = true;
+        }
+
+        synchronized void forget(long messages, long bytes) {
+            long removed = Math.min(messages, messageCount);
+            messageCount -= removed;
+            // not a negative rate
+            countAtTick -= removed;
+            payloadBytes = Math.max(0, payloadBytes - bytes);
+            dirty = true;
+        }
+
+        synchronized void tick(double seconds) {
+            long delta = messageCount - countAtTick;
+            countAtTick = messageCount;
+            rate += RATE_ALPHA * (delta / seconds - rate);
+        }
+    }
+}
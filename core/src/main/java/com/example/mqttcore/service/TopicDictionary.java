@@ -0,0 +1,121 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.entity.Topic;
+import com.example.mqttcore.mqtt.TopicFilters;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.repository.TopicRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory topic name ↔ id map over the {@code mqtt_topics} table. The whole dictionary is
+ * loaded on startup, so resolving a known topic never touches the database; a new topic is
+ * inserted once, in its own transaction so the id stays valid even if the message batch that
+ * introduced it rolls back.
+ *
+ * <p>Names are also kept sorted, so exact, prefix and MQTT filter queries resolve to topic ids
+ * with a range scan over the names instead of a scan over messages.
+ */
+@Slf4j
+@Service
+@DependsOn("databaseMigrator")
+public class TopicDictionary {
+
+    private final TopicRepository topicRepository;
+    private final TransactionTemplate newTransaction;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+    private final NavigableMap<String, Integer> sorted = new ConcurrentSkipListMap<>();
+
+    public TopicDictionary(TopicRepository topicRepository, PlatformTransactionManager transactionManager) {
+        this.topicRepository = topicRepository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    public void load() {
+        topicRepository.findAll().forEach(this::put);
+        log.info("Loaded {} topics into the topic dictionary", ids.size());
+    }
+
+    /** Returns the id of a topic, registering it on first sight. */
+    public int idOf(String topic) {
+        Integer id = ids.get(topic);
+        return id != null ? id : register(topic);
+    }
+
+    public String nameOf(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Ids of all topics matching {@code topic} in the given mode. Only {@link TopicMatchMode#CONTAINS}
+     * looks at every topic; the other modes scan the sorted names from their literal prefix.
+     */
+    public List<Integer> idsMatching(String topic, TopicMatchMode mode) {
+        return switch (mode) {
+            case EXACT -> {
+                Integer id = ids.get(topic);
+                yield id != null ? List.of(id) : List.of();
+            }
+            case PREFIX -> List.copyOf(withPrefix(topic).values());
+            case FILTER -> {
+                TopicFilters.validate(topic);
+                if (!TopicFilters.isWildcard(topic)) {
+                    yield idsMatching(topic, TopicMatchMode.EXACT);
+                }
+                yield withPrefix(TopicFilters.literalPrefix(topic)).entrySet().stream()
+                        .filter(e -> TopicFilters.matches(topic, e.getKey()))
+                        .map(Map.Entry::getValue)
+                        .toList();
+            }
+            case CONTAINS -> ids.entrySet().stream()
+                    .filter(e -> e.getKey().contains(topic))
+                    .map(Map.Entry::getValue)
+                    .toList();
+        };
+    }
+
+    public List<String> getNames() {
+        return List.copyOf(sorted.keySet());
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int register(String topic) {
+        Integer id = ids.get(topic);
+        if (id != null) {
+            return id;
+        }
+        Topic saved = newTransaction.execute(status -> topicRepository.findByName(topic)
+                .orElseGet(() -> topicRepository.saveAndFlush(new Topic(topic))));
+        put(saved);
+        return saved.getId();
+    }
+
+    private void put(Topic topic) {
+        // names first, so a reader that finds the id can always resolve it back
+        names.put(topic.getId(), topic.getName());
+        ids.put(topic.getName(), topic.getId());
+        sorted.put(topic.getName(), topic.getId());
+    }
+
+    private NavigableMap<String, Integer> withPrefix(String prefix) {
+        return prefix.isEmpty() ? sorted : sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.VolumeBucketDto;
+import com.example.mqttcore.entity.VolumeResolution;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message volume per topic over time. Committed batches are counted into in-memory per-minute
+ * counters, which are added to {@code topic_volume} every {@code mqtt.volume.flush-interval-ms};
+ * a failed flush puts the counts back for the next one. Minute rows are compacted into hour rows after {@code mqtt.volume.minute-retention-hours}, and
+ * hour rows into day rows after {@code mqtt.volume.hour-retention-days}, so the table stays small
+ * however long the history is.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TopicTimeline {
+
+    private static final BucketTable VOLUME = new BucketTable("topic_volume",
+            List.of(BucketTable.Column.key("topic_id", "INTEGER")),
+            List.of(BucketTable.Column.sum("message_count", "BIGINT"), BucketTable.Column.sum("payload_bytes", "BIGINT")));
+
+    /** Upper bound on the buckets of one timeline response. */
+    private static final long MAX_BUCKETS = 10_000;
+
+    @Value("${mqtt.volume.minute-retention-hours:48}")
+    private int minuteRetentionHours;
+
+    @Value("${mqtt.volume.hour-retention-days:30}")
+    private int hourRetentionDays;
+
+    private final TopicDictionary topicDictionary;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<MinuteKey, Counter> pending = new ConcurrentHashMap<>();
+    /** Counters evicted by the previous flush, drained once more in case a writer still held one. */
+    private final Map<MinuteKey, Counter> retired = new HashMap<>();
+
+    /** Counts a committed batch. */
+    public void record(List<InboundMessage> batch) {
+        // Sum the batch up first so each shared counter is touched once per batch, not per message
+        Map<MinuteKey, long[]> sums = new HashMap<>();
+        for (InboundMessage message : batch) {
+            MinuteKey key = new MinuteKey(topicDictionary.idOf(message.topic()),
+                    message.receivedAt().truncatedTo(ChronoUnit.MINUTES));
+            long[] sum = sums.computeIfAbsent(key, k -> new long[2]);
+            sum[0]++;
+            sum[1] += message.payload().length;
+        }
+        sums.forEach((key, sum) -> pending.computeIfAbsent(key, k -> new Counter()).add(sum[0], sum[1]));
+    }
+
+    /**
+     * Message counts per bucket for the topics matching {@code topicFilter} (all topics when
+     * empty). Buckets that are already compacted to a coarser resolution than requested are
+     * reported at their own start.
+     */
+    public List<VolumeBucketDto> getTimeline(String topicFilter, TopicMatchMode topicMode,
+                                             LocalDateTime from, LocalDateTime to,
+                                             VolumeResolution resolution) {
+        from = resolution.truncate(from);
+        if (resolution.bucketsBetween(from, to) > MAX_BUCKETS) {
+            throw new IllegalArgumentException("Time range too long for " + resolution + " buckets");
+        }
+        Set<Integer> topicIds = topicIdsMatching(topicFilter, topicMode);
+        if (topicIds != null && topicIds.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = rangeParams(topicIds, from, to);
+        String sql = "SELECT DATE_TRUNC(" + sqlUnit(resolution) + ", bucket_start) AS b, " +
+                "SUM(message_count) AS c, SUM(payload_bytes) AS p FROM topic_volume " +
+                rangeCondition(topicIds) + " GROUP BY b";
+
+        TreeMap<LocalDateTime, VolumeBucketDto> buckets = new TreeMap<>();
+        synchronized (this) {
+            namedJdbcTemplate.query(sql, params, rs -> {
+                LocalDateTime start = rs.getTimestamp("b").toLocalDateTime();
+                buckets.put(start, new VolumeBucketDto(start, rs.getLong("c"), rs.getLong("p")));
+            });
+            forEachPending(topicIds, from, to, (key, count, bytes) -> {
+                VolumeBucketDto bucket = buckets.computeIfAbsent(resolution.truncate(key.minute()),
+                        start -> new VolumeBucketDto(start, 0, 0));
+                bucket.setMessageCount(bucket.getMessageCount() + count);
+                bucket.setPayloadBytes(bucket.getPayloadBytes() + bytes);
+            });
+        }
+        return new ArrayList<>(buckets.values());
+    }
+
+    /**
+     * Messages of the given topics (all when null) in a time range, to the precision of the
+     * buckets: compacted buckets overlapping an end of the range count in full or not at all.
+     */
+    public long count(Collection<Integer> topicIds, LocalDateTime from, LocalDateTime to) {
+        Set<Integer> ids = topicIds != null ? new HashSet<>(topicIds) : null;
+        if (ids != null && ids.isEmpty()) {
+            return 0;
+        }
+        LocalDateTime start = from != null ? from.truncatedTo(ChronoUnit.MINUTES) : LocalDateTime.of(1970, 1, 1, 0, 0);
+        LocalDateTime end = to != null ? to : LocalDateTime.of(9999, 12, 31, 23, 59);
+        String sql = "SELECT COALESCE(SUM(message_count), 0) FROM topic_volume " + rangeCondition(ids);
+        long[] total = new long[1];
+        synchronized (this) {
+            Long stored = namedJdbcTemplate.queryForObject(sql, rangeParams(ids, start, end), Long.class);
+            total[0] = stored != null ? stored : 0;
+            forEachPending(ids, start, end, (key, count, bytes) -> total[0] += count);
+        }
+        return total[0];
+    }
+
+    /**
+     * Deletes the buckets starting in [from, to), after the messages in that range were dropped,
+     * and returns what they counted as topic id to {messages, payload bytes}.
+     */
+    public synchronized Map<Integer, long[]> forget(LocalDateTime from, LocalDateTime to) {
+        flush();
+        Map<Integer, long[]> removed = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            Timestamp start = Timestamp.valueOf(from);
+            Timestamp end = Timestamp.valueOf(to);
+            jdbcTemplate.query("SELECT topic_id, SUM(message_count), SUM(payload_bytes) FROM topic_volume " +
+                    "WHERE bucket_start >= ? AND bucket_start < ? GROUP BY topic_id",
+                    rs -> {
+                        removed.put(rs.getInt(1), new long[]{rs.getLong(2), rs.getLong(3)});
+                    }, start, end);
+            jdbcTemplate.update("DELETE FROM topic_volume WHERE bucket_start >= ? AND bucket_start < ?", start, end);
+        });
+        return removed;
+    }
+
+    /**
+     * Takes purged messages of one topic out of the buckets holding them, whatever resolution
+     * those have been compacted to, given as minute to {messages, payload bytes}.
+     */
+    public synchronized void forget(int topicId, Map<LocalDateTime, long[]> perMinute) {
+        flush();
+        // one of the three buckets a minute may be in exists; each update is a lookup on the topic index
+        List<Object[]> rows = new ArrayList<>();
+        for (VolumeResolution resolution : VolumeResolution.values()) {
+            Map<LocalDateTime, long[]> buckets = new HashMap<>();
+            perMinute.forEach((minute, counts) -> {
+                long[] sum = buckets.computeIfAbsent(resolution.truncate(minute), start -> new long[2]);
+                sum[0] += counts[0];
+                sum[1] += counts[1];
+            });
+            buckets.forEach((start, sum) -> rows.add(new Object[]{sum[0], sum[1], topicId,
+                    Timestamp.valueOf(start), resolution.name()}));
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate("UPDATE topic_volume SET message_count = GREATEST(message_count - ?, 0), " +
+                    "payload_bytes = GREATEST(payload_bytes - ?, 0) " +
+                    "WHERE topic_id = ? AND bucket_start = ? AND resolution = ?", rows);
+            jdbcTemplate.update("DELETE FROM topic_volume WHERE topic_id = ? AND message_count = 0", topicId);
+        });
+    }
+
+    /**
+     * The time before which messages of the given topics have to go for the rest to hold at most
+     * {@code maxBytes} of payload, to the precision of the buckets. When all buckets fit, the
+     * start of the oldest one, since older messages are not covered by the timeline; null when
+     * there are no buckets.
+     */
+    public synchronized LocalDateTime bytesCutoff(Collection<Integer> topicIds, long maxBytes) {
+        if (topicIds.isEmpty()) {
+            return null;
+        }
+        flush();
+        long[] total = new long[1];
+        LocalDateTime[] cutoff = new LocalDateTime[1];
+        namedJdbcTemplate.query("SELECT resolution, bucket_start, SUM(payload_bytes) AS p FROM topic_volume " +
+                        "WHERE topic_id IN (:topicIds) GROUP BY resolution, bucket_start ORDER BY bucket_start DESC",
+                new MapSqlParameterSource("topicIds", topicIds), rs -> {
+                    if (total[0] > maxBytes) {
+                        return;
+                    }
+                    LocalDateTime start = rs.getTimestamp("bucket_start").toLocalDateTime();
+                    total[0] += rs.getLong("p");
+                    cutoff[0] = total[0] > maxBytes
+                            ? VolumeResolution.valueOf(rs.getString("resolution")).end(start) : start;
+                });
+        return cutoff[0];
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.volume.flush-interval-ms:10000}")
+    public synchronized void flush() {
+        Map<MinuteKey, long[]> taken = new HashMap<>();
+        retired.forEach((key, counter) -> drain(key, counter, taken));
+        retired.clear();
+        LocalDateTime evictBefore = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES).minusMinutes(1);
+        pending.forEach((key, counter) -> {
+            if (!drain(key, counter, taken) && key.minute().isBefore(evictBefore) && pending.remove(key, counter)) {
+                retired.put(key, counter);
+            }
+        });
+        if (taken.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(taken.size());
+        taken.forEach((key, sum) -> rows.add(new Object[]{key.topicId(), VolumeResolution.MINUTE.name(),
+                Timestamp.valueOf(key.minute()), sum[0], sum[1]}));
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(VOLUME.mergeRow(), rows));
+        } catch (RuntimeException e) {
+            // added to whatever arrived meanwhile, so the next flush writes them
+            taken.forEach((key, sum) -> pending.computeIfAbsent(key, k -> new Counter()).add(sum[0], sum[1]));
+            throw e;
+        }
+        log.debug("Flushed {} minute volume buckets", rows.size());
+    }
+
+    @Scheduled(initialDelayString = "${mqtt.volume.compact-interval-ms:600000}",
+            fixedDelayString = "${mqtt.volume.compact-interval-ms:600000}")
+    public synchronized void compact() {
+        int[] moved = VOLUME.compact(jdbcTemplate, transactionTemplate, minuteRetentionHours, hourRetentionDays);
+        if (moved[0] > 0 || moved[1] > 0) {
+            log.info("Compacted volume buckets: {} minute rows into hours, {} hour rows into days", moved[0], moved[1]);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /** Moves a counter's counts into {@code taken}; a retired and a live counter may share a minute. */
+    private boolean drain(MinuteKey key, Counter counter, Map<MinuteKey, long[]> taken) {
+        long count = counter.count.sumThenReset();
+        long bytes = counter.bytes.sumThenReset();
+        if (count == 0) {
+            return false;
+        }
+        long[] sum = taken.computeIfAbsent(key, k -> new long[2]);
+        sum[0] += count;
+        sum[1] += bytes;
+        return true;
+    }
+
+    /** Counts not flushed yet, so timelines include the current minute. */
+    private void forEachPending(Set<Integer> topicIds, LocalDateTime from, LocalDateTime to, PendingVisitor visitor) {
+        List<Map.Entry<MinuteKey, Counter>> entries = new ArrayList<>(retired.entrySet());
+        entries.addAll(pending.entrySet());
+        for (Map.Entry<MinuteKey, Counter> entry : entries) {
+            MinuteKey key = entry.getKey();
+            if ((topicIds == null || topicIds.contains(key.topicId()))
+                    && !key.minute().isBefore(from) && !key.minute().isAfter(to)) {
+                long count = entry.getValue().count.sum();
+                if (count > 0) {
+                    visitor.visit(key, count, entry.getValue().bytes.sum());
+                }
+            }
+        }
+    }
+
+    /** Matching topic ids, or null when every topic matches. */
+    private Set<Integer> topicIdsMatching(String topicFilter, TopicMatchMode topicMode) {
+        if (topicFilter == null || topicFilter.isEmpty()) {
+            return null;
+        }
+        List<Integer> ids = topicDictionary.idsMatching(topicFilter, topicMode);
+        return ids.size() == topicDictionary.size() ? null : new HashSet<>(ids);
+    }
+
+    private static String rangeCondition(Set<Integer> topicIds) {
+        return "WHERE bucket_start >= :from AND bucket_start <= :to" +
+                (topicIds != null ? " AND topic_id IN (:topicIds)" : "");
+    }
+
+    private static MapSqlParameterSource rangeParams(Set<Integer> topicIds, LocalDateTime from, LocalDateTime to) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        if (topicIds != null) {
+            params.addValue("topicIds", topicIds);
+        }
+        return params;
+    }
+
+    private static String sqlUnit(VolumeResolution resolution) {
+        return "'" + resolution.name() + "'";
+    }
+
+    private record MinuteKey(int topicId, LocalDateTime minute) {}
+
+    private interface PendingVisitor {
+        void visit(MinuteKey key, long count, long bytes);
+    }
+
+    /** LongAdders, since writer lanes and spool replay may count into the same minute at once. */
+    private static final class Counter {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        void add(long messages, long payloadBytes) {
+            count.add(messages);
+            bytes.add(payloadBytes);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.mqttcore.stream;
+
+/**
+ * How a live stream thins out messages of busy topics before they are sent.
+ */
+public enum ConflationMode {
+    /** Every message. */
+    ALL,
+    /** Per topic only the newest message, sent every {@code intervalMs}. */
+    LATEST,
+    /** Per topic one of every {@code sampleRate} messages, sent right away. */
+    SAMPLE
+}
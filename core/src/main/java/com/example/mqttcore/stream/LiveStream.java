@@ -0,0 +1,194 @@
+package com.example.mqttcore.stream;
+
+import com.example.mqttcore.dto.ReceivedMessageDto;
+import com.example.mqttcore.mqtt.FilterTrie;
+import com.example.mqttcore.mqtt.TopicFilters;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes committed messages and broker status changes to open server-sent event streams, so
+ * dashboards stay current without polling the database. Each client subscribes with MQTT
+ * filters, which are kept in one {@link FilterTrie} shared by all clients: a message is
+ * serialized once and handed to the clients whose filters match its topic. Clients that fall
+ * more than {@code mqtt.stream.client-buffer} events behind are disconnected.
+ *
+ * <p>Clients can have busy topics conflated (see {@link ConflationMode}); the pending messages of
+ * all {@code LATEST} clients are flushed by a single tick every {@code mqtt.stream.conflation-tick-ms}
+ * rather than by a timer per client.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LiveStream {
+
+    @Value("${mqtt.stream.client-buffer:1000}")
+    private int clientBuffer;
+
+    @Value("${mqtt.stream.max-clients:1000}")
+    private int maxClients;
+
+    @Value("${mqtt.stream.conflation-tick-ms:50}")
+    private int conflationTickMs;
+
+    private final ObjectMapper objectMapper;
+
+    private final Set<StreamClient> clients = ConcurrentHashMap.newKeySet();
+    private final FilterTrie<StreamClient> subscriptions = new FilterTrie<>();
+    private final Set<StreamClient> conflated = ConcurrentHashMap.newKeySet();
+    /** Writes to clients; a client blocked on a slow socket parks a virtual thread, nothing more. */
+    private final ExecutorService senders = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("mqtt-live-stream-", 0).factory());
+    private ScheduledExecutorService conflator;
+    private volatile StreamEvent status;
+
+    @PostConstruct
+    public void init() {
+        conflator = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "mqtt-live-conflate"));
+        conflator.scheduleAtFixedRate(this::flushConflated, conflationTickMs, conflationTickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a stream receiving the messages of topics matching any of {@code filters} (none: only
+     * status events), conflated by {@code mode}. The current broker status is the first event.
+     *
+     * @param intervalMs for {@link ConflationMode#LATEST}, at least the conflation tick
+     * @param sampleRate for {@link ConflationMode#SAMPLE}
+     */
+    public SseEmitter open(List<String> filters, ConflationMode mode, int intervalMs, int sampleRate) {
+        filters.forEach(TopicFilters::validate);
+        if (clients.size() >= maxClients) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many live streams open");
+        }
+        // no timeout: heartbeats notice clients that went away
+        SseEmitter emitter = new SseEmitter(0L);
+        connect(emitter, filters, mode, intervalMs, sampleRate);
+        return emitter;
+    }
+
+    /** Registers a client writing to {@code emitter}; see {@link #open}. */
+    StreamClient connect(SseEmitter emitter, List<String> filters, ConflationMode mode, int intervalMs, int sampleRate) {
+        StreamClient client = new StreamClient(emitter, List.copyOf(filters), clientBuffer, senders,
+                mode, Math.max(intervalMs, conflationTickMs), sampleRate);
+        emitter.onCompletion(() -> remove(client));
+        emitter.onTimeout(() -> remove(client));
+        emitter.onError(e -> remove(client));
+        clients.add(client);
+        if (mode == ConflationMode.LATEST) {
+            conflated.add(client);
+        }
+        client.getFilters().forEach(filter -> subscriptions.add(filter, client));
+        if (status != null) {
+            client.offer(status);
+        }
+        log.debug("Live stream opened for {} ({}, {} open)", client.getFilters(), mode, clients.size());
+        return client;
+    }
+
+    /** Whether any client could receive messages, so callers can skip preparing them. */
+    public boolean isListening() {
+        return !clients.isEmpty();
+    }
+
+    /** Hands committed messages to the clients subscribed to their topics. */
+    public void publish(List<ReceivedMessageDto> messages) {
+        List<StreamClient> targets = new ArrayList<>();
+        for (ReceivedMessageDto message : messages) {
+            subscriptions.match(message.getTopic(), targets::add);
+            if (targets.isEmpty()) {
+                continue;
+            }
+            StreamEvent event = new StreamEvent(StreamEvent.MESSAGE, toJson(message));
+            // overlapping filters of one client match the same topic more than once
+            for (StreamClient client : targets.size() > 1 ? targets.stream().distinct().toList() : targets) {
+                if (!client.publish(message.getTopic(), event)) {
+                    unsubscribe(client);
+                }
+            }
+            targets.clear();
+        }
+    }
+
+    /** Broker connection state, pushed to every client and replayed to new ones. */
+    public void brokerStatus(boolean connected, int connections) {
+        status = new StreamEvent("status", toJson(Map.of("connected", connected, "connections", connections)));
+        clients.forEach(client -> offer(client, status));
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.stream.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        clients.forEach(client -> offer(client, StreamEvent.HEARTBEAT));
+    }
+
+    private void flushConflated() {
+        long now = System.nanoTime();
+        for (StreamClient client : conflated) {
+            try {
+                if (!client.flushPending(now)) {
+                    unsubscribe(client);
+                }
+            } catch (RuntimeException e) {
+                // an exception would cancel the tick for every client
+                log.warn("Conflation flush failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        conflator.shutdownNow();
+        clients.forEach(client -> {
+            remove(client);
+            client.getEmitter().complete();
+        });
+        senders.shutdown();
+    }
+
+    private void offer(StreamClient client, StreamEvent event) {
+        if (!client.offer(event)) {
+            // overflowed: it is sent a last event and closed by its drain
+            unsubscribe(client);
+        }
+    }
+
+    private void remove(StreamClient client) {
+        client.close();
+        unsubscribe(client);
+    }
+
+    private void unsubscribe(StreamClient client) {
+        conflated.remove(client);
+        if (clients.remove(client)) {
+            client.getFilters().forEach(filter -> subscriptions.remove(filter, client));
+            log.debug("Live stream closed for {} ({} open)", client.getFilters(), clients.size());
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize stream event", e);
+        }
+    }
+}
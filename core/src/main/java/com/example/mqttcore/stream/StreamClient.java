@@ -0,0 +1,193 @@
+package com.example.mqttcore.stream;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One open stream: a bounded queue of events and the emitter they are written to. Producers only
+ * enqueue; whoever schedules the first event of an empty queue starts a drain on the shared
+ * executor, so at most one thread writes to a client and idle clients hold no thread. A client
+ * whose queue overflows is sent an {@code overflow} event and closed.
+ *
+ * <p>Messages are conflated per topic according to the client's {@link ConflationMode}. With
+ * {@code LATEST} they only replace the topic's pending message, which the shared conflation tick
+ * moves to the queue once per interval, so a client costs per displayed topic, not per message.
+ */
+@Slf4j
+final class StreamClient {
+
+    /** Messages sent together as one {@code messages} event. */
+    private static final int MAX_BATCH = 500;
+
+    @Getter
+    private final SseEmitter emitter;
+    @Getter
+    private final List<String> filters;
+    private final BlockingQueue<StreamEvent> queue;
+    private final Executor executor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean overflowed;
+    private volatile boolean closed;
+
+    @Getter
+    private final ConflationMode mode;
+    private final long intervalNanos;
+    private final int sampleRate;
+    /** LATEST: newest message per topic since the last flush; swapped with the spare on flush. */
+    private Map<String, StreamEvent> pending = new LinkedHashMap<>();
+    private Map<String, StreamEvent> spare = new LinkedHashMap<>();
+    private long nextFlush;
+    /** SAMPLE: messages seen per topic. */
+    private final Map<String, int[]> seen = new HashMap<>();
+
+    StreamClient(SseEmitter emitter, List<String> filters, int capacity, Executor executor,
+                 ConflationMode mode, int intervalMs, int sampleRate) {
+        this.emitter = emitter;
+        this.filters = filters;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.executor = executor;
+        this.mode = mode;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.sampleRate = Math.max(1, sampleRate);
+        this.nextFlush = System.nanoTime() + intervalNanos;
+    }
+
+    /** Takes a message on {@code topic}, conflated by the client's mode. Same result as {@link #offer}. */
+    boolean publish(String topic, StreamEvent event) {
+        switch (mode) {
+            case LATEST -> {
+                synchronized (this) {
+                    pending.put(topic, event);
+                }
+                return !closed && !overflowed;
+            }
+            case SAMPLE -> {
+                synchronized (this) {
+                    int[] count = seen.computeIfAbsent(topic, t -> new int[1]);
+                    if (count[0]++ % sampleRate != 0) {
+                        return !closed && !overflowed;
+                    }
+                }
+                return offer(event);
+            }
+            default -> {
+                return offer(event);
+            }
+        }
+    }
+
+    /** LATEST: queues the pending messages if the interval is over. Same result as {@link #offer}. */
+    boolean flushPending(long now) {
+        Map<String, StreamEvent> due;
+        synchronized (this) {
+            if (now - nextFlush < 0 || pending.isEmpty()) {
+                return !closed && !overflowed;
+            }
+            nextFlush = now + intervalNanos;
+            due = pending;
+            pending = spare;
+            spare = due;
+        }
+        // only this (single) tick thread touches the spare map until the next swap
+        boolean open = true;
+        for (StreamEvent event : due.values()) {
+            open = offer(event);
+            if (!open) {
+                break;
+            }
+        }
+        due.clear();
+        return open;
+    }
+
+    /** Queues an event; never blocks. Returns false once the client is closed or overflowed. */
+    boolean offer(StreamEvent event) {
+        if (closed || overflowed) {
+            return false;
+        }
+        if (!queue.offer(event)) {
+            overflowed = true;
+        }
+        schedule();
+        return !overflowed;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            do {
+                if (overflowed) {
+                    queue.clear();
+                    emitter.send(SseEmitter.event().name("overflow").data("{}"));
+                    closed = true;
+                    emitter.complete();
+                    return;
+                }
+                sendQueued();
+                draining.set(false);
+                // an event queued after the last poll but before the flag was cleared is still ours
+            } while ((overflowed || !queue.isEmpty()) && draining.compareAndSet(false, true));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Live stream client gone: {}", e.getMessage());
+            close();
+            emitter.completeWithError(e);
+        }
+    }
+
+    /** Writes the queued events, consecutive messages as one JSON array. */
+    private void sendQueued() throws IOException {
+        List<String> messages = new ArrayList<>();
+        StreamEvent event;
+        while (!closed && !overflowed && (event = queue.poll()) != null) {
+            if (event.isMessage()) {
+                messages.add(event.data());
+                if (messages.size() == MAX_BATCH) {
+                    sendMessages(messages);
+                }
+                continue;
+            }
+            sendMessages(messages);
+            if (event == StreamEvent.HEARTBEAT) {
+                emitter.send(SseEmitter.event().comment(""));
+            } else {
+                emitter.send(SseEmitter.event().name(event.name()).data(event.data()));
+            }
+        }
+        sendMessages(messages);
+    }
+
+    private void sendMessages(List<String> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        emitter.send(SseEmitter.event().name("messages").data("[" + String.join(",", messages) + "]"));
+        messages.clear();
+    }
+}
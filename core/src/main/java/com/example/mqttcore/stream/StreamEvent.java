@@ -0,0 +1,20 @@
+package com.example.mqttcore.stream;
+
+/**
+ * A server-sent event, serialized once and shared by every client it is queued for.
+ *
+ * @param name {@code message} for a single received message (sent batched as {@code messages}),
+ *             or {@code status}
+ * @param data JSON
+ */
+record StreamEvent(String name, String data) {
+
+    static final String MESSAGE = "message";
+
+    /** Keeps proxies from closing an idle stream and notices clients that went away. */
+    static final StreamEvent HEARTBEAT = new StreamEvent("heartbeat", null);
+
+    boolean isMessage() {
+        return MESSAGE.equals(name);
+    }
+}
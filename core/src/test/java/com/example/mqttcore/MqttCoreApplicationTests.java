@@ -7,7 +7,8 @@ import org.springframework.test.context.TestPropertySource;
 @SpringBootTest
 @TestPropertySource(properties = {
         "mqtt.broker.url=tcp://localhost:11883",
-        "spring.datasource.url=jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1"
+        "spring.datasource.url=jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.directory=target/spool"
 })
 class MqttCoreApplicationTests {
 
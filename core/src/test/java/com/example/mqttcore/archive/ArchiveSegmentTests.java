@@ -0,0 +1,214 @@
+package com.example.mqttcore.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveSegmentTests {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 5, 1, 0, 0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackEveryColumn() throws IOException {
+        List<Row> rows = rows();
+        ArchiveSegment segment = write(rows);
+
+        assertThat(segment.rows()).isEqualTo(rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            Row expected = rows.get(row);
+            assertThat(segment.id(row)).isEqualTo(expected.id());
+            assertThat(ArchiveSegment.fromMicros(segment.time(row))).isEqualTo(expected.receivedAt());
+            assertThat(segment.qos(row)).isEqualTo(expected.qos());
+            assertThat(segment.retained(row)).isEqualTo(expected.retained());
+            assertThat(segment.payloadSize(row)).isEqualTo(expected.payload().length);
+            assertThat(segment.storedPayload(row)).isEqualTo(expected.payload());
+        }
+    }
+
+    @Test
+    void findsTheSliceOfEachTopic() throws IOException {
+        ArchiveSegment segment = write(rows());
+
+        assertThat(segment.topics()).isEqualTo(3);
+        int entry = segment.findTopic(7);
+        assertThat(segment.topicAt(entry)).isEqualTo(7);
+        assertThat(segment.firstRowAt(entry)).isEqualTo(10);
+        assertThat(segment.rowsAt(entry)).isEqualTo(20);
+        assertThat(segment.entryOfRow(10)).isEqualTo(entry);
+        assertThat(segment.entryOfRow(29)).isEqualTo(entry);
+        assertThat(segment.entryOfRow(30)).isEqualTo(segment.findTopic(9));
+        assertThat(segment.findTopic(8)).isEqualTo(-1);
+        assertThat(segment.mayContainTopic(3)).isTrue();
+        assertThat(segment.mayContainTopic(7)).isTrue();
+        assertThat(segment.mayContainTopic(9)).isTrue();
+    }
+
+    @Test
+    void findsEveryRowByIdThroughTheIdIndex() throws IOException {
+        List<Row> rows = rows();
+        ArchiveSegment segment = write(rows);
+
+        for (int row = 0; row < rows.size(); row++) {
+            assertThat(segment.findId(rows.get(row).id())).isEqualTo(row);
+        }
+        assertThat(segment.findId(0)).isEqualTo(-1);
+        assertThat(segment.findId(1_000_000)).isEqualTo(-1);
+        assertThat(segment.minId()).isEqualTo(100);
+        assertThat(segment.maxId()).isEqualTo(100 + 3 * 19 + 1);
+        assertThat(segment.mayContainId(150)).isTrue();
+        assertThat(segment.mayContainId(99)).isFalse();
+    }
+
+    @Test
+    void positionsPagesWithinASlice() throws IOException {
+        ArchiveSegment segment = write(rows());
+        int entry = segment.findTopic(7);
+        int first = segment.firstRowAt(entry);
+        int end = first + segment.rowsAt(entry);
+
+        // rows of topic 7 are one minute apart, newest first
+        long third = segment.time(first + 2);
+        assertThat(segment.after(first, end, third, segment.id(first + 2))).isEqualTo(first + 3);
+        assertThat(segment.after(first, end, Long.MAX_VALUE, Long.MAX_VALUE)).isEqualTo(first);
+        assertThat(segment.before(first, end, third)).isEqualTo(first + 3);
+        assertThat(segment.before(first, end, Long.MIN_VALUE)).isEqualTo(end);
+        assertThat(segment.overlaps(third, third)).isTrue();
+        assertThat(segment.overlaps(ArchiveSegment.toMicros(T0.plusDays(2)), Long.MAX_VALUE)).isFalse();
+    }
+
+    @Test
+    void keepsTheTopicFilterSelective() throws IOException {
+        ArchiveSegment.Writer writer = new ArchiveSegment.Writer(dir.resolve("many.tmp"));
+        for (int topic = 0; topic < 1000; topic += 2) {
+            writer.add(topic, topic, T0, 0, false, 0, new byte[0]);
+        }
+        ArchiveSegment segment = writer.finish(dir.resolve("many" + ArchiveSegment.SUFFIX));
+
+        int falsePositives = 0;
+        for (int topic = 0; topic < 1000; topic++) {
+            if (topic % 2 == 0) {
+                assertThat(segment.mayContainTopic(topic)).isTrue();
+            } else if (segment.mayContainTopic(topic)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(50);
+    }
+
+    @Test
+    void rewritesWithoutARangeOfRows() throws IOException {
+        List<Row> rows = rows();
+        ArchiveSegment segment = write(rows);
+        int entry = segment.findTopic(7);
+        int first = segment.firstRowAt(entry);
+
+        // the five oldest rows of topic 7
+        ArchiveSegment rewritten = MessageArchive.rewrite(segment, first + 15, first + 20);
+
+        assertThat(rewritten.file()).isEqualTo(segment.file());
+        assertThat(rewritten.rows()).isEqualTo(rows.size() - 5);
+        assertThat(rewritten.rowsAt(rewritten.findTopic(7))).isEqualTo(15);
+        for (int row = 0; row < rows.size(); row++) {
+            long id = rows.get(row).id();
+            int found = rewritten.findId(id);
+            if (row >= first + 15 && row < first + 20) {
+                assertThat(found).isEqualTo(-1);
+            } else {
+                assertThat(rewritten.id(found)).isEqualTo(id);
+                assertThat(rewritten.storedPayload(found)).isEqualTo(rows.get(row).payload());
+            }
+        }
+        assertThat(files()).containsExactly(segment.file());
+    }
+
+    @Test
+    void deletesTheFileWhenNoRowsAreLeft() throws IOException {
+        ArchiveSegment segment = write(rows());
+
+        assertThat(MessageArchive.rewrite(segment, 0, segment.rows())).isNull();
+        assertThat(files()).isEmpty();
+    }
+
+    @Test
+    void refusesRowsOutOfTopicOrder() throws IOException {
+        try (ArchiveSegment.Writer writer = new ArchiveSegment.Writer(dir.resolve("bad.tmp"))) {
+            writer.add(1, 5, T0, 0, false, 0, new byte[0]);
+
+            assertThatThrownBy(() -> writer.add(2, 4, T0, 0, false, 0, new byte[0]))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThat(files()).isEmpty();
+    }
+
+    @Test
+    void refusesDamagedSegments() throws IOException {
+        ArchiveSegment segment = write(rows());
+        try (FileChannel channel = FileChannel.open(segment.file(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 4);
+        }
+
+        assertThatThrownBy(() -> ArchiveSegment.open(segment.file())).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void convertsTimesToMicrosecondsAndBack() {
+        LocalDateTime time = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 123_456_000);
+
+        assertThat(ArchiveSegment.fromMicros(ArchiveSegment.toMicros(time))).isEqualTo(time);
+        assertThat(ArchiveSegment.toMicros(LocalDateTime.of(1970, 1, 1, 0, 0, 0, 1_999))).isEqualTo(1);
+    }
+
+    /**
+     * Topics 3, 7 and 9 with 10, 20 and 10 rows, newest first within a topic; ids are interleaved
+     * across topics, so the id index and the row order differ.
+     */
+    private static List<Row> rows() {
+        List<Row> rows = new ArrayList<>();
+        int[][] topics = {{3, 10}, {7, 20}, {9, 10}};
+        int offset = 0;
+        for (int[] topic : topics) {
+            for (int i = topic[1] - 1; i >= 0; i--) {
+                long id = 100 + 3L * i + offset;
+                byte[] payload = ("{\"topic\":" + topic[0] + ",\"i\":" + i + "}").getBytes(StandardCharsets.UTF_8);
+                rows.add(new Row(id, topic[0], T0.plusMinutes(i).plusNanos(i * 1_000L), i % 3, i % 2 == 0, payload));
+            }
+            offset++;
+        }
+        return rows;
+    }
+
+    private ArchiveSegment write(List<Row> rows) throws IOException {
+        try (ArchiveSegment.Writer writer = new ArchiveSegment.Writer(dir.resolve("segment.tmp"))) {
+            for (Row row : rows) {
+                writer.add(row.id(), row.topicId(), row.receivedAt(), row.qos(), row.retained(), row.payload().length,
+                        row.payload());
+            }
+            return writer.finish(dir.resolve("00000" + ArchiveSegment.SUFFIX));
+        }
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+
+    private record Row(long id, int topicId, LocalDateTime receivedAt, int qos, boolean retained, byte[] payload) {
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.mqttcore.ingest;
+
+import com.example.mqttcore.entity.OverloadPolicy;
+import com.example.mqttcore.series.SeriesStore;
+import com.example.mqttcore.service.FieldAggregator;
+import com.example.mqttcore.service.LatestValueStore;
+import com.example.mqttcore.service.MessageService;
+import com.example.mqttcore.service.TopicCatalog;
+import com.example.mqttcore.service.TopicTimeline;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IngestPipelineTests {
+
+    private final MessageService messageService = mock(MessageService.class);
+    private final TopicCatalog topicCatalog = mock(TopicCatalog.class);
+    private final SubscriptionRouter subscriptionRouter = mock(SubscriptionRouter.class);
+    private final List<InboundMessage> cataloged = new CopyOnWriteArrayList<>();
+    private final Set<String> acked = ConcurrentHashMap.newKeySet();
+    private IngestPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        when(subscriptionRouter.resolve(any())).thenReturn(new SubscriptionRoute("#", OverloadPolicy.BLOCK, 1, false,
+                JsonFieldExtractor.NONE, false, JsonFieldExtractor.NONE, RetentionPolicy.NONE, new IngestCounters()));
+        doAnswer(invocation -> cataloged.addAll(invocation.getArgument(0))).when(topicCatalog).record(anyList());
+        pipeline = new IngestPipeline(messageService, mock(LatestValueStore.class), topicCatalog,
+                mock(TopicTimeline.class), mock(FieldAggregator.class), mock(SeriesStore.class), subscriptionRouter,
+                mock(WriteAheadSpool.class));
+        ReflectionTestUtils.setField(pipeline, "batchSize", 100);
+        ReflectionTestUtils.setField(pipeline, "flushIntervalMs", 100L);
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 1000);
+        ReflectionTestUtils.setField(pipeline, "laneCount", 1);
+        ReflectionTestUtils.setField(pipeline, "shutdownTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(pipeline, "sampleThreshold", 0.8);
+        pipeline.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void writesQueuedMessagesAndAcknowledgesThem() {
+        when(messageService.saveBatch(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        for (int i = 0; i < 20; i++) {
+            pipeline.submit(message("plant/" + i));
+        }
+        pipeline.shutdown();
+
+        assertThat(pipeline.getWritten()).isEqualTo(20);
+        assertThat(cataloged).hasSize(20);
+        assertThat(acked).hasSize(20);
+    }
+
+    @Test
+    void commitsTheRestOfABatchAroundARowThatCannotBeStored() {
+        when(messageService.saveBatch(anyList())).thenAnswer(invocation -> {
+            List<InboundMessage> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(message -> message.topic().equals("plant/bad"))) {
+                throw new DataIntegrityViolationException("value too long");
+            }
+            return batch;
+        });
+
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(message(i == 6 ? "plant/bad" : "plant/" + i));
+        }
+        pipeline.shutdown();
+
+        assertThat(pipeline.getWritten()).isEqualTo(9);
+        assertThat(pipeline.getStatus().getFailed()).isEqualTo(1);
+        assertThat(pipeline.getStatus().getLanes().get(0).getWritten()).isEqualTo(9);
+        assertThat(cataloged).hasSize(9).noneMatch(message -> message.topic().equals("plant/bad"));
+        assertThat(acked).hasSize(9).doesNotContain("plant/bad");
+    }
+
+    private InboundMessage message(String topic) {
+        return new InboundMessage(topic, "{}".getBytes(), 1, false, LocalDateTime.now(), () -> acked.add(topic));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.mqttcore.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+class JsonFieldExtractorTests {
+
+    private final JsonFieldExtractor extractor = JsonFieldExtractor.of("temperature, battery.level, state");
+
+    @Test
+    void extractsTopLevelAndNestedNumbers() {
+        assertThat(numbers("{\"id\":\"s1\",\"battery\":{\"volt\":3.7,\"level\":87},\"temperature\":21.5,"
+                + "\"other\":{\"temperature\":99}}"))
+                .containsExactly(entry("battery.level", 87.0), entry("temperature", 21.5));
+    }
+
+    @Test
+    void skipsValuesThatAreNotNumbers() {
+        assertThat(numbers("{\"temperature\":\"warm\",\"battery\":{\"level\":null},\"state\":true}")).isEmpty();
+        assertThat(numbers("{\"temperature\":[21.5],\"battery\":87}")).isEmpty();
+    }
+
+    @Test
+    void reportsScalarsWithTheirType() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        extractor.extractValues(bytes("{\"temperature\":21,\"battery\":{\"level\":1e2},\"state\":\"on\"}"), values::put);
+
+        assertThat(values).containsExactly(entry("temperature", 21L), entry("battery.level", 100.0),
+                entry("state", "on"));
+        values.clear();
+        extractor.extractValues(bytes("{\"temperature\":123456789012345678901234567890,\"state\":false}"), values::put);
+        assertThat(values).containsExactly(entry("temperature", 1.2345678901234568e29), entry("state", false));
+    }
+
+    @Test
+    void reportsARepeatedKeyOnce() {
+        assertThat(numbers("{\"temperature\":1,\"temperature\":2}")).containsExactly(entry("temperature", 1.0));
+    }
+
+    @Test
+    void keepsValuesBeforeMalformedJson() {
+        assertThat(numbers("{\"temperature\":21.5,\"battery\":{\"level\":")).containsExactly(entry("temperature", 21.5));
+        assertThat(numbers("{\"temperature\":21.5,,}")).containsExactly(entry("temperature", 21.5));
+    }
+
+    @Test
+    void yieldsNothingForPayloadsThatAreNotObjects() {
+        assertThat(numbers("21.5")).isEmpty();
+        assertThat(numbers("[{\"temperature\":21.5}]")).isEmpty();
+        assertThat(numbers("temperature=21.5")).isEmpty();
+        assertThat(numbers("")).isEmpty();
+    }
+
+    @Test
+    void parsesAndValidatesPathLists() {
+        assertThat(JsonFieldExtractor.parsePaths(" a , ,b.c, a ")).containsExactly("a", "b.c");
+        assertThat(JsonFieldExtractor.of("  ")).isSameAs(JsonFieldExtractor.NONE);
+        assertThatThrownBy(() -> JsonFieldExtractor.parsePaths("a..b")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> JsonFieldExtractor.parsePaths(".a")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> JsonFieldExtractor.parsePaths("a.")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Map<String, Double> numbers(String json) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        extractor.extract(bytes(json), values::put);
+        return values;
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.mqttcore.ingest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteAheadSpoolTests {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 5, 1, 12, 0, 0, 123_456_789);
+
+    @TempDir
+    Path dir;
+
+    private WriteAheadSpool spool;
+
+    @AfterEach
+    void closeSpool() {
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    @Test
+    void readsBackWhatWasAppended() throws IOException {
+        spool = open(64);
+        List<InboundMessage> written = append(spool, 100);
+
+        List<InboundMessage> read = readAll(spool, 1);
+
+        assertThat(read).hasSize(100);
+        for (int i = 0; i < read.size(); i++) {
+            assertSameMessage(read.get(i), written.get(i));
+        }
+        assertThat(spool.getPendingCount()).isEqualTo(100);
+        assertThat(spool.firstPendingSequence()).isEqualTo(1);
+    }
+
+    @Test
+    void replaysEverythingAfterTheCheckpointAfterRestart() throws IOException {
+        spool = open(64);
+        List<InboundMessage> written = append(spool, 50);
+        spool.complete(written.subList(0, 20));
+        // completed behind a pending message: only the checkpoint survives a restart
+        spool.complete(written.get(30));
+        spool.close();
+
+        spool = open(64);
+
+        assertThat(spool.getPendingCount()).isEqualTo(30);
+        assertThat(spool.firstPendingSequence()).isEqualTo(written.get(20).sequence());
+        List<InboundMessage> replayed = readAll(spool, spool.firstPendingSequence());
+        assertThat(replayed).hasSize(30);
+        assertSameMessage(replayed.get(0), written.get(20));
+        assertThat(spool.getLastSequence()).isEqualTo(50);
+    }
+
+    @Test
+    void deletesFullyCommittedSegmentsOnRestart() throws IOException {
+        spool = open(1);
+        byte[] payload = new byte[300 * 1024];
+        List<InboundMessage> written = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            InboundMessage message = new InboundMessage("bulk", payload, 0, false, T0);
+            written.add(message.withSequence(spool.append(message)));
+        }
+        assertThat(segmentFiles()).hasSize(3);
+        spool.complete(written.subList(0, 6));
+        spool.close();
+
+        spool = open(1);
+
+        assertThat(segmentFiles()).hasSize(1);
+        assertThat(readAll(spool, spool.firstPendingSequence())).extracting(InboundMessage::sequence)
+                .containsExactly(7L, 8L);
+    }
+
+    @Test
+    void continuesSequencesAfterRestart() throws IOException {
+        spool = open(1);
+        append(spool, 5);
+        spool.close();
+
+        spool = open(1);
+        long next = spool.append(message(99));
+
+        assertThat(next).isEqualTo(6);
+        assertThat(readAll(spool, 1)).extracting(InboundMessage::sequence).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+    }
+
+    @Test
+    void endsTheLogAtADamagedRecord() throws IOException {
+        spool = open(64);
+        List<InboundMessage> written = append(spool, 3);
+        spool.close();
+        spool = null;
+        Path segment = segmentFiles().get(0);
+        // flip the last payload byte of the third record
+        long end = recordLength(written.get(0)) + recordLength(written.get(1)) + recordLength(written.get(2));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, end - 1);
+            b.put(0, (byte) (b.get(0) ^ 0xFF)).rewind();
+            channel.write(b, end - 1);
+        }
+
+        spool = open(64);
+
+        assertThat(spool.getPendingCount()).isEqualTo(2);
+        assertThat(readAll(spool, 1)).extracting(InboundMessage::sequence).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void refusesMessagesBeyondTheSizeLimit() throws IOException {
+        spool = open(1, 1);
+        byte[] payload = new byte[100 * 1024];
+        int accepted = 0;
+        while (spool.append(new InboundMessage("big", payload, 0, false, T0)) > 0) {
+            accepted++;
+        }
+
+        assertThat(accepted).isEqualTo(10);
+        assertThat(spool.getSizeBytes()).isEqualTo(1024 * 1024);
+    }
+
+    @Test
+    void keepsMessagesLargerThanASegment() throws IOException {
+        spool = open(1);
+        InboundMessage large = new InboundMessage("large", new byte[3 * 1024 * 1024], 1, false, T0);
+
+        long sequence = spool.append(large);
+
+        assertThat(sequence).isEqualTo(1);
+        assertThat(readAll(spool, 1).get(0).payload()).hasSize(3 * 1024 * 1024);
+    }
+
+    private WriteAheadSpool open(long segmentSizeMb) throws IOException {
+        return open(segmentSizeMb, 100);
+    }
+
+    private WriteAheadSpool open(long segmentSizeMb, long maxSizeMb) throws IOException {
+        WriteAheadSpool opened = new WriteAheadSpool();
+        ReflectionTestUtils.setField(opened, "enabled", true);
+        ReflectionTestUtils.setField(opened, "directory", dir.toString());
+        ReflectionTestUtils.setField(opened, "segmentSizeMb", segmentSizeMb);
+        ReflectionTestUtils.setField(opened, "maxSizeMb", maxSizeMb);
+        ReflectionTestUtils.setField(opened, "checkpointIntervalMs", 3_600_000L);
+        opened.open();
+        return opened;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("spool-")).sorted().toList();
+        }
+    }
+
+    private static List<InboundMessage> append(WriteAheadSpool spool, int count) {
+        List<InboundMessage> written = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            InboundMessage message = message(i);
+            written.add(message.withSequence(spool.append(message)));
+        }
+        return written;
+    }
+
+    private static InboundMessage message(int i) {
+        return new InboundMessage("plant/line" + i % 3 + "/temp", ("{\"v\":" + i + "}").getBytes(StandardCharsets.UTF_8),
+                i % 3, i % 2 == 0, T0.plusSeconds(i));
+    }
+
+    private static List<InboundMessage> readAll(WriteAheadSpool spool, long from) {
+        WriteAheadSpool.Cursor cursor = spool.cursor(from);
+        List<InboundMessage> read = new ArrayList<>();
+        InboundMessage message;
+        while ((message = cursor.next(Long.MAX_VALUE)) != null) {
+            read.add(message);
+        }
+        return read;
+    }
+
+    private static long recordLength(InboundMessage message) {
+        return 8 + 27 + message.topic().getBytes(StandardCharsets.UTF_8).length + message.payload().length;
+    }
+
+    private static void assertSameMessage(InboundMessage actual, InboundMessage expected) {
+        assertThat(actual.sequence()).isEqualTo(expected.sequence());
+        assertThat(actual.topic()).isEqualTo(expected.topic());
+        assertThat(actual.payload()).isEqualTo(expected.payload());
+        assertThat(actual.qos()).isEqualTo(expected.qos());
+        assertThat(actual.retained()).isEqualTo(expected.retained());
+        assertThat(actual.receivedAt()).isEqualTo(expected.receivedAt());
+    }
+}
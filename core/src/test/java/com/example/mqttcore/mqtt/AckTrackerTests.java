@@ -0,0 +1,108 @@
+package com.example.mqttcore.mqtt;
+
+import com.example.mqttcore.ingest.DeliveryAck;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class AckTrackerTests {
+
+    private final MqttClient client = mock(MqttClient.class);
+
+    @Test
+    void acknowledgesInArrivalOrder() throws Exception {
+        AckTracker tracker = new AckTracker(client, 10);
+        DeliveryAck first = tracker.register(1, 1);
+        DeliveryAck second = tracker.register(2, 1);
+        DeliveryAck third = tracker.register(3, 2);
+
+        third.release();
+        second.release();
+        verify(client, never()).messageArrivedComplete(anyInt(), anyInt());
+        first.release();
+
+        InOrder order = inOrder(client);
+        order.verify(client).messageArrivedComplete(1, 1);
+        order.verify(client).messageArrivedComplete(2, 1);
+        order.verify(client).messageArrivedComplete(3, 2);
+        assertThat(tracker.getInflight()).isZero();
+    }
+
+    @Test
+    void acknowledgesEachMessageOnce() throws Exception {
+        AckTracker tracker = new AckTracker(client, 10);
+        DeliveryAck ack = tracker.register(7, 1);
+
+        ack.release();
+        ack.release();
+
+        verify(client, times(1)).messageArrivedComplete(7, 1);
+        assertThat(tracker.getInflight()).isZero();
+    }
+
+    @Test
+    void blocksWhenTooManyMessagesAreUnacknowledged() throws Exception {
+        AckTracker tracker = new AckTracker(client, 2);
+        DeliveryAck first = tracker.register(1, 1);
+        tracker.register(2, 1);
+
+        CompletableFuture<DeliveryAck> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return tracker.register(3, 1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThatThrownBy(() -> third.get(200, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+        first.release();
+
+        assertThat(third.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(tracker.getInflight()).isEqualTo(2);
+    }
+
+    @Test
+    void dropsOutstandingMessagesOnReset() throws Exception {
+        AckTracker tracker = new AckTracker(client, 2);
+        DeliveryAck first = tracker.register(1, 1);
+        tracker.register(2, 1);
+
+        tracker.reset();
+        first.release();
+
+        verify(client, never()).messageArrivedComplete(anyInt(), anyInt());
+        assertThat(tracker.getInflight()).isZero();
+        // both slots are free again
+        tracker.register(3, 1).release();
+        tracker.register(4, 1).release();
+        verify(client).messageArrivedComplete(4, 1);
+    }
+
+    @Test
+    void freesTheSlotWhenTheAcknowledgementFails() throws Exception {
+        doThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED))
+                .when(client).messageArrivedComplete(1, 1);
+        AckTracker tracker = new AckTracker(client, 1);
+
+        tracker.register(1, 1).release();
+        tracker.register(2, 1).release();
+
+        verify(client).messageArrivedComplete(2, 1);
+        assertThat(tracker.getInflight()).isZero();
+    }
+}
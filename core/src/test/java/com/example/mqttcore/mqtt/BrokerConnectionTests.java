@@ -0,0 +1,62 @@
+package com.example.mqttcore.mqtt;
+
+import com.example.mqttcore.ingest.DeliveryAck;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class BrokerConnectionTests {
+
+    private final BrokerConnection.Listener listener = mock(BrokerConnection.Listener.class);
+
+    @Test
+    void handsMessagesToTheListenerWithTheirAck() throws Exception {
+        BrokerConnection connection = connection(10);
+
+        connection.messageArrived("plant/a", message(1, 1));
+
+        verify(listener).messageArrived(eq("plant/a"), any(MqttMessage.class), any(DeliveryAck.class));
+        assertThat(connection.getUnackedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void leavesMessagesUnacknowledgedOnceDeliveryStopped() throws Exception {
+        BrokerConnection connection = connection(10);
+
+        connection.stopDelivery();
+        connection.messageArrived("plant/a", message(1, 1));
+
+        verify(listener, never()).messageArrived(any(), any(), any());
+        assertThat(connection.getUnackedCount()).isZero();
+    }
+
+    @Test
+    void dropsMessagesOnceDeliveryStoppedWithoutManualAcks() throws Exception {
+        BrokerConnection connection = connection(0);
+
+        connection.stopDelivery();
+        connection.messageArrived("plant/a", message(1, 1));
+
+        verify(listener, never()).messageArrived(any(), any(), any());
+    }
+
+    private BrokerConnection connection(int maxInflight) throws Exception {
+        // never connected: the tests drive the Paho callbacks directly
+        return new BrokerConnection(0, "tcp://127.0.0.1:1883", "broker-connection-test",
+                new MqttConnectOptions(), maxInflight, listener);
+    }
+
+    private static MqttMessage message(int id, int qos) {
+        MqttMessage message = new MqttMessage("{}".getBytes());
+        message.setId(id);
+        message.setQos(qos);
+        return message;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.mqttcore.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FilterTrieTests {
+
+    private static final List<String> TOPICS = List.of("plant", "plant/line1/temp", "plant/line1/pressure",
+            "plant/line2/temp", "plant/line2/motor/temp", "office/temp", "$SYS/broker", "/leading");
+
+    @Test
+    void resolvesSubscribersLikeTopicFilters() {
+        List<String> filters = List.of("plant", "plant/#", "plant/+/temp", "+/+/temp", "#", "+", "$SYS/#",
+                "+/broker", "/+");
+        FilterTrie<String> trie = new FilterTrie<>();
+        filters.forEach(filter -> trie.add(filter, filter));
+
+        for (String topic : TOPICS) {
+            List<String> matched = new ArrayList<>();
+            trie.match(topic, matched::add);
+            assertThat(matched).as(topic).containsExactlyInAnyOrderElementsOf(
+                    filters.stream().filter(filter -> TopicFilters.matches(filter, topic)).toList());
+        }
+    }
+
+    @Test
+    void stopsMatchingRemovedSubscribers() {
+        FilterTrie<String> trie = new FilterTrie<>();
+        trie.add("plant/#", "a");
+        trie.add("plant/#", "b");
+
+        trie.remove("plant/#", "a");
+        trie.remove("office/#", "b");
+
+        List<String> matched = new ArrayList<>();
+        trie.match("plant/line1", matched::add);
+        assertThat(matched).containsExactly("b");
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.mqttcore.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TopicFiltersTests {
+
+    @Test
+    void matchesSingleLevelWildcards() {
+        assertThat(TopicFilters.matches("plant/+/temp", "plant/line1/temp")).isTrue();
+        assertThat(TopicFilters.matches("plant/+/temp", "plant//temp")).isTrue();
+        assertThat(TopicFilters.matches("plant/+/temp", "plant/line1/x/temp")).isFalse();
+        assertThat(TopicFilters.matches("plant/+", "plant/line1/temp")).isFalse();
+        assertThat(TopicFilters.matches("+", "plant")).isTrue();
+    }
+
+    @Test
+    void matchesMultiLevelWildcards() {
+        assertThat(TopicFilters.matches("plant/#", "plant/line1/temp")).isTrue();
+        assertThat(TopicFilters.matches("plant/#", "plant")).isTrue();
+        assertThat(TopicFilters.matches("plant/#", "plantation/a")).isFalse();
+        assertThat(TopicFilters.matches("#", "plant/line1")).isTrue();
+    }
+
+    @Test
+    void matchesLiteralFiltersExactly() {
+        assertThat(TopicFilters.matches("plant/line1", "plant/line1")).isTrue();
+        assertThat(TopicFilters.matches("plant/line1", "plant/line10")).isFalse();
+        assertThat(TopicFilters.matches("plant/line1", "plant")).isFalse();
+    }
+
+    @Test
+    void keepsSystemTopicsFromLeadingWildcards() {
+        assertThat(TopicFilters.matches("#", "$SYS/broker")).isFalse();
+        assertThat(TopicFilters.matches("+/broker", "$SYS/broker")).isFalse();
+        assertThat(TopicFilters.matches("$SYS/#", "$SYS/broker")).isTrue();
+    }
+
+    @Test
+    void rejectsMisplacedWildcards() {
+        assertThatThrownBy(() -> TopicFilters.validate("plant/line+/temp")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TopicFilters.validate("plant/#/temp")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TopicFilters.validate("plant#")).isInstanceOf(IllegalArgumentException.class);
+        TopicFilters.validate("plant/+/#");
+    }
+
+    @Test
+    void takesTheLiteralPrefixBeforeTheFirstWildcard() {
+        assertThat(TopicFilters.literalPrefix("plant/+/temp")).isEqualTo("plant");
+        assertThat(TopicFilters.literalPrefix("plant/line1/#")).isEqualTo("plant/line1");
+        assertThat(TopicFilters.literalPrefix("plant/line1")).isEqualTo("plant/line1");
+        assertThat(TopicFilters.literalPrefix("#")).isEmpty();
+    }
+
+    @Test
+    void ranksLiteralFiltersAboveWildcards() {
+        assertThat(TopicFilters.specificity("plant/line1/temp")).isGreaterThan(TopicFilters.specificity("plant/+/temp"));
+        assertThat(TopicFilters.specificity("plant/+/temp")).isGreaterThan(TopicFilters.specificity("plant/#"));
+    }
+}
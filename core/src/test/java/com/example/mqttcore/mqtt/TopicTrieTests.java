@@ -0,0 +1,39 @@
+package com.example.mqttcore.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopicTrieTests {
+
+    private static final List<String> TOPICS = List.of("plant", "plant/line1/temp", "plant/line1/pressure",
+            "plant/line2/temp", "plant/line2/motor/temp", "office/temp", "$SYS/broker", "/leading");
+
+    @Test
+    void resolvesFiltersLikeTopicFilters() {
+        TopicTrie trie = new TopicTrie();
+        for (int i = 0; i < TOPICS.size(); i++) {
+            trie.add(TOPICS.get(i), i);
+        }
+
+        for (String filter : List.of("plant", "plant/#", "plant/+/temp", "+/+/temp", "#", "+", "+/#",
+                "$SYS/#", "+/broker", "plant/line1/+", "/+", "missing/#")) {
+            List<Integer> ids = new ArrayList<>();
+            trie.match(filter, ids::add);
+            assertThat(ids).as(filter).containsExactlyInAnyOrderElementsOf(expected(filter));
+        }
+    }
+
+    private static List<Integer> expected(String filter) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < TOPICS.size(); i++) {
+            if (TopicFilters.matches(filter, TOPICS.get(i))) {
+                ids.add(i);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.mqttcore.payload;
+
+import com.example.mqttcore.entity.PayloadDictionary;
+import com.example.mqttcore.ingest.SubscriptionRoute;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.repository.PayloadDictionaryRepository;
+import com.example.mqttcore.service.TopicDictionary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PayloadCodecTests {
+
+    private final PayloadDictionaryRepository dictionaryRepository = mock(PayloadDictionaryRepository.class);
+    private final List<PayloadDictionary> saved = new ArrayList<>();
+    private PayloadCodec codec;
+
+    @BeforeEach
+    void setUp() {
+        when(dictionaryRepository.save(any())).thenAnswer(invocation -> {
+            PayloadDictionary dictionary = invocation.getArgument(0);
+            dictionary.setId(saved.size() + 1);
+            saved.add(dictionary);
+            return dictionary;
+        });
+        when(dictionaryRepository.findAll()).thenReturn(saved);
+        codec = codec(true, true);
+    }
+
+    @Test
+    void storesShortPayloadsRaw() {
+        byte[] payload = "21.5".getBytes(StandardCharsets.UTF_8);
+
+        byte[] stored = codec.encode(1, payload);
+
+        assertThat(stored[0]).isEqualTo(PayloadCodec.RAW);
+        assertThat(stored).hasSize(payload.length + 1);
+        assertThat(codec.decode(stored, payload.length)).isEqualTo(payload);
+    }
+
+    @Test
+    void deflatesRepetitivePayloads() {
+        byte[] payload = "{\"temperature\":21.5,\"humidity\":40}".repeat(10).getBytes(StandardCharsets.UTF_8);
+
+        byte[] stored = codec.encode(1, payload);
+
+        assertThat(stored[0]).isEqualTo(PayloadCodec.DEFLATE);
+        assertThat(stored.length).isLessThan(payload.length / 3);
+        assertThat(codec.decode(stored, payload.length)).isEqualTo(payload);
+    }
+
+    @Test
+    void keepsIncompressiblePayloadsRaw() {
+        byte[] payload = new byte[1000];
+        new Random(1).nextBytes(payload);
+
+        byte[] stored = codec.encode(1, payload);
+
+        assertThat(stored[0]).isEqualTo(PayloadCodec.RAW);
+        assertThat(codec.decode(stored, payload.length)).isEqualTo(payload);
+        assertThat(codec.getStats().getStoredBytes()).isEqualTo(payload.length + 1);
+    }
+
+    @Test
+    void storesEverythingRawWithCompressionOff() {
+        PayloadCodec plain = codec(false, false);
+        byte[] payload = "a".repeat(500).getBytes(StandardCharsets.UTF_8);
+
+        byte[] stored = plain.encode(1, payload);
+
+        assertThat(stored[0]).isEqualTo(PayloadCodec.RAW);
+        assertThat(plain.decode(stored, payload.length)).isEqualTo(payload);
+    }
+
+    @Test
+    void decodesEmptyStoredForms() {
+        assertThat(codec.decode(null, 0)).isEmpty();
+        assertThat(codec.decode(new byte[0], 0)).isEmpty();
+        assertThat(codec.decode(codec.encode(1, new byte[0]), 0)).isEmpty();
+    }
+
+    @Test
+    void compressesWithADictionaryTrainedOnTheFamily() {
+        List<byte[]> samples = new ArrayList<>();
+        List<byte[]> stored = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] payload = telemetry(i);
+            samples.add(payload);
+            stored.add(codec.encode(1, payload));
+        }
+
+        codec.trainDictionaries();
+
+        assertThat(saved).hasSize(1);
+        assertThat(saved.get(0).getFamily()).isEqualTo("plant/#");
+        byte[] payload = telemetry(1000);
+        byte[] withDictionary = codec.encode(1, payload);
+        assertThat(withDictionary[0]).isEqualTo(PayloadCodec.DEFLATE_DICTIONARY);
+        assertThat(withDictionary.length).isLessThan(codec(true, false).encode(1, payload).length);
+
+        // a restarted codec loads the dictionary and reads both kinds of stored forms
+        PayloadCodec restarted = codec(true, true);
+        assertThat(restarted.decode(withDictionary, payload.length)).isEqualTo(payload);
+        for (int i = 0; i < samples.size(); i++) {
+            assertThat(restarted.decode(stored.get(i), samples.get(i).length)).isEqualTo(samples.get(i));
+        }
+    }
+
+    @Test
+    void refusesPayloadsOfAMissingDictionary() {
+        byte[] stored = {PayloadCodec.DEFLATE_DICTIONARY, 0, 0, 0, 9, 1, 2, 3};
+
+        assertThatThrownBy(() -> codec.decode(stored, 10)).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("dictionary 9");
+    }
+
+    @Test
+    void refusesPayloadsOfTheWrongLength() {
+        byte[] payload = "{\"temperature\":21.5}".repeat(5).getBytes(StandardCharsets.UTF_8);
+        byte[] stored = codec.encode(1, payload);
+
+        assertThatThrownBy(() -> codec.decode(stored, payload.length + 1)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private PayloadCodec codec(boolean compression, boolean dictionaries) {
+        TopicDictionary topicDictionary = mock(TopicDictionary.class);
+        when(topicDictionary.nameOf(anyInt())).thenReturn("plant/line1/state");
+        SubscriptionRouter router = mock(SubscriptionRouter.class);
+        when(router.resolve(anyString()))
+                .thenReturn(new SubscriptionRoute("plant/#", null, 1, false, null, false, null, null, null));
+        PayloadCodec created = new PayloadCodec(dictionaryRepository, router, topicDictionary);
+        ReflectionTestUtils.setField(created, "compression", compression);
+        ReflectionTestUtils.setField(created, "level", 6);
+        ReflectionTestUtils.setField(created, "dictionaries", dictionaries);
+        ReflectionTestUtils.setField(created, "dictionarySize", 16384);
+        ReflectionTestUtils.setField(created, "dictionarySamples", 100);
+        created.load();
+        return created;
+    }
+
+    private static byte[] telemetry(int i) {
+        return ("{\"machine\":\"press-" + i % 7 + "\",\"state\":\"" + (i % 3 == 0 ? "RUNNING" : "IDLE")
+                + "\",\"temperature\":" + (20 + i % 13) + "." + i % 10 + ",\"pressure\":" + (1000 + i)
+                + ",\"operator\":\"shift-" + i % 2 + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+}
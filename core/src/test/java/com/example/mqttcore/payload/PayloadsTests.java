@@ -0,0 +1,78 @@
+package com.example.mqttcore.payload;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PayloadsTests {
+
+    @Test
+    void acceptsWellFormedUtf8() {
+        assertThat(Payloads.isUtf8(new byte[0])).isTrue();
+        assertThat(Payloads.isUtf8("{\"t\":21.5}".getBytes(StandardCharsets.UTF_8))).isTrue();
+        assertThat(Payloads.isUtf8("größe € 😀 ߿ �".getBytes(StandardCharsets.UTF_8))).isTrue();
+        assertThat(Payloads.isUtf8(bytes(0xF4, 0x8F, 0xBF, 0xBF))).isTrue();
+    }
+
+    @Test
+    void rejectsMalformedUtf8() {
+        assertThat(Payloads.isUtf8(bytes(0x80))).as("lone continuation byte").isFalse();
+        assertThat(Payloads.isUtf8(bytes('a', 0xE2, 0x82))).as("truncated sequence").isFalse();
+        assertThat(Payloads.isUtf8(bytes(0xC3, 'a'))).as("missing continuation").isFalse();
+        assertThat(Payloads.isUtf8(bytes(0xC0, 0x80))).as("overlong NUL").isFalse();
+        assertThat(Payloads.isUtf8(bytes(0xE0, 0x80, 0xAF))).as("overlong slash").isFalse();
+        assertThat(Payloads.isUtf8(bytes(0xED, 0xA0, 0x80))).as("surrogate").isFalse();
+        assertThat(Payloads.isUtf8(bytes(0xF4, 0x90, 0x80, 0x80))).as("beyond U+10FFFF").isFalse();
+        assertThat(Payloads.isUtf8(bytes(0xF8, 0x88, 0x80, 0x80, 0x80))).as("five-byte form").isFalse();
+    }
+
+    @Test
+    void agreesWithTheJdkDecoderOnRandomBytes() {
+        Random random = new Random(7);
+        for (int round = 0; round < 5000; round++) {
+            byte[] bytes = new byte[random.nextInt(8)];
+            for (int i = 0; i < bytes.length; i++) {
+                // mostly bytes that start or continue multi-byte sequences
+                bytes[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(0x80) : 0x80 + random.nextInt(0x80));
+            }
+
+            assertThat(Payloads.isUtf8(bytes)).as("%s", ByteBuffer.wrap(bytes)).isEqualTo(decodes(bytes));
+        }
+    }
+
+    @Test
+    void showsTextAsIsAndBinaryAsBase64() {
+        Payloads.Text text = Payloads.toText("größe".getBytes(StandardCharsets.UTF_8));
+        Payloads.Text binary = Payloads.toText(bytes(0xFF, 0x00, 0x10));
+
+        assertThat(text).isEqualTo(new Payloads.Text("größe", null));
+        assertThat(binary).isEqualTo(new Payloads.Text("/wAQ", Payloads.BASE64));
+        assertThat(Payloads.fromText(binary.value(), binary.encoding())).containsExactly(bytes(0xFF, 0x00, 0x10));
+        assertThat(Payloads.fromText(text.value(), text.encoding())).isEqualTo("größe".getBytes(StandardCharsets.UTF_8));
+        assertThat(Payloads.textOrNull(bytes(0xFF))).isNull();
+        assertThatThrownBy(() -> Payloads.fromText("x", "hex")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static boolean decodes(byte[] bytes) {
+        try {
+            StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.mqttcore.repository;
+
+import com.example.mqttcore.repository.MessagePartitions.Partition;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against an in-memory database. Each test uses its own year, so the partitions of one test
+ * do not show up in the time ranges of another.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:partitiontest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=partition-test",
+        "mqtt.broker.username="
+})
+class MessagePartitionsTests {
+
+    @Autowired
+    private MessagePartitions partitions;
+
+    @Autowired
+    private MessagePartitionRepository partitionRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void createsOnePartitionPerInterval() {
+        LocalDateTime day = LocalDateTime.of(2001, 3, 4, 0, 0);
+
+        Partition morning = partitions.forTime(day.plusHours(1));
+        Partition evening = partitions.forTime(day.plusHours(23));
+        Partition next = partitions.forTime(day.plusDays(1));
+
+        assertThat(evening).isSameAs(morning);
+        assertThat(morning.getStart()).isEqualTo(day);
+        assertThat(morning.getEnd()).isEqualTo(day.plusDays(1));
+        assertThat(morning.getTable()).isEqualTo("received_messages_20010304");
+        assertThat(next.getStart()).isEqualTo(morning.getEnd());
+        assertThat(partitionRepository.existsById(morning.getTable())).isTrue();
+    }
+
+    @Test
+    void listsPartitionsByTime() {
+        LocalDateTime day = LocalDateTime.of(2002, 5, 6, 0, 0);
+        Partition first = partitions.forTime(day);
+        Partition second = partitions.forTime(day.plusDays(1));
+        Partition third = partitions.forTime(day.plusDays(2));
+
+        assertThat(partitions.overlapping(day.plusDays(1).plusHours(12), day.plusDays(2).plusHours(1)))
+                .containsExactly(third, second);
+        assertThat(partitions.overlapping(day, day.plusHours(1))).containsExactly(first);
+        assertThat(partitions.endingBy(day.plusDays(2))).containsSubsequence(first, second).doesNotContain(third);
+    }
+
+    @Test
+    void tracksTheIdsWrittenToAPartition() {
+        Partition partition = partitions.forTime(LocalDateTime.of(2003, 1, 1, 0, 0));
+        assertThat(partition.idRange()).isNull();
+        assertThat(partition.maxId()).isZero();
+
+        partition.track(50);
+        partition.track(20);
+
+        assertThat(partition.idRange()).containsExactly(20, 50);
+        assertThat(partition.mayContain(35)).isTrue();
+        assertThat(partition.mayContain(51)).isFalse();
+        assertThat(partition.mayContainBetween(50, 90)).isFalse();
+        assertThat(partition.mayContainBetween(49, 90)).isTrue();
+        assertThat(partitions.mayContain(35)).contains(partition);
+    }
+
+    @Test
+    void restoresIdRangesOnLoad() {
+        LocalDateTime time = LocalDateTime.of(2004, 7, 8, 9, 0);
+        Partition partition = partitions.forTime(time);
+        insert(partition, 1001, time);
+        insert(partition, 1009, time);
+
+        MessagePartitions reloaded = new MessagePartitions(partitionRepository, jdbcTemplate, transactionManager);
+        ReflectionTestUtils.setField(reloaded, "interval", PartitionInterval.DAY);
+        ReflectionTestUtils.setField(reloaded, "scanThreads", 1);
+        reloaded.load();
+        try {
+            Partition loaded = reloaded.forTime(time);
+            assertThat(loaded).isNotSameAs(partition);
+            assertThat(loaded.idRange()).containsExactly(1001, 1009);
+        } finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    void dropsTheTablesAndRunsTheReplacement() {
+        LocalDateTime time = LocalDateTime.of(2005, 2, 3, 4, 0);
+        Partition partition = partitions.forTime(time);
+        insert(partition, 1, time);
+        AtomicBoolean replaced = new AtomicBoolean();
+
+        assertThat(partitions.drop(partition, partition.modifications(), () -> replaced.set(true))).isTrue();
+
+        assertThat(replaced).isTrue();
+        assertThat(partitions.exists(partition)).isFalse();
+        assertThat(partitionRepository.existsById(partition.getTable())).isFalse();
+        assertThat(tableExists(partition.getTable())).isFalse();
+        assertThat(tableExists(partition.getFieldsTable())).isFalse();
+        assertThat(partitions.drop(partition)).isFalse();
+    }
+
+    @Test
+    void keepsPartitionsWrittenToSinceTheCopy() {
+        Partition partition = partitions.forTime(LocalDateTime.of(2006, 6, 6, 6, 0));
+        long modifications = partition.modifications();
+        partition.track(7);
+
+        assertThat(partitions.drop(partition, modifications, () -> {
+        })).isFalse();
+        assertThat(partitions.exists(partition)).isTrue();
+    }
+
+    @Test
+    void keepsPartitionsInUse() {
+        Partition partition = partitions.forTime(LocalDateTime.of(2007, 7, 7, 7, 0));
+
+        boolean dropped = partitions.read(() -> partitions.drop(partition));
+
+        assertThat(dropped).isFalse();
+        assertThat(partitions.exists(partition)).isTrue();
+    }
+
+    @Test
+    void returnsScanResultsInTargetOrder() {
+        LocalDateTime day = LocalDateTime.of(2008, 8, 8, 0, 0);
+        List<Partition> targets = List.of(partitions.forTime(day.plusDays(2)), partitions.forTime(day),
+                partitions.forTime(day.plusDays(1)));
+
+        List<String> tables = partitions.read(() -> partitions.scan(targets, Partition::getTable));
+
+        assertThat(tables).containsExactly("received_messages_20080810", "received_messages_20080808",
+                "received_messages_20080809");
+    }
+
+    private void insert(Partition partition, long id, LocalDateTime receivedAt) {
+        partition.track(id);
+        jdbcTemplate.update("INSERT INTO " + partition.getTable()
+                        + " (id, topic_id, payload, payload_size, qos, retained, received_at) VALUES (?, 1, ?, 1, 0, FALSE, ?)",
+                id, new byte[]{'x'}, Timestamp.valueOf(receivedAt));
+    }
+
+    private boolean tableExists(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = ?", Integer.class, table.toUpperCase());
+        return count != null && count > 0;
+    }
+}
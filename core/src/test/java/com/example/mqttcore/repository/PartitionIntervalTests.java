@@ -0,0 +1,27 @@
+package com.example.mqttcore.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartitionIntervalTests {
+
+    @Test
+    void startsDaysAtMidnight() {
+        LocalDateTime start = PartitionInterval.DAY.start(LocalDateTime.of(2024, 2, 29, 23, 59, 59, 999_999_999));
+
+        assertThat(start).isEqualTo(LocalDateTime.of(2024, 2, 29, 0, 0));
+        assertThat(PartitionInterval.DAY.next(start)).isEqualTo(LocalDateTime.of(2024, 3, 1, 0, 0));
+    }
+
+    @Test
+    void startsWeeksOnMonday() {
+        LocalDateTime monday = LocalDateTime.of(2024, 12, 30, 0, 0);
+
+        assertThat(PartitionInterval.WEEK.start(LocalDateTime.of(2025, 1, 5, 18, 0))).isEqualTo(monday);
+        assertThat(PartitionInterval.WEEK.start(monday)).isEqualTo(monday);
+        assertThat(PartitionInterval.WEEK.next(monday)).isEqualTo(LocalDateTime.of(2025, 1, 6, 0, 0));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.mqttcore.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdRangesTests {
+
+    private final IdRanges ranges = IdRanges.of(List.of(new long[]{20, 29}, new long[]{1, 10}, new long[]{5, 12},
+            new long[]{13, 15}));
+
+    @Test
+    void keepsIdsInsideTheRanges() {
+        assertThat(ranges.retain(new long[]{0, 1, 12, 15, 16, 19, 20, 29, 30})).containsExactly(1, 12, 15, 20, 29);
+        assertThat(ranges.retain(new long[]{40, 50})).isEmpty();
+    }
+
+    @Test
+    void returnsTheSameArrayWhenNothingIsDropped() {
+        long[] ids = {1, 7, 14, 25};
+
+        assertThat(ranges.retain(ids)).isSameAs(ids);
+    }
+
+    @Test
+    void countsCoveredIdsAcrossMergedRanges() {
+        // [1, 15] and [20, 29] after merging
+        assertThat(ranges.covered(1, 29)).isEqualTo(25);
+        assertThat(ranges.covered(14, 21)).isEqualTo(4);
+        assertThat(ranges.covered(16, 19)).isZero();
+        assertThat(IdRanges.of(List.of()).covered(0, 100)).isZero();
+    }
+}
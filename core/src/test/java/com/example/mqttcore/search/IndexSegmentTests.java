@@ -0,0 +1,117 @@
+package com.example.mqttcore.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IndexSegmentTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsThePostingsOfEveryTerm() throws IOException {
+        Path file = IndexSegment.fileFor(dir, 7);
+        List<String> terms = terms(200);
+        try (IndexSegment segment = write(file, terms)) {
+            assertThat(segment.generation()).isEqualTo(7);
+            assertThat(segment.termCount()).isEqualTo(200);
+            assertThat(segment.minId()).isEqualTo(100);
+            assertThat(segment.maxId()).isEqualTo(100 + 199 + 1000);
+            for (int i = 0; i < terms.size(); i++) {
+                assertThat(segment.postings(terms.get(i))).containsExactly(postings(i));
+            }
+        }
+    }
+
+    @Test
+    void returnsNoPostingsForMissingTerms() throws IOException {
+        try (IndexSegment segment = write(IndexSegment.fileFor(dir, 1), terms(100))) {
+            assertThat(segment.postings("aaa")).isEmpty();
+            assertThat(segment.postings("term-0050x")).isEmpty();
+            assertThat(segment.postings("zzz")).isEmpty();
+        }
+    }
+
+    @Test
+    void listsEveryEntryInTermOrder() throws IOException {
+        List<String> terms = terms(70);
+        try (IndexSegment segment = write(IndexSegment.fileFor(dir, 1), terms)) {
+            List<String> listed = new ArrayList<>();
+            for (List<IndexSegment.Entry> block : segment.blocks()) {
+                for (IndexSegment.Entry entry : block) {
+                    listed.add(entry.term());
+                    assertThat(segment.readPostings(entry)).hasSize(entry.count());
+                }
+            }
+            assertThat(listed).isEqualTo(terms);
+        }
+    }
+
+    @Test
+    void reopensAWrittenSegment() throws IOException {
+        Path file = IndexSegment.fileFor(dir, 3);
+        write(file, terms(40)).close();
+
+        try (IndexSegment segment = IndexSegment.open(file)) {
+            assertThat(segment.postings("tête")).containsExactly(postings(39));
+        }
+    }
+
+    @Test
+    void leavesNoFileBehindWhenNotFinished() throws IOException {
+        Path file = IndexSegment.fileFor(dir, 1);
+        try (IndexSegment.Writer writer = new IndexSegment.Writer(file)) {
+            writer.add("a", new long[]{1, 2});
+        }
+
+        try (var files = Files.list(dir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void refusesDamagedSegments() throws IOException {
+        Path file = IndexSegment.fileFor(dir, 1);
+        write(file, terms(10)).close();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertThatThrownBy(() -> IndexSegment.open(file)).isInstanceOf(IOException.class);
+    }
+
+    private static IndexSegment write(Path file, List<String> terms) throws IOException {
+        try (IndexSegment.Writer writer = new IndexSegment.Writer(file)) {
+            for (int i = 0; i < terms.size(); i++) {
+                writer.add(terms.get(i), postings(i));
+            }
+            writer.add("unused", Postings.EMPTY);
+            return writer.finish();
+        }
+    }
+
+    /** Sorted terms; the last one sorts after the numbered ones and is not ASCII. */
+    private static List<String> terms(int count) {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < count - 1; i++) {
+            terms.add(String.format("term-%04d", i));
+        }
+        terms.add("tête");
+        return terms;
+    }
+
+    private static long[] postings(int term) {
+        return new long[]{100 + term, 200 + term, 1100 + term};
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.mqttcore.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PostingsTests {
+
+    @Test
+    void decodesWhatWasEncoded() {
+        long[] ids = {1, 2, 3, 130, 131, 20_000, 1L << 40, Long.MAX_VALUE};
+
+        ByteBuffer encoded = Postings.encode(ids, ByteBuffer.allocate(4)).flip();
+
+        assertThat(Postings.decode(encoded, ids.length)).containsExactly(ids);
+        assertThat(encoded.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void storesDenseListsInOneBytePerId() {
+        long[] ids = new long[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1_000_000 + i * 3;
+        }
+
+        ByteBuffer encoded = Postings.encode(ids, ByteBuffer.allocate(16)).flip();
+
+        // only the first delta needs more than one byte
+        assertThat(encoded.remaining()).isEqualTo(3 + 999);
+        assertThat(Postings.decode(encoded, ids.length)).containsExactly(ids);
+    }
+
+    @Test
+    void sortsAndDropsDuplicates() {
+        long[] ids = {5, 3, 5, 1, 3, 9, 0, 0};
+
+        assertThat(Postings.sortedDistinct(ids, 6)).containsExactly(1, 3, 5, 9);
+        assertThat(Postings.sortedDistinct(new long[]{2, 1}, 2)).containsExactly(1, 2);
+    }
+
+    @Test
+    void combinesLists() {
+        long[] a = {1, 3, 5, 7};
+        long[] b = {2, 3, 7, 8};
+
+        assertThat(Postings.union(a, b)).containsExactly(1, 2, 3, 5, 7, 8);
+        assertThat(Postings.intersect(a, b)).containsExactly(3, 7);
+        assertThat(Postings.union(List.of(a, b, new long[]{0, 9}))).containsExactly(0, 1, 2, 3, 5, 7, 8, 9);
+        assertThat(Postings.union(List.of())).isEmpty();
+        assertThat(Postings.intersect(a, Postings.EMPTY)).isEmpty();
+    }
+
+    @Test
+    void agreesWithSetsOnRandomLists() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            long[] a = randomList(random);
+            long[] b = randomList(random);
+            TreeSet<Long> union = new TreeSet<>();
+            TreeSet<Long> common = new TreeSet<>();
+            for (long id : a) {
+                union.add(id);
+            }
+            for (long id : b) {
+                if (!union.add(id)) {
+                    common.add(id);
+                }
+            }
+
+            assertThat(Postings.union(a, b)).containsExactly(union.stream().mapToLong(Long::longValue).toArray());
+            assertThat(Postings.intersect(a, b)).containsExactly(common.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    private static long[] randomList(Random random) {
+        long[] ids = new long[random.nextInt(200)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(500);
+        }
+        return Postings.sortedDistinct(ids, ids.length);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.mqttcore.series;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BitWriterTests {
+
+    @Test
+    void readsBackFieldsOfEveryWidth() {
+        Random random = new Random(3);
+        int[] widths = new int[5000];
+        long[] values = new long[widths.length];
+        BitWriter writer = new BitWriter();
+        long total = 0;
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = 1 + random.nextInt(64);
+            values[i] = widths[i] == 64 ? random.nextLong() : random.nextLong() & ((1L << widths[i]) - 1);
+            writer.write(values[i], widths[i]);
+            total += widths[i];
+        }
+
+        assertThat(writer.bitCount()).isEqualTo(total);
+        BitReader reader = new BitReader(writer.toByteArray());
+        for (int i = 0; i < widths.length; i++) {
+            assertThat(reader.read(widths[i])).as("field %d", i).isEqualTo(values[i]);
+        }
+    }
+
+    @Test
+    void keepsOnlyTheLowBitsOfAValue() {
+        BitWriter writer = new BitWriter();
+        writer.write(-1, 3);
+        writer.write(0, 1);
+
+        assertThat(writer.toByteArray()).containsExactly((byte) 0b1110_0000);
+    }
+
+    @Test
+    void readsSignedFieldsAndSingleBits() {
+        BitWriter writer = new BitWriter();
+        writer.write(-5, 7);
+        writer.write(1, 1);
+        writer.write(63, 7);
+        writer.write(Long.MIN_VALUE, 64);
+
+        BitReader reader = new BitReader(writer.toByteArray());
+        assertThat(reader.readSigned(7)).isEqualTo(-5);
+        assertThat(reader.readBit()).isTrue();
+        assertThat(reader.readSigned(7)).isEqualTo(63);
+        assertThat(reader.readSigned(64)).isEqualTo(Long.MIN_VALUE);
+    }
+}
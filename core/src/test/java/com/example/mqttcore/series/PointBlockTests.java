@@ -0,0 +1,103 @@
+package com.example.mqttcore.series;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PointBlockTests {
+
+    private static final long T0 = 1_714_564_800_000L;
+
+    @Test
+    void decodesWhatWasAppended() {
+        Random random = new Random(11);
+        List<Point> points = new ArrayList<>();
+        long time = T0;
+        double value = 20;
+        for (int i = 0; i < 2000; i++) {
+            time += 1000 + random.nextInt(50) - 25;
+            value += random.nextGaussian() * 0.1;
+            points.add(new Point(time, Math.round(value * 10) / 10.0));
+        }
+
+        assertThat(roundTrip(points)).isEqualTo(points);
+    }
+
+    @Test
+    void keepsUnusualTimesAndValues() {
+        List<Point> points = List.of(new Point(T0, 1.5), new Point(T0 - 3_600_000, -0.0), new Point(T0, Double.NaN),
+                new Point(T0 + 1, Double.POSITIVE_INFINITY), new Point(Long.MAX_VALUE, Double.MIN_VALUE),
+                new Point(Long.MIN_VALUE, -Double.MAX_VALUE), new Point(0, 0.0), new Point(0, 0.0),
+                new Point(5_000_000_000L, 1e300), new Point(5_000_001_000L, 1e-300));
+
+        List<Point> decoded = roundTrip(points);
+
+        assertThat(decoded).hasSameSizeAs(points);
+        for (int i = 0; i < points.size(); i++) {
+            assertThat(decoded.get(i).time()).isEqualTo(points.get(i).time());
+            assertThat(Double.doubleToRawLongBits(decoded.get(i).value()))
+                    .isEqualTo(Double.doubleToRawLongBits(points.get(i).value()));
+        }
+    }
+
+    @Test
+    void tracksTheTimeRange() {
+        PointBlock block = new PointBlock();
+        block.append(T0, 1);
+        block.append(T0 - 10, 2);
+        block.append(T0 + 5, 3);
+
+        assertThat(block.count()).isEqualTo(3);
+        assertThat(block.minTime()).isEqualTo(T0 - 10);
+        assertThat(block.maxTime()).isEqualTo(T0 + 5);
+    }
+
+    @Test
+    void storesRegularSamplesCompactly() {
+        PointBlock block = new PointBlock();
+        for (int i = 0; i < 1000; i++) {
+            block.append(T0 + i * 10_000L, i % 100 < 90 ? 21.5 : 21.75);
+        }
+
+        // one bit of time and mostly one bit of value per point after the first
+        assertThat(block.toByteArray().length).isLessThan(1000);
+    }
+
+    @Test
+    void continuesAResumedBlockAsIfItWereNeverClosed() {
+        PointBlock original = new PointBlock();
+        for (int i = 0; i < 100; i++) {
+            original.append(T0 + i * 1000L, i * 0.25);
+        }
+        PointBlock resumed = PointBlock.resume(original.toByteArray(), original.count());
+
+        for (int i = 100; i < 150; i++) {
+            original.append(T0 + i * 1000L + i % 3, i * 0.25);
+            resumed.append(T0 + i * 1000L + i % 3, i * 0.25);
+        }
+
+        assertThat(resumed.toByteArray()).isEqualTo(original.toByteArray());
+        assertThat(resumed.count()).isEqualTo(150);
+    }
+
+    @Test
+    void decodesNothingFromAnEmptyBlock() {
+        assertThat(roundTrip(List.of())).isEmpty();
+        assertThat(roundTrip(List.of(new Point(T0, 3.0)))).containsExactly(new Point(T0, 3.0));
+    }
+
+    private static List<Point> roundTrip(List<Point> points) {
+        PointBlock block = new PointBlock();
+        points.forEach(point -> block.append(point.time(), point.value()));
+        List<Point> decoded = new ArrayList<>();
+        PointBlock.decode(block.toByteArray(), block.count(), (time, value) -> decoded.add(new Point(time, value)));
+        return decoded;
+    }
+
+    private record Point(long time, double value) {
+    }
+}
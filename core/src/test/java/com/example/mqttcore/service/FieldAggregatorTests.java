@@ -0,0 +1,117 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.FieldBucketDto;
+import com.example.mqttcore.entity.OverloadPolicy;
+import com.example.mqttcore.entity.VolumeResolution;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.IngestCounters;
+import com.example.mqttcore.ingest.JsonFieldExtractor;
+import com.example.mqttcore.ingest.RetentionPolicy;
+import com.example.mqttcore.ingest.SubscriptionRoute;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FieldAggregatorTests {
+
+    private static final LocalDateTime MINUTE = LocalDateTime.of(2024, 3, 1, 12, 30);
+
+    private final SubscriptionRouter subscriptionRouter = mock(SubscriptionRouter.class);
+    private final TopicDictionary topicDictionary = mock(TopicDictionary.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private FieldAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        when(subscriptionRouter.resolve(any())).thenReturn(new SubscriptionRoute("plant/#", OverloadPolicy.BLOCK, 1,
+                false, JsonFieldExtractor.of("temperature,battery.level"), false, JsonFieldExtractor.NONE,
+                RetentionPolicy.NONE, new IngestCounters()));
+        when(topicDictionary.idOf("plant/a")).thenReturn(1);
+        aggregator = new FieldAggregator(subscriptionRouter, topicDictionary, jdbcTemplate,
+                mock(NamedParameterJdbcTemplate.class), new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    }
+
+    @Test
+    void foldsValuesIntoMinuteBuckets() {
+        aggregator.record(List.of(message(0, "{\"temperature\":20,\"battery\":{\"level\":90}}"),
+                message(40, "{\"temperature\":26}"),
+                // recorded after the one above but received before it: not the last value
+                message(30, "{\"temperature\":23}"),
+                message(50, "{\"temperature\":\"n/a\"}"),
+                message(55, "not json")));
+
+        aggregator.flush();
+
+        assertThat(flushedRows(1)).containsExactlyInAnyOrder(
+                row("temperature", 3, 69, 20, 26, 26, 40),
+                row("battery.level", 1, 90, 90, 90, 90, 0));
+    }
+
+    @Test
+    void mergesBucketsIntoCoarserResolutions() {
+        aggregator.record(List.of(message(0, "{\"temperature\":20}"), message(70, "{\"temperature\":30}"),
+                message(130, "{\"temperature\":16}"), message(125, "{\"temperature\":40}")));
+
+        List<FieldBucketDto> series = aggregator.getSeries(null, null, "temperature", MINUTE.minusHours(1),
+                MINUTE.plusHours(1), VolumeResolution.HOUR);
+
+        assertThat(series).hasSize(1);
+        FieldBucketDto bucket = series.get(0);
+        assertThat(bucket.getStart()).isEqualTo(MINUTE.withMinute(0));
+        assertThat(bucket.getCount()).isEqualTo(4);
+        assertThat(bucket.getAvg()).isEqualTo(26.5);
+        assertThat(bucket.getMin()).isEqualTo(16);
+        assertThat(bucket.getMax()).isEqualTo(40);
+        assertThat(bucket.getLast()).isEqualTo(16);
+    }
+
+    @Test
+    void keepsTheBucketsOfAFailedFlushForTheNextOne() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("database down"))
+                .thenReturn(new int[]{1});
+        aggregator.record(List.of(message(0, "{\"temperature\":20}"), message(10, "{\"temperature\":24}")));
+
+        assertThatThrownBy(aggregator::flush).isInstanceOf(DataAccessResourceFailureException.class);
+        aggregator.record(List.of(message(5, "{\"temperature\":18}")));
+        aggregator.flush();
+
+        assertThat(flushedRows(2)).containsExactly(row("temperature", 3, 62, 18, 24, 24, 10));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> flushedRows(int flushes) {
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(flushes)).batchUpdate(anyString(), rows.capture());
+        return rows.getValue();
+    }
+
+    private static Object[] row(String path, long count, double sum, double min, double max, double last, int lastAt) {
+        return new Object[]{1, path, "MINUTE", Timestamp.valueOf(MINUTE), count, sum, min, max, last,
+                Timestamp.valueOf(MINUTE.plusSeconds(lastAt))};
+    }
+
+    private static InboundMessage message(int secondsAfter, String payload) {
+        return new InboundMessage("plant/a", payload.getBytes(), 1, false, MINUTE.plusSeconds(secondsAfter));
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.service.FieldPredicate.Operator;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FieldPredicateTests {
+
+    @Test
+    void parsesEveryOperator() {
+        assertThat(FieldPredicate.parse("battery.level<20")).isEqualTo(new FieldPredicate("battery.level", Operator.LT, 20L));
+        assertThat(FieldPredicate.parse("battery.level<=20")).isEqualTo(new FieldPredicate("battery.level", Operator.LE, 20L));
+        assertThat(FieldPredicate.parse("battery.level>20")).isEqualTo(new FieldPredicate("battery.level", Operator.GT, 20L));
+        assertThat(FieldPredicate.parse("battery.level>=20")).isEqualTo(new FieldPredicate("battery.level", Operator.GE, 20L));
+        assertThat(FieldPredicate.parse(" status = FAULT ")).isEqualTo(new FieldPredicate("status", Operator.EQ, "FAULT"));
+    }
+
+    @Test
+    void typesValuesLikeTheExtractor() {
+        assertThat(FieldPredicate.parse("ok=true").value()).isEqualTo(true);
+        assertThat(FieldPredicate.parse("n=-3").value()).isEqualTo(-3L);
+        assertThat(FieldPredicate.parse("t=21.5").value()).isEqualTo(21.5);
+        assertThat(FieldPredicate.parse("t=1e3").value()).isEqualTo(1000.0);
+        assertThat(FieldPredicate.parse("n=123456789012345678901234567890").value()).isEqualTo(1.2345678901234568e29);
+        // quoted, or not JSON number syntax: strings
+        assertThat(FieldPredicate.parse("code=\"42\"").value()).isEqualTo("42");
+        assertThat(FieldPredicate.parse("ok=\"true\"").value()).isEqualTo("true");
+        assertThat(FieldPredicate.parse("v=1f").value()).isEqualTo("1f");
+        assertThat(FieldPredicate.parse("v=NaN").value()).isEqualTo("NaN");
+    }
+
+    @Test
+    void rejectsMalformedExpressions() {
+        for (String expression : new String[]{"status", "=FAULT", "status=", "status= ", "a..b=1", "a,b=1"}) {
+            assertThatThrownBy(() -> FieldPredicate.parse(expression)).as(expression)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void rejectsUnsupportedOperators() {
+        for (String expression : new String[]{"status!=FAULT", "n==1", "n=<1", "n=>1", "n<>1", "n< =1"}) {
+            assertThatThrownBy(() -> FieldPredicate.parse(expression)).as(expression)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("operator");
+        }
+        // a quoted value may start with an operator character
+        assertThat(FieldPredicate.parse("formula=\"=1\"").value()).isEqualTo("=1");
+    }
+
+    @Test
+    void rejectsOrderingOnBooleans() {
+        assertThatThrownBy(() -> FieldPredicate.parse("ok<true")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FieldPredicate.parse("ok>=false")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void comparesOnTheColumnOfTheValueType() {
+        FieldPredicate number = FieldPredicate.parse("battery.level<20");
+        assertThat(number.sqlCondition()).isEqualTo("field_path = ? AND double_value < ?");
+        assertThat(number.sqlValue()).isEqualTo(20.0);
+        assertThat(FieldPredicate.parse("status=FAULT").sqlCondition()).isEqualTo("field_path = ? AND str_value = ?");
+        assertThat(FieldPredicate.parse("ok=false").sqlCondition()).isEqualTo("field_path = ? AND bool_value = ?");
+    }
+
+    @Test
+    void comparesLargeIntegersExactlyOnlyForEquality() {
+        FieldPredicate equal = FieldPredicate.parse("serial=9007199254740993");
+        assertThat(equal.sqlCondition()).isEqualTo("field_path = ? AND long_value = ?");
+        assertThat(equal.sqlValue()).isEqualTo(9007199254740993L);
+        assertThat(FieldPredicate.parse("serial>9007199254740993").sqlCondition())
+                .isEqualTo("field_path = ? AND double_value > ?");
+    }
+}
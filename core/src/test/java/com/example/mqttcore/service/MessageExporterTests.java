@@ -0,0 +1,173 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Each test exports its own topics, so rows written by another test do not show up.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:exporttest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=export-test",
+        "mqtt.broker.username="
+})
+class MessageExporterTests {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2006, 8, 9, 0, 0);
+    private static final byte[] BINARY = {0, (byte) 0xff, (byte) 0xc3, 0x28, 1};
+
+    @Autowired
+    private MessageExporter exporter;
+
+    @Autowired
+    private MessageImporter importer;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String root;
+
+    @BeforeEach
+    void store(TestInfo test) {
+        root = "export/" + test.getTestMethod().orElseThrow().getName();
+        messageService.saveBatch(List.of(
+                message(root + "/json", "{\"v\":1,\"note\":\"a, b\"}", 1),
+                message(root + "/quote", "say \"hi\"", 2),
+                message(root + "/lines", "line1\nline2\r\nline3", 3),
+                new InboundMessage(root + "/binary", BINARY, 2, true, DAY.plusMinutes(4)),
+                message(root + "/x,y", "", 5)));
+    }
+
+    @Test
+    void quotesCsvFieldsWithCommasQuotesAndLineBreaks() throws IOException {
+        String csv = export(ExportFormat.CSV, false);
+        List<List<String>> rows = parseCsv(csv);
+
+        assertThat(rows.get(0)).containsExactly("id", "topic", "payload", "qos", "retained", "receivedAt",
+                "payloadEncoding");
+        assertThat(rows).hasSize(6);
+        // newest first
+        assertThat(rows.subList(1, 6)).extracting(row -> row.subList(1, 3)).containsExactly(
+                List.of(root + "/x,y", ""),
+                List.of(root + "/binary", Base64.getEncoder().encodeToString(BINARY)),
+                List.of(root + "/lines", "line1\nline2\r\nline3"),
+                List.of(root + "/quote", "say \"hi\""),
+                List.of(root + "/json", "{\"v\":1,\"note\":\"a, b\"}"));
+        assertThat(rows.get(2).subList(3, 7)).containsExactly("2", "true", "2006-08-09T00:04:00", "base64");
+        assertThat(rows.get(4).get(6)).isEmpty();
+        assertThat(csv).contains(",\"say \"\"hi\"\"\",").contains("\"" + root + "/x,y\"").endsWith("\r\n");
+    }
+
+    @Test
+    void compressesTheSameRows() throws IOException {
+        byte[] compressed = exportBytes(ExportFormat.NDJSON, true);
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8))
+                    .isEqualTo(export(ExportFormat.NDJSON, false));
+        }
+    }
+
+    @Test
+    void reimportsNdjsonExportsUnchanged() throws IOException {
+        byte[] exported = exportBytes(ExportFormat.NDJSON, false);
+        List<JsonNode> original = withoutIds(exported);
+        assertThat(original).hasSize(5);
+        assertThat(original.get(1).get("payloadEncoding").asText()).isEqualTo("base64");
+
+        assertThat(importer.importMessages(new ByteArrayInputStream(exported)).getImported()).isEqualTo(5);
+
+        List<JsonNode> both = withoutIds(exportBytes(ExportFormat.NDJSON, false));
+        List<JsonNode> expected = new ArrayList<>();
+        // an imported copy sorts next to its original: same time, higher id first
+        original.forEach(node -> {
+            expected.add(node);
+            expected.add(node);
+        });
+        assertThat(both).isEqualTo(expected);
+    }
+
+    private String export(ExportFormat format, boolean gzip) throws IOException {
+        return new String(exportBytes(format, gzip), StandardCharsets.UTF_8);
+    }
+
+    private byte[] exportBytes(ExportFormat format, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(root + "/#", TopicMatchMode.FILTER, DAY, DAY.plusDays(1), format, gzip).writeTo(out);
+        return out.toByteArray();
+    }
+
+    private List<JsonNode> withoutIds(byte[] ndjson) throws IOException {
+        List<JsonNode> nodes = new ArrayList<>();
+        for (String line : new String(ndjson, StandardCharsets.UTF_8).split("\n")) {
+            ObjectNode node = (ObjectNode) objectMapper.readTree(line);
+            assertThat(node.remove("id")).isNotNull();
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /** RFC 4180: CRLF between records, quoted fields may hold anything with quotes doubled. */
+    private static List<List<String>> parseCsv(String csv) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < csv.length(); i++) {
+            char c = csv.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < csv.length() && csv.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' && csv.startsWith("\r\n", i)) {
+                row.add(field.toString());
+                field.setLength(0);
+                rows.add(row);
+                row = new ArrayList<>();
+                i++;
+            } else {
+                field.append(c);
+            }
+        }
+        assertThat(row).isEmpty();
+        return rows;
+    }
+
+    private InboundMessage message(String topic, String payload, int minutes) {
+        return new InboundMessage(topic, payload.getBytes(StandardCharsets.UTF_8), 1, false, DAY.plusMinutes(minutes));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.entity.MqttSubscription;
+import com.example.mqttcore.entity.ReceivedMessage;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.repository.MqttSubscriptionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Indexes messages under ids of its own choosing; no message rows are written, only field rows.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:fieldindextest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=field-index-test",
+        "mqtt.broker.username="
+})
+class MessageFieldIndexTests {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2005, 6, 7, 0, 0);
+
+    @Autowired
+    private MessageFieldIndex fieldIndex;
+
+    @Autowired
+    private MqttSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private SubscriptionRouter subscriptionRouter;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void indexMessages() {
+        if (!subscriptionRepository.findByActiveTrue().isEmpty()) {
+            return;
+        }
+        MqttSubscription subscription = new MqttSubscription();
+        subscription.setTopicFilter("fields/#");
+        subscription.setIndexedFields("status,battery.level,code,ok");
+        subscriptionRepository.save(subscription);
+        subscriptionRouter.refresh();
+
+        List<InboundMessage> batch = new ArrayList<>();
+        List<ReceivedMessage> stored = new ArrayList<>();
+        add(batch, stored, 1, "fields/a", 1, "{\"status\":\"FAULT\",\"battery\":{\"level\":15},\"code\":\"42\"}");
+        add(batch, stored, 2, "fields/a", 2, "{\"status\":\"OK\",\"battery\":{\"level\":20.0},\"code\":42}");
+        // next day, so a second partition
+        add(batch, stored, 3, "fields/b", 30, "{\"status\":\"OK\",\"battery\":{\"level\":\"low\"},\"ok\":true}");
+        add(batch, stored, 4, "fields/b", 31, "{\"status\":\"" + "x".repeat(MessageFieldIndex.MAX_STRING_LENGTH + 1) + "\"}");
+        add(batch, stored, 5, "fields/b", 32, "status=FAULT");
+        add(batch, stored, 6, "other/a", 3, "{\"status\":\"FAULT\"}");
+        transactionTemplate.executeWithoutResult(status -> fieldIndex.index(batch, stored));
+    }
+
+    @Test
+    void matchesStringsExactlyAndByOrder() {
+        assertThat(ids("status=FAULT")).containsExactly(1L);
+        assertThat(ids("status>=OK")).containsExactlyInAnyOrder(2L, 3L);
+        assertThat(ids("battery.level=low")).containsExactly(3L);
+    }
+
+    @Test
+    void matchesNumbersWhateverTheirJsonForm() {
+        assertThat(ids("battery.level<20")).containsExactly(1L);
+        assertThat(ids("battery.level<=20")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(ids("battery.level=20")).containsExactly(2L);
+        assertThat(ids("battery.level>=15.5")).containsExactly(2L);
+    }
+
+    @Test
+    void keepsValueTypesApart() {
+        assertThat(ids("code=42")).containsExactly(2L);
+        assertThat(ids("code=\"42\"")).containsExactly(1L);
+        assertThat(ids("ok=true")).containsExactly(3L);
+        assertThat(ids("ok=\"true\"")).isEmpty();
+        assertThat(ids("battery.level<\"z\"")).containsExactly(3L);
+    }
+
+    @Test
+    void skipsFieldsThatAreNotIndexed() {
+        // only configured paths, of matching topics, of JSON payloads, with short enough strings
+        assertThat(ids("battery.level>0")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(ids("status>P")).isEmpty();
+        assertThat(ids("status=FAULT")).doesNotContain(5L, 6L);
+    }
+
+    private List<Long> ids(String predicate) {
+        return fieldIndex.messageIds(FieldPredicate.parse(predicate));
+    }
+
+    private static void add(List<InboundMessage> batch, List<ReceivedMessage> stored, long id, String topic,
+                            int hours, String payload) {
+        LocalDateTime receivedAt = DAY.plusHours(hours);
+        batch.add(new InboundMessage(topic, payload.getBytes(), 1, false, receivedAt));
+        ReceivedMessage message = new ReceivedMessage(0, payload.getBytes(), 1, false, receivedAt);
+        message.setId(id);
+        stored.add(message);
+    }
+}
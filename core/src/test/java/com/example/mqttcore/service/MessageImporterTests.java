@@ -0,0 +1,181 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.ImportStatusDto;
+import com.example.mqttcore.entity.MqttSubscription;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import com.example.mqttcore.repository.MessagePartitions;
+import com.example.mqttcore.repository.MqttSubscriptionRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Small batches and chunks, so even a few hundred lines are parsed and written in parallel. Each
+ * test imports into its own day and topics.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:importtest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=import-test",
+        "mqtt.broker.username=",
+        "mqtt.import.batch-size=7",
+        "mqtt.import.writer-threads=3",
+        "mqtt.import.chunk-size-kb=1",
+        "mqtt.import.parallelism=2"
+})
+class MessageImporterTests {
+
+    @Autowired
+    private MessageImporter importer;
+
+    @Autowired
+    private TopicDictionary topicDictionary;
+
+    @Autowired
+    private MessagePartitions partitions;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MqttSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private SubscriptionRouter subscriptionRouter;
+
+    @SpyBean
+    private TopicCatalog topicCatalog;
+
+    @SpyBean
+    private TopicTimeline topicTimeline;
+
+    @SpyBean
+    private LatestValueStore latestValues;
+
+    @Test
+    void reportsBadLinesAndImportsTheRest() throws IOException {
+        LocalDateTime day = LocalDateTime.of(2007, 1, 2, 0, 0);
+        String at = "\"receivedAt\":\"2007-01-02T10:00:00\"";
+        String lines = String.join("\n",
+                "{\"topic\":\"import/bad/a\",\"payload\":\"1\"," + at + "}",
+                "not json",
+                "",
+                "{\"topic\":\"import/bad/#\"," + at + "}",
+                "{\"topic\":\"import/bad/a\",\"qos\":3," + at + "}",
+                "{\"topic\":\"import/bad/a\",\"receivedAt\":\"yesterday\"}",
+                "{\"topic\":\"import/bad/a\"}",
+                "{\"payload\":\"x\"," + at + "}",
+                "{\"topic\":\"import/bad/a\"," + at + ",\"payload\":",
+                // with an offset, and as epoch milliseconds
+                "{\"topic\":\"import/bad/b\",\"payload\":{\"v\":2},\"receivedAt\":\"2007-01-02T10:00:01Z\"}",
+                "{\"topic\":\"import/bad/b\",\"payload\":\"3\",\"receivedAt\":"
+                        + day.plusHours(11).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() + "}") + "\n";
+
+        ImportStatusDto status = importNdjson(lines);
+
+        assertThat(status.isRunning()).isFalse();
+        assertThat(status.getLines()).isEqualTo(11);
+        assertThat(status.getImported()).isEqualTo(3);
+        assertThat(status.getSkipped()).isEqualTo(7);
+        assertThat(status.getErrors()).extracting(error -> error.substring(0, error.indexOf(':')))
+                .containsExactly("line 2", "line 4", "line 5", "line 6", "line 7", "line 8", "line 9");
+        assertThat(status.getErrors()).anyMatch(error -> error.contains("qos must be 0, 1 or 2"))
+                .anyMatch(error -> error.contains("missing receivedAt"))
+                .anyMatch(error -> error.contains("invalid topic"));
+        assertThat(rowsOn(day)).isEqualTo(3);
+    }
+
+    @Test
+    void writesBatchesInParallelAndRecordsEachMessageOnce() throws IOException {
+        LocalDateTime day = LocalDateTime.of(2007, 2, 3, 0, 0);
+        StringBuilder lines = new StringBuilder();
+        int count = 400;
+        for (int i = 0; i < count; i++) {
+            lines.append("{\"topic\":\"import/bulk/").append(i % 5).append("\",\"payload\":\"{\\\"n\\\":").append(i)
+                    .append("}\",\"qos\":1,\"receivedAt\":\"").append(day.plusSeconds(i)).append("\"}\n");
+        }
+
+        ImportStatusDto status = importNdjson(lines.toString());
+
+        assertThat(status.getImported()).isEqualTo(count);
+        assertThat(status.getErrors()).isEmpty();
+        assertThat(rowsOn(day)).isEqualTo(count);
+        List<Integer> topicIds = topicDictionary.idsMatching("import/bulk/#", TopicMatchMode.FILTER);
+        assertThat(topicCatalog.countMessages(topicIds)).isEqualTo(count);
+        assertThat(topicTimeline.count(topicIds, day, day.plusDays(1))).isEqualTo(count);
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            expected.add("import/bulk/" + (i % 5) + "@" + day.plusSeconds(i));
+        }
+        assertThat(recorded(View.CATALOG)).hasSize(count).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(recorded(View.TIMELINE)).hasSize(count).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(recorded(View.LATEST)).hasSize(count).containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test
+    void leavesOutRetainedMessagesKeptAsLatestValueOnly() throws IOException {
+        LocalDateTime day = LocalDateTime.of(2007, 3, 4, 0, 0);
+        MqttSubscription subscription = new MqttSubscription();
+        subscription.setTopicFilter("import/retained/#");
+        subscription.setRetainedLatestOnly(true);
+        subscriptionRepository.save(subscription);
+        subscriptionRouter.refresh();
+
+        ImportStatusDto status = importNdjson(
+                "{\"topic\":\"import/retained/a\",\"payload\":\"1\",\"retained\":true,\"receivedAt\":\"2007-03-04T01:00:00\"}\n"
+                + "{\"topic\":\"import/retained/a\",\"payload\":\"2\",\"receivedAt\":\"2007-03-04T02:00:00\"}\n");
+
+        assertThat(status.getImported()).isEqualTo(1);
+        assertThat(rowsOn(day)).isEqualTo(1);
+        assertThat(recorded(View.LATEST)).containsExactly("import/retained/a@2007-03-04T02:00");
+    }
+
+    private ImportStatusDto importNdjson(String lines) throws IOException {
+        return importer.importMessages(new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private int rowsOn(LocalDateTime day) {
+        Integer rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partitions.forTime(day).getTable(),
+                Integer.class);
+        return rows != null ? rows : 0;
+    }
+
+    /** Every message passed to one of the spied views, as topic@receivedAt. */
+    @SuppressWarnings("unchecked")
+    private List<String> recorded(View view) {
+        ArgumentCaptor<List<InboundMessage>> batches = ArgumentCaptor.forClass(List.class);
+        switch (view) {
+            case CATALOG -> verify(topicCatalog, atLeastOnce()).record(batches.capture());
+            case TIMELINE -> verify(topicTimeline, atLeastOnce()).record(batches.capture());
+            case LATEST -> verify(latestValues, atLeastOnce()).record(batches.capture());
+        }
+        List<String> messages = new ArrayList<>();
+        batches.getAllValues().forEach(batch -> batch.forEach(message ->
+                messages.add(message.topic() + "@" + message.receivedAt())));
+        return messages;
+    }
+
+    private enum View {
+        CATALOG, TIMELINE, LATEST
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.MessageSliceDto;
+import com.example.mqttcore.dto.ReceivedMessageDto;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.mqtt.TopicMatchMode;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Recent buffer rings of four messages, so most pages of a topic have to come from the database.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:servicetest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=service-test",
+        "mqtt.broker.username=",
+        "mqtt.recent.per-topic=4",
+        "mqtt.recent.global=4"
+})
+class MessageServiceTests {
+
+    /** After startup, so the buffer vouches for the messages it holds. */
+    private static final LocalDateTime DAY = LocalDateTime.now().plusDays(2).truncatedTo(ChronoUnit.DAYS);
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private RecentMessageBuffer recentMessages;
+
+    @Test
+    void continuesFromTheDatabasePastTheBufferedMessages() {
+        store("recent/scroll", 10);
+        long misses = recentMessages.getStats().getMisses();
+
+        List<String> payloads = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            MessageSliceDto slice = messageService.scrollMessages("recent/scroll", TopicMatchMode.EXACT, null, null,
+                    List.of(), null, cursor, 3, false);
+            slice.getContent().forEach(message -> payloads.add(message.getPayload()));
+            cursor = slice.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(4);
+        assertThat(payloads).isEqualTo(IntStream.iterate(9, i -> i >= 0, i -> i - 1).mapToObj(String::valueOf).toList());
+        // the first page came from the buffer; the others, past its four messages, did not
+        assertThat(recentMessages.getStats().getMisses() - misses).isEqualTo(3);
+    }
+
+    @Test
+    void servesPagesFromTheBufferOrTheDatabaseAlike() {
+        store("recent/page", 10);
+        long hits = recentMessages.getStats().getHits();
+        PageRequest first = PageRequest.of(0, 4, Sort.by(Sort.Direction.DESC, "receivedAt"));
+
+        List<ReceivedMessageDto> buffered = messageService.getMessages("recent/page", TopicMatchMode.EXACT, null, null,
+                List.of(), null, first).getContent();
+        List<ReceivedMessageDto> deeper = messageService.getMessages("recent/page", TopicMatchMode.EXACT, null, null,
+                List.of(), null, first.next()).getContent();
+
+        assertThat(recentMessages.getStats().getHits() - hits).isEqualTo(1);
+        assertThat(buffered).extracting(ReceivedMessageDto::getPayload).containsExactly("9", "8", "7", "6");
+        assertThat(deeper).extracting(ReceivedMessageDto::getPayload).containsExactly("5", "4", "3", "2");
+    }
+
+    private void store(String topic, int count) {
+        List<InboundMessage> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batch.add(new InboundMessage(topic, String.valueOf(i).getBytes(), 1, false, DAY.plusMinutes(i)));
+        }
+        messageService.saveBatch(batch);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.MqttSubscriptionDto;
+import com.example.mqttcore.ingest.IngestPipeline;
+import com.hivemq.embedded.EmbeddedHiveMQ;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the connection pool against an embedded broker.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=pool-test",
+        "mqtt.broker.username=",
+        "mqtt.broker.connections=3",
+        "mqtt.ingest.flush-interval-ms=50"
+})
+class MqttClientServiceTests {
+
+    private static EmbeddedHiveMQ broker;
+    private static int port;
+
+    @Autowired
+    private MqttClientService mqttClientService;
+
+    @Autowired
+    private MqttSubscriptionService subscriptionService;
+
+    @Autowired
+    private IngestPipeline ingestPipeline;
+
+    @DynamicPropertySource
+    static void brokerProperties(DynamicPropertyRegistry registry) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Path home = Files.createTempDirectory("hivemq");
+        Files.createDirectories(home.resolve("data"));
+        Files.createDirectories(home.resolve("extensions"));
+        Files.writeString(home.resolve("config.xml"), """
+                <hivemq>
+                    <listeners>
+                        <tcp-listener>
+                            <port>%d</port>
+                            <bind-address>127.0.0.1</bind-address>
+                        </tcp-listener>
+                    </listeners>
+                </hivemq>
+                """.formatted(port));
+        broker = EmbeddedHiveMQ.builder()
+                .withConfigurationFolder(home)
+                .withDataFolder(home.resolve("data"))
+                .withExtensionsFolder(home.resolve("extensions"))
+                .build();
+        broker.start().join();
+        registry.add("mqtt.broker.url", () -> "tcp://127.0.0.1:" + port);
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        broker.stop().join();
+        broker.close();
+    }
+
+    @Test
+    void sharedSubscriptionDeliversEachMessageOnce() throws Exception {
+        assertThat(mqttClientService.getConnectedCount()).isEqualTo(3);
+
+        MqttSubscriptionDto request = new MqttSubscriptionDto();
+        request.setTopicFilter("pool/#");
+        request.setQos(1);
+        request.setShared(true);
+        subscriptionService.createSubscription(request);
+
+        int count = 300;
+        MqttClient publisher = new MqttClient("tcp://127.0.0.1:" + port, "pool-test-publisher", new MemoryPersistence());
+        publisher.connect();
+        for (int i = 0; i < count; i++) {
+            publisher.publish("pool/" + (i % 7), ("{\"n\":" + i + "}").getBytes(), 1, false);
+        }
+        publisher.disconnect();
+        publisher.close();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (ingestPipeline.getWritten() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(300);
+        // A plain subscription on three connections would store every message three times
+        assertThat(ingestPipeline.getWritten()).isEqualTo(count);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.entity.ReceivedMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecentMessageBufferTests {
+
+    /** Messages are received after the buffer started, which it vouches for. */
+    private final LocalDateTime base = LocalDateTime.now().plusHours(1).truncatedTo(ChronoUnit.SECONDS);
+    private final MessageCursor newest = MessageCursor.first(null);
+    private RecentMessageBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = new RecentMessageBuffer();
+        ReflectionTestUtils.setField(buffer, "enabled", true);
+        ReflectionTestUtils.setField(buffer, "perTopic", 4);
+        ReflectionTestUtils.setField(buffer, "global", 6);
+        ReflectionTestUtils.setField(buffer, "maxMemoryMb", 64L);
+        buffer.init();
+    }
+
+    @Test
+    void keepsTheNewestMessagesAsTheRingWrapsAround() {
+        for (int i = 1; i <= 11; i++) {
+            record(1, i);
+        }
+
+        assertThat(ids(buffer.newest(List.of(1), newest, null, 4, 10))).containsExactly(11L, 10L, 9L, 8L);
+        assertThat(ids(buffer.newest(null, newest, null, 6, 10))).containsExactly(11L, 10L, 9L, 8L, 7L, 6L);
+        // the next page starts behind the oldest buffered message
+        assertThat(ids(buffer.newest(List.of(1), cursorOf(10), null, 2, 10))).containsExactly(9L, 8L);
+        assertThat(buffer.getStats().getMessages()).isEqualTo(10);
+    }
+
+    @Test
+    void fallsBackPastTheBufferedMessages() {
+        for (int i = 1; i <= 11; i++) {
+            record(1, i);
+        }
+
+        // message 7 was evicted: the buffer cannot tell what comes after 8
+        assertThat(buffer.newest(List.of(1), newest, null, 5, 10)).isNull();
+        assertThat(buffer.newest(List.of(1), cursorOf(9), null, 2, 10)).isNull();
+        assertThat(buffer.newest(List.of(1), newest, at(6), 10, 10)).isNull();
+        assertThat(buffer.count(List.of(1), at(6), null)).isEqualTo(-1);
+        assertThat(buffer.getStats().getMisses()).isEqualTo(3);
+    }
+
+    @Test
+    void servesRangesThatStartAfterTheOldestEviction() {
+        for (int i = 1; i <= 11; i++) {
+            record(1, i);
+        }
+
+        // everything from message 8 on is buffered, even fewer than asked for
+        assertThat(ids(buffer.newest(List.of(1), newest, at(8), 10, 10))).containsExactly(11L, 10L, 9L, 8L);
+        assertThat(buffer.count(List.of(1), at(8), null)).isEqualTo(4);
+        assertThat(buffer.getStats().getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void sortsLateArrivalsIntoPlace() {
+        record(1, 1);
+        record(1, 3);
+        record(1, 4);
+        record(1, 2);
+        record(1, 5);
+
+        assertThat(ids(buffer.newest(List.of(1), newest, null, 4, 10))).containsExactly(5L, 4L, 3L, 2L);
+        // older than everything in the full ring: dropped, and the ring no longer vouches for it
+        record(1, 0);
+        assertThat(buffer.newest(List.of(1), newest, at(0), 10, 10)).isNull();
+        assertThat(ids(buffer.newest(List.of(1), newest, null, 4, 10))).containsExactly(5L, 4L, 3L, 2L);
+    }
+
+    @Test
+    void mergesTopicsNewestFirst() {
+        record(1, 1);
+        record(2, 2);
+        record(1, 3);
+        record(3, 4);
+
+        // either topic may have older messages from before the start
+        assertThat(buffer.newest(List.of(1, 2), newest, null, 3, 10)).isNull();
+        assertThat(ids(buffer.newest(List.of(1, 2), newest, null, 1, 10))).containsExactly(3L);
+        assertThat(ids(buffer.newest(List.of(1, 2), newest, at(0), 10, 10))).containsExactly(3L, 2L, 1L);
+        // over maxTopics the global ring is filtered instead
+        assertThat(ids(buffer.newest(List.of(1, 3), newest, at(0), 10, 1))).containsExactly(4L, 3L, 1L);
+    }
+
+    @Test
+    void answersForTopicsWithoutMessagesOnlyWithinTheRunTime() {
+        record(1, 1);
+
+        assertThat(buffer.newest(List.of(9), newest, null, 10, 10)).isNull();
+        assertThat(buffer.newest(List.of(9), newest, at(0), 10, 10)).isEmpty();
+        assertThat(buffer.count(List.of(1, 9), at(0), null)).isEqualTo(1);
+    }
+
+    private void record(int topicId, int second) {
+        ReceivedMessage message = new ReceivedMessage(topicId, ("{\"n\":" + second + "}").getBytes(), 1, false, at(second));
+        message.setId((long) second);
+        buffer.record(List.of(message));
+    }
+
+    private LocalDateTime at(int second) {
+        return base.plusSeconds(second);
+    }
+
+    private MessageCursor cursorOf(int second) {
+        return new MessageCursor(at(second), second);
+    }
+
+    private static List<Long> ids(List<ReceivedMessage> messages) {
+        return messages == null ? null : messages.stream().map(ReceivedMessage::getId).toList();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.dto.RetentionRunDto;
+import com.example.mqttcore.entity.MqttSubscription;
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.ingest.SubscriptionRouter;
+import com.example.mqttcore.repository.MqttSubscriptionRepository;
+import com.example.mqttcore.repository.ReceivedMessageRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Purges in chunks of five rows at twenty rows a second, so throttling shows in the run time.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:retentiontest;DB_CLOSE_DELAY=-1",
+        "mqtt.spool.enabled=false",
+        "mqtt.broker.client-id=retention-test",
+        "mqtt.broker.username=",
+        "mqtt.retention.enabled=false",
+        "mqtt.retention.chunk-size=5",
+        "mqtt.retention.max-rows-per-second=20"
+})
+class RetentionPurgerTests {
+
+    @Autowired
+    private RetentionPurger retentionPurger;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private MqttSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private SubscriptionRouter subscriptionRouter;
+
+    @Autowired
+    private TopicDictionary topicDictionary;
+
+    @Autowired
+    private ReceivedMessageRepository messageRepository;
+
+    @Test
+    void cutsEachSubscriptionAtItsOwnMaximumAge() {
+        subscribe("retention/short/#", 3);
+        subscribe("retention/long/#", 30);
+        LocalDateTime now = LocalDateTime.now();
+        store("retention/short/a", now.minusDays(10), 1);
+        store("retention/short/a", now.minusDays(1), 1);
+        store("retention/long/a", now.minusDays(10), 1);
+        store("retention/long/a", now.minusDays(1), 1);
+
+        RetentionRunDto report = retentionPurger.run();
+
+        assertThat(report.getPurgedBySubscription()).containsOnlyKeys("retention/short/#");
+        assertThat(report.getPurgedBySubscription().get("retention/short/#")).isEqualTo(1L);
+        assertThat(count("retention/short/a")).isEqualTo(1);
+        assertThat(count("retention/long/a")).isEqualTo(2);
+    }
+
+    @Test
+    void throttlesDeletesToTheRowBudget() {
+        subscribe("retention/throttled/#", 1);
+        store("retention/throttled/a", LocalDateTime.now().minusDays(5), 10);
+
+        RetentionRunDto report = retentionPurger.run();
+
+        assertThat(report.getPurgedBySubscription().get("retention/throttled/#")).isEqualTo(10L);
+        assertThat(report.getStoppedBy()).isNull();
+        // two chunks of five rows at twenty rows a second take at least half a second
+        assertThat(report.getDurationMs()).isGreaterThanOrEqualTo(450);
+        assertThat(count("retention/throttled/a")).isZero();
+    }
+
+    private void subscribe(String topicFilter, int retentionDays) {
+        MqttSubscription sub = new MqttSubscription(topicFilter, 1, null);
+        sub.setRetentionDays(retentionDays);
+        subscriptionRepository.save(sub);
+        subscriptionRouter.refresh();
+    }
+
+    private void store(String topic, LocalDateTime receivedAt, int count) {
+        List<InboundMessage> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batch.add(new InboundMessage(topic, String.valueOf(i).getBytes(), 1, false, receivedAt.plusSeconds(i)));
+        }
+        messageService.saveBatch(batch);
+    }
+
+    private long count(String topic) {
+        return messageRepository.countByTopic(topicDictionary.idOf(topic));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.ingest.InboundMessage;
+import com.example.mqttcore.repository.TopicRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TopicCatalogTests {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 3, 1, 12, 30);
+
+    private final TopicDictionary topicDictionary = mock(TopicDictionary.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private TopicCatalog catalog;
+
+    @BeforeEach
+    void setUp() {
+        when(topicDictionary.idOf("plant/a")).thenReturn(1);
+        when(topicDictionary.idOf("plant/b")).thenReturn(2);
+        catalog = new TopicCatalog(mock(TopicRepository.class), topicDictionary, jdbcTemplate);
+        catalog.load();
+    }
+
+    @Test
+    void flushesOnlyTopicsThatChanged() {
+        catalog.record(List.of(message("plant/a", 0, "12"), message("plant/b", 5, "3")));
+        catalog.flush();
+        catalog.record(List.of(message("plant/a", 10, "456")));
+        catalog.flush();
+
+        assertThat(flushedRows(2)).containsExactly(
+                new Object[]{2L, 5L, Timestamp.valueOf(NOW), Timestamp.valueOf(NOW.plusSeconds(10)), 1});
+    }
+
+    @Test
+    void keepsTopicsOfAFailedFlushDirty() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("database down"))
+                .thenReturn(new int[]{1});
+        catalog.record(List.of(message("plant/a", 0, "12")));
+
+        // logged, not thrown out of the scheduler
+        catalog.flush();
+        catalog.flush();
+
+        assertThat(flushedRows(2)).containsExactly(
+                new Object[]{1L, 2L, Timestamp.valueOf(NOW), Timestamp.valueOf(NOW), 1});
+        catalog.flush();
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> flushedRows(int flushes) {
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(flushes)).batchUpdate(anyString(), rows.capture());
+        return rows.getValue();
+    }
+
+    private static InboundMessage message(String topic, int secondsAfter, String payload) {
+        return new InboundMessage(topic, payload.getBytes(), 1, false, NOW.plusSeconds(secondsAfter));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.mqttcore.service;
+
+import com.example.mqttcore.ingest.InboundMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TopicTimelineTests {
+
+    private static final LocalDateTime MINUTE = LocalDateTime.of(2024, 3, 1, 12, 30);
+
+    private final TopicDictionary topicDictionary = mock(TopicDictionary.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private TopicTimeline timeline;
+
+    @BeforeEach
+    void setUp() {
+        when(topicDictionary.idOf("plant/a")).thenReturn(1);
+        when(topicDictionary.idOf("plant/b")).thenReturn(2);
+        timeline = new TopicTimeline(topicDictionary, jdbcTemplate, mock(NamedParameterJdbcTemplate.class),
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    }
+
+    @Test
+    void sumsMessagesPerTopicAndMinute() {
+        timeline.record(List.of(message("plant/a", 0, "12"), message("plant/a", 20, "345"),
+                message("plant/b", 30, "6"), message("plant/a", 70, "78")));
+
+        timeline.flush();
+
+        assertThat(flushedRows(1)).containsExactlyInAnyOrder(
+                new Object[]{1, "MINUTE", MINUTE, 2L, 5L},
+                new Object[]{2, "MINUTE", MINUTE, 1L, 1L},
+                new Object[]{1, "MINUTE", MINUTE.plusMinutes(1), 1L, 2L});
+    }
+
+    @Test
+    void keepsTheCountsOfAFailedFlushForTheNextOne() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("database down"))
+                .thenReturn(new int[]{1});
+        timeline.record(List.of(message("plant/a", 0, "12"), message("plant/a", 10, "345")));
+
+        assertThatThrownBy(timeline::flush).isInstanceOf(DataAccessResourceFailureException.class);
+        assertThat(timeline.count(null, null, null)).isEqualTo(2);
+        timeline.record(List.of(message("plant/a", 20, "6")));
+        timeline.flush();
+
+        assertThat(flushedRows(2)).containsExactly(new Object[]{1, "MINUTE", MINUTE, 3L, 6L});
+    }
+
+    @Test
+    void skipsTheWriteWhenNothingWasCounted() {
+        timeline.flush();
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    /** Rows of the last of {@code flushes} writes, with timestamps as LocalDateTime. */
+    @SuppressWarnings("unchecked")
+    private List<Object[]> flushedRows(int flushes) {
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(flushes)).batchUpdate(anyString(), rows.capture());
+        return rows.getValue().stream()
+                .map(row -> new Object[]{row[0], row[1], ((Timestamp) row[2]).toLocalDateTime(), row[3], row[4]})
+                .toList();
+    }
+
+    private static InboundMessage message(String topic, int secondsAfter, String payload) {
+        return new InboundMessage(topic, payload.getBytes(), 1, false, MINUTE.plusSeconds(secondsAfter));
+    }
+}
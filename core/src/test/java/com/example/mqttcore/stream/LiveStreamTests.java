@@ -0,0 +1,162 @@
+package com.example.mqttcore.stream;
+
+import com.example.mqttcore.dto.ReceivedMessageDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The conflation tick is not started; tests flush the {@code LATEST} clients themselves.
+ */
+class LiveStreamTests {
+
+    private static final int TICK_MS = 1000;
+
+    private LiveStream liveStream;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        liveStream = new LiveStream(objectMapper);
+        ReflectionTestUtils.setField(liveStream, "clientBuffer", 100);
+        ReflectionTestUtils.setField(liveStream, "maxClients", 10);
+        ReflectionTestUtils.setField(liveStream, "conflationTickMs", TICK_MS);
+    }
+
+    @Test
+    void handsMessagesToTheClientsWhoseFiltersMatch() throws InterruptedException {
+        RecordingEmitter single = connect(List.of("sensors/+/temp"), ConflationMode.ALL, 0);
+        RecordingEmitter multi = connect(List.of("sensors/#"), ConflationMode.ALL, 0);
+        RecordingEmitter overlapping = connect(List.of("sensors/#", "sensors/a/temp"), ConflationMode.ALL, 0);
+        RecordingEmitter other = connect(List.of("other/topic"), ConflationMode.ALL, 0);
+        RecordingEmitter none = connect(List.of(), ConflationMode.ALL, 0);
+
+        liveStream.publish(List.of(message("sensors/a/temp", "1"), message("sensors/a/humidity", "2"),
+                message("sensors", "3")));
+        awaitStatus(single, multi, overlapping, other, none);
+
+        assertThat(single.payloads()).containsExactly("1");
+        assertThat(multi.payloads()).containsExactly("1", "2", "3");
+        // once per message, however many of the client's filters match
+        assertThat(overlapping.payloads()).containsExactly("1", "2", "3");
+        assertThat(other.payloads()).isEmpty();
+        assertThat(none.payloads()).isEmpty();
+    }
+
+    @Test
+    void raisesTheLatestIntervalToTheConflationTick() throws InterruptedException {
+        RecordingEmitter emitter = new RecordingEmitter();
+        StreamClient client = liveStream.connect(emitter, List.of("#"), ConflationMode.LATEST, 10, 1);
+
+        liveStream.publish(List.of(message("busy", "1"), message("busy", "2")));
+        client.flushPending(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MS / 2));
+        awaitStatus(emitter);
+        assertThat(emitter.payloads()).isEmpty();
+
+        client.flushPending(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MS + 100));
+        awaitStatus(emitter);
+        assertThat(emitter.payloads()).containsExactly("2");
+    }
+
+    @Test
+    void keepsLatestIntervalsAboveTheConflationTick() throws InterruptedException {
+        RecordingEmitter emitter = new RecordingEmitter();
+        StreamClient client = liveStream.connect(emitter, List.of("#"), ConflationMode.LATEST, 3 * TICK_MS, 1);
+
+        liveStream.publish(List.of(message("busy", "1")));
+        client.flushPending(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MS + 100));
+        awaitStatus(emitter);
+        assertThat(emitter.payloads()).isEmpty();
+
+        client.flushPending(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(3 * TICK_MS + 100));
+        awaitStatus(emitter);
+        assertThat(emitter.payloads()).containsExactly("1");
+    }
+
+    private RecordingEmitter connect(List<String> filters, ConflationMode mode, int intervalMs) {
+        RecordingEmitter emitter = new RecordingEmitter();
+        liveStream.connect(emitter, filters, mode, intervalMs, 1);
+        return emitter;
+    }
+
+    /** Sends a status event and waits until every emitter wrote it, and so all events before it. */
+    private void awaitStatus(RecordingEmitter... emitters) throws InterruptedException {
+        int[] expected = new int[emitters.length];
+        for (int i = 0; i < emitters.length; i++) {
+            expected[i] = emitters[i].statusCount() + 1;
+        }
+        liveStream.brokerStatus(true, 1);
+        for (int i = 0; i < emitters.length; i++) {
+            RecordingEmitter emitter = emitters[i];
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (emitter.statusCount() < expected[i] && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(emitter.statusCount()).isEqualTo(expected[i]);
+        }
+    }
+
+    private static ReceivedMessageDto message(String topic, String payload) {
+        ReceivedMessageDto dto = new ReceivedMessageDto();
+        dto.setTopic(topic);
+        dto.setPayload(payload);
+        return dto;
+    }
+
+    /** Keeps the events written to it as their text. */
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<String> events = new ArrayList<>();
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private int statusEvents;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            String event = builder.build().stream().map(part -> part.getData().toString())
+                    .collect(Collectors.joining());
+            synchronized (this) {
+                if (event.startsWith("event:status")) {
+                    statusEvents++;
+                } else {
+                    events.add(event);
+                }
+            }
+        }
+
+        synchronized int statusCount() {
+            return statusEvents;
+        }
+
+        /** Payloads of the messages sent, in order. */
+        synchronized List<String> payloads() {
+            List<String> payloads = new ArrayList<>();
+            for (String event : events) {
+                if (event.startsWith("event:messages")) {
+                    String data = event.substring(event.indexOf("data:") + 5).trim();
+                    readTree(data).forEach(node -> payloads.add(node.get("payload").asText()));
+                }
+            }
+            return payloads;
+        }
+
+        private JsonNode readTree(String json) {
+            try {
+                return objectMapper.readTree(json);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -3,6 +3,9 @@ import client from './client'
 export const getMessages = (params) =>
   client.get('/messages', { params })
 
+export const scrollMessages = (params) =>
+  client.get('/messages/scroll', { params })
+
 export const getMessageById = (id) =>
   client.get(`/messages/${id}`)
 
@@ -0,0 +1,86 @@
+import { BASE_URL } from './client'
+
+const RETRY_MS = 3000
+
+/**
+ * Opens the live stream (server-sent events over fetch, so the JWT goes in a header) and
+ * reconnects after errors. `filters` are MQTT topic filters; without any only status events
+ * arrive. `options` may set the conflation: { mode: 'ALL' | 'LATEST' | 'SAMPLE', intervalMs, sampleRate }.
+ * Handlers: onMessages(array), onStatus(status), onOpen(), onError(), onOverflow().
+ * Returns a function that closes the stream.
+ */
+export function openStream(filters, handlers, options = {}) {
+  let controller = null
+  let retry = null
+  let closed = false
+
+  const connect = async () => {
+    controller = new AbortController()
+    const params = new URLSearchParams()
+    filters.forEach((f) => params.append('filter', f))
+    Object.entries(options).forEach(([k, v]) => v != null && params.append(k, v))
+    try {
+      const res = await fetch(`${BASE_URL}/messages/stream?${params}`, {
+        headers: { Authorization: `Bearer ${localStorage.getItem('jwt_token')}` },
+        signal: controller.signal,
+      })
+      if (res.status === 401) {
+        localStorage.removeItem('jwt_token')
+        localStorage.removeItem('jwt_user')
+        window.location.href = '/login'
+        return
+      }
+      if (res.status === 400) {
+        // an invalid filter will not get better by retrying
+        handlers.onError?.()
+        return
+      }
+      if (!res.ok) throw new Error(`stream: HTTP ${res.status}`)
+      handlers.onOpen?.()
+      await readEvents(res.body, (event, data) => {
+        if (event === 'messages') handlers.onMessages?.(JSON.parse(data))
+        else if (event === 'status') handlers.onStatus?.(JSON.parse(data))
+        else if (event === 'overflow') handlers.onOverflow?.()
+      })
+    } catch (e) {
+      if (closed) return
+    }
+    if (!closed) {
+      handlers.onError?.()
+      retry = setTimeout(connect, RETRY_MS)
+    }
+  }
+
+  connect()
+  return () => {
+    closed = true
+    clearTimeout(retry)
+    controller?.abort()
+  }
+}
+
+async function readEvents(body, onEvent) {
+  const reader = body.pipeThrough(new TextDecoderStream()).getReader()
+  let buffer = ''
+  let event = 'message'
+  let data = []
+  for (;;) {
+    const { value, done } = await reader.read()
+    if (done) return
+    buffer += value
+    let nl
+    while ((nl = buffer.indexOf('\n')) >= 0) {
+      const line = buffer.slice(0, nl).replace(/\r$/, '')
+      buffer = buffer.slice(nl + 1)
+      if (line === '') {
+        if (data.length) onEvent(event, data.join('\n'))
+        event = 'message'
+        data = []
+      } else if (line.startsWith('event:')) {
+        event = line.slice(6).trim()
+      } else if (line.startsWith('data:')) {
+        data.push(line.slice(5).replace(/^ /, ''))
+      }
+    }
+  }
+}
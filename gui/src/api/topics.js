@@ -0,0 +1,4 @@
+import client from './client'
+
+export const getTopicTimeline = (params) =>
+  client.get('/topics/timeline', { params })
@@ -3,7 +3,7 @@ import { Link, useLocation } from 'react-router-dom'
 import { useAuth } from '../context/AuthContext'
 import { useTheme } from '../context/ThemeContext'
 import { useI18n } from '../context/I18nContext'
-import { getBrokerStatus } from '../api/mqtt'
+import { openStream } from '../api/stream'
 
 export default function Navbar() {
   const { user, logout, isAdmin } = useAuth()
@@ -12,15 +12,11 @@ export default function Navbar() {
   const location = useLocation()
   const [connected, setConnected] = useState(null)
 
-  useEffect(() => {
-    const check = () =>
-      getBrokerStatus()
-        .then((r) => setConnected(r.data.connected))
-        .catch(() => setConnected(false))
-    check()
-    const id = setInterval(check, 10000)
-    return () => clearInterval(id)
-  }, [])
+  // Status changes are pushed; a broken stream counts as offline until it reconnects
+  useEffect(() => openStream([], {
+    onStatus: (status) => setConnected(status.connected),
+    onError: () => setConnected(false),
+  }), [])
 
   const navLink = (to, label) => (
     <Link to={to} style={{
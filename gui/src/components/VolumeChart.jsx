@@ -0,0 +1,28 @@
+import React from 'react'
+
+/**
+ * VolumeChart – bar chart of message counts per time bucket
+ * (the output of /api/topics/timeline).
+ */
+export default function VolumeChart({ buckets, height = 60, title }) {
+  if (!buckets || buckets.length === 0) return null
+  const max = Math.max(...buckets.map((b) => b.messageCount), 1)
+  return (
+    <div>
+      {title && <div style={{ fontSize: '0.79rem', color: 'var(--text-muted)', marginBottom: 6 }}>{title}</div>}
+      <div style={{ display: 'flex', alignItems: 'flex-end', gap: 1, height }}>
+        {buckets.map((b) => (
+          <div
+            key={b.start}
+            title={`${new Date(b.start).toLocaleString()}: ${b.messageCount}`}
+            style={{ flex: 1, minWidth: 1, height: `${Math.max(2, (b.messageCount / max) * 100)}%`, background: 'var(--accent)', opacity: 0.8 }}
+          />
+        ))}
+      </div>
+      <div style={{ display: 'flex', justifyContent: 'space-between', fontSize: '0.72rem', color: 'var(--text-muted)', marginTop: 4 }}>
+        <span>{new Date(buckets[0].start).toLocaleString()}</span>
+        <span>{new Date(buckets[buckets.length - 1].start).toLocaleString()}</span>
+      </div>
+    </div>
+  )
+}
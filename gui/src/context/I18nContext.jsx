@@ -30,12 +30,23 @@ const translations = {
     messages: {
       title: 'Received Messages',
       refresh: 'Refresh',
+      live: 'Live',
+      liveMode: 'Live updates',
+      liveAll: 'Every message',
+      liveLatest: 'Latest per topic (1 s)',
+      liveSample: '1 in 10 per topic',
       filterByTopic: 'Filter by topic',
+      topicMode: 'Match',
+      modeFilter: 'MQTT filter (+, #)',
+      modePrefix: 'Starts with',
+      modeContains: 'Contains (slow)',
       from: 'From',
       to: 'To',
       clear: 'Clear',
       quickFilter: 'Quick filter:',
       found: (n) => `${n} message${n !== 1 ? 's' : ''} found`,
+      loaded: (n) => `${n} loaded`,
+      activity: 'Messages over time',
       noMessages: 'No messages found',
       colId: 'ID',
       colTopic: 'Topic',
@@ -178,12 +189,23 @@ const translations = {
     messages: {
       title: 'Empfangene Nachrichten',
       refresh: 'Aktualisieren',
+      live: 'Live',
+      liveMode: 'Live-Aktualisierung',
+      liveAll: 'Jede Nachricht',
+      liveLatest: 'Neueste je Thema (1 s)',
+      liveSample: '1 von 10 je Thema',
       filterByTopic: 'Nach Thema filtern',
+      topicMode: 'Abgleich',
+      modeFilter: 'MQTT-Filter (+, #)',
+      modePrefix: 'Beginnt mit',
+      modeContains: 'Enthält (langsam)',
       from: 'Von',
       to: 'Bis',
       clear: 'Zurücksetzen',
       quickFilter: 'Schnellfilter:',
       found: (n) => `${n} Nachricht${n !== 1 ? 'en' : ''} gefunden`,
+      loaded: (n) => `${n} geladen`,
+      activity: 'Nachrichten im Zeitverlauf',
       noMessages: 'Keine Nachrichten gefunden',
       colId: 'ID',
       colTopic: 'Thema',
@@ -326,12 +348,23 @@ const translations = {
     messages: {
       title: 'Přijaté zprávy',
       refresh: 'Obnovit',
+      live: 'Živě',
+      liveMode: 'Živé aktualizace',
+      liveAll: 'Každá zpráva',
+      liveLatest: 'Nejnovější za téma (1 s)',
+      liveSample: '1 z 10 za téma',
       filterByTopic: 'Filtrovat podle tématu',
+      topicMode: 'Shoda',
+      modeFilter: 'MQTT filtr (+, #)',
+      modePrefix: 'Začíná na',
+      modeContains: 'Obsahuje (pomalé)',
       from: 'Od',
       to: 'Do',
       clear: 'Vymazat',
       quickFilter: 'Rychlý filtr:',
       found: (n) => `Nalezeno ${n} zpráv${n === 1 ? 'a' : n >= 2 && n <= 4 ? 'y' : ''}`,
+      loaded: (n) => `načteno ${n}`,
+      activity: 'Zprávy v čase',
       noMessages: 'Žádné zprávy nenalezeny',
       colId: 'ID',
       colTopic: 'Téma',
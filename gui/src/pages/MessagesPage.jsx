@@ -1,12 +1,17 @@
-import React, { useState, useEffect, useCallback } from 'react'
-import { getMessages, getDistinctTopics, getMessageById } from '../api/messages'
+import React, { useState, useEffect, useCallback, useRef } from 'react'
+import { scrollMessages, getDistinctTopics, getMessageById } from '../api/messages'
 import { publishMessage } from '../api/mqtt'
+import { getTopicTimeline } from '../api/topics'
+import { openStream } from '../api/stream'
 import { useAuth } from '../context/AuthContext'
 import { useI18n } from '../context/I18nContext'
 import SortableTh from '../components/SortableTh'
+import VolumeChart from '../components/VolumeChart'
 import { useSortableTable } from '../hooks/useSortableTable'
 
 const lastPublishForm = { topic: '', payload: '', qos: 0, retained: false }
+// Live rows are prepended; beyond this the oldest are dropped (and scrolling further stops)
+const MAX_LIVE_ROWS = 1000
 
 function MessageDetailModal({ id, onClose, t }) {
   const [msg, setMsg] = useState(null)
@@ -110,12 +115,19 @@ export default function MessagesPage() {
 
   const [messages, setMessages] = useState([])
   const [topics, setTopics] = useState([])
+  const [timeline, setTimeline] = useState([])
   const [total, setTotal] = useState(0)
   const [loading, setLoading] = useState(false)
   const [selectedId, setSelectedId] = useState(null)
   const [showPublish, setShowPublish] = useState(false)
-  const [filter, setFilter] = useState({ topic: '', from: '', to: '' })
-  const [page, setPage] = useState(0)
+  const [filter, setFilter] = useState({ topic: '', topicMode: 'FILTER', from: '', to: '' })
+  const [cursor, setCursor] = useState(null)
+  const [loadingMore, setLoadingMore] = useState(false)
+  const [live, setLive] = useState(true)
+  const [liveMode, setLiveMode] = useState('ALL')
+  const sentinel = useRef(null)
+  const loaded = useRef(messages)
+  loaded.current = messages
   const pageSize = 50
 
   const [colW, setColW] = useState({ id: 65, topic: 220, payload: 280, qos: 60, retained: 80, receivedAt: 175, actions: 130 })
@@ -123,25 +135,77 @@ export default function MessagesPage() {
 
   const { sorted, sortKey, sortDir, toggleSort } = useSortableTable(messages, 'receivedAt', 'desc')
 
+  const queryParams = useCallback(() => {
+    const params = { size: pageSize }
+    if (filter.topic) {
+      params.topic = filter.topic
+      params.topicMode = filter.topicMode
+    }
+    if (filter.from) params.from = new Date(filter.from).toISOString()
+    if (filter.to) params.to = new Date(filter.to).toISOString()
+    return params
+  }, [filter])
+
   const load = useCallback(async () => {
     setLoading(true)
     try {
-      const params = { page, size: pageSize }
-      if (filter.topic) params.topic = filter.topic
-      if (filter.from) params.from = new Date(filter.from).toISOString()
-      if (filter.to) params.to = new Date(filter.to).toISOString()
-      const res = await getMessages(params)
+      const params = queryParams()
+      const [res, volume] = await Promise.all([
+        scrollMessages({ ...params, total: true }),
+        getTopicTimeline({ topic: params.topic, topicMode: params.topicMode, from: params.from, to: params.to }).catch(() => ({ data: [] })),
+      ])
       setMessages(res.data.content)
-      setTotal(res.data.totalElements)
+      setCursor(res.data.nextCursor)
+      setTotal(res.data.approximateTotal)
+      setTimeline(volume.data)
     } catch (e) { console.error(e) }
     finally { setLoading(false) }
-  }, [page, filter])
+  }, [queryParams])
+
+  const loadMore = useCallback(async () => {
+    if (!cursor || loadingMore) return
+    setLoadingMore(true)
+    try {
+      const res = await scrollMessages({ ...queryParams(), cursor })
+      setMessages((prev) => [...prev, ...res.data.content])
+      setCursor(res.data.nextCursor)
+    } catch (e) { console.error(e) }
+    finally { setLoadingMore(false) }
+  }, [cursor, loadingMore, queryParams])
 
   useEffect(() => { load() }, [load])
+
+  // New messages are pushed while the view ends at "now" and the topic is an MQTT filter
+  const canStream = live && !filter.to && (!filter.topic || filter.topicMode === 'FILTER')
+  useEffect(() => {
+    if (!canStream) return
+    return openStream([filter.topic || '#'], {
+      onMessages: (batch) => {
+        // the first pushed messages may already be in the page loaded meanwhile
+        const known = new Set(loaded.current.map((m) => m.id))
+        const fresh = batch.filter((m) => !known.has(m.id)).reverse()
+        if (fresh.length === 0) return
+        if (loaded.current.length + fresh.length > MAX_LIVE_ROWS) setCursor(null)
+        // conflated streams skip messages, so only a full stream keeps the count exact
+        if (liveMode === 'ALL') setTotal((n) => n + fresh.length)
+        setMessages((prev) => [...fresh, ...prev].slice(0, MAX_LIVE_ROWS))
+      },
+      // fell too far behind; start over from the database
+      onOverflow: load,
+    }, { mode: liveMode })
+  }, [canStream, liveMode, filter.topic, load])
   useEffect(() => { getDistinctTopics().then((r) => setTopics(r.data)).catch(() => {}) }, [])
 
-  const totalPages = Math.ceil(total / pageSize)
-  const handleFilterChange = (key, val) => { setFilter((f) => ({ ...f, [key]: val })); setPage(0) }
+  // Fetch the next page once the end of the table scrolls into view
+  useEffect(() => {
+    const el = sentinel.current
+    if (!el || !cursor) return
+    const observer = new IntersectionObserver((entries) => { if (entries[0].isIntersecting) loadMore() }, { rootMargin: '200px' })
+    observer.observe(el)
+    return () => observer.disconnect()
+  }, [cursor, loadMore, loading])
+
+  const handleFilterChange = (key, val) => setFilter((f) => ({ ...f, [key]: val }))
 
   return (
     <div style={{ padding: 24, maxWidth: 1450 }}>
@@ -149,6 +213,17 @@ export default function MessagesPage() {
         <div className="page-title">{t.title}</div>
         <div style={{ display: 'flex', gap: 8 }}>
           {isAdmin() && <button className="btn-secondary" onClick={() => setShowPublish(true)}>{t.publish}</button>}
+          <label style={{ display: 'flex', alignItems: 'center', gap: 6, cursor: 'pointer', color: 'var(--text)', fontSize: '0.86rem', margin: 0 }}>
+            <input type="checkbox" style={{ width: 'auto' }} checked={live} onChange={(e) => setLive(e.target.checked)} />
+            {t.live}
+          </label>
+          {live && (
+            <select value={liveMode} onChange={(e) => setLiveMode(e.target.value)} title={t.liveMode} style={{ width: 'auto', padding: '4px 8px', fontSize: '0.8rem' }}>
+              <option value="ALL">{t.liveAll}</option>
+              <option value="LATEST">{t.liveLatest}</option>
+              <option value="SAMPLE">{t.liveSample}</option>
+            </select>
+          )}
           <button className="btn-secondary btn-sm" onClick={load} disabled={loading}>{t.refresh}</button>
         </div>
       </div>
@@ -157,7 +232,15 @@ export default function MessagesPage() {
         <div style={{ display: 'flex', gap: 16, flexWrap: 'wrap', alignItems: 'flex-end' }}>
           <div style={{ flex: '1 1 220px' }}>
             <label>{t.filterByTopic}</label>
-            <input type="text" placeholder="e.g. sensors/temperature" value={filter.topic} onChange={(e) => handleFilterChange('topic', e.target.value)} />
+            <input type="text" placeholder="e.g. sensors/+/temperature" value={filter.topic} onChange={(e) => handleFilterChange('topic', e.target.value)} />
+          </div>
+          <div style={{ flex: '0 1 180px' }}>
+            <label>{t.topicMode}</label>
+            <select value={filter.topicMode} onChange={(e) => handleFilterChange('topicMode', e.target.value)}>
+              <option value="FILTER">{t.modeFilter}</option>
+              <option value="PREFIX">{t.modePrefix}</option>
+              <option value="CONTAINS">{t.modeContains}</option>
+            </select>
           </div>
           <div style={{ flex: '1 1 200px' }}>
             <label>{t.from}</label>
@@ -169,24 +252,30 @@ export default function MessagesPage() {
           </div>
           <div style={{ flex: '0 0 auto' }}>
             <label>&nbsp;</label>
-            <button className="btn-secondary" onClick={() => { setFilter({ topic: '', from: '', to: '' }); setPage(0) }}>{t.clear}</button>
+            <button className="btn-secondary" onClick={() => setFilter({ topic: '', topicMode: 'FILTER', from: '', to: '' })}>{t.clear}</button>
           </div>
         </div>
         {topics.length > 0 && (
           <div style={{ marginTop: 10, display: 'flex', flexWrap: 'wrap', gap: 6 }}>
             <span style={{ color: 'var(--text-muted)', fontSize: '0.79rem', alignSelf: 'center' }}>{t.quickFilter}</span>
             {topics.slice(0, 20).map((tp) => (
-              <button key={tp} className="btn-secondary btn-sm" style={{ fontFamily: 'monospace', fontSize: '0.75rem' }} onClick={() => handleFilterChange('topic', tp)}>{tp}</button>
+              <button key={tp} className="btn-secondary btn-sm" style={{ fontFamily: 'monospace', fontSize: '0.75rem' }} onClick={() => setFilter((f) => ({ ...f, topic: tp, topicMode: 'FILTER' }))}>{tp}</button>
             ))}
           </div>
         )}
       </div>
 
+      {timeline.length > 1 && (
+        <div className="card mb-16">
+          <VolumeChart buckets={timeline} title={t.activity} />
+        </div>
+      )}
+
       <div className="card" style={{ padding: 0 }}>
         {loading ? <div className="spinner" /> : (
           <>
             <div style={{ padding: '12px 16px', borderBottom: '1px solid var(--border)', fontSize: '0.82rem', color: 'var(--text-muted)' }}>
-              {t.found(total)}
+              {t.found(total)}{messages.length < total && <span> ({t.loaded(messages.length)})</span>}
             </div>
             <div style={{ overflowX: 'auto' }}>
               <table>
@@ -218,15 +307,8 @@ export default function MessagesPage() {
                 </tbody>
               </table>
             </div>
-            {totalPages > 1 && (
-              <div className="pagination" style={{ padding: '12px 16px' }}>
-                <button className="btn-secondary btn-sm" onClick={() => setPage(0)} disabled={page === 0}>Â«</button>
-                <button className="btn-secondary btn-sm" onClick={() => setPage((p) => Math.max(0, p - 1))} disabled={page === 0}>â¹</button>
-                <span style={{ fontSize: '0.82rem', color: 'var(--text-muted)', padding: '0 8px' }}>Page {page + 1} / {totalPages}</span>
-                <button className="btn-secondary btn-sm" onClick={() => setPage((p) => Math.min(totalPages - 1, p + 1))} disabled={page >= totalPages - 1}>âº</button>
-                <button className="btn-secondary btn-sm" onClick={() => setPage(totalPages - 1)} disabled={page >= totalPages - 1}>Â»</button>
-              </div>
-            )}
+            <div ref={sentinel} style={{ height: 1 }} />
+            {loadingMore && <div className="spinner" />}
           </>
         )}
       </div>